@@ -0,0 +1,547 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glasspath.aerialist.Content;
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.IFieldContext;
+import org.glasspath.aerialist.XDoc;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo;
+import org.glasspath.aerialist.layout.IElementLayoutMetrics;
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.media.MediaCache.ImageResource;
+import org.glasspath.aerialist.openpdf.OpenPdfDocumentWriter;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.glasspath.aerialist.pdfbox.PdfBoxDocumentWriter;
+import org.glasspath.aerialist.pdfbox.PdfBoxFontCache;
+import org.glasspath.aerialist.pdfbox.PdfBoxMediaCache;
+import org.glasspath.aerialist.reader.XDocReader;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+import org.glasspath.aerialist.text.font.FontCache;
+import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.XDocWriter;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+// Runs the complete path (parsing the template, TemplateParser, layout, pagination and writing) for a batch of documents
+// with 1, 2, 4, 8.. threads and writes the results as JSON. Every document is parsed from the template content again,
+// worker threads keep their caches and document loader like in a long running process.
+//
+// Usage: java -cp benchmarks.jar org.glasspath.aerialist.benchmarks.BatchThroughputHarness [options]
+//   -template <file.gpdx>    template, by default a generated template with a template table is used
+//   -generator <class name>  BatchDataGenerator, by default a generator for the template table (-rows, -cols)
+//   -rows <n>                rows of the default generator (200)
+//   -cols <n>                columns of the default template and generator (5)
+//   -documents <n>           documents per thread count (200)
+//   -warmup <n>              documents before every measurement (50)
+//   -threads <n,n,..>        thread counts, by default 1, 2, 4.. up to the number of processors
+//   -backend <name>          openpdf or pdfbox (openpdf)
+//   -output <file.json>      results file, by default the results are written to stdout
+@SuppressWarnings("nls")
+public class BatchThroughputHarness {
+
+	public static final String BACKEND_OPENPDF = "openpdf";
+	public static final String BACKEND_PDFBOX = "pdfbox";
+
+	private String templatePath = null;
+	private String generatorClass = null;
+	private int rows = 200;
+	private int cols = 5;
+	private int documents = 200;
+	private int warmup = 50;
+	private int[] threadCounts = null;
+	private String backend = BACKEND_OPENPDF;
+	private String outputPath = null;
+
+	private byte[] contentBytes;
+	private List<Entry<String, ImageResource>> images;
+	private BatchDataGenerator dataGenerator;
+	private File outputDir;
+
+	private final AtomicLong layoutThreadsAllocatedBytes = new AtomicLong();
+
+	private BatchThroughputHarness() {
+
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		BatchThroughputHarness harness = new BatchThroughputHarness();
+		harness.parseArguments(args);
+
+		Report report = harness.run();
+
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+
+		if (harness.outputPath != null) {
+			objectMapper.writeValue(new File(harness.outputPath), report);
+		} else {
+			System.out.println(objectMapper.writeValueAsString(report));
+		}
+
+		System.exit(report.failures > 0 ? 1 : 0);
+
+	}
+
+	private void parseArguments(String[] args) {
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+
+			String value = args[i + 1];
+
+			switch (args[i]) {
+			case "-template":
+				templatePath = value;
+				break;
+			case "-generator":
+				generatorClass = value;
+				break;
+			case "-rows":
+				rows = Integer.parseInt(value);
+				break;
+			case "-cols":
+				cols = Integer.parseInt(value);
+				break;
+			case "-documents":
+				documents = Integer.parseInt(value);
+				break;
+			case "-warmup":
+				warmup = Integer.parseInt(value);
+				break;
+			case "-threads":
+				String[] values = value.split(",");
+				threadCounts = new int[values.length];
+				for (int j = 0; j < values.length; j++) {
+					threadCounts[j] = Integer.parseInt(values[j].trim());
+				}
+				break;
+			case "-backend":
+				backend = value;
+				break;
+			case "-output":
+				outputPath = value;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+
+		}
+
+		if (threadCounts == null) {
+
+			List<Integer> counts = new ArrayList<>();
+			for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+				counts.add(threads);
+			}
+
+			threadCounts = new int[counts.size()];
+			for (int i = 0; i < threadCounts.length; i++) {
+				threadCounts[i] = counts.get(i);
+			}
+
+		}
+
+	}
+
+	private Report run() throws Exception {
+
+		XmlMapper xmlMapper = XDocWriter.createXmlMapper();
+
+		Content content;
+		OpenPdfMediaCache templateMediaCache = new OpenPdfMediaCache();
+
+		if (templatePath != null) {
+
+			XDoc xDoc = XDocReader.read(templatePath, templateMediaCache);
+			if (xDoc == null || xDoc.getContent() == null) {
+				throw new IllegalArgumentException("Reading template " + templatePath + " failed");
+			}
+			content = xDoc.getContent();
+
+		} else {
+			content = new Content();
+			content.setRoot(BenchmarkData.createTemplateDocument(cols));
+		}
+
+		// Every document starts with parsing these bytes (TemplateParser modifies the document)
+		contentBytes = xmlMapper.writeValueAsBytes(content);
+		images = new ArrayList<>(templateMediaCache.getImageResources().entrySet());
+
+		if (generatorClass != null) {
+			dataGenerator = (BatchDataGenerator) Class.forName(generatorClass).getConstructor().newInstance();
+		} else {
+			dataGenerator = new TableDataGenerator(rows, cols);
+		}
+
+		outputDir = BenchmarkData.createOutputDir();
+
+		Report report = new Report();
+		report.aerialistVersion = XDoc.class.getPackage().getImplementationVersion();
+		report.javaVersion = System.getProperty("java.version");
+		report.javaVm = System.getProperty("java.vm.name");
+		report.osName = System.getProperty("os.name");
+		report.availableProcessors = Runtime.getRuntime().availableProcessors();
+		report.maxHeapBytes = Runtime.getRuntime().maxMemory();
+		report.timestamp = System.currentTimeMillis();
+		report.template = templatePath != null ? templatePath : "generated (cols=" + cols + ")";
+		report.generator = dataGenerator.getClass().getName();
+		report.backend = backend;
+		report.documents = documents;
+		report.warmup = warmup;
+
+		try {
+
+			for (int threads : threadCounts) {
+
+				System.err.println("Running " + documents + " documents with " + threads + " thread(s)");
+
+				report.failures += runBatch(threads, warmup).failures;
+
+				RunResult result = runBatch(threads, documents);
+				report.failures += result.failures;
+				report.runs.add(result);
+
+				System.err.println(String.format("  %.1f documents/s, %.1f pages/s, p50 %.1f ms, p99 %.1f ms", result.documentsPerSecond, result.pagesPerSecond, result.latencyP50Millis, result.latencyP99Millis));
+
+			}
+
+		} finally {
+			BenchmarkData.deleteOutputDir(outputDir);
+		}
+
+		return report;
+
+	}
+
+	private RunResult runBatch(int threads, int count) throws Exception {
+
+		RunResult result = new RunResult();
+		result.threads = threads;
+		result.documents = count;
+
+		final long[] latencies = new long[count];
+		final AtomicInteger nextDocument = new AtomicInteger();
+		final AtomicLong pages = new AtomicLong();
+		final AtomicLong workerAllocatedBytes = new AtomicLong();
+		final AtomicInteger failures = new AtomicInteger();
+
+		layoutThreadsAllocatedBytes.set(0);
+
+		long gcCount = getGcCount();
+		long gcTime = getGcTime();
+
+		ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+		long start = System.nanoTime();
+
+		for (int i = 0; i < threads; i++) {
+
+			final int workerIndex = i;
+
+			executorService.submit(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+
+						long allocatedBytes = getCurrentThreadAllocatedBytes();
+
+						Worker worker = new Worker(new File(outputDir, "document-" + workerIndex + ".pdf"));
+
+						int documentIndex;
+						while ((documentIndex = nextDocument.getAndIncrement()) < latencies.length) {
+
+							long documentStart = System.nanoTime();
+
+							try {
+								pages.addAndGet(worker.render(documentIndex));
+							} catch (Exception e) {
+								e.printStackTrace();
+								failures.incrementAndGet();
+							}
+
+							latencies[documentIndex] = System.nanoTime() - documentStart;
+
+						}
+
+						worker.close();
+
+						workerAllocatedBytes.addAndGet(getCurrentThreadAllocatedBytes() - allocatedBytes);
+
+					} catch (Exception e) {
+						e.printStackTrace();
+						failures.incrementAndGet();
+					}
+
+				}
+			});
+
+		}
+
+		executorService.shutdown();
+		executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+		long nanos = System.nanoTime() - start;
+
+		Arrays.sort(latencies);
+
+		result.pages = pages.get();
+		result.seconds = nanos / 1.0E9;
+		result.documentsPerSecond = count / result.seconds;
+		result.pagesPerSecond = result.pages / result.seconds;
+		result.latencyP50Millis = getPercentile(latencies, 0.50) / 1.0E6;
+		result.latencyP99Millis = getPercentile(latencies, 0.99) / 1.0E6;
+		result.latencyMaxMillis = latencies.length > 0 ? latencies[latencies.length - 1] / 1.0E6 : 0.0;
+		result.gcCount = getGcCount() - gcCount;
+		result.gcTimeMillis = getGcTime() - gcTime;
+		result.allocatedBytesPerPage = result.pages > 0 ? (workerAllocatedBytes.get() + layoutThreadsAllocatedBytes.get()) / result.pages : 0;
+		result.failures = failures.get();
+
+		return result;
+
+	}
+
+	// Nearest rank percentile of sorted values
+	private static long getPercentile(long[] sortedValues, double percentile) {
+		if (sortedValues.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percentile * sortedValues.length);
+		return sortedValues[Math.max(0, Math.min(sortedValues.length - 1, rank - 1))];
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gcBean.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getGcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gcBean.getCollectionTime());
+		}
+		return time;
+	}
+
+	private static long getCurrentThreadAllocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	// Caches, layout context and document loader of one worker thread, they are reused for all documents of the worker
+	private class Worker {
+
+		private final File outputFile;
+		private final XmlMapper xmlMapper = XDocWriter.createXmlMapper();
+		private final FontCache<?> fontCache;
+		private final MediaCache<?> mediaCache;
+		private final TemplateDocumentLoader documentLoader;
+		private ThreadPoolExecutor layoutExecutor = null;
+
+		private Worker(File outputFile) {
+
+			this.outputFile = outputFile;
+
+			if (BACKEND_PDFBOX.equals(backend)) {
+				fontCache = new PdfBoxFontCache();
+				mediaCache = new PdfBoxMediaCache();
+			} else {
+				fontCache = new OpenPdfFontCache();
+				mediaCache = new OpenPdfMediaCache();
+			}
+
+			BenchmarkData.registerFonts(fontCache);
+
+			for (Entry<String, ImageResource> entry : images) {
+				mediaCache.putImage(entry.getKey(), entry.getValue().getBytes());
+			}
+
+			DefaultLayoutContext<?, ?> layoutContext = new DefaultLayoutContext<>(fontCache, mediaCache);
+
+			documentLoader = new TemplateDocumentLoader(null, layoutContext) {
+
+				@Override
+				protected IElementLayoutMetrics createLayoutMetrics() {
+					return new DefaultLayoutMetrics(layoutContext);
+				}
+
+				// Same pool size as the default, allocations of the layout threads are added to the results
+				@Override
+				protected ExecutorService createExecutorService() {
+
+					layoutExecutor = new ThreadPoolExecutor(4, 4, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+
+						private final ThreadLocal<Long> allocatedBytes = new ThreadLocal<>();
+
+						@Override
+						protected void beforeExecute(Thread thread, Runnable runnable) {
+							allocatedBytes.set(getCurrentThreadAllocatedBytes());
+						}
+
+						@Override
+						protected void afterExecute(Runnable runnable, Throwable throwable) {
+							layoutThreadsAllocatedBytes.addAndGet(getCurrentThreadAllocatedBytes() - allocatedBytes.get());
+						}
+					};
+
+					return layoutExecutor;
+
+				}
+			};
+
+		}
+
+		private DocumentWriter createWriter() {
+
+			DocumentSink sink = DocumentSink.toFile(outputFile);
+
+			if (BACKEND_PDFBOX.equals(backend)) {
+				return new PdfBoxDocumentWriter(sink, (PdfBoxFontCache) fontCache, (PdfBoxMediaCache) mediaCache);
+			} else {
+				return new OpenPdfDocumentWriter(sink, (OpenPdfFontCache) fontCache, (OpenPdfMediaCache) mediaCache);
+			}
+
+		}
+
+		private int render(int documentIndex) throws Exception {
+
+			Content content = xmlMapper.readValue(contentBytes, Content.class);
+			if (!(content.getRoot() instanceof Document)) {
+				throw new IllegalArgumentException("Template is not a document");
+			}
+
+			IFieldContext fieldContext = dataGenerator.createFieldContext(documentIndex);
+
+			documentLoader.setDocumentWriter(createWriter());
+			DocumentLayoutInfo documentLayoutInfo = documentLoader.loadDocument((Document) content.getRoot(), fieldContext);
+
+			// The layout executor is shut down by the loader, afterExecute() has been called when it is terminated
+			if (layoutExecutor != null) {
+				layoutExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+
+			return documentLayoutInfo.pages.size();
+
+		}
+
+		private void close() throws IOException {
+			if (fontCache instanceof Closeable) {
+				((Closeable) fontCache).close();
+			}
+		}
+
+	}
+
+	// Default data generator, fills the template table of the generated template, the number of rows
+	// varies between documents (from 80 to 120 percent of rows) but is the same for every run
+	public static class TableDataGenerator implements BatchDataGenerator {
+
+		private final int rows;
+		private final int cols;
+
+		public TableDataGenerator() {
+			this(200, 5);
+		}
+
+		public TableDataGenerator(int rows, int cols) {
+			this.rows = rows;
+			this.cols = cols;
+		}
+
+		@Override
+		public IFieldContext createFieldContext(int documentIndex) {
+			return BenchmarkData.createTemplateFieldContext(rows + ((documentIndex % 5) - 2) * rows / 10, cols);
+		}
+
+	}
+
+	public static class Report {
+
+		public String aerialistVersion;
+		public String javaVersion;
+		public String javaVm;
+		public String osName;
+		public int availableProcessors;
+		public long maxHeapBytes;
+		public long timestamp;
+		public String template;
+		public String generator;
+		public String backend;
+		public int documents;
+		public int warmup;
+		public int failures;
+		public List<RunResult> runs = new ArrayList<>();
+
+	}
+
+	public static class RunResult {
+
+		public int threads;
+		public int documents;
+		public long pages;
+		public double seconds;
+		public double documentsPerSecond;
+		public double pagesPerSecond;
+		public double latencyP50Millis;
+		public double latencyP99Millis;
+		public double latencyMaxMillis;
+		public long gcCount;
+		public long gcTimeMillis;
+		public long allocatedBytesPerPage;
+		public int failures;
+
+	}
+
+}
@@ -0,0 +1,482 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.glasspath.aerialist.ColStyle;
+import org.glasspath.aerialist.Content;
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.HeightPolicy;
+import org.glasspath.aerialist.Image;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.TableCell;
+import org.glasspath.aerialist.TextBox;
+import org.glasspath.aerialist.TextStyle;
+import org.glasspath.aerialist.XDoc;
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.glasspath.aerialist.text.font.FontCache;
+
+@SuppressWarnings("nls")
+public class BenchmarkData {
+
+	// Optional directory with font files (-Daerialist.fonts=...), without it the default fonts of the font cache are used
+	public static final String FONTS_DIR_PROPERTY = "aerialist.fonts";
+
+	// Optional directory for output files (-Daerialist.output=...), by default a RAM backed directory is used if available
+	public static final String OUTPUT_DIR_PROPERTY = "aerialist.output";
+	public static final String RAM_DIR = "/dev/shm";
+
+	public static final String FIXTURE_TEXT = "text";
+	public static final String FIXTURE_TABLE = "table";
+	public static final String FIXTURE_IMAGE = "image";
+
+	public static final int FIXTURE_PAGES = 20;
+	public static final int FIXTURE_TABLE_ROWS = 1000;
+	public static final int FIXTURE_IMAGES = 8;
+
+	private static final String[] WORDS = new String[] {
+			"invoice", "amount", "the", "of", "customer", "delivery", "a", "reference", "total", "and",
+			"payment", "within", "days", "order", "to", "description", "quantity", "price", "tax", "date"
+	};
+
+	// Cell texts cycle through lengths that fit on one line, wrap once and wrap several times
+	private static final int[] CELL_TEXT_LENGTHS = new int[] { 8, 40, 120, 16, 64 };
+
+	public static final int TABLE_X = 20;
+	public static final int TABLE_Y = 100;
+	public static final int TABLE_WIDTH = 555;
+
+	private BenchmarkData() {
+
+	}
+
+	public static void registerFonts(FontCache<?> fontCache) {
+		String fontsDir = System.getProperty(FONTS_DIR_PROPERTY);
+		if (fontsDir != null && fontsDir.length() > 0) {
+			fontCache.registerFonts(new File(fontsDir));
+		}
+	}
+
+	// Generates the same text for the same arguments so results of different runs can be compared, the text contains
+	// no line breaks because TextUtils expects those only at the end of a style run
+	public static String createText(int length, long seed) {
+
+		Random random = new Random(seed);
+		StringBuilder text = new StringBuilder(length + 16);
+
+		while (text.length() < length) {
+			if (text.length() > 0) {
+				text.append(' ');
+			}
+			text.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+
+		text.setLength(length);
+
+		return text.toString();
+
+	}
+
+	// Splits the text in equally sized style runs with alternating font size, weight and style
+	public static TextBox createTextBox(int textLength, int styleRuns, int width, String alignment) {
+
+		TextBox textBox = new TextBox();
+		textBox.setX(0);
+		textBox.setY(0);
+		textBox.setWidth(width);
+		textBox.setHeight(20);
+		textBox.setAlignment(alignment);
+		textBox.setText(createText(textLength, textLength));
+
+		int runs = Math.max(1, Math.min(styleRuns, textLength));
+		int runLength = textLength / runs;
+
+		for (int i = 0; i < runs; i++) {
+
+			TextStyle style = new TextStyle();
+			style.start = i * runLength;
+			style.end = i == runs - 1 ? textLength : (i + 1) * runLength;
+			style.fontSize = 10 + (i % 3) * 2;
+			style.bold = i % 2 == 1;
+			style.italic = i % 4 == 3;
+
+			textBox.getStyles().add(style);
+
+		}
+
+		return textBox;
+
+	}
+
+	public static String createCellText(int row, int col) {
+		return createText(CELL_TEXT_LENGTHS[(row * 7 + col) % CELL_TEXT_LENGTHS.length], row * 31L + col);
+	}
+
+	// Table with a header row followed by the specified number of rows
+	public static Table createTable(int rows, int cols) {
+
+		Table table = createTableWithHeader(cols);
+
+		for (int row = 2; row <= rows + 1; row++) {
+			for (int col = 1; col <= cols; col++) {
+				table.getTableCells().add(createTableCell(row, col, createCellText(row, col), null));
+			}
+		}
+
+		return table;
+
+	}
+
+	// Table with a header row and one template row, every cell of the template row refers to a list field (t:colN)
+	public static Table createTemplateTable(int cols) {
+
+		Table table = createTableWithHeader(cols);
+
+		for (int col = 1; col <= cols; col++) {
+			table.getTableCells().add(createTableCell(2, col, "${col" + col + "}", "t:col" + col));
+		}
+
+		return table;
+
+	}
+
+	// Field context with a list of the specified size for every field of the template table
+	public static TemplateFieldContext createTemplateFieldContext(int rows, int cols) {
+
+		TemplateFieldContext fieldContext = new TemplateFieldContext();
+
+		for (int col = 1; col <= cols; col++) {
+
+			List<String> values = new ArrayList<>(rows);
+			for (int row = 2; row <= rows + 1; row++) {
+				values.add(createCellText(row, col));
+			}
+
+			fieldContext.put("col" + col, values);
+
+		}
+
+		return fieldContext;
+
+	}
+
+	private static Table createTableWithHeader(int cols) {
+
+		Table table = new Table();
+		table.setX(TABLE_X);
+		table.setY(TABLE_Y);
+		table.setWidth(TABLE_WIDTH);
+		table.setHeight(40);
+		table.setHeightPolicy(HeightPolicy.AUTO.stringValue);
+
+		for (int col = 1; col <= cols; col++) {
+
+			ColStyle colStyle = new ColStyle();
+			colStyle.col = col;
+			colStyle.width = TABLE_WIDTH / cols;
+			table.getColStyles().add(colStyle);
+
+			table.getTableCells().add(createTableCell(1, col, "Column " + col, null));
+
+		}
+
+		return table;
+
+	}
+
+	private static TableCell createTableCell(int row, int col, String text, String source) {
+
+		TableCell tableCell = new TableCell();
+		tableCell.setRow(row);
+		tableCell.setCol(col);
+		tableCell.setText(text);
+
+		TextStyle style = new TextStyle();
+		style.start = 0;
+		style.end = text.length();
+		style.source = source;
+		tableCell.getStyles().add(style);
+
+		return tableCell;
+
+	}
+
+	// Creates a new (empty) directory for output files, on a RAM backed file system if available so disk I/O stays out of the results
+	public static File createOutputDir() throws IOException {
+
+		String outputDir = System.getProperty(OUTPUT_DIR_PROPERTY);
+		if (outputDir != null && outputDir.length() > 0) {
+			return Files.createTempDirectory(new File(outputDir).toPath(), "aerialist-").toFile();
+		}
+
+		File ramDir = new File(RAM_DIR);
+		if (ramDir.isDirectory() && ramDir.canWrite()) {
+			return Files.createTempDirectory(ramDir.toPath(), "aerialist-").toFile();
+		}
+
+		return Files.createTempDirectory("aerialist-").toFile();
+
+	}
+
+	// Fixture files are shared by all benchmarks and forks, they are created once in the (RAM backed) temp directory
+	public static File getFixtureFile(int pages, int rows, int images) {
+
+		File fixturesDir;
+
+		String outputDir = System.getProperty(OUTPUT_DIR_PROPERTY);
+		if (outputDir != null && outputDir.length() > 0) {
+			fixturesDir = new File(outputDir, "aerialist-fixtures");
+		} else if (new File(RAM_DIR).isDirectory() && new File(RAM_DIR).canWrite()) {
+			fixturesDir = new File(RAM_DIR, "aerialist-fixtures");
+		} else {
+			fixturesDir = new File(System.getProperty("java.io.tmpdir"), "aerialist-fixtures");
+		}
+
+		fixturesDir.mkdirs();
+
+		return new File(fixturesDir, "fixture-" + pages + "p-" + rows + "r-" + images + "i." + XDoc.DOCUMENT_EXTENSION);
+
+	}
+
+	// Text pages, followed by a page with a table of the specified number of rows (if rows > 0), the images are
+	// distributed over the text pages (4 per page at most, so extra pages are added if needed)
+	public static XDoc createXDocFixture(int pages, int rows, int images, MediaCache<?> mediaCache) throws IOException {
+
+		int textPages = Math.max(pages, (images + 3) / 4);
+
+		Document document = createTextDocument(textPages);
+
+		for (int i = 0; i < images; i++) {
+
+			String key = "fixture-" + i + (i % 2 == 0 ? ".png" : ".jpg");
+			mediaCache.putImage(key, createImageBytes(i % 2 == 0 ? "png" : "jpg", 800, 600, i % 2 == 0, i));
+
+			// Images are placed over the right part of the text boxes
+			Image image = new Image();
+			image.setX(TABLE_X + TABLE_WIDTH - 120);
+			image.setY(TABLE_Y + (i % 4) * 115);
+			image.setWidth(120);
+			image.setHeight(90);
+			image.setSrc(key);
+			document.getPages().get(i / 4).getElements().add(image);
+
+		}
+
+		if (rows > 0) {
+			Page page = new Page(Page.PageSize.A4);
+			page.getElements().add(createTable(rows, 5));
+			document.getPages().add(page);
+		}
+
+		Content content = new Content();
+		content.setRoot(document);
+
+		XDoc xDoc = new XDoc();
+		xDoc.setContent(content);
+		xDoc.setMediaCache(mediaCache);
+
+		return xDoc;
+
+	}
+
+	public static void deleteOutputDir(File dir) {
+		if (dir != null) {
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+
+	public static Document createFixture(String fixture) {
+		if (FIXTURE_TABLE.equals(fixture)) {
+			return createTableDocument(FIXTURE_TABLE_ROWS, 5);
+		} else if (FIXTURE_IMAGE.equals(fixture)) {
+			return createImageDocument(FIXTURE_PAGES);
+		} else {
+			return createTextDocument(FIXTURE_PAGES);
+		}
+	}
+
+	// Pages with paragraphs of text and a header that is repeated on every page
+	public static Document createTextDocument(int pages) {
+
+		Document document = new Document();
+
+		Page header = new Page(Page.PageSize.A4);
+		TextBox title = createTextBox(60, 1, TABLE_WIDTH, null);
+		title.setX(TABLE_X);
+		title.setY(40);
+		header.getElements().add(title);
+		document.setHeader(header);
+
+		for (int i = 0; i < pages; i++) {
+
+			Page page = new Page(Page.PageSize.A4);
+
+			for (int j = 0; j < 6; j++) {
+
+				TextBox textBox = createTextBox(600, 12, TABLE_WIDTH, j % 3 == 1 ? "center" : null);
+				textBox.setX(TABLE_X);
+				textBox.setY(TABLE_Y + j * 115);
+				textBox.setText(createText(600, i * 6L + j));
+				page.getElements().add(textBox);
+
+			}
+
+			document.getPages().add(page);
+
+		}
+
+		return document;
+
+	}
+
+	// One table that is split across many pages
+	public static Document createTableDocument(int rows, int cols) {
+
+		Document document = new Document();
+
+		Page page = new Page(Page.PageSize.A4);
+		page.getElements().add(createTable(rows, cols));
+		document.getPages().add(page);
+
+		return document;
+
+	}
+
+	// Template with a header and a template table (see createTemplateTable()) below a title on the first page
+	public static Document createTemplateDocument(int cols) {
+
+		Document document = createTextDocument(0);
+
+		Page page = new Page(Page.PageSize.A4);
+
+		TextBox title = createTextBox(200, 4, TABLE_WIDTH, null);
+		title.setX(TABLE_X);
+		title.setY(TABLE_Y);
+		page.getElements().add(title);
+
+		Table table = createTemplateTable(cols);
+		table.setY(TABLE_Y + 115);
+		page.getElements().add(table);
+
+		document.getPages().add(page);
+
+		return document;
+
+	}
+
+	// Pages with four images each, the images refer to FIXTURE_IMAGES different sources (see createImages())
+	public static Document createImageDocument(int pages) {
+
+		Document document = new Document();
+
+		int n = 0;
+		for (int i = 0; i < pages; i++) {
+
+			Page page = new Page(Page.PageSize.A4);
+
+			for (int j = 0; j < 4; j++) {
+
+				Image image = new Image();
+				image.setX(TABLE_X + (j % 2) * 280);
+				image.setY(TABLE_Y + (j / 2) * 300);
+				image.setWidth(260);
+				image.setHeight(260);
+				image.setSrc(getImageKey(n++ % FIXTURE_IMAGES));
+				page.getElements().add(image);
+
+			}
+
+			document.getPages().add(page);
+
+		}
+
+		return document;
+
+	}
+
+	public static String getImageKey(int index) {
+		return index % 2 == 0 ? "image-" + index + ".png" : "image-" + index + ".jpg";
+	}
+
+	// Images for the image fixture, alternating PNG (with alpha channel) and JPEG
+	public static Map<String, byte[]> createImages() throws IOException {
+
+		Map<String, byte[]> images = new LinkedHashMap<>();
+
+		for (int i = 0; i < FIXTURE_IMAGES; i++) {
+			boolean png = i % 2 == 0;
+			images.put(getImageKey(i), createImageBytes(png ? "png" : "jpg", 800 + i * 100, 600 + i * 75, png, i));
+		}
+
+		return images;
+
+	}
+
+	// Gradient with some noise so the image does not compress unrealistically well
+	public static byte[] createImageBytes(String format, int width, int height, boolean alpha, long seed) throws IOException {
+
+		BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+
+		Graphics2D g2d = image.createGraphics();
+		g2d.setPaint(new GradientPaint(0, 0, new Color(255, 64, 0, alpha ? 128 : 255), width, height, new Color(0, 64, 255)));
+		g2d.fillRect(0, 0, width, height);
+		g2d.dispose();
+
+		Random random = new Random(seed);
+		for (int i = 0; i < width * height / 20; i++) {
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			image.setRGB(x, y, image.getRGB(x, y) ^ (random.nextInt() & 0x003F3F3F));
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(image, format, bytes);
+
+		return bytes.toByteArray();
+
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.XDoc;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo;
+import org.glasspath.aerialist.layout.IElementLayoutMetrics;
+import org.glasspath.aerialist.openpdf.OpenPdfDocumentWriter;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.glasspath.aerialist.reader.XDocReader;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Time from a cold JVM to the first rendered page: read the template, parse it, lay out the first page and write it.
+// Every measurement is done in a new JVM, the fixture is created in another process so nothing is warmed up before
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class ColdStartBenchmark {
+
+	@Param({ "1", "50" })
+	public int pages;
+
+	@Param({ "100", "10000" })
+	public int rows;
+
+	@Param({ "0", "16" })
+	public int images;
+
+	private File fixtureFile;
+	private File outputDir;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		fixtureFile = XDocFixtures.getFixtureInNewProcess(pages, rows, images);
+		outputDir = BenchmarkData.createOutputDir();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkData.deleteOutputDir(outputDir);
+	}
+
+	@Benchmark
+	public long firstPage() throws Exception {
+
+		OpenPdfMediaCache mediaCache = new OpenPdfMediaCache();
+		XDoc xDoc = XDocReader.read(fixtureFile.getAbsolutePath(), mediaCache);
+
+		Document document = (Document) xDoc.getContent().getRoot();
+		while (document.getPages().size() > 1) {
+			document.getPages().remove(document.getPages().size() - 1);
+		}
+
+		OpenPdfFontCache fontCache = new OpenPdfFontCache();
+		BenchmarkData.registerFonts(fontCache);
+
+		DefaultLayoutContext<?, ?> layoutContext = new DefaultLayoutContext<>(fontCache, mediaCache);
+
+		TemplateDocumentLoader documentLoader = new TemplateDocumentLoader(null, layoutContext) {
+
+			@Override
+			protected IElementLayoutMetrics createLayoutMetrics() {
+				return new DefaultLayoutMetrics(layoutContext);
+			}
+		};
+
+		DocumentLayoutInfo documentLayoutInfo = documentLoader.loadDocument(document, new TemplateFieldContext());
+
+		// Pages created by the paginator for the first page are not needed
+		DocumentLayoutInfo firstPageLayoutInfo = new DocumentLayoutInfo();
+		firstPageLayoutInfo.header = documentLayoutInfo.header;
+		firstPageLayoutInfo.footer = documentLayoutInfo.footer;
+		firstPageLayoutInfo.pages.add(documentLayoutInfo.pages.get(0));
+
+		File outputFile = new File(outputDir, "first-page.pdf");
+		documentLoader.writeDocument(firstPageLayoutInfo, new OpenPdfDocumentWriter(DocumentSink.toFile(outputFile), fontCache, mediaCache));
+
+		return outputFile.length();
+
+	}
+
+}
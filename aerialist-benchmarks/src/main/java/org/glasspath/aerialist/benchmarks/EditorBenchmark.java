@@ -0,0 +1,424 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.HeightPolicy;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.TextBox;
+import org.glasspath.aerialist.TextStyle;
+import org.glasspath.aerialist.layout.ILayoutContext.LayoutPhase;
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.swing.BufferedImageMediaCache;
+import org.glasspath.aerialist.swing.view.FieldUtils;
+import org.glasspath.aerialist.swing.view.ISwingElementView;
+import org.glasspath.aerialist.swing.view.PageContainer;
+import org.glasspath.aerialist.swing.view.PageView;
+import org.glasspath.aerialist.text.font.FontCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Responsiveness of the editor views in headless AWT. A PageContainer is loaded like the editor loads a document and
+// every operation runs on the event dispatch thread, results are per operation latencies (SampleTime, so percentiles
+// are reported too). moveElements and resizeElements repeat the steps of MoveSelectionOperation (a drag followed by
+// a release) on the first element of every page, the editor panel itself is not created
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class EditorBenchmark {
+
+	public static final int DRAG_STEPS = 10;
+
+	@Param({ BenchmarkData.FIXTURE_TEXT, BenchmarkData.FIXTURE_TABLE, BenchmarkData.FIXTURE_IMAGE })
+	public String fixture;
+
+	// Pages of the text and image fixtures, the table fixture contains one page with 50 table rows per page
+	@Param({ "5", "50" })
+	public int pages;
+
+	private Document document;
+	private BufferedImageMediaCache mediaCache;
+	private BenchmarkPageContainer pageContainer;
+	private BufferedImage image;
+
+	// Results are stored to keep the operations from being removed
+	private Object result;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+
+		mediaCache = new BufferedImageMediaCache();
+		if (BenchmarkData.FIXTURE_IMAGE.equals(fixture)) {
+			for (Entry<String, byte[]> entry : BenchmarkData.createImages().entrySet()) {
+				mediaCache.putImage(entry.getKey(), entry.getValue());
+			}
+		}
+
+		document = createDocument(fixture, pages);
+
+		runOnEventDispatchThread(new Runnable() {
+
+			@Override
+			public void run() {
+				pageContainer = loadDocument(document);
+			}
+		});
+
+		// Flush the event queue, the vertical layout of the page views is initialized by doLayout() using invokeLater()
+		runOnEventDispatchThread(new Runnable() {
+
+			@Override
+			public void run() {
+
+			}
+		});
+
+		image = new BufferedImage(Page.PageSize.A4.getWidth(), Page.PageSize.A4.getHeight(), BufferedImage.TYPE_INT_ARGB);
+
+	}
+
+	private static Document createDocument(String fixture, int pages) {
+
+		Document document;
+		if (BenchmarkData.FIXTURE_TABLE.equals(fixture)) {
+			document = BenchmarkData.createTableDocument(pages * 50, 5);
+		} else if (BenchmarkData.FIXTURE_IMAGE.equals(fixture)) {
+			document = BenchmarkData.createImageDocument(pages);
+		} else {
+			document = BenchmarkData.createTextDocument(pages);
+		}
+
+		// Page numbers give updateDynamicFields() something to update
+		for (Page page : document.getPages()) {
+			page.getElements().add(createPageNumber());
+		}
+
+		return document;
+
+	}
+
+	private static TextBox createPageNumber() {
+
+		TextBox textBox = new TextBox();
+		textBox.setX(BenchmarkData.TABLE_X);
+		textBox.setY(Page.PageSize.A4.getHeight() - 40);
+		textBox.setWidth(BenchmarkData.TABLE_WIDTH);
+		textBox.setHeight(20);
+		textBox.setText("Page 1 of 1");
+
+		textBox.getStyles().add(createStyle(0, 5, null));
+		textBox.getStyles().add(createStyle(5, 6, "d:page"));
+		textBox.getStyles().add(createStyle(6, 10, null));
+		textBox.getStyles().add(createStyle(10, 11, "d:pages"));
+
+		return textBox;
+
+	}
+
+	private static TextStyle createStyle(int start, int end, String source) {
+		TextStyle style = new TextStyle();
+		style.start = start;
+		style.end = end;
+		style.source = source;
+		return style;
+	}
+
+	// Same steps as FileTools.loadDocument() followed by the layout of the container
+	private BenchmarkPageContainer loadDocument(Document document) {
+
+		BenchmarkPageContainer pageContainer = new BenchmarkPageContainer(mediaCache);
+
+		pageContainer.setLayoutPhase(LayoutPhase.LOAD_CONTENT);
+		pageContainer.setYPolicyEnabled(false);
+
+		pageContainer.init(document);
+
+		FieldUtils.updateDynamicFields(pageContainer);
+
+		pageContainer.setLayoutPhase(LayoutPhase.LAYOUT_CONTENT);
+		pageContainer.setYPolicyEnabled(true);
+
+		pageContainer.setSize(pageContainer.getPreferredSize());
+		pageContainer.validate();
+
+		pageContainer.setLayoutPhase(LayoutPhase.IDLE);
+
+		return pageContainer;
+
+	}
+
+	private static void runOnEventDispatchThread(Runnable runnable) throws Exception {
+		try {
+			SwingUtilities.invokeAndWait(runnable);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			} else {
+				throw e;
+			}
+		}
+	}
+
+	@Benchmark
+	public Object init() throws Exception {
+
+		runOnEventDispatchThread(new Runnable() {
+
+			@Override
+			public void run() {
+				BenchmarkPageContainer pageContainer = new BenchmarkPageContainer(mediaCache);
+				pageContainer.init(document);
+				result = pageContainer;
+			}
+		});
+
+		return result;
+
+	}
+
+	@Benchmark
+	public Object toDocument() throws Exception {
+
+		runOnEventDispatchThread(new Runnable() {
+
+			@Override
+			public void run() {
+				result = pageContainer.toDocument();
+			}
+		});
+
+		return result;
+
+	}
+
+	@Benchmark
+	public void doLayout() throws Exception {
+
+		runOnEventDispatchThread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				// Like an edit that changes the height of the auto height elements
+				pageContainer.invalidate(HeightPolicy.AUTO);
+
+				for (PageView pageView : pageContainer.getPageViews()) {
+					pageView.doLayout();
+				}
+
+			}
+		});
+
+	}
+
+	@Benchmark
+	public void updateDynamicFields() throws Exception {
+
+		runOnEventDispatchThread(new Runnable() {
+
+			@Override
+			public void run() {
+				FieldUtils.updateDynamicFields(pageContainer);
+			}
+		});
+
+	}
+
+	@Benchmark
+	public BufferedImage paintPages() throws Exception {
+
+		runOnEventDispatchThread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				for (PageView pageView : pageContainer.getPageViews()) {
+
+					Graphics2D g2d = image.createGraphics();
+					pageView.paint(g2d);
+					g2d.dispose();
+
+				}
+
+			}
+		});
+
+		return image;
+
+	}
+
+	@Benchmark
+	public void moveElements() throws Exception {
+
+		runOnEventDispatchThread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				for (PageView pageView : pageContainer.getPageViews()) {
+
+					Component component = getFirstElementView(pageView);
+					if (component != null) {
+
+						Rectangle originalBounds = component.getBounds();
+
+						// Drag to the right and down, then back to the original location
+						for (int i = 1; i <= DRAG_STEPS; i++) {
+							drag(pageView, component, originalBounds.x + 2 * i, originalBounds.y + 3 * i);
+						}
+						pageView.updateVerticalAnchors();
+
+						for (int i = DRAG_STEPS - 1; i >= 0; i--) {
+							drag(pageView, component, originalBounds.x + 2 * i, originalBounds.y + 3 * i);
+						}
+						pageView.updateVerticalAnchors();
+
+					}
+
+				}
+
+			}
+		});
+
+	}
+
+	@Benchmark
+	public void resizeElements() throws Exception {
+
+		runOnEventDispatchThread(new Runnable() {
+
+			@Override
+			public void run() {
+
+				for (PageView pageView : pageContainer.getPageViews()) {
+
+					Component component = getFirstElementView(pageView);
+					if (component != null) {
+
+						Rectangle originalBounds = component.getBounds();
+
+						for (int i = 1; i <= DRAG_STEPS; i++) {
+							resize(pageView, component, originalBounds.width - 4 * i, originalBounds.height + 3 * i);
+						}
+						pageView.updateVerticalAnchors();
+
+						for (int i = DRAG_STEPS - 1; i >= 0; i--) {
+							resize(pageView, component, originalBounds.width - 4 * i, originalBounds.height + 3 * i);
+						}
+						pageView.updateVerticalAnchors();
+
+					}
+
+				}
+
+			}
+		});
+
+	}
+
+	// MoveSelectionOperation.mouseDragged()
+	private static void drag(PageView pageView, Component component, int x, int y) {
+
+		Rectangle oldBounds = component.getBounds();
+		Rectangle bounds = new Rectangle(oldBounds);
+		bounds.x = x;
+		bounds.y = y;
+
+		component.setBounds(bounds);
+
+		pageView.elementMoved(component, oldBounds, true);
+
+	}
+
+	private static void resize(PageView pageView, Component component, int width, int height) {
+
+		Rectangle oldBounds = component.getBounds();
+		Rectangle bounds = new Rectangle(oldBounds);
+		bounds.width = width;
+		bounds.height = height;
+
+		component.setBounds(bounds);
+
+		pageView.elementResized(component, oldBounds);
+
+	}
+
+	private static Component getFirstElementView(PageView pageView) {
+		for (int i = 0; i < pageView.getComponentCount(); i++) {
+			if (pageView.getComponent(i) instanceof ISwingElementView) {
+				return pageView.getComponent(i);
+			}
+		}
+		return null;
+	}
+
+	public static class BenchmarkPageContainer extends PageContainer {
+
+		private final MediaCache<BufferedImage> mediaCache;
+
+		public BenchmarkPageContainer(MediaCache<BufferedImage> mediaCache) {
+			this.mediaCache = mediaCache;
+		}
+
+		@Override
+		public FontCache<?> getFontCache() {
+			return null;
+		}
+
+		@Override
+		public MediaCache<BufferedImage> getMediaCache() {
+			return mediaCache;
+		}
+
+		@Override
+		public Color getDefaultForeground() {
+			return Color.black;
+		}
+
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.LayoutInfo;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.TableLayoutInfo;
+import org.glasspath.aerialist.layout.Paginator;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Splits a laid out table across pages (Paginator.paginate). Splitting currently copies and filters all cells for every
+// new page, the default sizes are smaller than for the other stages to keep the run time reasonable, larger sizes can
+// be passed with -p rows=...
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class PaginationScalingBenchmark {
+
+	@Param({ "250", "500", "1000", "2000" })
+	public int rows;
+
+	@Param({ "2", "8" })
+	public int cols;
+
+	private Table table;
+	private TableLayoutInfo tableLayoutInfo;
+	private int yMin;
+	private int yMax;
+	private PageLayoutInfo pageLayoutInfo;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+
+		OpenPdfFontCache fontCache = new OpenPdfFontCache();
+		BenchmarkData.registerFonts(fontCache);
+
+		DefaultLayoutMetrics layoutMetrics = new DefaultLayoutMetrics(new DefaultLayoutContext<>(fontCache, new OpenPdfMediaCache()));
+
+		table = BenchmarkData.createTable(rows, cols);
+		tableLayoutInfo = (TableLayoutInfo) layoutMetrics.getElementLayoutInfo(table);
+
+		Document document = new Document();
+		Page page = new Page(Page.PageSize.A4);
+		yMin = document.getHeaderHeight();
+		yMax = page.getHeight() - document.getFooterHeight();
+
+	}
+
+	// Paginating removes the rows that were moved to new pages, every iteration starts with a copy of the laid out table
+	@Setup(Level.Iteration)
+	public void setupIteration() {
+
+		Table tableCopy = new Table(table);
+		tableCopy.setHeight(tableLayoutInfo.preferredHeight);
+
+		Page page = new Page(Page.PageSize.A4);
+		page.getElements().add(tableCopy);
+
+		pageLayoutInfo = new PageLayoutInfo(page);
+		pageLayoutInfo.layoutInfo = new LayoutInfo();
+		pageLayoutInfo.layoutInfo.tables.put(tableCopy, tableLayoutInfo);
+
+	}
+
+	@Benchmark
+	public List<PageLayoutInfo> paginate() {
+		return new Paginator(null).paginate(pageLayoutInfo, yMin, yMax);
+	}
+
+}
@@ -0,0 +1,272 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the table scaling benchmarks and reports a curve (time per size) for every stage and column count. The growth
+// exponent of the measured time (least squares fit on a log-log scale) is compared with the exponent of n log n over
+// the same range, stages that grow faster than that (with some tolerance for noise) are flagged as super-linear
+@SuppressWarnings("nls")
+public class ScalingReport {
+
+	public static final String SIZE_PARAM = "rows";
+	public static final String CSV_PROPERTY = "aerialist.scaling.csv";
+
+	// Measured exponent may exceed the n log n exponent by this much before a stage is flagged
+	public static final double TOLERANCE = 0.15;
+
+	private ScalingReport() {
+
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+		OptionsBuilder optionsBuilder = new OptionsBuilder();
+		optionsBuilder.parent(commandLineOptions);
+		if (commandLineOptions.getIncludes().isEmpty()) {
+			optionsBuilder.include(".*ScalingBenchmark");
+		}
+		Options options = optionsBuilder.build();
+
+		List<Curve> curves = createCurves(new Runner(options).run());
+
+		boolean flagged = false;
+		for (Curve curve : curves) {
+			flagged |= curve.print();
+		}
+
+		String csvPath = System.getProperty(CSV_PROPERTY);
+		if (csvPath != null && csvPath.length() > 0) {
+			writeCsv(curves, new File(csvPath));
+		}
+
+		if (flagged) {
+			System.out.println("One or more stages grow faster than O(n log n)");
+			System.exit(2);
+		}
+
+	}
+
+	public static List<Curve> createCurves(Collection<RunResult> results) {
+
+		Map<String, Curve> curves = new LinkedHashMap<>();
+
+		for (RunResult result : results) {
+
+			BenchmarkParams params = result.getParams();
+
+			String size = params.getParam(SIZE_PARAM);
+			if (size != null) {
+
+				// All parameters except the size identify the curve
+				StringBuilder key = new StringBuilder(params.getBenchmark());
+				for (String paramKey : params.getParamsKeys()) {
+					if (!SIZE_PARAM.equals(paramKey)) {
+						key.append(' ').append(paramKey).append('=').append(params.getParam(paramKey));
+					}
+				}
+
+				Curve curve = curves.get(key.toString());
+				if (curve == null) {
+					curve = new Curve(key.toString(), result.getPrimaryResult().getScoreUnit());
+					curves.put(curve.name, curve);
+				}
+
+				curve.add(Integer.parseInt(size), result.getPrimaryResult().getScore());
+
+			}
+
+		}
+
+		List<Curve> list = new ArrayList<>(curves.values());
+		for (Curve curve : list) {
+			curve.sort();
+		}
+
+		return list;
+
+	}
+
+	private static void writeCsv(List<Curve> curves, File file) {
+
+		try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+
+			writer.println("curve,size,score,unit,exponent,nlognExponent,superLinear");
+
+			for (Curve curve : curves) {
+
+				String superLinear = String.valueOf(curve.isSuperLinear());
+
+				for (int i = 0; i < curve.points.size(); i++) {
+
+					Point point = curve.points.get(i);
+
+					writer.print("\"" + curve.name + "\"," + point.size + "," + point.score + "," + curve.unit);
+					if (i > 0) {
+						Point previous = curve.points.get(i - 1);
+						writer.println("," + getExponent(previous, point) + "," + getNLogNExponent(previous, point) + "," + superLinear);
+					} else {
+						writer.println(",,," + superLinear);
+					}
+
+				}
+
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+	}
+
+	public static double getExponent(Point from, Point to) {
+		return Math.log(to.score / from.score) / Math.log((double) to.size / from.size);
+	}
+
+	// Exponent of n log n between the two sizes, slightly above 1.0
+	public static double getNLogNExponent(Point from, Point to) {
+		double fromNLogN = from.size * Math.log(Math.max(2, from.size));
+		double toNLogN = to.size * Math.log(Math.max(2, to.size));
+		return Math.log(toNLogN / fromNLogN) / Math.log((double) to.size / from.size);
+	}
+
+
+	public static class Curve {
+
+		public final String name;
+		public final String unit;
+		public final List<Point> points = new ArrayList<>();
+
+		public Curve(String name, String unit) {
+			this.name = name;
+			this.unit = unit;
+		}
+
+		public void add(int size, double score) {
+			points.add(new Point(size, score));
+		}
+
+		public void sort() {
+			Collections.sort(points, new Comparator<Point>() {
+
+				@Override
+				public int compare(Point p1, Point p2) {
+					return Integer.compare(p1.size, p2.size);
+				}
+			});
+		}
+
+		// Slope of the least squares fit of log(score) against log(size)
+		public double getFittedExponent() {
+
+			int n = points.size();
+			if (n < 2) {
+				return 0.0;
+			}
+
+			double sumX = 0.0, sumY = 0.0, sumXX = 0.0, sumXY = 0.0;
+			for (Point point : points) {
+				double x = Math.log(point.size);
+				double y = Math.log(point.score);
+				sumX += x;
+				sumY += y;
+				sumXX += x * x;
+				sumXY += x * y;
+			}
+
+			return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+
+		}
+
+		public double getNLogNExponent() {
+			if (points.size() < 2) {
+				return 1.0;
+			}
+			return ScalingReport.getNLogNExponent(points.get(0), points.get(points.size() - 1));
+		}
+
+		public boolean isSuperLinear() {
+			return points.size() > 1 && getFittedExponent() > getNLogNExponent() + TOLERANCE;
+		}
+
+		public boolean print() {
+
+			System.out.println();
+			System.out.println(name);
+
+			for (int i = 0; i < points.size(); i++) {
+
+				Point point = points.get(i);
+
+				String line = String.format("  %10d %14.3f %s", point.size, point.score, unit);
+				if (i > 0) {
+					Point previous = points.get(i - 1);
+					line += String.format("   exponent %.2f (n log n %.2f)", getExponent(previous, point), ScalingReport.getNLogNExponent(previous, point));
+				}
+
+				System.out.println(line);
+
+			}
+
+			boolean superLinear = isSuperLinear();
+			if (points.size() > 1) {
+				System.out.println(String.format("  fitted exponent %.2f (n log n %.2f)%s", getFittedExponent(), getNLogNExponent(), superLinear ? "   SUPER-LINEAR" : ""));
+			}
+
+			return superLinear;
+
+		}
+
+	}
+
+	public static class Point {
+
+		public final int size;
+		public final double score;
+
+		public Point(int size, double score) {
+			this.size = size;
+			this.score = score;
+		}
+
+	}
+
+}
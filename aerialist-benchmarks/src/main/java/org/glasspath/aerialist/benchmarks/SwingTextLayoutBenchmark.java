@@ -0,0 +1,89 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.TextBox;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.ElementLayoutInfo;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.LayoutInfo;
+import org.glasspath.aerialist.swing.BufferedImageMediaCache;
+import org.glasspath.aerialist.swing.SwingLayoutMetrics;
+import org.glasspath.aerialist.swing.view.DefaultSwingViewContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measures the Swing path (JTextPane views) used by the editor and by SwingLayoutMetrics
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class SwingTextLayoutBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int textLength;
+
+	@Param({ "1", "10", "100" })
+	public int styleRuns;
+
+	@Param({ "100", "300", "600" })
+	public int columnWidth;
+
+	@Param({ "left", "center", "right" })
+	public String alignment;
+
+	private SwingLayoutMetrics layoutMetrics;
+	private TextBox textBox;
+
+	@Setup
+	public void setup() {
+
+		layoutMetrics = new SwingLayoutMetrics(new DefaultSwingViewContext(new BufferedImageMediaCache()));
+		textBox = BenchmarkData.createTextBox(textLength, styleRuns, columnWidth, alignment);
+
+		layoutMetrics.getElementLayoutInfo(textBox);
+
+	}
+
+	@Benchmark
+	public ElementLayoutInfo getTextBoxLayoutInfo() {
+
+		// Layout info is cached per element, start with an empty cache so the text is measured every time
+		layoutMetrics.setLayoutInfo(new LayoutInfo());
+
+		return layoutMetrics.getElementLayoutInfo(textBox);
+
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.ElementLayoutInfo;
+import org.glasspath.aerialist.layout.ILayoutContext;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Measures row and column bounds of a table including the text layout of all cells (DefaultLayoutMetrics.getTableLayoutInfo)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TableLayoutScalingBenchmark {
+
+	@Param({ "1000", "3000", "10000", "30000", "100000" })
+	public int rows;
+
+	@Param({ "2", "8", "20" })
+	public int cols;
+
+	private ILayoutContext<?> layoutContext;
+	private Table table;
+
+	@Setup
+	public void setup() {
+
+		OpenPdfFontCache fontCache = new OpenPdfFontCache();
+		BenchmarkData.registerFonts(fontCache);
+
+		layoutContext = new DefaultLayoutContext<>(fontCache, new OpenPdfMediaCache());
+		table = BenchmarkData.createTable(rows, cols);
+
+		// Loads the fonts before measuring
+		new DefaultLayoutMetrics(layoutContext).getElementLayoutInfo(BenchmarkData.createTable(1, cols));
+
+	}
+
+	// Layout info is cached per element, new metrics start with an empty cache
+	@Benchmark
+	public ElementLayoutInfo getTableLayoutInfo() {
+		return new DefaultLayoutMetrics(layoutContext).getElementLayoutInfo(table);
+	}
+
+}
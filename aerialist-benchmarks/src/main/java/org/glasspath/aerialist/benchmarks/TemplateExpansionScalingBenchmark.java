@@ -0,0 +1,94 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.glasspath.aerialist.template.TemplateParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Expands a template row into the specified number of rows (TemplateParser.parseTable), run with ScalingReport to get the curve
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TemplateExpansionScalingBenchmark {
+
+	@Param({ "1000", "3000", "10000", "30000", "100000" })
+	public int rows;
+
+	@Param({ "2", "8", "20" })
+	public int cols;
+
+	private TemplateFieldContext fieldContext;
+	private Document document;
+	private Table table;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		fieldContext = BenchmarkData.createTemplateFieldContext(rows, cols);
+	}
+
+	// Parsing replaces the template row, every iteration starts with a new template table
+	@Setup(Level.Iteration)
+	public void setupIteration() {
+
+		table = BenchmarkData.createTemplateTable(cols);
+
+		Page page = new Page(Page.PageSize.A4);
+		page.getElements().add(table);
+
+		document = new Document();
+		document.getPages().add(page);
+
+	}
+
+	// The page only contains the table, so parsing the document is parsing the table
+	@Benchmark
+	public Table parseTable() {
+
+		TemplateParser templateParser = new TemplateParser();
+		templateParser.parseTemplate(document, fieldContext);
+
+		return table;
+
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.TextBox;
+import org.glasspath.aerialist.TextStyle;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.text.TextLayout;
+import org.glasspath.aerialist.text.TextUtils;
+import org.glasspath.aerialist.text.TextUtils.SpanInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextLayoutBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int textLength;
+
+	@Param({ "1", "10", "100" })
+	public int styleRuns;
+
+	@Param({ "100", "300", "600" })
+	public int columnWidth;
+
+	@Param({ "left", "center", "right" })
+	public String alignment;
+
+	private OpenPdfFontCache fontCache;
+	private TextBox textBox;
+	private String[] spanTexts;
+
+	@Setup
+	public void setup() {
+
+		fontCache = new OpenPdfFontCache();
+		BenchmarkData.registerFonts(fontCache);
+
+		textBox = BenchmarkData.createTextBox(textLength, styleRuns, columnWidth, alignment);
+
+		spanTexts = new String[textBox.getStyles().size()];
+		for (int i = 0; i < spanTexts.length; i++) {
+			TextStyle style = textBox.getStyles().get(i);
+			spanTexts[i] = textBox.getText().substring(style.start, style.end);
+		}
+
+		// Loads the fonts before measuring
+		TextUtils.createTextLayout(textBox, fontCache, columnWidth);
+
+	}
+
+	@Benchmark
+	public TextLayout createTextLayout() {
+		return TextUtils.createTextLayout(textBox, fontCache, columnWidth);
+	}
+
+	@Benchmark
+	public void getSpanInfo(Blackhole blackhole) {
+		for (int i = 0; i < spanTexts.length; i++) {
+			TextStyle style = textBox.getStyles().get(i);
+			SpanInfo spanInfo = fontCache.getSpanInfo(spanTexts[i], style.font != null ? style.font : TextStyle.DEFAULT_FONT, style.fontSize, style.bold, style.italic);
+			blackhole.consume(spanInfo);
+		}
+	}
+
+}
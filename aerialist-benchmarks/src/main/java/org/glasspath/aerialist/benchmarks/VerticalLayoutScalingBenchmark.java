@@ -0,0 +1,134 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.TextBox;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.DefaultVerticalLayout;
+import org.glasspath.aerialist.layout.ILayoutContext.LayoutPhase;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Grows a table to its preferred height and moves the elements anchored below it (VerticalLayout.validateLayout),
+// metrics are measured once in the setup so only the layout itself is measured
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class VerticalLayoutScalingBenchmark {
+
+	public static final int ANCHORED_ELEMENTS = 3;
+
+	@Param({ "1000", "3000", "10000", "30000", "100000" })
+	public int rows;
+
+	@Param({ "2", "8", "20" })
+	public int cols;
+
+	private DefaultLayoutContext<?, ?> layoutContext;
+	private DefaultLayoutMetrics layoutMetrics;
+	private Page page;
+	private Table table;
+	private int tableHeight;
+	private int[] elementY;
+	private DefaultVerticalLayout layout;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+
+		OpenPdfFontCache fontCache = new OpenPdfFontCache();
+		BenchmarkData.registerFonts(fontCache);
+
+		layoutContext = new DefaultLayoutContext<>(fontCache, new OpenPdfMediaCache());
+		layoutContext.setLayoutPhase(LayoutPhase.LAYOUT_CONTENT);
+		layoutContext.setYPolicyEnabled(true);
+
+		page = new Page(Page.PageSize.A4);
+
+		table = BenchmarkData.createTable(rows, cols);
+		tableHeight = table.getHeight();
+		page.getElements().add(table);
+
+		elementY = new int[ANCHORED_ELEMENTS];
+		for (int i = 0; i < ANCHORED_ELEMENTS; i++) {
+
+			elementY[i] = table.getY() + tableHeight + 20 + i * 40;
+
+			TextBox textBox = BenchmarkData.createTextBox(80, 1, BenchmarkData.TABLE_WIDTH, null);
+			textBox.setX(BenchmarkData.TABLE_X);
+			textBox.setY(elementY[i]);
+			page.getElements().add(textBox);
+
+		}
+
+		layoutMetrics = new DefaultLayoutMetrics(layoutContext);
+		for (int i = 0; i < page.getElements().size(); i++) {
+			layoutMetrics.getElementLayoutInfo(page.getElements().get(i));
+		}
+
+	}
+
+	// Validating changes the bounds of the elements, every iteration starts with the original bounds
+	@Setup(Level.Iteration)
+	public void setupIteration() {
+
+		table.setHeight(tableHeight);
+		for (int i = 0; i < ANCHORED_ELEMENTS; i++) {
+			page.getElements().get(i + 1).setY(elementY[i]);
+		}
+
+		layout = new DefaultVerticalLayout(layoutContext, layoutMetrics);
+		layout.setContainer(page);
+		layout.updateVerticalAnchors();
+
+	}
+
+	@Benchmark
+	public Page validateLayout() {
+
+		layout.validateLayout();
+
+		return page;
+
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.itext.ITextDocumentWriter;
+import org.glasspath.aerialist.itext.ITextFontCache;
+import org.glasspath.aerialist.itext.ITextMediaCache;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo;
+import org.glasspath.aerialist.layout.IElementLayoutMetrics;
+import org.glasspath.aerialist.openpdf.OpenPdfDocumentWriter;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.glasspath.aerialist.pdfbox.PdfBoxDocumentWriter;
+import org.glasspath.aerialist.pdfbox.PdfBoxFontCache;
+import org.glasspath.aerialist.pdfbox.PdfBoxMediaCache;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+import org.glasspath.aerialist.text.font.FontCache;
+import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Replays one precomputed layout per fixture through every PDF writer. Besides documents per second the results contain
+// pages per second (pages), the size of the written file (bytesPerDocument), allocated bytes per page on all threads
+// (allocatedBytesPerPage) and the peak heap usage during the iteration (peakHeapBytes). The iText writer does not write
+// text yet (ITextDocumentWriter.drawString() is empty), so text and table results of iText are not comparable
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class WriterBenchmark {
+
+	public static final String BACKEND_OPENPDF = "openpdf";
+	public static final String BACKEND_PDFBOX = "pdfbox";
+	public static final String BACKEND_ITEXT = "itext";
+
+	@Param({ BenchmarkData.FIXTURE_TEXT, BenchmarkData.FIXTURE_TABLE, BenchmarkData.FIXTURE_IMAGE })
+	public String fixture;
+
+	@Param({ BACKEND_OPENPDF, BACKEND_PDFBOX, BACKEND_ITEXT })
+	public String backend;
+
+	private File outputDir;
+	private File outputFile;
+	private TemplateDocumentLoader documentLoader;
+	private DocumentLayoutInfo documentLayoutInfo;
+	private int pages;
+
+	// Caches are shared by all written documents (like in a long running process)
+	private OpenPdfFontCache openPdfFontCache;
+	private OpenPdfMediaCache openPdfMediaCache;
+	private PdfBoxFontCache pdfBoxFontCache;
+	private PdfBoxMediaCache pdfBoxMediaCache;
+	private ITextFontCache iTextFontCache;
+	private ITextMediaCache iTextMediaCache;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+
+		outputDir = BenchmarkData.createOutputDir();
+		outputFile = new File(outputDir, fixture + "-" + backend + ".pdf");
+
+		openPdfFontCache = new OpenPdfFontCache();
+		openPdfMediaCache = new OpenPdfMediaCache();
+		BenchmarkData.registerFonts(openPdfFontCache);
+
+		Map<String, byte[]> images = BenchmarkData.createImages();
+		for (Entry<String, byte[]> entry : images.entrySet()) {
+			openPdfMediaCache.putImage(entry.getKey(), entry.getValue());
+		}
+
+		DefaultLayoutContext<?, ?> layoutContext = new DefaultLayoutContext<>(openPdfFontCache, openPdfMediaCache);
+
+		// The layout is created once with the OpenPDF caches and replayed by all writers
+		documentLoader = new TemplateDocumentLoader(null, layoutContext) {
+
+			@Override
+			protected IElementLayoutMetrics createLayoutMetrics() {
+				return new DefaultLayoutMetrics(layoutContext);
+			}
+		};
+
+		Document document = BenchmarkData.createFixture(fixture);
+		documentLayoutInfo = documentLoader.loadDocument(document, null);
+		pages = documentLayoutInfo.pages.size();
+
+		if (BACKEND_PDFBOX.equals(backend)) {
+
+			pdfBoxFontCache = new PdfBoxFontCache();
+			pdfBoxMediaCache = new PdfBoxMediaCache();
+			BenchmarkData.registerFonts(pdfBoxFontCache);
+			addFonts(openPdfFontCache, pdfBoxFontCache);
+
+			for (Entry<String, byte[]> entry : images.entrySet()) {
+				pdfBoxMediaCache.putImage(entry.getKey(), entry.getValue());
+			}
+
+		} else if (BACKEND_ITEXT.equals(backend)) {
+
+			iTextFontCache = new ITextFontCache();
+			iTextMediaCache = new ITextMediaCache();
+
+			for (Entry<String, byte[]> entry : images.entrySet()) {
+				iTextMediaCache.putImage(entry.getKey(), entry.getValue());
+			}
+
+		}
+
+	}
+
+	// Spans refer to fonts by index, the fonts are added in the same order so the indices of both caches match
+	private static void addFonts(FontCache<?> from, FontCache<?> to) {
+		for (FontCache<?>.CachedFont cachedFont : from.getCachedFonts()) {
+			to.getSpanInfo(" ", cachedFont.fontName, 12, cachedFont.weight, cachedFont.italic); //$NON-NLS-1$
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if (pdfBoxFontCache != null) {
+			pdfBoxFontCache.close();
+		}
+		BenchmarkData.deleteOutputDir(outputDir);
+	}
+
+	private DocumentWriter createWriter() {
+
+		DocumentSink sink = DocumentSink.toFile(outputFile);
+
+		if (BACKEND_PDFBOX.equals(backend)) {
+			return new PdfBoxDocumentWriter(sink, pdfBoxFontCache, pdfBoxMediaCache);
+		} else if (BACKEND_ITEXT.equals(backend)) {
+			return new ITextDocumentWriter(sink, iTextFontCache, iTextMediaCache);
+		} else {
+			return new OpenPdfDocumentWriter(sink, openPdfFontCache, openPdfMediaCache);
+		}
+
+	}
+
+	@Benchmark
+	public void writeDocument(PageCounter pageCounter, WriterStatistics statistics) {
+
+		long allocatedBytes = statistics.getAllocatedBytes();
+
+		documentLoader.writeDocument(documentLayoutInfo, createWriter());
+
+		pageCounter.pages += pages;
+		statistics.update(pages, statistics.getAllocatedBytes() - allocatedBytes, outputFile.length());
+
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class PageCounter {
+
+		public long pages;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			pages = 0;
+		}
+
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class WriterStatistics {
+
+		public long bytesPerDocument;
+		public long allocatedBytesPerPage;
+		public long peakHeapBytes;
+
+		private long totalAllocatedBytes;
+		private long totalPages;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+
+			bytesPerDocument = 0;
+			allocatedBytesPerPage = 0;
+			peakHeapBytes = 0;
+			totalAllocatedBytes = 0;
+			totalPages = 0;
+
+			for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (memoryPool.getType() == MemoryType.HEAP) {
+					memoryPool.resetPeakUsage();
+				}
+			}
+
+		}
+
+		// Bytes allocated by all live threads, writers may compress streams on other threads
+		private long getAllocatedBytes() {
+
+			ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+			if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+
+				long allocatedBytes = 0;
+				for (long threadAllocatedBytes : ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+					if (threadAllocatedBytes > 0) {
+						allocatedBytes += threadAllocatedBytes;
+					}
+				}
+
+				return allocatedBytes;
+
+			}
+
+			return 0;
+
+		}
+
+		private void update(int pages, long allocatedBytes, long documentBytes) {
+
+			totalAllocatedBytes += allocatedBytes;
+			totalPages += pages;
+
+			bytesPerDocument = documentBytes;
+			allocatedBytesPerPage = totalPages > 0 ? totalAllocatedBytes / totalPages : 0;
+
+			// Sum of the peaks of the heap pools, the pools may have reached their peaks at different moments
+			long peak = 0;
+			for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (memoryPool.getType() == MemoryType.HEAP) {
+					peak += memoryPool.getPeakUsage().getUsed();
+				}
+			}
+			peakHeapBytes = peak;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.glasspath.aerialist.Content;
+import org.glasspath.aerialist.XDoc;
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.glasspath.aerialist.reader.XDocReader;
+import org.glasspath.aerialist.writer.XDocWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+// Reading and writing .gpdx files of growing size. Besides XDocReader.read() and XDocWriter.write() the phases of
+// reading are measured separately: zip access (readZipEntries), XML parsing (parseXml), XML deserialization including
+// construction of the model (deserializeContent) and image decoding (decodeImages). Model construction itself is
+// the difference between deserializeContent and parseXml
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class XDocBenchmark {
+
+	@Param({ "1", "10", "50" })
+	public int pages;
+
+	@Param({ "100", "10000" })
+	public int rows;
+
+	@Param({ "0", "4", "16" })
+	public int images;
+
+	private File fixtureFile;
+	private File outputDir;
+	private File outputFile;
+	private XmlMapper xmlMapper;
+	private byte[] contentBytes;
+	private Map<String, byte[]> imageBytes;
+	private XDoc xDoc;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+
+		fixtureFile = XDocFixtures.getFixture(pages, rows, images);
+
+		outputDir = BenchmarkData.createOutputDir();
+		outputFile = new File(outputDir, fixtureFile.getName());
+
+		xmlMapper = XDocWriter.createXmlMapper();
+
+		imageBytes = new LinkedHashMap<>();
+		for (Entry<String, byte[]> entry : readZipEntries().entrySet()) {
+			if (XDoc.CONTENT_PATH.equals(entry.getKey())) {
+				contentBytes = entry.getValue();
+			} else if (entry.getKey().startsWith(XDoc.IMAGES_PATH)) {
+				imageBytes.put(entry.getKey().substring(XDoc.IMAGES_PATH.length()), entry.getValue());
+			}
+		}
+
+		xDoc = XDocReader.read(fixtureFile.getAbsolutePath(), new OpenPdfMediaCache());
+
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkData.deleteOutputDir(outputDir);
+	}
+
+	// The shared image cache would turn decoding into a lookup after the first invocation
+	@Benchmark
+	public XDoc read() {
+		OpenPdfMediaCache.clearSharedImages();
+		return XDocReader.read(fixtureFile.getAbsolutePath(), new OpenPdfMediaCache());
+	}
+
+	@Benchmark
+	public boolean write() {
+		return XDocWriter.write(xDoc, outputFile);
+	}
+
+	@Benchmark
+	public Map<String, byte[]> readZipEntries() throws Exception {
+
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+
+		try (ZipFile zipFile = new ZipFile(fixtureFile)) {
+
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while (zipEntries.hasMoreElements()) {
+
+				ZipEntry zipEntry = zipEntries.nextElement();
+
+				try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+					entries.put(zipEntry.getName(), readBytes(inputStream));
+				}
+
+			}
+
+		}
+
+		return entries;
+
+	}
+
+	@Benchmark
+	public int parseXml() throws Exception {
+
+		int tokens = 0;
+
+		try (JsonParser parser = xmlMapper.getFactory().createParser(contentBytes)) {
+			while (parser.nextToken() != null) {
+				tokens++;
+			}
+		}
+
+		return tokens;
+
+	}
+
+	@Benchmark
+	public Content deserializeContent() throws Exception {
+		return xmlMapper.readValue(contentBytes, Content.class);
+	}
+
+	@Benchmark
+	public OpenPdfMediaCache decodeImages() {
+
+		OpenPdfMediaCache.clearSharedImages();
+
+		OpenPdfMediaCache mediaCache = new OpenPdfMediaCache();
+		for (Entry<String, byte[]> entry : imageBytes.entrySet()) {
+			mediaCache.putImage(entry.getKey(), entry.getValue());
+		}
+
+		return mediaCache;
+
+	}
+
+	private static byte[] readBytes(InputStream inputStream) throws Exception {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = inputStream.read(buffer)) > 0) {
+			bytes.write(buffer, 0, n);
+		}
+
+		return bytes.toByteArray();
+
+	}
+
+}
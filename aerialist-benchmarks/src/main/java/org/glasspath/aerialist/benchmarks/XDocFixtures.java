@@ -0,0 +1,97 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.glasspath.aerialist.writer.XDocWriter;
+
+// Creates the .gpdx fixture files, the cold start benchmark runs this in a separate process so the benchmark JVM stays cold
+@SuppressWarnings("nls")
+public class XDocFixtures {
+
+	private XDocFixtures() {
+
+	}
+
+	public static File getFixture(int pages, int rows, int images) throws Exception {
+
+		File file = BenchmarkData.getFixtureFile(pages, rows, images);
+		if (!file.exists()) {
+			createFixture(file, pages, rows, images);
+		}
+
+		return file;
+
+	}
+
+	public static void createFixture(File file, int pages, int rows, int images) throws Exception {
+
+		// Write to a temporary file first, other forks may be reading the fixture
+		File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		if (!XDocWriter.write(BenchmarkData.createXDocFixture(pages, rows, images, new OpenPdfMediaCache()), tempFile) || !tempFile.renameTo(file)) {
+			throw new Exception("Creating fixture " + file + " failed");
+		}
+
+	}
+
+	// Creates the fixture (if it doesn't exist yet) in a new JVM, nothing is loaded or warmed up in this JVM
+	public static File getFixtureInNewProcess(int pages, int rows, int images) throws Exception {
+
+		File file = BenchmarkData.getFixtureFile(pages, rows, images);
+		if (!file.exists()) {
+
+			List<String> command = new ArrayList<>();
+			command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+			command.add("-Djava.awt.headless=true");
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			String outputDir = System.getProperty(BenchmarkData.OUTPUT_DIR_PROPERTY);
+			if (outputDir != null) {
+				command.add("-D" + BenchmarkData.OUTPUT_DIR_PROPERTY + "=" + outputDir);
+			}
+			command.add(XDocFixtures.class.getName());
+			command.add(String.valueOf(pages));
+			command.add(String.valueOf(rows));
+			command.add(String.valueOf(images));
+
+			Process process = new ProcessBuilder(command).inheritIO().start();
+			if (process.waitFor() != 0 || !file.exists()) {
+				throw new Exception("Creating fixture " + file + " failed");
+			}
+
+		}
+
+		return file;
+
+	}
+
+	// Arguments: pages rows images
+	public static void main(String[] args) throws Exception {
+		System.out.println(getFixture(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2])));
+	}
+
+}
@@ -0,0 +1,926 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.IFieldContext;
+import org.glasspath.aerialist.XDoc;
+import org.glasspath.aerialist.cli.ShardManifest.RecordEntry;
+import org.glasspath.aerialist.cli.ShardManifest.Shard;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.IElementLayoutMetrics;
+import org.glasspath.aerialist.layout.RenderHandle;
+import org.glasspath.aerialist.media.ContentHash;
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.media.MediaCache.ImageResource;
+import org.glasspath.aerialist.openpdf.OpenPdfDocumentWriter;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.glasspath.aerialist.pdfbox.PdfBoxDocumentWriter;
+import org.glasspath.aerialist.pdfbox.PdfBoxFontCache;
+import org.glasspath.aerialist.pdfbox.PdfBoxMediaCache;
+import org.glasspath.aerialist.reader.XDocReader;
+import org.glasspath.aerialist.template.RenderResult;
+import org.glasspath.aerialist.template.RenderStatus;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.glasspath.aerialist.text.font.FontCache;
+import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Renders a template for every record of a JSON lines file without a display, for batch jobs that are started by
+// cron on a server for example. The template is read once and every record gets a copy of it, fonts and images are
+// loaded once and shared by all records, the pages of all records are laid out by one pool of layout threads. Every line of the data file is a JSON object, strings, numbers and booleans
+// are template fields, arrays are template lists and nested objects are flattened (address.city)
+//
+// Usage: java -jar render.jar -template <file.gpdx> -data <file.jsonl> -out <dir> [options]
+//   -template <file.gpdx>    template
+//   -data <file.jsonl>       records, one JSON object per line
+//   -out <dir>               output directory, records are written to record-1.pdf, record-2.pdf..
+//   -threads <n>             records that are rendered in parallel, by default the number of processors
+//   -layout-threads <n>      threads that lay out pages for all records, by default the number of processors
+//   -backend <name>          openpdf or pdfbox (openpdf)
+//   -fonts <dir>             fonts directory
+//   -encoding <name>         font encoding of the openpdf backend, Cp1252 or Identity-H for non-latin text (Cp1252)
+//   -timeout <ms>            deadline of every record, 0 disables it (0)
+//   -shards <k>              writes the records to k files (shard-0001.pdf..) instead of a file for every record,
+//                            every shard is written by its own document writer and shards are written in parallel,
+//                            only with the openpdf backend
+//   -id-field <name>         field of the records that identifies them in the manifest of the shards
+//   -resume                  continues a sharded batch that was interrupted, finished shards are not written again
+//
+// In shard mode the output directory gets a manifest.json that maps every record to its shard, pages and byte
+// offsets (see ShardManifest). A shard file is only created when the shard is complete. A batch is only resumed
+// if the data file is unchanged (same size and SHA-256 hash) and the number of shards and the backend are the same.
+//
+// Options can also be written with two dashes (--template), the exit code is 0 if all records were written, 1 if
+// one or more records failed and 2 if the batch could not be started
+@SuppressWarnings("nls")
+public class BatchRenderer {
+
+	public static final String BACKEND_OPENPDF = "openpdf";
+	public static final String BACKEND_PDFBOX = "pdfbox";
+
+	public static final int EXIT_SUCCEEDED = 0;
+	public static final int EXIT_RECORDS_FAILED = 1;
+	public static final int EXIT_ERROR = 2;
+
+	private String templatePath = null;
+	private String dataPath = null;
+	private String outPath = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int layoutThreads = Runtime.getRuntime().availableProcessors();
+	private String backend = BACKEND_OPENPDF;
+	private String fontsPath = null;
+	private String encoding = null;
+	private long timeout = 0;
+	private int shardCount = 0;
+	private String idField = null;
+	private boolean resume = false;
+
+	private Document template;
+	private FontCache<?> sharedFontCache = null;
+	private MediaCache<?> sharedMediaCache = null;
+	private ExecutorService layoutExecutor = null;
+	private File outputDir;
+
+	private BufferedReader dataReader;
+	private int recordCount = 0;
+
+	private final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+	private final AtomicLong pages = new AtomicLong();
+	private final AtomicInteger succeeded = new AtomicInteger();
+	private final AtomicInteger cancelled = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	BatchRenderer() {
+
+	}
+
+	public static void main(String[] args) {
+
+		System.setProperty("java.awt.headless", "true");
+
+		BatchRenderer renderer = new BatchRenderer();
+
+		try {
+			renderer.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: render -template <file.gpdx> -data <file.jsonl> -out <dir> [-threads <n>] [-layout-threads <n>] [-backend openpdf|pdfbox] [-fonts <dir>] [-encoding Cp1252|Identity-H] [-timeout <ms>] [-shards <k> [-id-field <name>] [-resume]]");
+			System.exit(EXIT_ERROR);
+		}
+
+		try {
+			System.exit(renderer.run());
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(EXIT_ERROR);
+		}
+
+	}
+
+	void parseArguments(String[] args) {
+
+		for (int i = 0; i < args.length; i += 2) {
+
+			String option = args[i].startsWith("--") ? args[i].substring(1) : args[i];
+			if ("-resume".equals(option)) {
+				resume = true;
+				i--;
+				continue;
+			} else if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value of option: " + args[i]);
+			}
+
+			String value = args[i + 1];
+
+			try {
+
+				switch (option) {
+				case "-template":
+					templatePath = value;
+					break;
+				case "-data":
+					dataPath = value;
+					break;
+				case "-out":
+					outPath = value;
+					break;
+				case "-threads":
+					threads = Math.max(1, Integer.parseInt(value));
+					break;
+				case "-layout-threads":
+					layoutThreads = Math.max(1, Integer.parseInt(value));
+					break;
+				case "-backend":
+					backend = value.toLowerCase();
+					break;
+				case "-fonts":
+					fontsPath = value;
+					break;
+				case "-encoding":
+					encoding = value;
+					break;
+				case "-timeout":
+					timeout = Long.parseLong(value);
+					break;
+				case "-shards":
+					shardCount = Math.max(1, Integer.parseInt(value));
+					break;
+				case "-id-field":
+					idField = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[i]);
+				}
+
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value of option " + args[i] + ": " + value);
+			}
+
+		}
+
+		if (templatePath == null || dataPath == null || outPath == null) {
+			throw new IllegalArgumentException("The options -template, -data and -out are required");
+		} else if (!BACKEND_OPENPDF.equals(backend) && !BACKEND_PDFBOX.equals(backend)) {
+			throw new IllegalArgumentException("Unknown backend: " + backend);
+		} else if (resume && shardCount == 0) {
+			throw new IllegalArgumentException("The option -resume requires -shards");
+		} else if (shardCount > 0 && BACKEND_PDFBOX.equals(backend)) {
+			// PDFBox writes the document when it's closed, the byte offsets of the records in the shard are unknown
+			throw new IllegalArgumentException("The option -shards requires the openpdf backend");
+		}
+
+	}
+
+	int run() throws Exception {
+
+		sharedFontCache = createFontCache();
+
+		// Shared by the document loaders of all workers, by default a loader creates a pool for every document
+		layoutExecutor = Executors.newFixedThreadPool(layoutThreads);
+
+		try {
+			return runBatch();
+		} finally {
+			layoutExecutor.shutdown();
+			if (sharedFontCache instanceof Closeable) {
+				((Closeable) sharedFontCache).close();
+			}
+		}
+
+	}
+
+	private int runBatch() throws Exception {
+
+		if (BACKEND_PDFBOX.equals(backend)) {
+			sharedMediaCache = new PdfBoxMediaCache();
+		} else {
+			sharedMediaCache = new OpenPdfMediaCache();
+		}
+
+		// Images of the template are decoded once, with pdfbox they are copied to the cache of every worker
+		XDoc xDoc = XDocReader.read(templatePath, sharedMediaCache);
+		if (xDoc == null || xDoc.getContent() == null || !(xDoc.getContent().getRoot() instanceof Document)) {
+			System.err.println("Reading template " + templatePath + " failed");
+			return EXIT_ERROR;
+		}
+
+		// Every record renders a copy of the template (TemplateParser modifies the document)
+		template = (Document) xDoc.getContent().getRoot();
+
+		outputDir = new File(outPath);
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.err.println("Creating output directory " + outPath + " failed");
+			return EXIT_ERROR;
+		}
+
+		if (shardCount > 0) {
+			return runShards();
+		}
+
+		long start = System.nanoTime();
+
+		try (BufferedReader reader = Files.newBufferedReader(new File(dataPath).toPath(), StandardCharsets.UTF_8)) {
+
+			dataReader = reader;
+
+			ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+			for (int i = 0; i < threads; i++) {
+				executorService.submit(new Worker());
+			}
+
+			executorService.shutdown();
+			executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+		}
+
+		printStats(System.nanoTime() - start);
+
+		return recordCount == succeeded.get() ? EXIT_SUCCEEDED : EXIT_RECORDS_FAILED;
+
+	}
+
+	private int runShards() throws Exception {
+
+		File dataFile = new File(dataPath);
+		File manifestFile = new File(outputDir, ShardManifest.FILE_NAME);
+
+		ShardManifest manifest = null;
+		if (resume && manifestFile.isFile()) {
+
+			manifest = ShardManifest.read(manifestFile, ShardManifest.class);
+
+			ShardManifest plannedManifest = createManifest(dataFile);
+			if (!manifest.canResumeAs(plannedManifest)) {
+				System.err.println("The data file, number of shards or backend changed since the batch was started, it can't be resumed");
+				return EXIT_ERROR;
+			}
+
+			// Finished shards are read from their own manifest, it is written when the shard file is complete
+			for (int i = 0; i < manifest.shards.size(); i++) {
+
+				Shard plannedShard = manifest.shards.get(i);
+				plannedShard.finished = false;
+				plannedShard.file = null;
+				plannedShard.pages = 0;
+				plannedShard.entries.clear();
+
+				File shardManifestFile = new File(outputDir, ShardManifest.getShardManifestName(i));
+				if (shardManifestFile.isFile()) {
+
+					Shard shard = ShardManifest.read(shardManifestFile, Shard.class);
+					if (shard.finished && shard.hasRecordsOf(plannedShard) && (shard.file == null || new File(outputDir, shard.file).isFile())) {
+						manifest.shards.set(i, shard);
+					}
+
+				}
+
+			}
+
+		} else {
+
+			manifest = createManifest(dataFile);
+
+			for (int i = 0; i < shardCount; i++) {
+				new File(outputDir, ShardManifest.getShardManifestName(i)).delete();
+			}
+
+			ShardManifest.write(manifestFile, manifest);
+
+		}
+
+		List<Shard> pendingShards = new ArrayList<>();
+		for (Shard shard : manifest.shards) {
+			if (!shard.finished) {
+				pendingShards.add(shard);
+			}
+		}
+
+		if (pendingShards.size() < manifest.shards.size()) {
+			System.out.println("Resuming batch, " + (manifest.shards.size() - pendingShards.size()) + " of " + manifest.shards.size() + " shard(s) already finished");
+		}
+
+		long start = System.nanoTime();
+
+		if (pendingShards.size() > 0) {
+
+			ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, pendingShards.size()));
+
+			for (Shard shard : pendingShards) {
+				executorService.submit(new ShardTask(shard));
+			}
+
+			executorService.shutdown();
+			executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+		}
+
+		recordCount = succeeded.get() + failed.get() + cancelled.get();
+
+		ShardManifest.write(manifestFile, manifest);
+
+		printStats(System.nanoTime() - start);
+
+		boolean recordsFailed = false;
+		for (Shard shard : manifest.shards) {
+			if (!shard.finished) {
+				recordsFailed = true;
+			}
+			for (RecordEntry entry : shard.entries) {
+				if (!RenderStatus.SUCCEEDED.stringValue.equals(entry.status)) {
+					recordsFailed = true;
+				}
+			}
+		}
+
+		return recordsFailed ? EXIT_RECORDS_FAILED : EXIT_SUCCEEDED;
+
+	}
+
+	// Splits the records in contiguous ranges of (nearly) equal size, the data file is read twice, once to count the
+	// records (and hash the file) and once to find the offsets of the first record of every shard
+	private ShardManifest createManifest(File dataFile) throws IOException {
+
+		MessageDigest digest = ContentHash.createDigest();
+
+		ShardManifest manifest = new ShardManifest();
+		manifest.template = templatePath;
+		manifest.data = dataPath;
+		manifest.dataSize = dataFile.length();
+		manifest.backend = backend;
+		manifest.records = scanRecords(dataFile, null, null, digest);
+		manifest.dataHash = ContentHash.toHex(digest.digest());
+
+		int[] firstRecords = new int[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			firstRecords[i] = (int) ((long) manifest.records * i / shardCount) + 1;
+		}
+
+		long[] offsets = new long[shardCount];
+		scanRecords(dataFile, firstRecords, offsets, null);
+
+		for (int i = 0; i < shardCount; i++) {
+
+			Shard shard = new Shard();
+			shard.index = i;
+			shard.firstRecord = firstRecords[i];
+			shard.records = (i + 1 < shardCount ? firstRecords[i + 1] : manifest.records + 1) - firstRecords[i];
+			shard.dataOffset = offsets[i];
+
+			manifest.shards.add(shard);
+
+		}
+
+		return manifest;
+
+	}
+
+	// Returns the number of records (lines that are not blank) and stores the byte offset of the given (ascending)
+	// record numbers in offsets, records that don't exist get the size of the file. The bytes are added to the digest
+	private static int scanRecords(File dataFile, int[] recordNumbers, long[] offsets, MessageDigest digest) throws IOException {
+
+		int records = 0;
+		int next = 0;
+
+		try (InputStream inputStream = new BufferedInputStream(new FileInputStream(dataFile), 64 * 1024)) {
+
+			long offset = 0;
+			long lineStart = 0;
+			boolean blank = true;
+
+			int b;
+			while ((b = inputStream.read()) >= 0) {
+
+				if (digest != null) {
+					digest.update((byte) b);
+				}
+
+				if (b == '\n') {
+
+					if (!blank) {
+						records++;
+						while (recordNumbers != null && next < recordNumbers.length && recordNumbers[next] == records) {
+							offsets[next++] = lineStart;
+						}
+					}
+
+					lineStart = offset + 1;
+					blank = true;
+
+				} else if (b > ' ') {
+					blank = false;
+				}
+
+				offset++;
+
+			}
+
+			if (!blank) {
+				records++;
+				while (recordNumbers != null && next < recordNumbers.length && recordNumbers[next] == records) {
+					offsets[next++] = lineStart;
+				}
+			}
+
+			while (recordNumbers != null && next < recordNumbers.length) {
+				offsets[next++] = offset;
+			}
+
+		}
+
+		return records;
+
+	}
+
+	private FontCache<?> createFontCache() {
+
+		FontCache<?> fontCache;
+		if (BACKEND_PDFBOX.equals(backend)) {
+			fontCache = new PdfBoxFontCache();
+		} else if (encoding != null) {
+			fontCache = new OpenPdfFontCache(encoding);
+		} else {
+			fontCache = new OpenPdfFontCache();
+		}
+		if (fontsPath != null) {
+			fontCache.registerFonts(new File(fontsPath));
+		}
+
+		return fontCache;
+
+	}
+
+	private MediaCache<?> createPdfBoxMediaCache() {
+
+		MediaCache<?> mediaCache = new PdfBoxMediaCache();
+		for (Entry<String, ImageResource> entry : sharedMediaCache.getImageResources().entrySet()) {
+			mediaCache.putImage(entry.getKey(), entry.getValue().getBytes());
+		}
+
+		return mediaCache;
+
+	}
+
+	private DocumentWriter createWriter(DocumentSink sink, FontCache<?> fontCache, MediaCache<?> mediaCache) {
+		if (BACKEND_PDFBOX.equals(backend)) {
+			return new PdfBoxDocumentWriter(sink, (PdfBoxFontCache) fontCache, (PdfBoxMediaCache) mediaCache);
+		} else {
+			return new OpenPdfDocumentWriter(sink, (OpenPdfFontCache) fontCache, (OpenPdfMediaCache) mediaCache);
+		}
+	}
+
+	// Records are read by the worker threads one line at a time, so the data file is never loaded completely
+	private Record nextRecord() {
+
+		synchronized (dataReader) {
+
+			try {
+
+				String line;
+				while ((line = dataReader.readLine()) != null) {
+					if (line.trim().length() > 0) {
+						recordCount++;
+						return new Record(recordCount, line);
+					}
+				}
+
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			return null;
+
+		}
+
+	}
+
+	private void printStats(long nanos) {
+
+		double seconds = nanos / 1.0E9;
+
+		long[] sortedLatencies = new long[latencies.size()];
+		synchronized (latencies) {
+			for (int i = 0; i < sortedLatencies.length; i++) {
+				sortedLatencies[i] = latencies.get(i);
+			}
+		}
+		Arrays.sort(sortedLatencies);
+
+		System.out.println(String.format("Rendered %d record(s) in %.2f s with %d thread(s) (%s)", recordCount, seconds, threads, backend));
+		System.out.println(String.format("  succeeded %d, failed %d, cancelled %d", succeeded.get(), failed.get(), cancelled.get()));
+		System.out.println(String.format("  %.1f records/s, %.1f pages/s (%d pages)", seconds > 0 ? recordCount / seconds : 0.0, seconds > 0 ? pages.get() / seconds : 0.0, pages.get()));
+		System.out.println(String.format("  latency p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms", getPercentile(sortedLatencies, 0.50) / 1.0E6, getPercentile(sortedLatencies, 0.95) / 1.0E6, getPercentile(sortedLatencies, 0.99) / 1.0E6, sortedLatencies.length > 0 ? sortedLatencies[sortedLatencies.length - 1] / 1.0E6 : 0.0));
+
+	}
+
+	int getRecordCount() {
+		return recordCount;
+	}
+
+	int getSucceeded() {
+		return succeeded.get();
+	}
+
+	int getFailed() {
+		return failed.get();
+	}
+
+	int getCancelled() {
+		return cancelled.get();
+	}
+
+	// Nearest rank percentile of sorted values
+	private static long getPercentile(long[] sortedValues, double percentile) {
+		if (sortedValues.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percentile * sortedValues.length);
+		return sortedValues[Math.max(0, Math.min(sortedValues.length - 1, rank - 1))];
+	}
+
+	private static class Record {
+
+		private final int number;
+		private final String line;
+
+		private Record(int number, String line) {
+			this.number = number;
+			this.line = line;
+		}
+
+	}
+
+	// Layout context and document loader are not thread safe, every worker has its own and reuses them for all
+	// of its records. All workers share the font cache, with openpdf also the media cache. Pdfbox images belong to
+	// the document of the writer, so every worker has its own media cache (the encoded images are shared)
+	private class Worker implements Runnable {
+
+		private final ObjectMapper objectMapper = new ObjectMapper();
+		private final FontCache<?> fontCache;
+		private final MediaCache<?> mediaCache;
+		private final TemplateDocumentLoader documentLoader;
+
+		private Worker() {
+
+			fontCache = sharedFontCache;
+			mediaCache = BACKEND_PDFBOX.equals(backend) ? createPdfBoxMediaCache() : sharedMediaCache;
+
+			DefaultLayoutContext<?, ?> layoutContext = new DefaultLayoutContext<>(fontCache, mediaCache);
+
+			documentLoader = new TemplateDocumentLoader(null, layoutContext) {
+
+				@Override
+				protected IElementLayoutMetrics createLayoutMetrics() {
+					return new DefaultLayoutMetrics(layoutContext);
+				}
+			};
+			documentLoader.setLayoutExecutor(layoutExecutor);
+
+		}
+
+		@Override
+		public void run() {
+
+			Record record;
+			while ((record = nextRecord()) != null) {
+
+				long start = System.nanoTime();
+
+				RenderResult result;
+				try {
+					result = render(record);
+				} catch (Exception e) {
+					result = RenderResult.failed(null, e, (System.nanoTime() - start) / 1000000L);
+				}
+
+				latencies.add(System.nanoTime() - start);
+
+				if (result.getStatus() == RenderStatus.SUCCEEDED) {
+					succeeded.incrementAndGet();
+					if (result.getDocumentLayoutInfo() != null) {
+						pages.addAndGet(result.getDocumentLayoutInfo().pages.size());
+					}
+				} else {
+
+					if (result.getStatus() == RenderStatus.FAILED) {
+						failed.incrementAndGet();
+					} else {
+						cancelled.incrementAndGet();
+					}
+
+					System.err.println("Record " + record.number + " " + result.getStatus().stringValue + ": " + result.getMessage());
+
+				}
+
+			}
+
+		}
+
+		private RenderResult render(Record record) throws Exception {
+
+			TemplateFieldContext fieldContext = TemplateFieldContext.fromJson(objectMapper.readTree(record.line));
+			Document document = new Document(template);
+
+			RenderHandle handle = timeout > 0 ? new RenderHandle(timeout, TimeUnit.MILLISECONDS) : null;
+
+			documentLoader.setDocumentId("record-" + record.number);
+			documentLoader.setDocumentWriter(createWriter(DocumentSink.toFile(new File(outputDir, "record-" + record.number + ".pdf")), fontCache, mediaCache));
+
+			return documentLoader.loadDocument(document, fieldContext, handle);
+
+		}
+
+	}
+
+	// Renders the records of one shard with loadDocuments(), all pages are appended to the same document writer. A
+	// shard is only marked as finished (and it's manifest written) when the shard file was committed
+	private class ShardTask implements Runnable {
+
+		private final Shard shard;
+		private final ObjectMapper objectMapper = new ObjectMapper();
+		private final FontCache<?> fontCache;
+		private final MediaCache<?> mediaCache;
+
+		private Record currentRecord = null;
+		private String currentId = null;
+		private long currentStartOffset = -1;
+
+		private ShardTask(Shard shard) {
+
+			this.shard = shard;
+
+			fontCache = sharedFontCache;
+			mediaCache = BACKEND_PDFBOX.equals(backend) ? createPdfBoxMediaCache() : sharedMediaCache;
+
+		}
+
+		@Override
+		public void run() {
+
+			shard.entries.clear();
+			shard.pages = 0;
+
+			File shardFile = new File(outputDir, ShardManifest.getShardFileName(shard.index));
+			final DocumentWriter documentWriter = createWriter(DocumentSink.toFile(shardFile), fontCache, mediaCache);
+
+			DefaultLayoutContext<?, ?> layoutContext = new DefaultLayoutContext<>(fontCache, mediaCache);
+
+			TemplateDocumentLoader documentLoader = new TemplateDocumentLoader(null, layoutContext) {
+
+				@Override
+				protected IElementLayoutMetrics createLayoutMetrics() {
+					return new DefaultLayoutMetrics(layoutContext);
+				}
+
+				@Override
+				protected void recordStarted(int recordIndex, IFieldContext templateFieldContext) {
+					currentStartOffset = documentWriter.getBytesWritten();
+				}
+
+				@Override
+				protected void recordFinished(int recordIndex, IFieldContext templateFieldContext, RenderResult result, int firstPage, int pages) {
+
+					RecordEntry entry = createEntry(currentRecord, currentId, result);
+					if (pages > 0) {
+						entry.firstPage = firstPage + 1;
+						entry.lastPage = firstPage + pages;
+					}
+					if (currentStartOffset >= 0) {
+						entry.startOffset = currentStartOffset;
+						entry.endOffset = documentWriter.getBytesWritten();
+					}
+
+					shard.entries.add(entry);
+					shard.pages = firstPage + pages;
+
+				}
+			};
+			documentLoader.setDocumentId("shard-" + (shard.index + 1));
+			documentLoader.setTimeout(timeout);
+			documentLoader.setLayoutExecutor(layoutExecutor);
+
+			documentLoader.setDocumentWriter(documentWriter);
+
+			try (InputStream inputStream = new FileInputStream(dataPath)) {
+
+				long skipped = 0;
+				while (skipped < shard.dataOffset) {
+					long n = inputStream.skip(shard.dataOffset - skipped);
+					if (n <= 0) {
+						throw new IOException("Data file is shorter than expected");
+					}
+					skipped += n;
+				}
+
+				BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+
+				RenderResult result = documentLoader.loadDocuments(template, new ShardRecordIterator(reader));
+				if (!result.isSucceeded()) {
+					System.err.println("Writing shard " + (shard.index + 1) + " " + result.getStatus().stringValue + ": " + result.getMessage());
+					documentWriter.abort();
+					return;
+				}
+
+			} catch (Exception e) {
+				e.printStackTrace();
+				documentWriter.abort();
+				return;
+			}
+
+			// Shards without pages (all records failed) have no file
+			if (shard.pages == 0 || shardFile.isFile()) {
+
+				shard.file = shard.pages > 0 ? shardFile.getName() : null;
+				shard.finished = true;
+
+				try {
+					ShardManifest.write(new File(outputDir, ShardManifest.getShardManifestName(shard.index)), shard);
+				} catch (IOException e) {
+					e.printStackTrace();
+					shard.finished = false;
+				}
+
+			} else {
+				System.err.println("Writing shard " + (shard.index + 1) + " failed");
+			}
+
+		}
+
+		private RecordEntry createEntry(Record record, String id, RenderResult result) {
+
+			RecordEntry entry = new RecordEntry();
+			entry.record = record.number;
+			entry.id = id;
+			entry.status = result.getStatus().stringValue;
+
+			latencies.add(result.getMillis() * 1000000L);
+
+			if (result.getStatus() == RenderStatus.SUCCEEDED) {
+				succeeded.incrementAndGet();
+				if (result.getDocumentLayoutInfo() != null) {
+					pages.addAndGet(result.getDocumentLayoutInfo().pages.size());
+				}
+			} else {
+
+				entry.message = result.getMessage();
+
+				if (result.getStatus() == RenderStatus.FAILED) {
+					failed.incrementAndGet();
+				} else {
+					cancelled.incrementAndGet();
+				}
+
+				System.err.println("Record " + record.number + " " + result.getStatus().stringValue + ": " + result.getMessage());
+
+			}
+
+			return entry;
+
+		}
+
+		// Reads the records of the shard, records that are not valid JSON are added to the manifest as failed
+		// and skipped because loadDocuments() can't skip a record that has no field context
+		private class ShardRecordIterator implements Iterator<IFieldContext> {
+
+			private final BufferedReader reader;
+			private int recordNumber = shard.firstRecord - 1;
+			private TemplateFieldContext next = null;
+
+			private ShardRecordIterator(BufferedReader reader) {
+				this.reader = reader;
+			}
+
+			@Override
+			public boolean hasNext() {
+
+				while (next == null && recordNumber < shard.firstRecord + shard.records - 1) {
+
+					String line;
+					try {
+						line = reader.readLine();
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+
+					if (line == null) {
+						return false;
+					} else if (line.trim().length() == 0) {
+						continue;
+					}
+
+					recordNumber++;
+
+					Record record = new Record(recordNumber, line);
+					String id = null;
+
+					try {
+
+						JsonNode object = objectMapper.readTree(line);
+						if (idField != null && object != null && object.hasNonNull(idField)) {
+							id = object.get(idField).asText();
+						}
+
+						next = TemplateFieldContext.fromJson(object);
+						currentRecord = record;
+						currentId = id;
+
+					} catch (Exception e) {
+						shard.entries.add(createEntry(record, id, RenderResult.failed(null, e, 0)));
+					}
+
+				}
+
+				return next != null;
+
+			}
+
+			@Override
+			public IFieldContext next() {
+
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				IFieldContext fieldContext = next;
+				next = null;
+
+				return fieldContext;
+
+			}
+
+		}
+
+	}
+
+}
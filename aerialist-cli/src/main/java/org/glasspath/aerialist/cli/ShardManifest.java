@@ -0,0 +1,157 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+// Written to <out>/manifest.json by the batch renderer in shard mode. The records of the data file are split in
+// contiguous ranges, every range is written to its own file (shard-0001.pdf, shard-0002.pdf..). When a shard is
+// finished its records are written to shard-0001.json, a batch that is resumed skips the shards that have one.
+// Pages are numbered from 1 within the shard, byte offsets are the range of the shard file that the content of the
+// record's pages was written to (-1 for records that were not written). The size and SHA-256 hash of the data file
+// are stored so a batch is never resumed with a different data file
+@SuppressWarnings("nls")
+public class ShardManifest {
+
+	public static final String FILE_NAME = "manifest.json";
+
+	public String template = null;
+	public String data = null;
+	public long dataSize = 0;
+	public String dataHash = null;
+	public String backend = null;
+	public int records = 0;
+	public List<Shard> shards = new ArrayList<>();
+
+	public ShardManifest() {
+
+	}
+
+	// True if a batch that was started with this manifest can be continued as the planned batch: the data file, the
+	// backend and the records of every shard are the same
+	public boolean canResumeAs(ShardManifest plannedManifest) {
+
+		if (dataSize != plannedManifest.dataSize || dataHash == null || !dataHash.equals(plannedManifest.dataHash)) {
+			return false;
+		} else if (backend == null || !backend.equals(plannedManifest.backend)) {
+			return false;
+		} else if (records != plannedManifest.records || shards.size() != plannedManifest.shards.size()) {
+			return false;
+		}
+
+		for (int i = 0; i < shards.size(); i++) {
+			if (!shards.get(i).hasRecordsOf(plannedManifest.shards.get(i)) || shards.get(i).dataOffset != plannedManifest.shards.get(i).dataOffset) {
+				return false;
+			}
+		}
+
+		return true;
+
+	}
+
+	public static String getShardFileName(int index) {
+		return String.format("shard-%04d.pdf", index + 1);
+	}
+
+	public static String getShardManifestName(int index) {
+		return String.format("shard-%04d.json", index + 1);
+	}
+
+	public static ObjectMapper createObjectMapper() {
+
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.setSerializationInclusion(Include.NON_NULL);
+		objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+		objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+		return objectMapper;
+
+	}
+
+	public static <T> T read(File file, Class<T> type) throws IOException {
+		return createObjectMapper().readValue(file, type);
+	}
+
+	// The file is replaced when the new version is complete, a crash never leaves a partially written manifest
+	public static void write(File file, Object value) throws IOException {
+
+		File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".part");
+		createObjectMapper().writeValue(tempFile, value);
+
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+	}
+
+	public static class Shard {
+
+		public int index = 0;
+		public String file = null;
+		public int firstRecord = 0;
+		public int records = 0;
+		public long dataOffset = 0;
+		public boolean finished = false;
+		public int pages = 0;
+		public List<RecordEntry> entries = new ArrayList<>();
+
+		public Shard() {
+
+		}
+
+		public boolean hasRecordsOf(Shard shard) {
+			return index == shard.index && firstRecord == shard.firstRecord && records == shard.records;
+		}
+
+	}
+
+	public static class RecordEntry {
+
+		public int record = 0;
+		public String id = null;
+		public String status = null;
+		public int firstPage = 0;
+		public int lastPage = 0;
+		public long startOffset = -1;
+		public long endOffset = -1;
+		public String message = null;
+
+		public RecordEntry() {
+
+		}
+
+	}
+
+}
@@ -0,0 +1,376 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.glasspath.aerialist.ColStyle;
+import org.glasspath.aerialist.Content;
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.HeightPolicy;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.TableCell;
+import org.glasspath.aerialist.TextStyle;
+import org.glasspath.aerialist.XDoc;
+import org.glasspath.aerialist.writer.XDocWriter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lowagie.text.pdf.PdfReader;
+
+@SuppressWarnings("nls")
+public class BatchRendererTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File templateFile;
+	private File outputDir;
+
+	@Before
+	public void setUp() throws Exception {
+
+		templateFile = temporaryFolder.newFile("template.gpdx");
+		outputDir = new File(temporaryFolder.getRoot(), "out");
+
+		Content content = new Content();
+		content.setRoot(createTemplate());
+
+		XDoc xDoc = new XDoc();
+		xDoc.setContent(content);
+		assertTrue(XDocWriter.write(xDoc, templateFile));
+
+	}
+
+	// A table with a header row and a template row that refers to the list fields col1 and col2
+	static Document createTemplate() {
+
+		Table table = new Table();
+		table.setX(20);
+		table.setY(100);
+		table.setWidth(400);
+		table.setHeight(40);
+		table.setHeightPolicy(HeightPolicy.AUTO.stringValue);
+
+		for (int col = 1; col <= 2; col++) {
+
+			ColStyle colStyle = new ColStyle();
+			colStyle.col = col;
+			colStyle.width = 200;
+			table.getColStyles().add(colStyle);
+
+			table.getTableCells().add(createTableCell(1, col, "Column " + col, null));
+			table.getTableCells().add(createTableCell(2, col, "${col" + col + "}", "t:col" + col));
+
+		}
+
+		Page page = new Page(Page.PageSize.A4);
+		page.getElements().add(table);
+
+		Document document = new Document();
+		document.getPages().add(page);
+
+		return document;
+
+	}
+
+	private static TableCell createTableCell(int row, int col, String text, String source) {
+
+		TableCell tableCell = new TableCell();
+		tableCell.setRow(row);
+		tableCell.setCol(col);
+		tableCell.setText(text);
+
+		TextStyle style = new TextStyle();
+		style.start = 0;
+		style.end = text.length();
+		style.source = source;
+		tableCell.getStyles().add(style);
+
+		return tableCell;
+
+	}
+
+	// A JSON record with rows values for both list fields
+	static String createRecord(String id, int rows) {
+
+		StringBuilder record = new StringBuilder();
+		record.append("{\"id\": \"").append(id).append("\", \"customer\": {\"name\": \"Customer ").append(id).append("\"}");
+
+		for (int col = 1; col <= 2; col++) {
+			record.append(", \"col").append(col).append("\": [");
+			for (int row = 0; row < rows; row++) {
+				if (row > 0) {
+					record.append(", ");
+				}
+				record.append("\"Row ").append(row).append(" column ").append(col).append("\"");
+			}
+			record.append("]");
+		}
+
+		return record.append("}").toString();
+
+	}
+
+	File writeData(String... lines) throws Exception {
+		File dataFile = new File(temporaryFolder.getRoot(), "data.jsonl");
+		Files.write(dataFile.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		return dataFile;
+	}
+
+	BatchRenderer createRenderer(File dataFile, String... options) {
+
+		List<String> args = new ArrayList<>(Arrays.asList("-template", templateFile.getPath(), "-data", dataFile.getPath(), "-out", outputDir.getPath(), "-threads", "2", "-layout-threads", "2"));
+		args.addAll(Arrays.asList(options));
+
+		BatchRenderer renderer = new BatchRenderer();
+		renderer.parseArguments(args.toArray(new String[args.size()]));
+
+		return renderer;
+
+	}
+
+	// Runs the renderer and returns what it printed
+	static String run(BatchRenderer renderer, int expectedExitCode) throws Exception {
+
+		PrintStream out = System.out;
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		try {
+			System.setOut(new PrintStream(outputStream, true, "UTF-8"));
+			assertEquals(expectedExitCode, renderer.run());
+		} finally {
+			System.setOut(out);
+		}
+
+		return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+
+	}
+
+	static int getPageCount(File file) throws Exception {
+		PdfReader reader = new PdfReader(file.getPath());
+		try {
+			return reader.getNumberOfPages();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static void assertRejected(String message, String... args) {
+		try {
+			new BatchRenderer().parseArguments(args);
+			fail("Arguments were accepted: " + Arrays.toString(args));
+		} catch (IllegalArgumentException e) {
+			assertEquals(message, e.getMessage());
+		}
+	}
+
+	@Test
+	public void invalidArgumentsAreRejected() {
+
+		assertRejected("The options -template, -data and -out are required", "-template", "t.gpdx", "-data", "d.jsonl");
+		assertRejected("Unknown option: -color", "-template", "t.gpdx", "-color", "red");
+		assertRejected("Missing value of option: -out", "-template", "t.gpdx", "-data", "d.jsonl", "-out");
+		assertRejected("Invalid value of option -threads: many", "-threads", "many");
+		assertRejected("Unknown backend: itext", "-template", "t.gpdx", "-data", "d.jsonl", "-out", "out", "-backend", "itext");
+		assertRejected("The option -resume requires -shards", "-template", "t.gpdx", "-data", "d.jsonl", "-out", "out", "-resume");
+		assertRejected("The option -shards requires the openpdf backend", "-template", "t.gpdx", "-data", "d.jsonl", "-out", "out", "-shards", "2", "-backend", "pdfbox");
+
+	}
+
+	@Test
+	public void optionsCanBeWrittenWithTwoDashes() throws Exception {
+
+		File dataFile = writeData(createRecord("a", 2));
+
+		BatchRenderer renderer = new BatchRenderer();
+		renderer.parseArguments(new String[] { "--template", templateFile.getPath(), "--data", dataFile.getPath(), "--out", outputDir.getPath(), "--threads", "1" });
+		run(renderer, BatchRenderer.EXIT_SUCCEEDED);
+
+		assertEquals(1, getPageCount(new File(outputDir, "record-1.pdf")));
+
+	}
+
+	@Test
+	public void everyRecordIsWrittenToItsOwnFile() throws Exception {
+
+		// Blank lines are not records
+		File dataFile = writeData(createRecord("a", 2), "", createRecord("b", 120), "  ", createRecord("c", 5));
+
+		BatchRenderer renderer = createRenderer(dataFile);
+		String output = run(renderer, BatchRenderer.EXIT_SUCCEEDED);
+
+		assertEquals(3, renderer.getRecordCount());
+		assertEquals(3, renderer.getSucceeded());
+		assertEquals(0, renderer.getFailed());
+		assertEquals(0, renderer.getCancelled());
+
+		assertEquals(1, getPageCount(new File(outputDir, "record-1.pdf")));
+		assertTrue(getPageCount(new File(outputDir, "record-2.pdf")) > 1);
+		assertEquals(1, getPageCount(new File(outputDir, "record-3.pdf")));
+		assertFalse(new File(outputDir, "record-4.pdf").exists());
+
+		int pages = getPageCount(new File(outputDir, "record-1.pdf")) + getPageCount(new File(outputDir, "record-2.pdf")) + getPageCount(new File(outputDir, "record-3.pdf"));
+
+		assertTrue(output, output.startsWith("Rendered 3 record(s) in "));
+		assertTrue(output, output.contains(" with 2 thread(s) (openpdf)"));
+		assertTrue(output, output.contains("succeeded 3, failed 0, cancelled 0"));
+		assertTrue(output, output.contains("(" + pages + " pages)"));
+		assertTrue(output, output.contains("latency p50 "));
+
+	}
+
+	@Test
+	public void failedAndCancelledRecordsAreCounted() throws Exception {
+
+		// The first record is not valid JSON, the second record can't be laid out within the deadline
+		File dataFile = writeData("{\"id\": ", createRecord("b", 5000));
+
+		BatchRenderer renderer = createRenderer(dataFile, "-timeout", "1");
+		String output = run(renderer, BatchRenderer.EXIT_RECORDS_FAILED);
+
+		assertEquals(2, renderer.getRecordCount());
+		assertEquals(0, renderer.getSucceeded());
+		assertEquals(1, renderer.getFailed());
+		assertEquals(1, renderer.getCancelled());
+
+		assertTrue(output, output.contains("succeeded 0, failed 1, cancelled 1"));
+
+		// Files of records that were not rendered are not created
+		assertFalse(new File(outputDir, "record-1.pdf").exists());
+		assertFalse(new File(outputDir, "record-2.pdf").exists());
+		assertFalse(new File(outputDir, "record-2.pdf.part").exists());
+
+	}
+
+	@Test
+	public void shardManifestMapsRecordsToPagesAndOffsets() throws Exception {
+
+		File dataFile = writeData(createRecord("a", 2), createRecord("b", 120), createRecord("c", 5), createRecord("d", 2), createRecord("e", 2));
+
+		run(createRenderer(dataFile, "-shards", "2", "-id-field", "id"), BatchRenderer.EXIT_SUCCEEDED);
+
+		ShardManifest manifest = ShardManifest.read(new File(outputDir, ShardManifest.FILE_NAME), ShardManifest.class);
+		assertEquals(5, manifest.records);
+		assertEquals(dataFile.length(), manifest.dataSize);
+		assertEquals(2, manifest.shards.size());
+
+		int record = 1;
+		for (ShardManifest.Shard shard : manifest.shards) {
+
+			assertTrue(shard.finished);
+			assertEquals(shard.pages, getPageCount(new File(outputDir, shard.file)));
+			assertEquals(shard.records, shard.entries.size());
+
+			int lastPage = 0;
+			long endOffset = 0;
+			for (ShardManifest.RecordEntry entry : shard.entries) {
+
+				assertEquals(record++, entry.record);
+				assertEquals(Character.toString((char) ('a' + entry.record - 1)), entry.id);
+
+				// The records follow each other in the shard file
+				assertEquals(lastPage + 1, entry.firstPage);
+				assertTrue(entry.lastPage >= entry.firstPage);
+				assertTrue(entry.startOffset >= endOffset);
+				assertTrue(entry.endOffset > entry.startOffset);
+
+				lastPage = entry.lastPage;
+				endOffset = entry.endOffset;
+
+			}
+
+			assertEquals(shard.pages, lastPage);
+
+		}
+
+	}
+
+	@Test
+	public void resumeOnlyWritesUnfinishedShards() throws Exception {
+
+		File dataFile = writeData(createRecord("a", 2), createRecord("b", 2), createRecord("c", 2), createRecord("d", 2));
+
+		run(createRenderer(dataFile, "-shards", "2"), BatchRenderer.EXIT_SUCCEEDED);
+
+		// An interrupted batch, the second shard was not finished
+		File firstShardFile = new File(outputDir, ShardManifest.getShardFileName(0));
+		assertTrue(firstShardFile.setLastModified(1000000000000L));
+		assertTrue(new File(outputDir, ShardManifest.getShardFileName(1)).delete());
+		assertTrue(new File(outputDir, ShardManifest.getShardManifestName(1)).delete());
+
+		BatchRenderer renderer = createRenderer(dataFile, "-shards", "2", "-resume");
+		String output = run(renderer, BatchRenderer.EXIT_SUCCEEDED);
+
+		assertTrue(output, output.contains("Resuming batch, 1 of 2 shard(s) already finished"));
+		assertEquals(2, renderer.getSucceeded());
+		assertEquals(1000000000000L, firstShardFile.lastModified());
+
+		ShardManifest manifest = ShardManifest.read(new File(outputDir, ShardManifest.FILE_NAME), ShardManifest.class);
+		for (ShardManifest.Shard shard : manifest.shards) {
+			assertTrue(shard.finished);
+			assertEquals(2, shard.entries.size());
+			assertEquals(2, getPageCount(new File(outputDir, shard.file)));
+		}
+
+	}
+
+	@Test
+	public void resumeIsRefusedWhenTheDataFileChanged() throws Exception {
+
+		File dataFile = writeData(createRecord("a", 2), createRecord("b", 2), createRecord("c", 2), createRecord("d", 2));
+
+		run(createRenderer(dataFile, "-shards", "2"), BatchRenderer.EXIT_SUCCEEDED);
+		assertTrue(new File(outputDir, ShardManifest.getShardManifestName(1)).delete());
+
+		// The same size, but other records
+		long dataSize = dataFile.length();
+		writeData(createRecord("w", 2), createRecord("x", 2), createRecord("y", 2), createRecord("z", 2));
+		assertEquals(dataSize, dataFile.length());
+
+		run(createRenderer(dataFile, "-shards", "2", "-resume"), BatchRenderer.EXIT_ERROR);
+
+		// A different number of shards is refused too
+		writeData(createRecord("a", 2), createRecord("b", 2), createRecord("c", 2), createRecord("d", 2));
+		run(createRenderer(dataFile, "-shards", "3", "-resume"), BatchRenderer.EXIT_ERROR);
+
+		run(createRenderer(dataFile, "-shards", "2", "-resume"), BatchRenderer.EXIT_SUCCEEDED);
+
+	}
+
+}
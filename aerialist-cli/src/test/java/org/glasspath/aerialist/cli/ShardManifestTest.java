@@ -0,0 +1,149 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.glasspath.aerialist.cli.ShardManifest.RecordEntry;
+import org.glasspath.aerialist.cli.ShardManifest.Shard;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("nls")
+public class ShardManifestTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static ShardManifest createManifest() {
+
+		ShardManifest manifest = new ShardManifest();
+		manifest.template = "template.gpdx";
+		manifest.data = "data.jsonl";
+		manifest.dataSize = 1000;
+		manifest.dataHash = "0123456789abcdef";
+		manifest.backend = "openpdf";
+		manifest.records = 10;
+
+		for (int i = 0; i < 2; i++) {
+			Shard shard = new Shard();
+			shard.index = i;
+			shard.firstRecord = i * 5 + 1;
+			shard.records = 5;
+			shard.dataOffset = i * 500;
+			manifest.shards.add(shard);
+		}
+
+		return manifest;
+
+	}
+
+	@Test
+	public void batchCanBeResumedWithTheSameDataAndShards() {
+
+		ShardManifest manifest = createManifest();
+		manifest.shards.get(0).finished = true;
+		manifest.shards.get(0).entries.add(new RecordEntry());
+
+		assertTrue(manifest.canResumeAs(createManifest()));
+
+	}
+
+	@Test
+	public void batchCantBeResumedWithOtherDataOrShards() {
+
+		ShardManifest plannedManifest = createManifest();
+
+		ShardManifest manifest = createManifest();
+		manifest.dataHash = "fedcba9876543210";
+		assertFalse(manifest.canResumeAs(plannedManifest));
+
+		manifest = createManifest();
+		manifest.dataHash = null;
+		assertFalse(manifest.canResumeAs(plannedManifest));
+
+		manifest = createManifest();
+		manifest.dataSize = 1001;
+		assertFalse(manifest.canResumeAs(plannedManifest));
+
+		manifest = createManifest();
+		manifest.backend = "pdfbox";
+		assertFalse(manifest.canResumeAs(plannedManifest));
+
+		manifest = createManifest();
+		manifest.shards.remove(1);
+		assertFalse(manifest.canResumeAs(plannedManifest));
+
+		manifest = createManifest();
+		manifest.shards.get(1).firstRecord = 7;
+		assertFalse(manifest.canResumeAs(plannedManifest));
+
+		manifest = createManifest();
+		manifest.shards.get(1).dataOffset = 600;
+		assertFalse(manifest.canResumeAs(plannedManifest));
+
+	}
+
+	@Test
+	public void manifestIsWrittenAndRead() throws Exception {
+
+		ShardManifest manifest = createManifest();
+
+		RecordEntry entry = new RecordEntry();
+		entry.record = 1;
+		entry.id = "a";
+		entry.status = "succeeded";
+		entry.firstPage = 1;
+		entry.lastPage = 2;
+		entry.startOffset = 15;
+		entry.endOffset = 4000;
+		manifest.shards.get(0).entries.add(entry);
+		manifest.shards.get(0).finished = true;
+		manifest.shards.get(0).file = ShardManifest.getShardFileName(0);
+
+		File file = new File(temporaryFolder.getRoot(), ShardManifest.FILE_NAME);
+		ShardManifest.write(file, manifest);
+
+		// The manifest replaces the temporary file when it's complete
+		assertFalse(new File(temporaryFolder.getRoot(), ShardManifest.FILE_NAME + ".part").exists());
+
+		ShardManifest readManifest = ShardManifest.read(file, ShardManifest.class);
+		assertTrue(readManifest.canResumeAs(manifest));
+		assertEquals("shard-0001.pdf", readManifest.shards.get(0).file);
+		assertTrue(readManifest.shards.get(0).finished);
+		assertFalse(readManifest.shards.get(1).finished);
+
+		RecordEntry readEntry = readManifest.shards.get(0).entries.get(0);
+		assertEquals("a", readEntry.id);
+		assertEquals(2, readEntry.lastPage);
+		assertEquals(15, readEntry.startOffset);
+		assertEquals(4000, readEntry.endOffset);
+
+	}
+
+}
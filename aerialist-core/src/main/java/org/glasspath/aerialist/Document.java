@@ -53,6 +53,25 @@ public class Document extends ContentRoot {
 
 	}
 
+	public Document(Document document) {
+		fromDocument(document);
+	}
+
+	public void fromDocument(Document document) {
+
+		headerHeight = document.headerHeight;
+		footerHeight = document.footerHeight;
+
+		header = document.header != null ? new Page(document.header) : null;
+		footer = document.footer != null ? new Page(document.footer) : null;
+
+		pages.clear();
+		for (Page page : document.pages) {
+			pages.add(new Page(page));
+		}
+
+	}
+
 	public int getHeaderHeight() {
 		return headerHeight;
 	}
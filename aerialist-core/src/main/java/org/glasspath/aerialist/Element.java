@@ -95,6 +95,23 @@ public abstract class Element {
 
 	}
 
+	// Returns a copy of an element of any of the types listed above, null for unknown types
+	public static Element copy(Element element) {
+		if (element instanceof Group) {
+			return new Group((Group) element);
+		} else if (element instanceof TextBox) {
+			return new TextBox((TextBox) element);
+		} else if (element instanceof QrCode) {
+			return new QrCode((QrCode) element);
+		} else if (element instanceof Table) {
+			return new Table((Table) element);
+		} else if (element instanceof Image) {
+			return new Image((Image) element);
+		} else {
+			return null;
+		}
+	}
+
 	public int getX() {
 		return x;
 	}
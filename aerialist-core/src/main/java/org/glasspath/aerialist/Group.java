@@ -41,6 +41,24 @@ public class Group extends Element implements IElementContainer {
 
 	}
 
+	public Group(Group group) {
+		fromGroup(group);
+	}
+
+	public void fromGroup(Group group) {
+
+		fromElement(group);
+
+		elements.clear();
+		for (Element element : group.elements) {
+			Element copy = Element.copy(element);
+			if (copy != null) {
+				elements.add(copy);
+			}
+		}
+
+	}
+
 	@Override
 	public List<Element> getElements() {
 		return elements;
@@ -46,6 +46,21 @@ public class Image extends Element {
 
 	}
 
+	public Image(Image image) {
+		fromImage(image);
+	}
+
+	public void fromImage(Image image) {
+
+		fromElement(image);
+
+		src = image.src;
+		scale = image.scale;
+		alignment = image.alignment;
+		fit = image.fit;
+
+	}
+
 	public String getSrc() {
 		return src;
 	}
@@ -86,6 +86,25 @@ public class Page implements IElementContainer {
 		this.height = height;
 	}
 
+	public Page(Page page) {
+		fromPage(page);
+	}
+
+	public void fromPage(Page page) {
+
+		width = page.width;
+		height = page.height;
+
+		elements.clear();
+		for (Element element : page.elements) {
+			Element copy = Element.copy(element);
+			if (copy != null) {
+				elements.add(copy);
+			}
+		}
+
+	}
+
 	public int getWidth() {
 		return width;
 	}
@@ -48,6 +48,24 @@ public class QrCode extends Element implements IText {
 
 	}
 
+	public QrCode(QrCode qrCode) {
+		fromQrCode(qrCode);
+	}
+
+	public void fromQrCode(QrCode qrCode) {
+
+		fromElement(qrCode);
+
+		text = qrCode.text;
+		alignment = qrCode.alignment;
+
+		styles.clear();
+		for (TextStyle style : qrCode.styles) {
+			styles.add(new TextStyle(style));
+		}
+
+	}
+
 	@Override
 	public String getText() {
 		return text;
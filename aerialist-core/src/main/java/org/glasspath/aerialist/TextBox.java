@@ -51,6 +51,25 @@ public class TextBox extends Element implements IText {
 
 	}
 
+	public TextBox(TextBox textBox) {
+		fromTextBox(textBox);
+	}
+
+	public void fromTextBox(TextBox textBox) {
+
+		fromElement(textBox);
+
+		text = textBox.text;
+		alignment = textBox.alignment;
+		padding = textBox.padding;
+
+		styles.clear();
+		for (TextStyle style : textBox.styles) {
+			styles.add(new TextStyle(style));
+		}
+
+	}
+
 	@Override
 	public String getText() {
 		return text;
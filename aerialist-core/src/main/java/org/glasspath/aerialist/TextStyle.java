@@ -90,6 +90,7 @@ public class TextStyle {
 		this.strikeThrough = textStyle.strikeThrough;
 		this.foreground = textStyle.foreground;
 		this.background = textStyle.background;
+		this.image = textStyle.image;
 		this.source = textStyle.source;
 
 	}
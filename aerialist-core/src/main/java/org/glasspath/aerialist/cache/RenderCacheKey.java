@@ -0,0 +1,107 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.media.ContentHash;
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.media.MediaCache.ImageResource;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.glasspath.aerialist.writer.XDocWriter;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+// Keys of the render result cache, a key is the SHA-256 of the template (content and image hashes), the canonical
+// form of the fields and a variant that describes how the document is written (backend, compression, ..). The
+// format version must be incremented when changes to the layout or writers change the output of a key
+@SuppressWarnings("nls")
+public class RenderCacheKey {
+
+	public static final int FORMAT_VERSION = 1;
+
+	private RenderCacheKey() {
+
+	}
+
+	public static String hashTemplate(Document document, MediaCache<?> mediaCache) {
+
+		try {
+
+			XmlMapper xmlMapper = XDocWriter.createXmlMapper();
+			xmlMapper.disable(SerializationFeature.INDENT_OUTPUT);
+
+			return hashTemplate(xmlMapper.writeValueAsBytes(document), mediaCache);
+
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Template could not be serialized", e);
+		}
+
+	}
+
+	// The document bytes are the serialized content of the template (without indentation)
+	public static String hashTemplate(byte[] documentBytes, MediaCache<?> mediaCache) {
+
+		MessageDigest digest = ContentHash.createDigest();
+		digest.update(documentBytes);
+
+		if (mediaCache != null) {
+
+			// Images are hashed in key order, the content only refers to images by key
+			Map<String, ImageResource> imageResources = new TreeMap<>(mediaCache.getImageResources());
+			for (Entry<String, ImageResource> entry : imageResources.entrySet()) {
+				update(digest, entry.getKey());
+				update(digest, entry.getValue().getContentHash());
+			}
+
+		}
+
+		return ContentHash.toHex(digest.digest());
+
+	}
+
+	public static String create(String templateHash, TemplateFieldContext fieldContext, String variant) {
+
+		MessageDigest digest = ContentHash.createDigest();
+		update(digest, Integer.toString(FORMAT_VERSION));
+		update(digest, templateHash);
+		update(digest, variant != null ? variant : "");
+		update(digest, fieldContext != null ? fieldContext.getCanonicalForm() : "");
+
+		return ContentHash.toHex(digest.digest());
+
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		digest.update((bytes.length + ":").getBytes(StandardCharsets.UTF_8));
+		digest.update(bytes);
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.glasspath.aerialist.writer.sink.PooledBufferSink;
+
+// Rendered documents stored in a directory (<key>.pdf) that is limited to a number of bytes, the least recently
+// used entries are removed first. Entries are memory mapped when they are read so hits are served from the page
+// cache without copying. Entries are written to a temporary file that is moved into place, an entry that exists
+// is always complete. The index is rebuilt from the directory on startup (ordered by last modified time)
+@SuppressWarnings("nls")
+public class RenderResultCache {
+
+	public static final String FILE_EXTENSION = ".pdf";
+	public static final String TEMP_FILE_EXTENSION = ".tmp";
+
+	private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+
+	private final File dir;
+	private final long maxBytes;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+	private long bytes = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public RenderResultCache(File dir, long maxBytes) throws IOException {
+
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+
+		Files.createDirectories(dir.toPath());
+
+		File[] files = dir.listFiles();
+		if (files != null) {
+
+			Arrays.sort(files, new Comparator<File>() {
+
+				@Override
+				public int compare(File file1, File file2) {
+					return Long.compare(file1.lastModified(), file2.lastModified());
+				}
+			});
+
+			for (File file : files) {
+
+				String name = file.getName();
+				if (name.endsWith(TEMP_FILE_EXTENSION)) {
+					// Left behind by a put that didn't finish
+					file.delete();
+				} else if (name.endsWith(FILE_EXTENSION) && file.isFile()) {
+
+					String key = name.substring(0, name.length() - FILE_EXTENSION.length());
+					if (isValidKey(key)) {
+						entries.put(key, new Entry(file, file.length()));
+						bytes += file.length();
+					}
+
+				}
+
+			}
+
+			evict();
+
+		}
+
+	}
+
+	public static boolean isValidKey(String key) {
+		return key != null && KEY_PATTERN.matcher(key).matches();
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	// Returns a read only buffer with the document or null if the key is not cached
+	public ByteBuffer get(String key) {
+
+		Entry entry;
+		synchronized (this) {
+			entry = isValidKey(key) ? entries.get(key) : null;
+		}
+
+		if (entry != null) {
+
+			try {
+
+				ByteBuffer buffer = entry.map();
+
+				// Keeps the order when the index is rebuilt
+				entry.file.setLastModified(System.currentTimeMillis());
+
+				hits.incrementAndGet();
+
+				return buffer;
+
+			} catch (IOException e) {
+
+				// Evicted after the lookup or removed from the directory by someone else
+				synchronized (this) {
+					if (entries.remove(key, entry)) {
+						bytes -= entry.size;
+					}
+				}
+
+			}
+
+		}
+
+		misses.incrementAndGet();
+
+		return null;
+
+	}
+
+	public boolean contains(String key) {
+		synchronized (this) {
+			return entries.containsKey(key);
+		}
+	}
+
+	public void put(String key, byte[] data) throws IOException {
+		put(key, ByteBuffer.wrap(data), null);
+	}
+
+	public void put(String key, PooledBufferSink sink) throws IOException {
+		put(key, null, sink);
+	}
+
+	private void put(String key, ByteBuffer data, PooledBufferSink sink) throws IOException {
+
+		if (!isValidKey(key)) {
+			throw new IllegalArgumentException("Invalid cache key: " + key);
+		}
+
+		// Written outside of the lock, only the move and the index update are synchronized
+		Path tempFile = Files.createTempFile(dir.toPath(), key + "-", TEMP_FILE_EXTENSION);
+
+		try {
+
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				if (sink != null) {
+					sink.writeTo(channel);
+				} else {
+					while (data.hasRemaining()) {
+						channel.write(data);
+					}
+				}
+			}
+
+			long size = Files.size(tempFile);
+			if (size > maxBytes) {
+				return;
+			}
+
+			File file = new File(dir, key + FILE_EXTENSION);
+
+			synchronized (this) {
+
+				Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				Entry previous = entries.put(key, new Entry(file, size));
+				if (previous != null) {
+					bytes -= previous.size;
+				}
+				bytes += size;
+
+				evict();
+
+			}
+
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+	}
+
+	public synchronized boolean remove(String key) {
+
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			bytes -= entry.size;
+			delete(entry);
+			return true;
+		} else {
+			return false;
+		}
+
+	}
+
+	public synchronized void clear() {
+
+		for (Entry entry : entries.values()) {
+			delete(entry);
+		}
+
+		entries.clear();
+		bytes = 0;
+
+	}
+
+	private void evict() {
+
+		if (bytes > maxBytes) {
+
+			List<Entry> evicted = new ArrayList<>();
+
+			Iterator<Entry> iterator = entries.values().iterator();
+			while (bytes > maxBytes && iterator.hasNext()) {
+				Entry entry = iterator.next();
+				iterator.remove();
+				bytes -= entry.size;
+				evicted.add(entry);
+			}
+
+			for (Entry entry : evicted) {
+				delete(entry);
+				evictions.incrementAndGet();
+			}
+
+		}
+
+	}
+
+	private static void delete(Entry entry) {
+
+		// Buffers that were returned by get() stay valid, the data is only released when they are unmapped
+		if (!entry.file.delete() && entry.file.exists()) {
+			System.err.println("Cache entry could not be deleted: " + entry.file);
+		}
+
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	private static class Entry {
+
+		private final File file;
+		private final long size;
+		private volatile MappedByteBuffer buffer = null;
+
+		private Entry(File file, long size) {
+			this.file = file;
+			this.size = size;
+		}
+
+		// The file is mapped once, every caller gets it's own view of the mapping
+		private ByteBuffer map() throws IOException {
+
+			MappedByteBuffer mapped = buffer;
+			if (mapped == null) {
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				}
+				buffer = mapped;
+			}
+
+			return mapped.asReadOnlyBuffer();
+
+		}
+
+	}
+
+}
@@ -23,6 +23,7 @@
 package org.glasspath.aerialist.layout;
 
 import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.metrics.ElementProfiler;
 import org.glasspath.aerialist.text.font.FontCache;
 
 public class DefaultLayoutContext<F, I> implements ILayoutContext<I> {
@@ -32,6 +33,7 @@ public class DefaultLayoutContext<F, I> implements ILayoutContext<I> {
 	private LayoutPhase layoutPhase = LayoutPhase.IDLE;
 	private boolean yPolicyEnabled = false;
 	private ExportPhase exportPhase = ExportPhase.IDLE;
+	private ElementProfiler elementProfiler = null;
 
 	public DefaultLayoutContext(FontCache<?> fontCache, MediaCache<I> mediaCache) {
 		this.fontCache = fontCache;
@@ -83,4 +85,13 @@ public class DefaultLayoutContext<F, I> implements ILayoutContext<I> {
 		this.exportPhase = exportPhase;
 	}
 
+	@Override
+	public ElementProfiler getElementProfiler() {
+		return elementProfiler;
+	}
+
+	public void setElementProfiler(ElementProfiler elementProfiler) {
+		this.elementProfiler = elementProfiler;
+	}
+
 }
@@ -39,6 +39,9 @@ import org.glasspath.aerialist.layout.DocumentLayoutInfo.LayoutInfo;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.TableLayoutInfo;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.TextBoxLayoutInfo;
 import org.glasspath.aerialist.media.MediaCache.ImageSize;
+import org.glasspath.aerialist.metrics.CacheType;
+import org.glasspath.aerialist.metrics.ElementProfiler;
+import org.glasspath.aerialist.metrics.Metrics;
 import org.glasspath.aerialist.text.TextLayout;
 import org.glasspath.aerialist.text.TextUtils;
 
@@ -87,8 +90,13 @@ public class DefaultLayoutMetrics implements IElementLayoutMetrics {
 
 		TextBoxLayoutInfo info = layoutInfo.textBoxes.get(textBox);
 
+		Metrics.cacheAccessed(CacheType.LAYOUT, info != null);
+
 		if (info == null) {
 
+			ElementProfiler profiler = layoutContext.getElementProfiler();
+			long start = profiler != null ? System.nanoTime() : 0;
+
 			info = new TextBoxLayoutInfo();
 			info.preferredHeight = textBox.getHeight();
 
@@ -107,6 +115,10 @@ public class DefaultLayoutMetrics implements IElementLayoutMetrics {
 
 			layoutInfo.textBoxes.put(textBox, info);
 
+			if (profiler != null) {
+				profiler.measured(textBox, System.nanoTime() - start, info.textLayout != null ? 1 : 0, info.textLayout != null ? info.textLayout.getSpanCount() : 0);
+			}
+
 		}
 
 		return info;
@@ -117,8 +129,13 @@ public class DefaultLayoutMetrics implements IElementLayoutMetrics {
 
 		TableLayoutInfo info = layoutInfo.tables.get(table);
 
+		Metrics.cacheAccessed(CacheType.LAYOUT, info != null);
+
 		if (info == null) {
 
+			ElementProfiler profiler = layoutContext.getElementProfiler();
+			long start = profiler != null ? System.nanoTime() : 0;
+
 			info = new TableLayoutInfo();
 			info.preferredHeight = table.getHeight();
 
@@ -239,6 +256,23 @@ public class DefaultLayoutMetrics implements IElementLayoutMetrics {
 
 			layoutInfo.tables.put(table, info);
 
+			if (profiler != null) {
+
+				int textLayouts = 0;
+				int spans = 0;
+				if (info.textLayouts != null) {
+					for (TextLayout textLayout : info.textLayouts) {
+						if (textLayout != null) {
+							textLayouts++;
+							spans += textLayout.getSpanCount();
+						}
+					}
+				}
+
+				profiler.measured(table, System.nanoTime() - start, textLayouts, spans);
+
+			}
+
 		}
 
 		return info;
@@ -249,8 +283,13 @@ public class DefaultLayoutMetrics implements IElementLayoutMetrics {
 
 		ImageLayoutInfo info = layoutInfo.images.get(image);
 
+		Metrics.cacheAccessed(CacheType.LAYOUT, info != null);
+
 		if (info == null) {
 
+			ElementProfiler profiler = layoutContext.getElementProfiler();
+			long start = profiler != null ? System.nanoTime() : 0;
+
 			info = new ImageLayoutInfo();
 			info.preferredHeight = image.getHeight();
 
@@ -268,6 +307,10 @@ public class DefaultLayoutMetrics implements IElementLayoutMetrics {
 
 			layoutInfo.images.put(image, info);
 
+			if (profiler != null) {
+				profiler.measured(image, System.nanoTime() - start, 0, 0);
+			}
+
 		}
 
 		return info;
@@ -23,6 +23,7 @@
 package org.glasspath.aerialist.layout;
 
 import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.metrics.ElementProfiler;
 import org.glasspath.aerialist.text.font.FontCache;
 
 public interface ILayoutContext<I> {
@@ -53,4 +54,9 @@ public interface ILayoutContext<I> {
 
 	public void setExportPhase(ExportPhase exportPhase);
 
+	// Returns null if element costs are not profiled
+	public default ElementProfiler getElementProfiler() {
+		return null;
+	}
+
 }
@@ -33,15 +33,25 @@ import org.glasspath.aerialist.TableCell;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.LayoutInfo;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.TableLayoutInfo;
+import org.glasspath.aerialist.metrics.ElementProfiler;
 
 public class Paginator {
 
 	private final LayoutListener listener;
+	private ElementProfiler elementProfiler = null;
 
 	public Paginator(LayoutListener listener) {
 		this.listener = listener;
 	}
 
+	public ElementProfiler getElementProfiler() {
+		return elementProfiler;
+	}
+
+	public void setElementProfiler(ElementProfiler elementProfiler) {
+		this.elementProfiler = elementProfiler;
+	}
+
 	public List<PageLayoutInfo> paginate(PageLayoutInfo pageLayoutInfo, int yMin, int yMax) {
 
 		List<PageLayoutInfo> newPages = new ArrayList<>();
@@ -70,6 +80,10 @@ public class Paginator {
 
 						newPages.addAll(newPagesForElement);
 
+						if (elementProfiler != null) {
+							elementProfiler.paginated(element, newPagesForElement);
+						}
+
 						lastAddedPage = newPagesForElement.get(newPagesForElement.size() - 1).page;
 						if (lastAddedPage.getElements().size() == 1) {
 							lastAddedElement = lastAddedPage.getElements().get(0);
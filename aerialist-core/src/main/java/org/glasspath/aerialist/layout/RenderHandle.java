@@ -0,0 +1,145 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.layout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Cancels the render of a document, from another thread or when its deadline passes. Rendering code checks the handle of
+// the current thread (see checkCurrent()) in its loops, so a render stops at the next text span, element or table cell
+public class RenderHandle {
+
+	private static final ThreadLocal<RenderHandle> CURRENT = new ThreadLocal<>();
+
+	private final long deadline;
+	private final List<Future<?>> futures = new ArrayList<>();
+	private volatile boolean cancelled = false;
+	private volatile boolean deadlineExceeded = false;
+
+	public RenderHandle() {
+		this.deadline = 0;
+	}
+
+	// The deadline starts when the handle is created, a timeout of 0 means no deadline
+	public RenderHandle(long timeout, TimeUnit unit) {
+		this.deadline = timeout > 0 ? System.nanoTime() + unit.toNanos(timeout) : 0;
+	}
+
+	public static RenderHandle getCurrent() {
+		return CURRENT.get();
+	}
+
+	public static void setCurrent(RenderHandle handle) {
+		if (handle != null) {
+			CURRENT.set(handle);
+		} else {
+			CURRENT.remove();
+		}
+	}
+
+	public static void checkCurrent() {
+		RenderHandle handle = CURRENT.get();
+		if (handle != null) {
+			handle.check();
+		}
+	}
+
+	public boolean hasDeadline() {
+		return deadline != 0;
+	}
+
+	// Returns Long.MAX_VALUE if there is no deadline
+	public long getRemainingNanos() {
+		if (deadline != 0) {
+			return Math.max(0, deadline - System.nanoTime());
+		} else {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	public void cancel() {
+		cancel(false);
+	}
+
+	private void cancel(boolean deadlineExceeded) {
+
+		List<Future<?>> pendingFutures;
+		synchronized (futures) {
+			if (cancelled) {
+				return;
+			}
+			this.deadlineExceeded = deadlineExceeded;
+			this.cancelled = true;
+			pendingFutures = new ArrayList<>(futures);
+			futures.clear();
+		}
+
+		for (Future<?> future : pendingFutures) {
+			future.cancel(true);
+		}
+
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public boolean isDeadlineExceeded() {
+		return deadlineExceeded;
+	}
+
+	public void check() throws RenderCancelledException {
+
+		if (!cancelled && deadline != 0 && System.nanoTime() - deadline >= 0) {
+			cancel(true);
+		}
+
+		if (cancelled) {
+			throw new RenderCancelledException(deadlineExceeded);
+		}
+
+	}
+
+	// Futures of the render are cancelled when the handle is cancelled (immediately if it was cancelled already)
+	public void addFuture(Future<?> future) {
+
+		synchronized (futures) {
+			if (!cancelled) {
+				futures.add(future);
+				return;
+			}
+		}
+
+		future.cancel(true);
+
+	}
+
+	public void removeFuture(Future<?> future) {
+		synchronized (futures) {
+			futures.remove(future);
+		}
+	}
+
+}
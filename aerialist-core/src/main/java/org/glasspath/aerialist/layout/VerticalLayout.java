@@ -32,6 +32,7 @@ import java.util.Map;
 import org.glasspath.aerialist.HeightPolicy;
 import org.glasspath.aerialist.YPolicy;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.Bounds;
+import org.glasspath.aerialist.metrics.ElementProfiler;
 
 public abstract class VerticalLayout<C, E> extends Layout<C, E> {
 
@@ -74,6 +75,8 @@ public abstract class VerticalLayout<C, E> extends Layout<C, E> {
 
 			for (int i = 0; i < getElementCount(); i++) {
 
+				RenderHandle.checkCurrent();
+
 				E element = getElement(i);
 				if (getHeightPolicy(element) == HeightPolicy.AUTO) {
 
@@ -97,9 +100,16 @@ public abstract class VerticalLayout<C, E> extends Layout<C, E> {
 
 						setBounds(element, bounds);
 
+						ElementProfiler profiler = layoutContext.getElementProfiler();
+						long start = profiler != null ? System.nanoTime() : 0;
+
 						updateLayout(element);
 						updateVerticalAnchors();
 
+						if (profiler != null) {
+							profiler.positioned(element, System.nanoTime() - start);
+						}
+
 						/* TODO?
 						if (getParent() instanceof ElementContainer) {
 							getParent().invalidate();
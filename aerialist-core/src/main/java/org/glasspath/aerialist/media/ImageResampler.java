@@ -0,0 +1,192 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.media;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+public class ImageResampler {
+
+	public static final int MAX_CACHED_IMAGES = 256;
+	public static final float JPEG_QUALITY = 0.9F;
+
+	// Resampled images are shared by all media caches in the process, keyed by content hash and target size
+	private static final Map<String, byte[]> RESAMPLED_IMAGES = new LinkedHashMap<String, byte[]>(16, 0.75F, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, byte[]> eldest) {
+			return size() > MAX_CACHED_IMAGES;
+		}
+	};
+
+	private ImageResampler() {
+
+	}
+
+	// Returns the encoded bytes of the image scaled to the given size, or null if the image could not be read
+	public static byte[] resample(String contentHash, byte[] bytes, int width, int height) {
+
+		String key = contentHash + "@" + width + "x" + height; //$NON-NLS-1$ //$NON-NLS-2$
+
+		byte[] resampledBytes;
+		synchronized (RESAMPLED_IMAGES) {
+			resampledBytes = RESAMPLED_IMAGES.get(key);
+		}
+
+		if (resampledBytes == null) {
+
+			resampledBytes = resample(bytes, width, height);
+			if (resampledBytes != null) {
+				synchronized (RESAMPLED_IMAGES) {
+					RESAMPLED_IMAGES.put(key, resampledBytes);
+				}
+			}
+
+		}
+
+		return resampledBytes;
+
+	}
+
+	@SuppressWarnings("nls")
+	public static byte[] resample(byte[] bytes, int width, int height) {
+
+		try (ImageInputStream inputStream = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+			if (readers.hasNext()) {
+
+				ImageReader reader = readers.next();
+				try {
+
+					reader.setInput(inputStream);
+
+					String formatName = reader.getFormatName().toLowerCase();
+					BufferedImage image = reader.read(0);
+
+					boolean alpha = image.getColorModel().hasAlpha();
+					BufferedImage resampledImage = scale(image, width, height, alpha);
+
+					// Photos are stored as JPEG again, everything else as PNG so transparency and sharp edges are preserved
+					if (!alpha && (formatName.equals("jpeg") || formatName.equals("jpg"))) {
+						return writeJpeg(resampledImage);
+					} else {
+						return writePng(resampledImage);
+					}
+
+				} finally {
+					reader.dispose();
+				}
+
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		return null;
+
+	}
+
+	private static BufferedImage scale(BufferedImage image, int width, int height, boolean alpha) {
+
+		int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+		// Halve the size in steps, a single bilinear step to a much smaller size skips most of the pixels
+		int w = image.getWidth();
+		int h = image.getHeight();
+
+		do {
+
+			w = Math.max(w / 2, width);
+			h = Math.max(h / 2, height);
+
+			BufferedImage scaledImage = new BufferedImage(w, h, type);
+
+			Graphics2D g2d = scaledImage.createGraphics();
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g2d.drawImage(image, 0, 0, w, h, null);
+			g2d.dispose();
+
+			image = scaledImage;
+
+		} while (w != width || h != height);
+
+		return image;
+
+	}
+
+	private static byte[] writeJpeg(BufferedImage image) throws Exception {
+
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next(); //$NON-NLS-1$
+		try {
+
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(JPEG_QUALITY);
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
+				writer.setOutput(imageOutputStream);
+				writer.write(null, new IIOImage(image, null, null), param);
+			}
+
+			return outputStream.toByteArray();
+
+		} finally {
+			writer.dispose();
+		}
+
+	}
+
+	private static byte[] writePng(BufferedImage image) throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", outputStream); //$NON-NLS-1$
+		return outputStream.toByteArray();
+	}
+
+	public static void clearCache() {
+		synchronized (RESAMPLED_IMAGES) {
+			RESAMPLED_IMAGES.clear();
+		}
+	}
+
+}
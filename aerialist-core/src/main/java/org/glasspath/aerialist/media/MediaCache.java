@@ -22,13 +22,19 @@
  */
 package org.glasspath.aerialist.media;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.glasspath.aerialist.metrics.CacheType;
+import org.glasspath.aerialist.metrics.Metrics;
+import org.glasspath.aerialist.metrics.RenderSpan;
+import org.glasspath.aerialist.metrics.SpanType;
 
 public abstract class MediaCache<T> {
 
-	private final Map<String, ImageResource> imageResources = new HashMap<>();
-	private final Map<String, T> images = new HashMap<>();
+	// A cache can be shared by documents that are rendered in parallel (resampled images are added during layout)
+	private final Map<String, ImageResource> imageResources = new ConcurrentHashMap<>();
+	private final Map<String, T> images = new ConcurrentHashMap<>();
 
 	public MediaCache() {
 
@@ -44,7 +50,16 @@ public abstract class MediaCache<T> {
 
 			imageResources.put(key, new ImageResource(bytes));
 
+			RenderSpan span = Metrics.beginSpan(SpanType.IMAGE_READ);
+
 			T image = readImage(key, bytes);
+
+			if (span != null) {
+				span.setName(key);
+				span.setBytes(bytes.length);
+				span.finish();
+			}
+
 			if (image != null) {
 				images.put(key, image);
 			}
@@ -66,14 +81,53 @@ public abstract class MediaCache<T> {
 	protected abstract T readImage(String key, byte[] bytes);
 
 	public T getImage(String key) {
+		T image = getCachedImage(key);
+		Metrics.cacheAccessed(CacheType.MEDIA, image != null);
+		return image;
+	}
+
+	// Caches that don't keep the read images (a cache that adds them to a document for example) can override this
+	protected T getCachedImage(String key) {
 		return images.get(key);
 	}
+
+	// Returns the key of a copy of the image that is scaled to the given size, the copy is
+	// created once and added to this cache, if the image can't be scaled the key is returned
+	public String getResampledImageKey(String key, int width, int height) {
+
+		String resampledKey = key + "@" + width + "x" + height; //$NON-NLS-1$ //$NON-NLS-2$
+		if (imageResources.containsKey(resampledKey) && getImageSize(resampledKey) != null) {
+			Metrics.cacheAccessed(CacheType.MEDIA, true);
+			return resampledKey;
+		}
+
+		Metrics.cacheAccessed(CacheType.MEDIA, false);
+
+		ImageResource imageResource = imageResources.get(key);
+		if (imageResource != null) {
+
+			byte[] bytes = ImageResampler.resample(imageResource.getContentHash(), imageResource.getBytes(), width, height);
+			if (bytes != null) {
+
+				putImage(resampledKey, bytes);
+				if (getImageSize(resampledKey) != null) {
+					return resampledKey;
+				}
+
+			}
+
+		}
+
+		return key;
+
+	}
 	
 	public abstract ImageSize getImageSize(String key);
 
 	public static class ImageResource {
 
 		private final byte[] bytes;
+		private volatile String contentHash = null;
 
 		public ImageResource(byte[] bytes) {
 			this.bytes = bytes;
@@ -83,6 +137,13 @@ public abstract class MediaCache<T> {
 			return bytes;
 		}
 
+		public String getContentHash() {
+			if (contentHash == null) {
+				contentHash = ContentHash.sha256(bytes);
+			}
+			return contentHash;
+		}
+
 	}
 
 	public static class ImageSize {
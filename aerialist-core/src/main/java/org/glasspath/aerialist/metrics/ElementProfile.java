@@ -0,0 +1,134 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+// Costs of one template element, summed over all documents rendered from the template. Pages are the pages the
+// element ends up on after pagination, operators are the drawing operations written by the document writer
+@JsonPropertyOrder({ "type", "pageIndex", "elementIndex", "description", "renders", "totalMillis", "measureMillis", "positionMillis", "writeMillis", "textLayouts", "spans", "pages", "operators" })
+public class ElementProfile {
+
+	private final String type;
+	private final int pageIndex;
+	private final int elementIndex;
+	private final String description;
+
+	private int renders = 0;
+	private long measureNanos = 0;
+	private long positionNanos = 0;
+	private long writeNanos = 0;
+	private int textLayouts = 0;
+	private int spans = 0;
+	private int pages = 0;
+	private long operators = 0;
+
+	public ElementProfile(String type, int pageIndex, int elementIndex, String description) {
+		this.type = type;
+		this.pageIndex = pageIndex;
+		this.elementIndex = elementIndex;
+		this.description = description;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	// Index of the template page, -1 for the header and -2 for the footer
+	public int getPageIndex() {
+		return pageIndex;
+	}
+
+	public int getElementIndex() {
+		return elementIndex;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public synchronized int getRenders() {
+		return renders;
+	}
+
+	public synchronized double getTotalMillis() {
+		return (measureNanos + positionNanos + writeNanos) / 1000000.0;
+	}
+
+	public synchronized double getMeasureMillis() {
+		return measureNanos / 1000000.0;
+	}
+
+	public synchronized double getPositionMillis() {
+		return positionNanos / 1000000.0;
+	}
+
+	public synchronized double getWriteMillis() {
+		return writeNanos / 1000000.0;
+	}
+
+	public synchronized int getTextLayouts() {
+		return textLayouts;
+	}
+
+	public synchronized int getSpans() {
+		return spans;
+	}
+
+	public synchronized int getPages() {
+		return pages;
+	}
+
+	public synchronized long getOperators() {
+		return operators;
+	}
+
+	synchronized long getTotalNanos() {
+		return measureNanos + positionNanos + writeNanos;
+	}
+
+	synchronized void rendered() {
+		renders++;
+		pages++;
+	}
+
+	synchronized void measured(long nanos, int textLayouts, int spans) {
+		this.measureNanos += nanos;
+		this.textLayouts += textLayouts;
+		this.spans += spans;
+	}
+
+	synchronized void positioned(long nanos) {
+		this.positionNanos += nanos;
+	}
+
+	synchronized void paginated(int newPages) {
+		this.pages += newPages;
+	}
+
+	synchronized void written(long nanos, int operators) {
+		this.writeNanos += nanos;
+		this.operators += operators;
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+// Writes the element profiles ranked by cost as JSON (for comparing template versions) or as HTML for template designers
+@SuppressWarnings("nls")
+public class ElementProfileReport {
+
+	private final List<ElementProfile> profiles;
+
+	public ElementProfileReport(ElementProfiler profiler) {
+		this.profiles = profiler.getProfiles();
+	}
+
+	public List<ElementProfile> getElements() {
+		return profiles;
+	}
+
+	public double getTotalMillis() {
+		double totalMillis = 0.0;
+		for (ElementProfile profile : profiles) {
+			totalMillis += profile.getTotalMillis();
+		}
+		return totalMillis;
+	}
+
+	public void writeJson(File file) throws IOException {
+
+		ObjectMapper objectMapper = new ObjectMapper();
+		objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+
+		objectMapper.writeValue(file, this);
+
+	}
+
+	public void writeHtml(File file) throws IOException {
+		Files.write(file.toPath(), toHtml().getBytes(StandardCharsets.UTF_8));
+	}
+
+	public String toHtml() {
+
+		double totalMillis = getTotalMillis();
+
+		StringBuilder html = new StringBuilder();
+		html.append("<!DOCTYPE html>\n");
+		html.append("<html>\n<head>\n<meta charset=\"utf-8\">\n<title>Element costs</title>\n");
+		html.append("<style>\n");
+		html.append("body { font-family: sans-serif; font-size: 13px; }\n");
+		html.append("table { border-collapse: collapse; }\n");
+		html.append("th, td { padding: 4px 8px; border-bottom: 1px solid #ddd; text-align: right; white-space: nowrap; }\n");
+		html.append("th { background: #f4f4f4; }\n");
+		html.append("td.text { text-align: left; white-space: normal; max-width: 320px; }\n");
+		html.append(".bar { display: inline-block; height: 10px; background: #d9534f; }\n");
+		html.append("</style>\n</head>\n<body>\n");
+
+		html.append("<h1>Element costs</h1>\n");
+		html.append("<p>" + profiles.size() + " elements, " + format(totalMillis) + " ms in total. Elements are ranked by the time spent measuring, positioning and writing them.</p>\n");
+
+		html.append("<table>\n<tr>");
+		html.append("<th>#</th><th>Page</th><th>Element</th><th>Type</th><th>Content</th><th>Share</th>");
+		html.append("<th>Total (ms)</th><th>Measure (ms)</th><th>Position (ms)</th><th>Write (ms)</th>");
+		html.append("<th>Text layouts</th><th>Spans</th><th>Pages</th><th>Operators</th><th>Renders</th>");
+		html.append("</tr>\n");
+
+		for (int i = 0; i < profiles.size(); i++) {
+
+			ElementProfile profile = profiles.get(i);
+
+			double share = totalMillis > 0.0 ? profile.getTotalMillis() / totalMillis : 0.0;
+
+			html.append("<tr>");
+			html.append("<td>" + (i + 1) + "</td>");
+			html.append("<td>" + getPageName(profile.getPageIndex()) + "</td>");
+			html.append("<td>" + (profile.getElementIndex() >= 0 ? "" + (profile.getElementIndex() + 1) : "") + "</td>");
+			html.append("<td class=\"text\">" + escape(profile.getType()) + "</td>");
+			html.append("<td class=\"text\">" + escape(profile.getDescription()) + "</td>");
+			html.append("<td><span class=\"bar\" style=\"width: " + Math.round(share * 100.0) + "px\"></span> " + format(share * 100.0) + "%</td>");
+			html.append("<td>" + format(profile.getTotalMillis()) + "</td>");
+			html.append("<td>" + format(profile.getMeasureMillis()) + "</td>");
+			html.append("<td>" + format(profile.getPositionMillis()) + "</td>");
+			html.append("<td>" + format(profile.getWriteMillis()) + "</td>");
+			html.append("<td>" + profile.getTextLayouts() + "</td>");
+			html.append("<td>" + profile.getSpans() + "</td>");
+			html.append("<td>" + profile.getPages() + "</td>");
+			html.append("<td>" + profile.getOperators() + "</td>");
+			html.append("<td>" + profile.getRenders() + "</td>");
+			html.append("</tr>\n");
+
+		}
+
+		html.append("</table>\n</body>\n</html>\n");
+
+		return html.toString();
+
+	}
+
+	private static String getPageName(int pageIndex) {
+		if (pageIndex == -1) {
+			return "Header";
+		} else if (pageIndex == -2) {
+			return "Footer";
+		} else if (pageIndex >= 0) {
+			return "" + (pageIndex + 1);
+		} else {
+			return "";
+		}
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+
+	private static String escape(String text) {
+		if (text != null) {
+			return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+		} else {
+			return "";
+		}
+	}
+
+}
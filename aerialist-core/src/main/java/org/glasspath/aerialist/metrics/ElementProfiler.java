@@ -0,0 +1,180 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.glasspath.aerialist.Element;
+import org.glasspath.aerialist.Group;
+import org.glasspath.aerialist.Image;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.QrCode;
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.TextBox;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
+
+// Attributes layout and write costs to the elements of a template, enabled by setting it on the layout context
+// (see DefaultLayoutContext.setElementProfiler()). Elements are registered by their position in the template so
+// the costs of all documents rendered from it (and of the copies created by the paginator) add up
+@SuppressWarnings("nls")
+public class ElementProfiler {
+
+	public static final int DESCRIPTION_LENGTH = 40;
+	public static final int PAGE_INDEX_UNKNOWN = -3;
+
+	private final Map<String, ElementProfile> profiles = new LinkedHashMap<>();
+	private final Map<Element, ElementProfile> elementProfiles = new WeakHashMap<>();
+
+	public ElementProfiler() {
+
+	}
+
+	// Registers the elements of a template page before it is laid out, page index -1 is the header and -2 the footer
+	public synchronized void registerPage(int pageIndex, Page page) {
+
+		for (int i = 0; i < page.getElements().size(); i++) {
+
+			Element element = page.getElements().get(i);
+
+			String key = pageIndex + ":" + i;
+			ElementProfile profile = profiles.get(key);
+			if (profile == null) {
+				profile = createProfile(element, pageIndex, i);
+				profiles.put(key, profile);
+			}
+
+			profile.rendered();
+			elementProfiles.put(element, profile);
+
+		}
+
+	}
+
+	// Element is measured by DefaultLayoutMetrics, the text layouts and spans it created are counted
+	public void measured(Element element, long nanos, int textLayouts, int spans) {
+		getProfile(element).measured(nanos, textLayouts, spans);
+	}
+
+	// Elements below the element were moved by the vertical layout after its height changed
+	public void positioned(Object element, long nanos) {
+		if (element instanceof Element) {
+			getProfile((Element) element).positioned(nanos);
+		}
+	}
+
+	// The paginator moved content of the element to new pages, the copies on those pages are attributed to the element
+	public synchronized void paginated(Element element, List<PageLayoutInfo> newPages) {
+
+		ElementProfile profile = getProfile(element);
+		profile.paginated(newPages.size());
+
+		for (PageLayoutInfo pageLayoutInfo : newPages) {
+			for (Element copy : pageLayoutInfo.page.getElements()) {
+				elementProfiles.put(copy, profile);
+			}
+		}
+
+	}
+
+	public void written(Element element, long nanos, int operators) {
+		getProfile(element).written(nanos, operators);
+	}
+
+	private synchronized ElementProfile getProfile(Element element) {
+
+		ElementProfile profile = elementProfiles.get(element);
+		if (profile == null) {
+
+			// Not part of a registered page (rendered outside of a template document loader for example)
+			profile = createProfile(element, PAGE_INDEX_UNKNOWN, -1);
+			profile.rendered();
+
+			profiles.put("#" + profiles.size(), profile);
+			elementProfiles.put(element, profile);
+
+		}
+
+		return profile;
+
+	}
+
+	// Returns the profiles ranked by their total cost, most expensive first
+	public synchronized List<ElementProfile> getProfiles() {
+
+		List<ElementProfile> rankedProfiles = new ArrayList<>(profiles.values());
+		Collections.sort(rankedProfiles, new Comparator<ElementProfile>() {
+
+			@Override
+			public int compare(ElementProfile p1, ElementProfile p2) {
+				return Long.compare(p2.getTotalNanos(), p1.getTotalNanos());
+			}
+		});
+
+		return rankedProfiles;
+
+	}
+
+	public synchronized void clear() {
+		profiles.clear();
+		elementProfiles.clear();
+	}
+
+	protected ElementProfile createProfile(Element element, int pageIndex, int elementIndex) {
+		return new ElementProfile(element.getClass().getSimpleName(), pageIndex, elementIndex, createDescription(element));
+	}
+
+	protected String createDescription(Element element) {
+
+		String description;
+		if (element instanceof TextBox) {
+			description = ((TextBox) element).getText();
+		} else if (element instanceof Table) {
+			description = ((Table) element).getTableCells().size() + " cells";
+		} else if (element instanceof Image) {
+			description = ((Image) element).getSrc();
+		} else if (element instanceof QrCode) {
+			description = ((QrCode) element).getText();
+		} else if (element instanceof Group) {
+			description = ((Group) element).getElements().size() + " elements";
+		} else {
+			description = null;
+		}
+
+		if (description != null) {
+			description = description.replaceAll("\\s+", " ").trim();
+			if (description.length() > DESCRIPTION_LENGTH) {
+				description = description.substring(0, DESCRIPTION_LENGTH) + "...";
+			}
+		}
+
+		return description;
+
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Thread safe histogram with fixed upper bounds (like a Prometheus histogram), values above the last bound are
+// only counted by the +Inf bucket (the total count)
+public class Histogram {
+
+	// Seconds, from 100 microseconds to 60 seconds
+	public static final double[] SECONDS_BOUNDS = new double[] { 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0, 30.0, 60.0 };
+
+	// Bytes, powers of 4 from 1 KB to 4 GB
+	public static final double[] BYTES_BOUNDS = new double[] { 1024.0, 4096.0, 16384.0, 65536.0, 262144.0, 1048576.0, 4194304.0, 16777216.0, 67108864.0, 268435456.0, 1073741824.0, 4294967296.0 };
+
+	private final double[] upperBounds;
+	private final AtomicLongArray bucketCounts;
+	private final LongAdder count = new LongAdder();
+	private final DoubleAdder sum = new DoubleAdder();
+
+	public Histogram(double[] upperBounds) {
+		this.upperBounds = upperBounds.clone();
+		this.bucketCounts = new AtomicLongArray(upperBounds.length);
+	}
+
+	public void observe(double value) {
+
+		for (int i = 0; i < upperBounds.length; i++) {
+			if (value <= upperBounds[i]) {
+				bucketCounts.incrementAndGet(i);
+				break;
+			}
+		}
+
+		count.increment();
+		sum.add(value);
+
+	}
+
+	public double[] getUpperBounds() {
+		return upperBounds.clone();
+	}
+
+	// Cumulative counts (the number of values less than or equal to the upper bound of the bucket)
+	public long[] getCumulativeCounts() {
+
+		long[] counts = new long[upperBounds.length];
+
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			total += bucketCounts.get(i);
+			counts[i] = total;
+		}
+
+		return counts;
+
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getSum() {
+		return sum.sum();
+	}
+
+	// Estimate of the value at the given quantile (0.0 - 1.0), the upper bound of the bucket that contains it
+	public double getQuantile(double quantile) {
+
+		long total = getCount();
+		if (total == 0) {
+			return 0.0;
+		}
+
+		long rank = (long) Math.ceil(quantile * total);
+
+		long[] counts = getCumulativeCounts();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] >= rank) {
+				return upperBounds[i];
+			}
+		}
+
+		return Double.POSITIVE_INFINITY;
+
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+// Process wide metrics, caches report their hits and misses here. When no metrics are set nothing is measured
+public class Metrics {
+
+	private static volatile RenderMetrics renderMetrics = null;
+	private static volatile RenderTracer renderTracer = null;
+
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+	private static final boolean ALLOCATED_BYTES_SUPPORTED = isAllocatedBytesSupported();
+
+	private Metrics() {
+
+	}
+
+	public static RenderMetrics get() {
+		return renderMetrics;
+	}
+
+	public static void set(RenderMetrics renderMetrics) {
+		Metrics.renderMetrics = renderMetrics;
+	}
+
+	public static boolean isEnabled() {
+		return renderMetrics != null;
+	}
+
+	public static RenderTracer getTracer() {
+		return renderTracer;
+	}
+
+	public static void setTracer(RenderTracer renderTracer) {
+		Metrics.renderTracer = renderTracer;
+	}
+
+	// Returns null when there is no tracer or the span type is not traced
+	public static RenderSpan beginSpan(SpanType spanType) {
+		RenderTracer tracer = renderTracer;
+		if (tracer != null) {
+			return tracer.begin(spanType);
+		} else {
+			return null;
+		}
+	}
+
+	public static void cacheAccessed(CacheType cacheType, boolean hit) {
+		RenderMetrics metrics = renderMetrics;
+		if (metrics != null) {
+			metrics.cacheAccessed(cacheType, hit);
+		}
+	}
+
+	// Bytes allocated by the current thread since it was started, -1 if not supported
+	public static long getAllocatedBytes() {
+		if (ALLOCATED_BYTES_SUPPORTED) {
+			return ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+		} else {
+			return -1;
+		}
+	}
+
+	public static long getAllocatedBytesSince(long allocatedBytes) {
+		if (allocatedBytes >= 0) {
+			return getAllocatedBytes() - allocatedBytes;
+		} else {
+			return -1;
+		}
+	}
+
+	private static boolean isAllocatedBytesSupported() {
+		try {
+			if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+				return threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled();
+			}
+		} catch (Throwable t) {
+			// com.sun.management is not available on every JVM
+		}
+		return false;
+	}
+
+}
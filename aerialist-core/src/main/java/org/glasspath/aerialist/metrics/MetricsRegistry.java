@@ -0,0 +1,154 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Default in-process implementation of RenderMetrics, keeps histograms and counters that can be exported
+// (see PrometheusExporter), can be set as process wide metrics with Metrics.set(registry)
+public class MetricsRegistry implements RenderMetrics {
+
+	private final Map<RenderPhase, Histogram> phaseSeconds = new EnumMap<>(RenderPhase.class);
+	private final Map<RenderPhase, Histogram> phaseAllocatedBytes = new EnumMap<>(RenderPhase.class);
+	private final Map<RenderPhase, AtomicLong> phasesInProgress = new EnumMap<>(RenderPhase.class);
+	private final Histogram pageSeconds = new Histogram(Histogram.SECONDS_BOUNDS);
+	private final Histogram pageAllocatedBytes = new Histogram(Histogram.BYTES_BOUNDS);
+	private final LongAdder pages = new LongAdder();
+	private final LongAdder elements = new LongAdder();
+	private final LongAdder tableCells = new LongAdder();
+	private final LongAdder spans = new LongAdder();
+	private final Map<CacheType, LongAdder> cacheHits = new EnumMap<>(CacheType.class);
+	private final Map<CacheType, LongAdder> cacheMisses = new EnumMap<>(CacheType.class);
+
+	public MetricsRegistry() {
+
+		// All entries are created here, the maps are only read after construction
+		for (RenderPhase phase : RenderPhase.values()) {
+			phaseSeconds.put(phase, new Histogram(Histogram.SECONDS_BOUNDS));
+			phaseAllocatedBytes.put(phase, new Histogram(Histogram.BYTES_BOUNDS));
+			phasesInProgress.put(phase, new AtomicLong());
+		}
+
+		for (CacheType cacheType : CacheType.values()) {
+			cacheHits.put(cacheType, new LongAdder());
+			cacheMisses.put(cacheType, new LongAdder());
+		}
+
+	}
+
+	@Override
+	public void phaseStarted(RenderPhase phase) {
+		phasesInProgress.get(phase).incrementAndGet();
+	}
+
+	@Override
+	public void phaseFinished(RenderPhase phase, long nanos, long allocatedBytes) {
+
+		phasesInProgress.get(phase).decrementAndGet();
+
+		phaseSeconds.get(phase).observe(nanos / 1.0E9);
+		if (allocatedBytes >= 0) {
+			phaseAllocatedBytes.get(phase).observe(allocatedBytes);
+		}
+
+	}
+
+	@Override
+	public void pageLaidOut(int pageIndex, long nanos, long allocatedBytes, int elements, int tableCells, int spans) {
+
+		pageSeconds.observe(nanos / 1.0E9);
+		if (allocatedBytes >= 0) {
+			pageAllocatedBytes.observe(allocatedBytes);
+		}
+
+		this.pages.increment();
+		this.elements.add(elements);
+		this.tableCells.add(tableCells);
+		this.spans.add(spans);
+
+	}
+
+	@Override
+	public void cacheAccessed(CacheType cacheType, boolean hit) {
+		if (hit) {
+			cacheHits.get(cacheType).increment();
+		} else {
+			cacheMisses.get(cacheType).increment();
+		}
+	}
+
+	public Histogram getPhaseSeconds(RenderPhase phase) {
+		return phaseSeconds.get(phase);
+	}
+
+	public Histogram getPhaseAllocatedBytes(RenderPhase phase) {
+		return phaseAllocatedBytes.get(phase);
+	}
+
+	public long getPhasesInProgress(RenderPhase phase) {
+		return phasesInProgress.get(phase).get();
+	}
+
+	public Histogram getPageSeconds() {
+		return pageSeconds;
+	}
+
+	public Histogram getPageAllocatedBytes() {
+		return pageAllocatedBytes;
+	}
+
+	public long getPages() {
+		return pages.sum();
+	}
+
+	public long getElements() {
+		return elements.sum();
+	}
+
+	public long getTableCells() {
+		return tableCells.sum();
+	}
+
+	public long getSpans() {
+		return spans.sum();
+	}
+
+	public long getCacheHits(CacheType cacheType) {
+		return cacheHits.get(cacheType).sum();
+	}
+
+	public long getCacheMisses(CacheType cacheType) {
+		return cacheMisses.get(cacheType).sum();
+	}
+
+	// Hits divided by all accesses, 0.0 if the cache wasn't accessed
+	public double getCacheHitRate(CacheType cacheType) {
+		long hits = getCacheHits(cacheType);
+		long total = hits + getCacheMisses(cacheType);
+		return total > 0 ? (double) hits / total : 0.0;
+	}
+
+}
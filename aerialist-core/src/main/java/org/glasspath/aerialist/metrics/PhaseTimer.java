@@ -0,0 +1,67 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+// Measures one phase on the current thread, start() returns null when there are no metrics
+public class PhaseTimer {
+
+	private final RenderMetrics metrics;
+	private final RenderPhase phase;
+	private final long start;
+	private final long allocatedBytes;
+
+	private PhaseTimer(RenderMetrics metrics, RenderPhase phase) {
+		this.metrics = metrics;
+		this.phase = phase;
+		this.allocatedBytes = Metrics.getAllocatedBytes();
+		this.start = System.nanoTime();
+	}
+
+	public static PhaseTimer start(RenderMetrics metrics, RenderPhase phase) {
+		if (metrics != null) {
+			metrics.phaseStarted(phase);
+			return new PhaseTimer(metrics, phase);
+		} else {
+			return null;
+		}
+	}
+
+	public void finish() {
+		finish(0);
+	}
+
+	// Bytes allocated by other threads for this phase can be added
+	public void finish(long otherAllocatedBytes) {
+
+		long nanos = System.nanoTime() - start;
+
+		long phaseAllocatedBytes = Metrics.getAllocatedBytesSince(allocatedBytes);
+		if (phaseAllocatedBytes >= 0 && otherAllocatedBytes > 0) {
+			phaseAllocatedBytes += otherAllocatedBytes;
+		}
+
+		metrics.phaseFinished(phase, nanos, phaseAllocatedBytes);
+
+	}
+
+}
@@ -0,0 +1,216 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Writes a MetricsRegistry in the Prometheus text format to a file (for the node exporter textfile collector for
+// example), the file is replaced atomically so a scraper never reads a partially written file
+@SuppressWarnings("nls")
+public class PrometheusExporter {
+
+	public static final String PREFIX = "aerialist_";
+
+	private final MetricsRegistry registry;
+	private final File file;
+	private ScheduledExecutorService executor = null;
+
+	public PrometheusExporter(MetricsRegistry registry, File file) {
+		this.registry = registry;
+		this.file = file;
+	}
+
+	public void write() throws IOException {
+
+		File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		Files.write(tempFile.toPath(), toText(registry).getBytes(StandardCharsets.UTF_8));
+
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+	}
+
+	// Writes the file periodically on a daemon thread until stop() is called
+	public synchronized void start(long period, TimeUnit unit) {
+
+		stop();
+
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "aerialist-prometheus-exporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		executor.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					write();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}, 0, period, unit);
+
+	}
+
+	// Stops the periodic export and writes the file a last time
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+			try {
+				write();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public static String toText(MetricsRegistry registry) {
+
+		StringBuilder text = new StringBuilder();
+
+		appendHelp(text, "phase_duration_seconds", "histogram", "Duration of the render phases");
+		for (RenderPhase phase : RenderPhase.values()) {
+			appendHistogram(text, "phase_duration_seconds", "phase=\"" + phase.stringValue + "\"", registry.getPhaseSeconds(phase));
+		}
+
+		appendHelp(text, "phase_allocated_bytes", "histogram", "Bytes allocated during the render phases");
+		for (RenderPhase phase : RenderPhase.values()) {
+			appendHistogram(text, "phase_allocated_bytes", "phase=\"" + phase.stringValue + "\"", registry.getPhaseAllocatedBytes(phase));
+		}
+
+		appendHelp(text, "phases_in_progress", "gauge", "Render phases that have been started but not finished");
+		for (RenderPhase phase : RenderPhase.values()) {
+			appendValue(text, "phases_in_progress", "phase=\"" + phase.stringValue + "\"", registry.getPhasesInProgress(phase));
+		}
+
+		appendHelp(text, "page_duration_seconds", "histogram", "Layout duration of template pages");
+		appendHistogram(text, "page_duration_seconds", null, registry.getPageSeconds());
+
+		appendHelp(text, "page_allocated_bytes", "histogram", "Bytes allocated by the layout of template pages");
+		appendHistogram(text, "page_allocated_bytes", null, registry.getPageAllocatedBytes());
+
+		appendHelp(text, "pages_total", "counter", "Laid out template pages");
+		appendValue(text, "pages_total", null, registry.getPages());
+
+		appendHelp(text, "elements_total", "counter", "Elements on laid out template pages");
+		appendValue(text, "elements_total", null, registry.getElements());
+
+		appendHelp(text, "table_cells_total", "counter", "Table cells on laid out template pages");
+		appendValue(text, "table_cells_total", null, registry.getTableCells());
+
+		appendHelp(text, "spans_total", "counter", "Text spans on laid out template pages");
+		appendValue(text, "spans_total", null, registry.getSpans());
+
+		appendHelp(text, "cache_hits_total", "counter", "Cache hits");
+		for (CacheType cacheType : CacheType.values()) {
+			appendValue(text, "cache_hits_total", "cache=\"" + cacheType.stringValue + "\"", registry.getCacheHits(cacheType));
+		}
+
+		appendHelp(text, "cache_misses_total", "counter", "Cache misses");
+		for (CacheType cacheType : CacheType.values()) {
+			appendValue(text, "cache_misses_total", "cache=\"" + cacheType.stringValue + "\"", registry.getCacheMisses(cacheType));
+		}
+
+		appendHelp(text, "cache_hit_ratio", "gauge", "Cache hits divided by all cache accesses");
+		for (CacheType cacheType : CacheType.values()) {
+			appendValue(text, "cache_hit_ratio", "cache=\"" + cacheType.stringValue + "\"", registry.getCacheHitRate(cacheType));
+		}
+
+		return text.toString();
+
+	}
+
+	// The append methods can be used to export other metrics in the same format
+	public static void appendHelp(StringBuilder text, String name, String type, String help) {
+		text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	public static void appendHistogram(StringBuilder text, String name, String labels, Histogram histogram) {
+
+		double[] upperBounds = histogram.getUpperBounds();
+		long[] counts = histogram.getCumulativeCounts();
+
+		// Count is read after the buckets, so the +Inf bucket is never smaller than the last bucket
+		long count = histogram.getCount();
+
+		String labelPrefix = labels != null ? labels + "," : "";
+
+		for (int i = 0; i < upperBounds.length; i++) {
+			appendValue(text, name + "_bucket", labelPrefix + "le=\"" + formatValue(upperBounds[i]) + "\"", counts[i]);
+		}
+
+		appendValue(text, name + "_bucket", labelPrefix + "le=\"+Inf\"", count);
+		appendValue(text, name + "_sum", labels, histogram.getSum());
+		appendValue(text, name + "_count", labels, count);
+
+	}
+
+	public static void appendValue(StringBuilder text, String name, String labels, long value) {
+		appendName(text, name, labels);
+		text.append(value).append('\n');
+	}
+
+	public static void appendValue(StringBuilder text, String name, String labels, double value) {
+		appendName(text, name, labels);
+		text.append(formatValue(value)).append('\n');
+	}
+
+	private static void appendName(StringBuilder text, String name, String labels) {
+		text.append(PREFIX).append(name);
+		if (labels != null) {
+			text.append('{').append(labels).append('}');
+		}
+		text.append(' ');
+	}
+
+	private static String formatValue(double value) {
+		if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		} else if (value == Math.rint(value) && Math.abs(value) < 1.0E15) {
+			return Long.toString((long) value);
+		} else {
+			return Double.toString(value);
+		}
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+// Receives typed events from the renderer, implementations are called from layout threads concurrently. Phases can be
+// nested: layout contains paginate (once per laid out page) and the pages written by incremental document writers.
+// Allocated bytes are counted on the threads that executed the phase, -1 if the JVM doesn't support it
+public interface RenderMetrics {
+
+	public void phaseStarted(RenderPhase phase);
+
+	public void phaseFinished(RenderPhase phase, long nanos, long allocatedBytes);
+
+	// Layout and pagination of one template page (header -1, footer -2), the counts are taken before pagination
+	public void pageLaidOut(int pageIndex, long nanos, long allocatedBytes, int elements, int tableCells, int spans);
+
+	public void cacheAccessed(CacheType cacheType, boolean hit);
+
+}
@@ -0,0 +1,42 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+// A traced unit of work, started by RenderTracer.begin() and ended on the same thread. Fields that
+// don't apply to the span type are not set (document id and page index of font loads for example)
+public interface RenderSpan {
+
+	public void setDocumentId(String documentId);
+
+	public void setPageIndex(int pageIndex);
+
+	public void setCounts(int elements, int tableCells, int spans);
+
+	// Font file or image key
+	public void setName(String name);
+
+	public void setBytes(long bytes);
+
+	public void finish();
+
+}
@@ -0,0 +1,60 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.metrics;
+
+@SuppressWarnings("nls")
+public enum SpanType {
+
+	TEMPLATE_PARSE("template-parse"),
+	PAGE_LAYOUT("page-layout"),
+	PAGINATE("paginate"),
+	DOCUMENT_WRITE("document-write"),
+	PAGE_WRITE("page-write"),
+	FONT_LOAD("font-load"),
+	IMAGE_READ("image-read");
+
+	public final String stringValue;
+
+	SpanType(String stringValue) {
+		this.stringValue = stringValue;
+	}
+
+	public static SpanType get(String value) {
+
+		if (value != null) {
+			value = value.trim().toLowerCase();
+		} else {
+			return null;
+		}
+
+		for (SpanType spanType : values()) {
+			if (spanType.stringValue.equals(value)) {
+				return spanType;
+			}
+		}
+
+		return null;
+
+	}
+
+}
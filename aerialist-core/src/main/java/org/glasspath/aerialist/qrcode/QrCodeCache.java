@@ -0,0 +1,100 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.qrcode;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import io.nayuki.qrcodegen.QrCode;
+import io.nayuki.qrcodegen.QrCode.Ecc;
+import io.nayuki.qrcodegen.QrSegment;
+
+// Encoded QR codes are shared by all writers and views in the process, a code is only encoded again when
+// the text or the encoding parameters change (or when it's no longer in the cache). Texts that can't be encoded are
+// cached as null, so the failure is only reported once instead of on every repaint or write
+public class QrCodeCache {
+
+	public static final Ecc DEFAULT_ECC = Ecc.HIGH;
+	public static final int DEFAULT_MIN_VERSION = 1;
+	public static final int DEFAULT_MAX_VERSION = 40;
+	public static final int MAX_CACHED_CODES = 1024;
+
+	private static final Map<String, QrCodeMatrix> MATRICES = new LinkedHashMap<String, QrCodeMatrix>(16, 0.75F, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, QrCodeMatrix> eldest) {
+			return size() > MAX_CACHED_CODES;
+		}
+	};
+
+	private QrCodeCache() {
+
+	}
+
+	public static QrCodeMatrix getMatrix(String text) {
+		return getMatrix(text, DEFAULT_ECC, DEFAULT_MIN_VERSION, DEFAULT_MAX_VERSION);
+	}
+
+	// Returns null if the text can't be encoded (too long for the maximum version for example)
+	public static QrCodeMatrix getMatrix(String text, Ecc ecc, int minVersion, int maxVersion) {
+
+		if (text == null) {
+			return null;
+		}
+
+		String key = ecc.ordinal() + ":" + minVersion + ":" + maxVersion + ":" + text; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		synchronized (MATRICES) {
+			if (MATRICES.containsKey(key)) {
+				return MATRICES.get(key);
+			}
+		}
+
+		QrCodeMatrix matrix = null;
+
+		try {
+			List<QrSegment> segments = QrSegment.makeSegments(text);
+			matrix = new QrCodeMatrix(QrCode.encodeSegments(segments, ecc, minVersion, maxVersion, -1, false));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		synchronized (MATRICES) {
+			MATRICES.put(key, matrix);
+		}
+
+		return matrix;
+
+	}
+
+	public static void clear() {
+		synchronized (MATRICES) {
+			MATRICES.clear();
+		}
+	}
+
+}
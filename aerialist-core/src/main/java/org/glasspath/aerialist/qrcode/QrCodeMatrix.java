@@ -0,0 +1,136 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.qrcode;
+
+import java.util.Arrays;
+
+import io.nayuki.qrcodegen.QrCode;
+
+// The modules of an encoded QR code, dark modules are also stored as a list of rectangles, adjacent modules are
+// merged so a code can be drawn with a few hundred rectangles in one path instead of one rectangle per module
+public class QrCodeMatrix {
+
+	private final int size;
+	private final boolean[] modules;
+	private final int[] rects;
+
+	public QrCodeMatrix(QrCode qrCode) {
+
+		size = qrCode.size;
+		modules = new boolean[size * size];
+
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				modules[y * size + x] = qrCode.getModule(x, y);
+			}
+		}
+
+		rects = createRects(size, modules);
+
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public boolean getModule(int x, int y) {
+		if (x >= 0 && x < size && y >= 0 && y < size) {
+			return modules[y * size + x];
+		} else {
+			return false;
+		}
+	}
+
+	// Rectangles of dark modules in module units, stored as x, y, width, height
+	public int[] getRects() {
+		return rects;
+	}
+
+	public int getRectCount() {
+		return rects.length / 4;
+	}
+
+	static int[] createRects(int size, boolean[] modules) {
+
+		int[] rects = new int[size * (size + 1) * 2];
+		int count = 0;
+
+		// For every row the runs of dark modules are collected, a run is merged with the rectangle above
+		// it when that rectangle has the same horizontal position and ends on the previous row
+		int[] open = new int[size];
+		int openCount = 0;
+		int[] nextOpen = new int[size];
+
+		for (int y = 0; y < size; y++) {
+
+			int nextOpenCount = 0;
+			int openIndex = 0;
+
+			int x = 0;
+			while (x < size) {
+
+				if (!modules[y * size + x]) {
+					x++;
+					continue;
+				}
+
+				int start = x;
+				while (x < size && modules[y * size + x]) {
+					x++;
+				}
+				int width = x - start;
+
+				// Open rectangles are sorted by x, skip the ones that start before this run
+				while (openIndex < openCount && rects[open[openIndex] * 4] < start) {
+					openIndex++;
+				}
+
+				int rect;
+				if (openIndex < openCount && rects[open[openIndex] * 4] == start && rects[open[openIndex] * 4 + 2] == width) {
+					rect = open[openIndex];
+					rects[rect * 4 + 3]++;
+					openIndex++;
+				} else {
+					rect = count++;
+					rects[rect * 4] = start;
+					rects[rect * 4 + 1] = y;
+					rects[rect * 4 + 2] = width;
+					rects[rect * 4 + 3] = 1;
+				}
+
+				nextOpen[nextOpenCount++] = rect;
+
+			}
+
+			int[] swap = open;
+			open = nextOpen;
+			nextOpen = swap;
+			openCount = nextOpenCount;
+
+		}
+
+		return Arrays.copyOf(rects, count * 4);
+
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.scheduler;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.glasspath.aerialist.ContentParser;
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.Element;
+import org.glasspath.aerialist.Field;
+import org.glasspath.aerialist.IFieldContext;
+import org.glasspath.aerialist.IText;
+import org.glasspath.aerialist.Image;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.TableCell;
+import org.glasspath.aerialist.TextStyle;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.media.MediaCache.ImageResource;
+
+// The content a render job produces: pages, elements, table cells, characters and image bytes. estimate() predicts it
+// from the template and the field context before the job is started (a table cell with a list field becomes a row for
+// every entry of the list), measure() counts the laid-out document afterwards. getBytes() converts the counts to heap
+// bytes, the costs are the retained sizes of the document model and layout info measured with the benchmark documents
+public class MemoryFootprint {
+
+	public static final long BASE_BYTES = 256 * 1024;
+	public static final long PAGE_BYTES = 16 * 1024;
+	public static final long ELEMENT_BYTES = 2 * 1024;
+	public static final long TABLE_CELL_BYTES = 1536;
+	public static final long CHARACTER_BYTES = 16;
+
+	private int pages = 0;
+	private int elements = 0;
+	private long tableCells = 0;
+	private long characters = 0;
+	private long imageBytes = 0;
+	private int templateTableCells = 0;
+	private int templateFields = 0;
+
+	private MemoryFootprint() {
+
+	}
+
+	public int getPages() {
+		return pages;
+	}
+
+	public int getElements() {
+		return elements;
+	}
+
+	public long getTableCells() {
+		return tableCells;
+	}
+
+	public long getCharacters() {
+		return characters;
+	}
+
+	public long getImageBytes() {
+		return imageBytes;
+	}
+
+	public long getBytes() {
+		return BASE_BYTES + pages * PAGE_BYTES + elements * ELEMENT_BYTES + tableCells * TABLE_CELL_BYTES + characters * CHARACTER_BYTES + imageBytes;
+	}
+
+	// Identifies the shape of the template (not the values of the field context), estimates of templates with the same
+	// signature are corrected together by the memory governor
+	public String getSignature() {
+		return pages + "/" + elements + "/" + templateTableCells + "/" + templateFields; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	@Override
+	public String toString() {
+		return "pages=" + pages + " elements=" + elements + " tableCells=" + tableCells + " characters=" + characters + " imageBytes=" + imageBytes + " bytes=" + getBytes(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+	}
+
+	public static MemoryFootprint estimate(Document template, IFieldContext fieldContext, MediaCache<?> mediaCache) {
+		MemoryFootprint footprint = new MemoryFootprint();
+		new FootprintCounter(footprint, fieldContext, mediaCache).parseDocument(template);
+		return footprint;
+	}
+
+	public static MemoryFootprint measure(DocumentLayoutInfo documentLayoutInfo, MediaCache<?> mediaCache) {
+
+		MemoryFootprint footprint = new MemoryFootprint();
+		FootprintCounter counter = new FootprintCounter(footprint, null, mediaCache);
+
+		if (documentLayoutInfo.header != null) {
+			counter.parseHeaderPage(documentLayoutInfo.header.page);
+		}
+		if (documentLayoutInfo.footer != null) {
+			counter.parseFooterPage(documentLayoutInfo.footer.page);
+		}
+		for (PageLayoutInfo pageLayoutInfo : documentLayoutInfo.pages) {
+			counter.parsePage(pageLayoutInfo.page);
+		}
+
+		return footprint;
+
+	}
+
+	// Counts the content, the fields are replaced by the length of their values if a field context is set
+	private static class FootprintCounter extends ContentParser {
+
+		private final MemoryFootprint footprint;
+		private final IFieldContext fieldContext;
+		private final MediaCache<?> mediaCache;
+		private final Set<String> images = new HashSet<>();
+
+		private FootprintCounter(MemoryFootprint footprint, IFieldContext fieldContext, MediaCache<?> mediaCache) {
+			this.footprint = footprint;
+			this.fieldContext = fieldContext;
+			this.mediaCache = mediaCache;
+		}
+
+		@Override
+		public void parseHeaderPage(Page page) {
+			footprint.pages++;
+			super.parseHeaderPage(page);
+		}
+
+		@Override
+		public void parseFooterPage(Page page) {
+			footprint.pages++;
+			super.parseFooterPage(page);
+		}
+
+		@Override
+		public void parsePage(Page page) {
+			footprint.pages++;
+			super.parsePage(page);
+		}
+
+		@Override
+		public void parseElement(Element element) {
+			footprint.elements++;
+			super.parseElement(element);
+		}
+
+		@Override
+		public void parseTableCell(Table table, TableCell tableCell) {
+			footprint.tableCells++;
+			footprint.templateTableCells++;
+			super.parseTableCell(table, tableCell);
+		}
+
+		@Override
+		public void parseIText(IText iText) {
+
+			if (iText.getText() != null) {
+				footprint.characters += iText.getText().length();
+			}
+
+			for (TextStyle textStyle : iText.getStyles()) {
+
+				if (textStyle.source != null) {
+
+					Field field = new Field(textStyle.source);
+					if (field.isTemplateField()) {
+
+						footprint.templateFields++;
+
+						if (fieldContext != null) {
+
+							// Same as TemplateParser, a list in a table cell adds a row for every entry after the first
+							List<String> values = iText instanceof TableCell ? fieldContext.getList(field.key) : null;
+							if (values != null) {
+								if (values.size() > 1) {
+									footprint.tableCells += values.size() - 1;
+								}
+								for (String value : values) {
+									footprint.characters += value != null ? value.length() : 0;
+								}
+							} else {
+								String value = fieldContext.getString(field.key);
+								footprint.characters += value != null ? value.length() : 0;
+							}
+
+						}
+
+					}
+
+				}
+
+			}
+
+		}
+
+		@Override
+		public void parseImage(Image image) {
+			if (mediaCache != null && image.getSrc() != null && images.add(image.getSrc())) {
+				ImageResource imageResource = mediaCache.getImageResources().get(image.getSrc());
+				if (imageResource != null && imageResource.getBytes() != null) {
+					footprint.imageBytes += imageResource.getBytes().length;
+				}
+			}
+		}
+
+	}
+
+}
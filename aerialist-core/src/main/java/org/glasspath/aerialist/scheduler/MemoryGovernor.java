@@ -0,0 +1,366 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.scheduler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.glasspath.aerialist.layout.RenderHandle;
+import org.glasspath.aerialist.metrics.Histogram;
+import org.glasspath.aerialist.metrics.PrometheusExporter;
+
+// Admits render jobs by their estimated heap footprint (see MemoryFootprint). A job reserves its estimate before it is
+// started and waits while the reservations of the running jobs leave no room for it, a job with an estimate larger
+// than the budget is rejected. When nothing is reserved a job is always admitted, so a large job can't be starved by a
+// stream of small ones that keep the budget partly used. When a job is released the laid-out document is measured, the
+// ratio between the measured and the estimated footprint corrects the following estimates of the same template shape
+@SuppressWarnings("nls")
+public class MemoryGovernor {
+
+	public static final double DEFAULT_HEAP_FRACTION = 0.5;
+	public static final double CORRECTION_WEIGHT = 0.25;
+	public static final double MIN_CORRECTION = 0.5;
+	public static final double MAX_CORRECTION = 8.0;
+	public static final int MAX_SIGNATURES = 1024;
+	public static final double[] RATIO_BOUNDS = new double[] { 0.25, 0.5, 0.75, 1.0, 1.25, 1.5, 2.0, 3.0, 4.0, 8.0 };
+
+	private static final long WAIT_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final long budget;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+	private long reserved = 0;
+	private long peakReserved = 0;
+	private int reservations = 0;
+	private int waiting = 0;
+
+	// Corrections per template signature (least recently used signatures are dropped), new signatures start with the
+	// correction of all jobs
+	private double defaultCorrection = 1.0;
+	private final Map<String, Double> corrections = new LinkedHashMap<String, Double>(16, 0.75F, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+			return size() > MAX_SIGNATURES;
+		}
+	};
+
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong delayed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final Histogram estimateRatio = new Histogram(RATIO_BOUNDS);
+	private final Histogram reservedBytes = new Histogram(Histogram.BYTES_BOUNDS);
+
+	// Budget of DEFAULT_HEAP_FRACTION of the maximum heap size
+	public MemoryGovernor() {
+		this((long) (Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_FRACTION));
+	}
+
+	public MemoryGovernor(long budget) {
+		this.budget = Math.max(1, budget);
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	// The footprint in bytes, corrected by what was measured for earlier jobs with the same template signature
+	public long estimate(MemoryFootprint footprint) {
+
+		double correction;
+
+		lock.lock();
+		try {
+			Double signatureCorrection = corrections.get(footprint.getSignature());
+			correction = signatureCorrection != null ? signatureCorrection : defaultCorrection;
+		} finally {
+			lock.unlock();
+		}
+
+		return (long) (footprint.getBytes() * correction);
+
+	}
+
+	// Throws a RejectedExecutionException if the job can never be admitted
+	public long checkBudget(MemoryFootprint footprint) {
+
+		long bytes = estimate(footprint);
+		if (bytes > budget) {
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("Estimated memory (" + toMegaBytes(bytes) + " MB) exceeds the memory budget (" + toMegaBytes(budget) + " MB)");
+		}
+
+		return bytes;
+
+	}
+
+	// Returns null if the estimate doesn't fit next to the current reservations
+	public Reservation tryReserve(MemoryFootprint footprint) {
+
+		long bytes = checkBudget(footprint);
+
+		lock.lock();
+		try {
+			if (reservations > 0 && reserved + bytes > budget) {
+				return null;
+			}
+			return addReservation(footprint, bytes);
+		} finally {
+			lock.unlock();
+		}
+
+	}
+
+	// Waits until the estimate fits next to the reservations of the running jobs, a RenderCancelledException is thrown
+	// if the handle is cancelled or its deadline passes while waiting
+	public Reservation reserve(MemoryFootprint footprint, RenderHandle handle) throws InterruptedException {
+
+		long bytes = checkBudget(footprint);
+
+		lock.lockInterruptibly();
+		try {
+
+			if (reservations > 0 && reserved + bytes > budget) {
+
+				delayed.incrementAndGet();
+				waiting++;
+
+				try {
+					while (reservations > 0 && reserved + bytes > budget) {
+						if (handle != null) {
+							handle.check();
+						}
+						released.awaitNanos(handle != null ? Math.min(WAIT_CHECK_NANOS, Math.max(1, handle.getRemainingNanos())) : WAIT_CHECK_NANOS);
+					}
+				} finally {
+					waiting--;
+				}
+
+			}
+
+			return addReservation(footprint, bytes);
+
+		} finally {
+			lock.unlock();
+		}
+
+	}
+
+	// Counts a job that is kept waiting because tryReserve() returned null, callers count every job once
+	public void delayed() {
+		delayed.incrementAndGet();
+	}
+
+	private Reservation addReservation(MemoryFootprint footprint, long bytes) {
+
+		reserved += bytes;
+		reservations++;
+		if (reserved > peakReserved) {
+			peakReserved = reserved;
+		}
+
+		admitted.incrementAndGet();
+		reservedBytes.observe(bytes);
+
+		return new Reservation(footprint, bytes);
+
+	}
+
+	// Returns the reserved bytes, the measured footprint (null if the job failed before it was laid out) corrects the
+	// following estimates, releasing a reservation more than once has no effect
+	public void release(Reservation reservation, MemoryFootprint measured) {
+
+		lock.lock();
+		try {
+
+			if (reservation.released) {
+				return;
+			}
+
+			reservation.released = true;
+			reserved -= reservation.bytes;
+			reservations--;
+
+			long estimated = reservation.footprint.getBytes();
+			if (measured != null && estimated > 0) {
+
+				double ratio = (double) measured.getBytes() / estimated;
+				estimateRatio.observe(ratio);
+
+				String signature = reservation.footprint.getSignature();
+				Double signatureCorrection = corrections.get(signature);
+				corrections.put(signature, signatureCorrection != null ? correct(signatureCorrection, ratio) : clamp(ratio));
+
+				defaultCorrection = correct(defaultCorrection, ratio);
+
+			}
+
+			released.signalAll();
+
+		} finally {
+			lock.unlock();
+		}
+
+	}
+
+	private static double correct(double correction, double ratio) {
+		return clamp(correction + CORRECTION_WEIGHT * (ratio - correction));
+	}
+
+	private static double clamp(double correction) {
+		return Math.max(MIN_CORRECTION, Math.min(MAX_CORRECTION, correction));
+	}
+
+	private static long toMegaBytes(long bytes) {
+		return (bytes + 1024 * 1024 - 1) / (1024 * 1024);
+	}
+
+	public long getReserved() {
+		lock.lock();
+		try {
+			return reserved;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getPeakReserved() {
+		lock.lock();
+		try {
+			return peakReserved;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getReservations() {
+		lock.lock();
+		try {
+			return reservations;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getWaiting() {
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public double getDefaultCorrection() {
+		lock.lock();
+		try {
+			return defaultCorrection;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getAdmitted() {
+		return admitted.get();
+	}
+
+	public long getDelayed() {
+		return delayed.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public Histogram getEstimateRatio() {
+		return estimateRatio;
+	}
+
+	public Histogram getReservedBytes() {
+		return reservedBytes;
+	}
+
+	// Appends the governor metrics in the Prometheus text format (see PrometheusExporter)
+	public void appendMetrics(StringBuilder text) {
+
+		PrometheusExporter.appendHelp(text, "memory_budget_bytes", "gauge", "Heap bytes render jobs can reserve");
+		PrometheusExporter.appendValue(text, "memory_budget_bytes", null, budget);
+
+		PrometheusExporter.appendHelp(text, "memory_reserved_bytes", "gauge", "Heap bytes reserved by running render jobs");
+		PrometheusExporter.appendValue(text, "memory_reserved_bytes", null, getReserved());
+
+		PrometheusExporter.appendHelp(text, "memory_reserved_peak_bytes", "gauge", "Highest number of heap bytes reserved at the same time");
+		PrometheusExporter.appendValue(text, "memory_reserved_peak_bytes", null, getPeakReserved());
+
+		PrometheusExporter.appendHelp(text, "memory_waiting_jobs", "gauge", "Render jobs waiting for room in the memory budget");
+		PrometheusExporter.appendValue(text, "memory_waiting_jobs", null, getWaiting());
+
+		PrometheusExporter.appendHelp(text, "memory_admitted_total", "counter", "Render jobs admitted by the memory governor");
+		PrometheusExporter.appendValue(text, "memory_admitted_total", null, getAdmitted());
+
+		PrometheusExporter.appendHelp(text, "memory_delayed_total", "counter", "Render jobs that had to wait for room in the memory budget");
+		PrometheusExporter.appendValue(text, "memory_delayed_total", null, getDelayed());
+
+		PrometheusExporter.appendHelp(text, "memory_rejected_total", "counter", "Render jobs rejected because their estimate exceeds the memory budget");
+		PrometheusExporter.appendValue(text, "memory_rejected_total", null, getRejected());
+
+		PrometheusExporter.appendHelp(text, "memory_estimate_correction", "gauge", "Correction applied to estimates of new template shapes");
+		PrometheusExporter.appendValue(text, "memory_estimate_correction", null, getDefaultCorrection());
+
+		PrometheusExporter.appendHelp(text, "memory_reserved_job_bytes", "histogram", "Heap bytes reserved per render job");
+		PrometheusExporter.appendHistogram(text, "memory_reserved_job_bytes", null, reservedBytes);
+
+		PrometheusExporter.appendHelp(text, "memory_estimate_ratio", "histogram", "Measured footprint divided by the uncorrected estimate");
+		PrometheusExporter.appendHistogram(text, "memory_estimate_ratio", null, estimateRatio);
+
+	}
+
+	public static class Reservation {
+
+		private final MemoryFootprint footprint;
+		private final long bytes;
+		private boolean released = false;
+
+		private Reservation(MemoryFootprint footprint, long bytes) {
+			this.footprint = footprint;
+			this.bytes = bytes;
+		}
+
+		public MemoryFootprint getFootprint() {
+			return footprint;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+	}
+
+}
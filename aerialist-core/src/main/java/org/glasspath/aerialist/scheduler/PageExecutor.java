@@ -0,0 +1,130 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.scheduler;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lays out the pages of all running jobs (see TemplateDocumentLoader.setLayoutExecutor()), every page is a separate
+// task so idle threads take pages of any job and a long document can't keep the threads from the pages of a preview.
+// Pages of jobs with a higher priority are taken first, pages with the same priority in the order they were submitted.
+// The priority is the priority of the job that is rendered by the submitting thread (see setCurrentPriority())
+public class PageExecutor extends ThreadPoolExecutor {
+
+	private static final ThreadLocal<JobPriority> CURRENT_PRIORITY = new ThreadLocal<>();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	public PageExecutor(int threadCount) {
+		super(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), createThreadFactory());
+	}
+
+	private static ThreadFactory createThreadFactory() {
+
+		return new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "render-page-" + count.incrementAndGet()); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+
+	}
+
+	public static JobPriority getCurrentPriority() {
+		return CURRENT_PRIORITY.get();
+	}
+
+	public static void setCurrentPriority(JobPriority priority) {
+		if (priority != null) {
+			CURRENT_PRIORITY.set(priority);
+		} else {
+			CURRENT_PRIORITY.remove();
+		}
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new PageTask<T>(callable, getTaskPriority(), sequence.incrementAndGet());
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new PageTask<T>(runnable, value, getTaskPriority(), sequence.incrementAndGet());
+	}
+
+	// The queue can only order page tasks, other runnables are wrapped
+	@Override
+	public void execute(Runnable command) {
+		if (command instanceof PageTask) {
+			super.execute(command);
+		} else {
+			super.execute(newTaskFor(command, null));
+		}
+	}
+
+	private static JobPriority getTaskPriority() {
+		JobPriority priority = CURRENT_PRIORITY.get();
+		return priority != null ? priority : JobPriority.NORMAL;
+	}
+
+	private static class PageTask<T> extends FutureTask<T> implements Comparable<PageTask<?>> {
+
+		private final JobPriority priority;
+		private final long sequence;
+
+		private PageTask(Callable<T> callable, JobPriority priority, long sequence) {
+			super(callable);
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		private PageTask(Runnable runnable, T value, JobPriority priority, long sequence) {
+			super(runnable, value);
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(PageTask<?> other) {
+			if (priority != other.priority) {
+				return priority.ordinal() < other.priority.ordinal() ? -1 : 1;
+			} else {
+				return Long.compare(sequence, other.sequence);
+			}
+		}
+
+	}
+
+}
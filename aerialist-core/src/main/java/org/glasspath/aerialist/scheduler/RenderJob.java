@@ -0,0 +1,182 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.scheduler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.IFieldContext;
+import org.glasspath.aerialist.layout.RenderHandle;
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.template.RenderResult;
+import org.glasspath.aerialist.writer.DocumentWriter;
+
+public class RenderJob {
+
+	public static final String DEFAULT_TENANT = "default"; //$NON-NLS-1$
+
+	private final String tenant;
+	private final JobPriority priority;
+	private final Document document;
+	private final IFieldContext fieldContext;
+	private final DocumentWriter documentWriter;
+	private final RenderHandle handle;
+	private final CompletableFuture<RenderResult> future = new CompletableFuture<>();
+	private volatile MediaCache<?> mediaCache = null;
+	private volatile Object batchKey = null;
+	private volatile MemoryFootprint footprint = null;
+	private volatile MemoryGovernor.Reservation reservation = null;
+	private volatile RuntimeException admissionFailure = null;
+	private volatile boolean memoryDelayed = false;
+	private volatile long submitTime = 0;
+	private volatile long startTime = 0;
+
+	public RenderJob(String tenant, JobPriority priority, Document document, IFieldContext fieldContext, DocumentWriter documentWriter) {
+		this(tenant, priority, document, fieldContext, documentWriter, 0);
+	}
+
+	// The deadline (in milliseconds, 0 means no deadline) starts when the job is created, time in the queue is included
+	public RenderJob(String tenant, JobPriority priority, Document document, IFieldContext fieldContext, DocumentWriter documentWriter, long timeout) {
+		this.tenant = tenant != null ? tenant : DEFAULT_TENANT;
+		this.priority = priority != null ? priority : JobPriority.NORMAL;
+		this.document = document;
+		this.fieldContext = fieldContext;
+		this.documentWriter = documentWriter;
+		this.handle = new RenderHandle(timeout, TimeUnit.MILLISECONDS);
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public JobPriority getPriority() {
+		return priority;
+	}
+
+	public Document getDocument() {
+		return document;
+	}
+
+	public IFieldContext getFieldContext() {
+		return fieldContext;
+	}
+
+	public DocumentWriter getDocumentWriter() {
+		return documentWriter;
+	}
+
+	public RenderHandle getHandle() {
+		return handle;
+	}
+
+	// Completed when the job has been rendered, failed or was cancelled (also when it was still waiting in the queue)
+	public CompletableFuture<RenderResult> getFuture() {
+		return future;
+	}
+
+	public MediaCache<?> getMediaCache() {
+		return mediaCache;
+	}
+
+	// The images of the document, used for the memory estimate instead of the media cache of the scheduler
+	public void setMediaCache(MediaCache<?> mediaCache) {
+		this.mediaCache = mediaCache;
+	}
+
+	public Object getBatchKey() {
+		return batchKey;
+	}
+
+	// Jobs with equal batch keys can be run one after the other by the same worker (see RenderScheduler.setMaxBatchSize())
+	public void setBatchKey(Object batchKey) {
+		this.batchKey = batchKey;
+	}
+
+	// Estimated when the job is submitted to a scheduler with a memory governor
+	public MemoryFootprint getFootprint() {
+		return footprint;
+	}
+
+	void setFootprint(MemoryFootprint footprint) {
+		this.footprint = footprint;
+	}
+
+	// Reserved by the scheduler when a worker takes the job
+	MemoryGovernor.Reservation getReservation() {
+		return reservation;
+	}
+
+	void setReservation(MemoryGovernor.Reservation reservation) {
+		this.reservation = reservation;
+	}
+
+	// Set if the estimate of the job grew beyond the budget while it was waiting
+	RuntimeException getAdmissionFailure() {
+		return admissionFailure;
+	}
+
+	void setAdmissionFailure(RuntimeException admissionFailure) {
+		this.admissionFailure = admissionFailure;
+	}
+
+	boolean isMemoryDelayed() {
+		return memoryDelayed;
+	}
+
+	void setMemoryDelayed(boolean memoryDelayed) {
+		this.memoryDelayed = memoryDelayed;
+	}
+
+	public long getSubmitTime() {
+		return submitTime;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	// Nanoseconds the job waited in the queue, or is waiting if it has not been started yet
+	public long getWaitNanos() {
+		if (submitTime == 0) {
+			return 0;
+		} else if (startTime == 0) {
+			return System.nanoTime() - submitTime;
+		} else {
+			return startTime - submitTime;
+		}
+	}
+
+	void submitted() {
+		submitTime = System.nanoTime();
+	}
+
+	void started() {
+		startTime = System.nanoTime();
+	}
+
+	void complete(RenderResult result) {
+		future.complete(result);
+	}
+
+}
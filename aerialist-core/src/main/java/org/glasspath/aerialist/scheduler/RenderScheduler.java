@@ -0,0 +1,804 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.glasspath.aerialist.layout.RenderCancelledException;
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.metrics.Histogram;
+import org.glasspath.aerialist.metrics.PrometheusExporter;
+import org.glasspath.aerialist.template.RenderResult;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+
+// Runs render jobs with a fixed number of workers. Waiting jobs are taken by priority, within a priority the tenants
+// take turns (one job per tenant per turn) so a tenant with a large batch doesn't delay the jobs of other tenants. Every
+// priority has a bounded queue, submit() blocks and offer() fails when it is full so submitters are slowed down instead
+// of filling the heap. Reserved workers only run interactive jobs, so a preview never waits for a worker that is busy
+// with a long bulk document. The pages of all jobs are laid out by one page executor which takes pages of higher
+// priority jobs first (see PageExecutor). With a memory governor the footprint of a job is estimated when it is
+// submitted, a job that doesn't fit in the budget is rejected (see MemoryGovernor). A worker only takes a job if its
+// footprint fits next to the reservations of the running jobs, jobs that don't fit stay in the queue and the next
+// job is tried, so no worker (the reserved interactive worker in particular) is held while a job waits for memory.
+// Jobs with a batch key can be run in micro batches: after a job the worker takes the next waiting job with the same
+// key (the template for example) so it can reuse what it prepared for the key, see setMaxBatchSize()
+@SuppressWarnings("nls")
+public class RenderScheduler {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+	public static final double[] BATCH_SIZE_BOUNDS = new double[] { 1.0, 2.0, 4.0, 8.0, 16.0, 32.0, 64.0 };
+
+	// Memory can also be released by other users of the memory governor, waiting workers check again after this time
+	private static final long MEMORY_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	public interface LoaderFactory {
+
+		// Called for every job on the worker thread, the returned loader is only used for this job
+		public TemplateDocumentLoader createDocumentLoader(RenderJob job);
+
+	}
+
+	private final LoaderFactory loaderFactory;
+	private final int workerCount;
+	private final PageExecutor pageExecutor;
+	private final List<Thread> workers = new ArrayList<>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition jobAvailable = lock.newCondition();
+	private final JobQueue[] queues = new JobQueue[JobPriority.values().length];
+	private int reservedWorkers = 0;
+	private final List<RenderJob> runningJobs = new ArrayList<>();
+	private int runningNonInteractiveJobs = 0;
+	private int maxBatchSize = 1;
+	private boolean shutdown = false;
+	private volatile MemoryGovernor memoryGovernor = null;
+	private volatile MediaCache<?> mediaCache = null;
+
+	private final AtomicLong[] rejected = new AtomicLong[JobPriority.values().length];
+	private final AtomicLong[] completed = new AtomicLong[JobPriority.values().length];
+	private final Histogram[] waitSeconds = new Histogram[JobPriority.values().length];
+	private final Histogram[] runSeconds = new Histogram[JobPriority.values().length];
+	private final Histogram batchSizes = new Histogram(BATCH_SIZE_BOUNDS);
+
+	public RenderScheduler(LoaderFactory loaderFactory, int workerCount, int pageThreadCount) {
+
+		this.loaderFactory = loaderFactory;
+		this.workerCount = Math.max(1, workerCount);
+		this.pageExecutor = new PageExecutor(Math.max(1, pageThreadCount));
+		this.reservedWorkers = this.workerCount > 1 ? 1 : 0;
+
+		for (int i = 0; i < queues.length; i++) {
+			queues[i] = new JobQueue(lock.newCondition(), DEFAULT_QUEUE_CAPACITY);
+			rejected[i] = new AtomicLong();
+			completed[i] = new AtomicLong();
+			waitSeconds[i] = new Histogram(Histogram.SECONDS_BOUNDS);
+			runSeconds[i] = new Histogram(Histogram.SECONDS_BOUNDS);
+		}
+
+		for (int i = 0; i < this.workerCount; i++) {
+
+			Thread worker = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					runJobs();
+				}
+			}, "render-job-" + (i + 1));
+
+			worker.setDaemon(true);
+			worker.start();
+
+			workers.add(worker);
+
+		}
+
+	}
+
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	public PageExecutor getPageExecutor() {
+		return pageExecutor;
+	}
+
+	public int getQueueCapacity(JobPriority priority) {
+		lock.lock();
+		try {
+			return queues[priority.ordinal()].capacity;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void setQueueCapacity(JobPriority priority, int capacity) {
+		lock.lock();
+		try {
+			queues[priority.ordinal()].capacity = Math.max(1, capacity);
+			queues[priority.ordinal()].notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getReservedWorkers() {
+		lock.lock();
+		try {
+			return reservedWorkers;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Workers that only run interactive jobs (1 by default if there is more than one worker), at least
+	// one worker is left for the other jobs
+	public void setReservedWorkers(int reservedWorkers) {
+		lock.lock();
+		try {
+			this.reservedWorkers = Math.max(0, Math.min(workerCount - 1, reservedWorkers));
+			jobAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getMaxBatchSize() {
+		lock.lock();
+		try {
+			return maxBatchSize;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Jobs with the same batch key that a worker runs one after the other (1 by default, no batching). A batch only
+	// continues while no job of a higher priority is waiting, within the priority the next job with the key is taken
+	// before the jobs of the tenants that are in line first. Batches only form when jobs wait for a worker
+	public void setMaxBatchSize(int maxBatchSize) {
+		lock.lock();
+		try {
+			this.maxBatchSize = Math.max(1, maxBatchSize);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public MemoryGovernor getMemoryGovernor() {
+		return memoryGovernor;
+	}
+
+	// The media cache (optional) is used to add the bytes of the template images to the estimates
+	public void setMemoryGovernor(MemoryGovernor memoryGovernor, MediaCache<?> mediaCache) {
+		this.memoryGovernor = memoryGovernor;
+		this.mediaCache = mediaCache;
+	}
+
+	// Waits until there is room in the queue of the job priority
+	public RenderJob submit(RenderJob job) throws InterruptedException {
+		offer(job, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		return job;
+	}
+
+	// Returns false if the queue is full
+	public boolean offer(RenderJob job) {
+		try {
+			return offer(job, 0, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	// Returns false if there was no room in the queue before the timeout passed, a RejectedExecutionException is thrown
+	// if the scheduler is shut down or the estimated footprint of the job exceeds the memory budget
+	public boolean offer(RenderJob job, long timeout, TimeUnit unit) throws InterruptedException {
+
+		JobQueue queue = queues[job.getPriority().ordinal()];
+		long nanos = unit.toNanos(timeout);
+
+		checkMemoryBudget(job);
+
+		lock.lockInterruptibly();
+		try {
+
+			while (!shutdown && queue.size >= queue.capacity) {
+				if (nanos <= 0) {
+					rejected[job.getPriority().ordinal()].incrementAndGet();
+					return false;
+				}
+				nanos = queue.notFull.awaitNanos(nanos);
+			}
+
+			if (shutdown) {
+				throw new RejectedExecutionException("Scheduler is shut down");
+			}
+
+			job.submitted();
+			queue.add(job);
+			jobAvailable.signalAll();
+
+			return true;
+
+		} finally {
+			lock.unlock();
+		}
+
+	}
+
+	// Estimates the footprint of the job (if there is a memory governor), throws a RejectedExecutionException if it exceeds
+	// the memory budget. Called by offer(), submitters can call it first to tell a job that never fits from a full queue
+	public void checkMemoryBudget(RenderJob job) {
+		MemoryGovernor memoryGovernor = this.memoryGovernor;
+		if (memoryGovernor != null && job.getFootprint() == null) {
+			MemoryFootprint footprint = MemoryFootprint.estimate(job.getDocument(), job.getFieldContext(), getMediaCache(job));
+			memoryGovernor.checkBudget(footprint);
+			job.setFootprint(footprint);
+		}
+	}
+
+	private MediaCache<?> getMediaCache(RenderJob job) {
+		return job.getMediaCache() != null ? job.getMediaCache() : mediaCache;
+	}
+
+	// Removes the job from the queue if it is still waiting, a running job stops at the next check of its handle
+	public void cancel(RenderJob job) {
+
+		boolean removed;
+
+		lock.lock();
+		try {
+			JobQueue queue = queues[job.getPriority().ordinal()];
+			removed = queue.remove(job);
+			if (removed) {
+				queue.notFull.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		job.getHandle().cancel();
+
+		if (removed) {
+			dropJob(job, new RenderCancelledException(false));
+		}
+
+	}
+
+	// Queued jobs are still rendered, new jobs are rejected
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			jobAvailable.signalAll();
+			for (JobQueue queue : queues) {
+				queue.notFull.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Queued jobs are cancelled and running jobs are stopped
+	public void shutdownNow() {
+
+		List<RenderJob> droppedJobs = new ArrayList<>();
+
+		lock.lock();
+		try {
+			shutdown = true;
+			for (JobQueue queue : queues) {
+				droppedJobs.addAll(queue.clear());
+				queue.notFull.signalAll();
+			}
+			jobAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		for (RenderJob job : droppedJobs) {
+			job.getHandle().cancel();
+			dropJob(job, new RenderCancelledException(false));
+		}
+
+		for (RenderJob job : getRunningJobList()) {
+			job.getHandle().cancel();
+		}
+
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		for (Thread worker : workers) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+			if (worker.isAlive()) {
+				return false;
+			}
+		}
+
+		pageExecutor.shutdown();
+
+		return true;
+
+	}
+
+	private void runJobs() {
+
+		RenderJob job;
+		while ((job = takeJob()) != null) {
+
+			int batchSize = 0;
+
+			while (job != null) {
+
+				batchSize++;
+
+				try {
+					runJob(job);
+				} finally {
+					jobFinished(job);
+				}
+
+				job = takeBatchJob(job, batchSize);
+
+			}
+
+			batchSizes.observe(batchSize);
+
+		}
+
+	}
+
+	// Returns null when the scheduler is shut down and all queues are empty
+	private RenderJob takeJob() {
+
+		lock.lock();
+		try {
+
+			while (true) {
+
+				boolean empty = true;
+				boolean waitingForMemory = false;
+
+				for (JobPriority priority : JobPriority.values()) {
+
+					JobQueue queue = queues[priority.ordinal()];
+					if (queue.size > 0) {
+
+						empty = false;
+
+						if (priority == JobPriority.INTERACTIVE || runningNonInteractiveJobs < workerCount - reservedWorkers) {
+
+							RenderJob job = takeAdmittedJob(queue, null);
+							if (job != null) {
+
+								runningJobs.add(job);
+								if (priority != JobPriority.INTERACTIVE) {
+									runningNonInteractiveJobs++;
+								}
+
+								return job;
+
+							}
+
+							// None of the jobs fit, jobs of lower priorities are not started before they do
+							waitingForMemory = true;
+							break;
+
+						}
+
+					}
+
+				}
+
+				if (empty && shutdown) {
+					return null;
+				}
+
+				if (waitingForMemory) {
+					try {
+						jobAvailable.awaitNanos(MEMORY_CHECK_NANOS);
+					} catch (InterruptedException e) {
+						// Workers are stopped by shutdown(), like awaitUninterruptibly() below
+					}
+				} else {
+					jobAvailable.awaitUninterruptibly();
+				}
+
+			}
+
+		} finally {
+			lock.unlock();
+		}
+
+	}
+
+	// Takes the next job of the batch of the job the worker finished (see setMaxBatchSize()), returns null if the batch is
+	// complete, there is no waiting job with the batch key or a job of a higher priority is waiting
+	private RenderJob takeBatchJob(RenderJob previousJob, int batchSize) {
+
+		Object batchKey = previousJob.getBatchKey();
+		if (batchKey == null) {
+			return null;
+		}
+
+		JobPriority priority = previousJob.getPriority();
+
+		lock.lock();
+		try {
+
+			if (batchSize >= maxBatchSize) {
+				return null;
+			}
+
+			for (int i = 0; i < priority.ordinal(); i++) {
+				if (queues[i].size > 0) {
+					return null;
+				}
+			}
+
+			// The same rules as in takeJob(), the job that just finished no longer counts
+			if (priority != JobPriority.INTERACTIVE && runningNonInteractiveJobs >= workerCount - reservedWorkers) {
+				return null;
+			}
+
+			RenderJob job = takeAdmittedJob(queues[priority.ordinal()], batchKey);
+			if (job != null) {
+				runningJobs.add(job);
+				if (priority != JobPriority.INTERACTIVE) {
+					runningNonInteractiveJobs++;
+				}
+			}
+
+			return job;
+
+		} finally {
+			lock.unlock();
+		}
+
+	}
+
+	// Takes the first job (in the order the tenants take turns) that fits next to the memory reservations of the running
+	// jobs, the reservation is added to the job. Returns null if none of the jobs fit, they are left in the queue. With a
+	// batch key only the jobs with that key are considered
+	private RenderJob takeAdmittedJob(JobQueue queue, Object batchKey) {
+
+		MemoryGovernor memoryGovernor = this.memoryGovernor;
+
+		for (RenderJob job : queue.getFirstJobs(batchKey)) {
+
+			// Cancelled jobs and jobs that passed their deadline are taken without a reservation, they fail when started
+			boolean stopped = job.getHandle().isCancelled() || job.getHandle().getRemainingNanos() == 0;
+
+			if (memoryGovernor != null && job.getFootprint() != null && !stopped) {
+
+				try {
+
+					MemoryGovernor.Reservation reservation = memoryGovernor.tryReserve(job.getFootprint());
+					if (reservation == null) {
+						if (!job.isMemoryDelayed()) {
+							job.setMemoryDelayed(true);
+							memoryGovernor.delayed();
+						}
+						continue;
+					}
+
+					job.setReservation(reservation);
+
+				} catch (RejectedExecutionException e) {
+					// The estimate grew beyond the budget (corrected by earlier jobs) while the job was waiting
+					job.setAdmissionFailure(e);
+				}
+
+			}
+
+			queue.take(job);
+			queue.notFull.signal();
+
+			return job;
+
+		}
+
+		return null;
+
+	}
+
+	private void jobFinished(RenderJob job) {
+		lock.lock();
+		try {
+			runningJobs.remove(job);
+			if (job.getPriority() != JobPriority.INTERACTIVE) {
+				runningNonInteractiveJobs--;
+			}
+			jobAvailable.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void runJob(RenderJob job) {
+
+		job.started();
+		waitSeconds[job.getPriority().ordinal()].observe(job.getWaitNanos() / 1.0E9);
+
+		long start = System.nanoTime();
+		RenderResult result;
+
+		MemoryGovernor memoryGovernor = this.memoryGovernor;
+		MemoryGovernor.Reservation reservation = job.getReservation();
+		MemoryFootprint measuredFootprint = null;
+
+		PageExecutor.setCurrentPriority(job.getPriority());
+
+		try {
+
+			// The deadline may have passed or the job may have been cancelled while it was waiting
+			job.getHandle().check();
+
+			if (job.getAdmissionFailure() != null) {
+				throw job.getAdmissionFailure();
+			}
+
+			TemplateDocumentLoader documentLoader = loaderFactory.createDocumentLoader(job);
+			documentLoader.setLayoutExecutor(pageExecutor);
+			if (job.getDocumentWriter() != null) {
+				documentLoader.setDocumentWriter(job.getDocumentWriter());
+			}
+
+			result = documentLoader.loadDocument(job.getDocument(), job.getFieldContext(), job.getHandle());
+
+			if (reservation != null && result.isSucceeded() && result.getDocumentLayoutInfo() != null) {
+				measuredFootprint = MemoryFootprint.measure(result.getDocumentLayoutInfo(), getMediaCache(job));
+			}
+
+		} catch (Exception e) {
+			if (job.getDocumentWriter() != null) {
+				job.getDocumentWriter().abort();
+			}
+			result = RenderResult.failed(null, e, (System.nanoTime() - start) / 1000000L);
+		} finally {
+			PageExecutor.setCurrentPriority(null);
+			if (reservation != null) {
+				memoryGovernor.release(reservation, measuredFootprint);
+				job.setReservation(null);
+			}
+		}
+
+		runSeconds[job.getPriority().ordinal()].observe((System.nanoTime() - start) / 1.0E9);
+		completed[job.getPriority().ordinal()].incrementAndGet();
+
+		job.complete(result);
+
+	}
+
+	private void dropJob(RenderJob job, Exception e) {
+		if (job.getDocumentWriter() != null) {
+			job.getDocumentWriter().abort();
+		}
+		job.complete(RenderResult.failed(null, e, 0));
+	}
+
+	public int getQueueDepth(JobPriority priority) {
+		lock.lock();
+		try {
+			return queues[priority.ordinal()].size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getRunningJobs() {
+		lock.lock();
+		try {
+			return runningJobs.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private List<RenderJob> getRunningJobList() {
+		lock.lock();
+		try {
+			return new ArrayList<>(runningJobs);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getRejected(JobPriority priority) {
+		return rejected[priority.ordinal()].get();
+	}
+
+	public long getCompleted(JobPriority priority) {
+		return completed[priority.ordinal()].get();
+	}
+
+	public Histogram getWaitSeconds(JobPriority priority) {
+		return waitSeconds[priority.ordinal()];
+	}
+
+	public Histogram getRunSeconds(JobPriority priority) {
+		return runSeconds[priority.ordinal()];
+	}
+
+	// The number of jobs the workers ran in a row for one batch key (1 for jobs without a batch key)
+	public Histogram getBatchSizes() {
+		return batchSizes;
+	}
+
+	// Appends the scheduler metrics in the Prometheus text format (see PrometheusExporter)
+	public void appendMetrics(StringBuilder text) {
+
+		PrometheusExporter.appendHelp(text, "scheduler_queue_depth", "gauge", "Render jobs waiting for a worker");
+		for (JobPriority priority : JobPriority.values()) {
+			PrometheusExporter.appendValue(text, "scheduler_queue_depth", "priority=\"" + priority.stringValue + "\"", getQueueDepth(priority));
+		}
+
+		PrometheusExporter.appendHelp(text, "scheduler_running_jobs", "gauge", "Render jobs that are running");
+		PrometheusExporter.appendValue(text, "scheduler_running_jobs", null, getRunningJobs());
+
+		PrometheusExporter.appendHelp(text, "scheduler_rejected_total", "counter", "Render jobs rejected because the queue was full");
+		for (JobPriority priority : JobPriority.values()) {
+			PrometheusExporter.appendValue(text, "scheduler_rejected_total", "priority=\"" + priority.stringValue + "\"", getRejected(priority));
+		}
+
+		PrometheusExporter.appendHelp(text, "scheduler_completed_total", "counter", "Render jobs that were run");
+		for (JobPriority priority : JobPriority.values()) {
+			PrometheusExporter.appendValue(text, "scheduler_completed_total", "priority=\"" + priority.stringValue + "\"", getCompleted(priority));
+		}
+
+		PrometheusExporter.appendHelp(text, "scheduler_wait_seconds", "histogram", "Time render jobs waited for a worker");
+		for (JobPriority priority : JobPriority.values()) {
+			PrometheusExporter.appendHistogram(text, "scheduler_wait_seconds", "priority=\"" + priority.stringValue + "\"", getWaitSeconds(priority));
+		}
+
+		PrometheusExporter.appendHelp(text, "scheduler_run_seconds", "histogram", "Time workers spent on render jobs");
+		for (JobPriority priority : JobPriority.values()) {
+			PrometheusExporter.appendHistogram(text, "scheduler_run_seconds", "priority=\"" + priority.stringValue + "\"", getRunSeconds(priority));
+		}
+
+		PrometheusExporter.appendHelp(text, "scheduler_batch_size", "histogram", "Render jobs with the same batch key a worker ran in a row");
+		PrometheusExporter.appendHistogram(text, "scheduler_batch_size", null, getBatchSizes());
+
+		MemoryGovernor memoryGovernor = this.memoryGovernor;
+		if (memoryGovernor != null) {
+			memoryGovernor.appendMetrics(text);
+		}
+
+	}
+
+	// Jobs of one priority, a queue per tenant, poll() takes the next job of the tenant that waited longest for a turn
+	private static class JobQueue {
+
+		private final Condition notFull;
+		private final Map<String, Deque<RenderJob>> tenantJobs = new LinkedHashMap<>();
+		private int capacity;
+		private int size = 0;
+
+		private JobQueue(Condition notFull, int capacity) {
+			this.notFull = notFull;
+			this.capacity = capacity;
+		}
+
+		private void add(RenderJob job) {
+
+			Deque<RenderJob> jobs = tenantJobs.get(job.getTenant());
+			if (jobs == null) {
+				jobs = new ArrayDeque<>();
+				tenantJobs.put(job.getTenant(), jobs);
+			}
+
+			jobs.add(job);
+			size++;
+
+		}
+
+		// The next job of every tenant, the tenant that waited longest for a turn first. With a batch key the next job
+		// with that key of every tenant that has one
+		private List<RenderJob> getFirstJobs(Object batchKey) {
+
+			List<RenderJob> jobs = new ArrayList<>(tenantJobs.size());
+			for (Deque<RenderJob> tenantQueue : tenantJobs.values()) {
+				if (batchKey == null) {
+					jobs.add(tenantQueue.peek());
+				} else {
+					for (RenderJob job : tenantQueue) {
+						if (batchKey.equals(job.getBatchKey())) {
+							jobs.add(job);
+							break;
+						}
+					}
+				}
+			}
+
+			return jobs;
+
+		}
+
+		// Takes the next job of a tenant (see getFirstJobs())
+		private void take(RenderJob job) {
+
+			// A job of a batch that is taken out of turn, the tenant keeps its place in line
+			if (tenantJobs.get(job.getTenant()).peek() != job) {
+				remove(job);
+				return;
+			}
+
+			Deque<RenderJob> jobs = tenantJobs.remove(job.getTenant());
+			jobs.poll();
+			size--;
+
+			// The tenant goes to the end of the line if it has more jobs
+			if (!jobs.isEmpty()) {
+				tenantJobs.put(job.getTenant(), jobs);
+			}
+
+		}
+
+		private boolean remove(RenderJob job) {
+
+			Deque<RenderJob> jobs = tenantJobs.get(job.getTenant());
+			if (jobs != null && jobs.remove(job)) {
+				if (jobs.isEmpty()) {
+					tenantJobs.remove(job.getTenant());
+				}
+				size--;
+				return true;
+			}
+
+			return false;
+
+		}
+
+		private List<RenderJob> clear() {
+
+			List<RenderJob> jobs = new ArrayList<>();
+			for (Deque<RenderJob> tenantQueue : tenantJobs.values()) {
+				jobs.addAll(tenantQueue);
+			}
+
+			tenantJobs.clear();
+			size = 0;
+
+			return jobs;
+
+		}
+
+	}
+
+}
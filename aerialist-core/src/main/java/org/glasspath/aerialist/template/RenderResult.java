@@ -0,0 +1,87 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.template;
+
+import org.glasspath.aerialist.layout.DocumentLayoutInfo;
+import org.glasspath.aerialist.layout.RenderCancelledException;
+
+// Outcome of a render, the document layout info is set if layout finished (also when writing failed
+// afterwards). If the render did not succeed the output of the document writer was discarded
+public class RenderResult {
+
+	private final RenderStatus status;
+	private final DocumentLayoutInfo documentLayoutInfo;
+	private final Throwable failure;
+	private final long millis;
+
+	public RenderResult(RenderStatus status, DocumentLayoutInfo documentLayoutInfo, Throwable failure, long millis) {
+		this.status = status;
+		this.documentLayoutInfo = documentLayoutInfo;
+		this.failure = failure;
+		this.millis = millis;
+	}
+
+	public static RenderResult succeeded(DocumentLayoutInfo documentLayoutInfo, long millis) {
+		return new RenderResult(RenderStatus.SUCCEEDED, documentLayoutInfo, null, millis);
+	}
+
+	public static RenderResult failed(DocumentLayoutInfo documentLayoutInfo, Throwable failure, long millis) {
+
+		RenderStatus status = RenderStatus.FAILED;
+		if (failure instanceof RenderCancelledException) {
+			status = ((RenderCancelledException) failure).isDeadlineExceeded() ? RenderStatus.DEADLINE_EXCEEDED : RenderStatus.CANCELLED;
+		}
+
+		return new RenderResult(status, documentLayoutInfo, failure, millis);
+
+	}
+
+	public RenderStatus getStatus() {
+		return status;
+	}
+
+	public boolean isSucceeded() {
+		return status == RenderStatus.SUCCEEDED;
+	}
+
+	public DocumentLayoutInfo getDocumentLayoutInfo() {
+		return documentLayoutInfo;
+	}
+
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	public String getMessage() {
+		if (failure != null) {
+			return failure.getMessage() != null ? failure.getMessage() : failure.toString();
+		} else {
+			return null;
+		}
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+}
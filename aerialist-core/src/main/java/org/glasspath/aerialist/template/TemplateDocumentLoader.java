@@ -23,17 +23,28 @@
 package org.glasspath.aerialist.template;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.glasspath.aerialist.ContentParser;
 import org.glasspath.aerialist.Document;
 import org.glasspath.aerialist.Element;
+import org.glasspath.aerialist.Field;
 import org.glasspath.aerialist.IFieldContext;
+import org.glasspath.aerialist.IText;
 import org.glasspath.aerialist.Page;
 import org.glasspath.aerialist.Page.PageSize;
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.TextStyle;
 import org.glasspath.aerialist.layout.DefaultVerticalLayout;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
@@ -42,19 +53,56 @@ import org.glasspath.aerialist.layout.ILayoutContext;
 import org.glasspath.aerialist.layout.ILayoutContext.LayoutPhase;
 import org.glasspath.aerialist.layout.LayoutListener;
 import org.glasspath.aerialist.layout.Paginator;
+import org.glasspath.aerialist.layout.RenderCancelledException;
+import org.glasspath.aerialist.layout.RenderHandle;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.TableLayoutInfo;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.TextBoxLayoutInfo;
+import org.glasspath.aerialist.media.ContentHash;
+import org.glasspath.aerialist.metrics.ElementProfiler;
+import org.glasspath.aerialist.metrics.Metrics;
+import org.glasspath.aerialist.metrics.PhaseTimer;
+import org.glasspath.aerialist.metrics.RenderMetrics;
+import org.glasspath.aerialist.metrics.RenderPhase;
+import org.glasspath.aerialist.metrics.RenderSpan;
+import org.glasspath.aerialist.metrics.SpanType;
+import org.glasspath.aerialist.text.TextLayout;
 import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.XDocWriter;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 
 public abstract class TemplateDocumentLoader {
 
 	public static final int LAYOUT_MODE_ALL = 0;
 	public static final int LAYOUT_MODE_AUTO_HEIGHT_ONLY = 1;
 
+	public static final String HEADER_KEY = "header"; //$NON-NLS-1$
+	public static final String FOOTER_KEY = "footer"; //$NON-NLS-1$
+
+	private static final AtomicLong DOCUMENT_COUNT = new AtomicLong();
+
 	private final LayoutListener listener;
 	private final ILayoutContext<?> layoutContext;
 	private int layoutMode = LAYOUT_MODE_ALL;
 	private DocumentWriter documentWriter = null;
+	private boolean bookmarksEnabled = false;
+	private RenderMetrics renderMetrics = null;
+	private String documentId = null;
+	private long timeout = 0;
+	private ExecutorService layoutExecutor = null;
 
 	private long start = 0;
+	private String currentDocumentId = null;
+	private int pagesWritten = 0;
+	private int documentPagesWritten = 0;
+	private int recordIndex = -1;
+	private IFieldContext recordFieldContext = null;
+	private String headerKey = null;
+	private String footerKey = null;
+	private String templateHeaderKey = null;
+	private String templateFooterKey = null;
+	private XmlMapper xmlMapper = null;
 
 	public TemplateDocumentLoader(LayoutListener listener, ILayoutContext<?> layoutContext) {
 		this.listener = listener;
@@ -77,6 +125,70 @@ public abstract class TemplateDocumentLoader {
 		this.documentWriter = documentWriter;
 	}
 
+	public boolean isBookmarksEnabled() {
+		return bookmarksEnabled;
+	}
+
+	// If enabled a bookmark is added for every record written by loadDocuments()
+	public void setBookmarksEnabled(boolean bookmarksEnabled) {
+		this.bookmarksEnabled = bookmarksEnabled;
+	}
+
+	// Returns the metrics of this loader or the process wide metrics (see Metrics.set()) if not set
+	public RenderMetrics getRenderMetrics() {
+		return renderMetrics != null ? renderMetrics : Metrics.get();
+	}
+
+	public void setRenderMetrics(RenderMetrics renderMetrics) {
+		this.renderMetrics = renderMetrics;
+	}
+
+	public String getDocumentId() {
+		return documentId;
+	}
+
+	// Identifies the rendered documents in traces, if not set every document gets a process wide unique id,
+	// documents rendered by loadDocuments() get the record number appended
+	public void setDocumentId(String documentId) {
+		this.documentId = documentId;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	// Deadline in milliseconds for every document rendered without a render handle, 0 disables it
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public ExecutorService getLayoutExecutor() {
+		return layoutExecutor;
+	}
+
+	// Pages are laid out by this executor instead of a new executor for every document (see createExecutorService()),
+	// it can be shared by several loaders and is not shut down by the loader. It must not run the threads that call
+	// loadDocument() because those wait for the pages
+	public void setLayoutExecutor(ExecutorService layoutExecutor) {
+		this.layoutExecutor = layoutExecutor;
+	}
+
+	private RenderHandle createRenderHandle() {
+		return timeout > 0 ? new RenderHandle(timeout, TimeUnit.MILLISECONDS) : null;
+	}
+
+	private String createDocumentId() {
+		return documentId != null ? documentId : "document-" + DOCUMENT_COUNT.incrementAndGet(); //$NON-NLS-1$
+	}
+
+	private RenderSpan beginSpan(SpanType spanType, String documentId) {
+		RenderSpan span = Metrics.beginSpan(spanType);
+		if (span != null) {
+			span.setDocumentId(documentId);
+		}
+		return span;
+	}
+
 	protected abstract IElementLayoutMetrics createLayoutMetrics();
 
 	protected DefaultVerticalLayout createVerticalLayout(IElementLayoutMetrics layoutMetrics) {
@@ -87,23 +199,301 @@ public abstract class TemplateDocumentLoader {
 		return Executors.newFixedThreadPool(4);
 	}
 
-	public void loadDocument(Document document, IFieldContext templateFieldContext) {
+	public DocumentLayoutInfo loadDocument(Document document, IFieldContext templateFieldContext) {
+		return loadDocument(document, templateFieldContext, createRenderHandle()).getDocumentLayoutInfo();
+	}
+
+	// Renders the document and writes it with the document writer (if set), if rendering fails, is cancelled or the
+	// deadline of the handle passes the document writer is aborted so no partially written document is left behind
+	public RenderResult loadDocument(Document document, IFieldContext templateFieldContext, RenderHandle handle) {
 
 		start = System.currentTimeMillis();
+		pagesWritten = 0;
+		currentDocumentId = createDocumentId();
+
+		RenderHandle previousHandle = RenderHandle.getCurrent();
+		RenderHandle.setCurrent(handle);
+
+		DocumentLayoutInfo documentLayoutInfo = null;
+		RenderResult result;
+
+		try {
+
+			if (templateFieldContext != null) {
+
+				PhaseTimer parseTimer = PhaseTimer.start(getRenderMetrics(), RenderPhase.PARSE);
+				RenderSpan parseSpan = beginSpan(SpanType.TEMPLATE_PARSE, currentDocumentId);
+
+				try {
+					parseTemplate(document, templateFieldContext);
+				} finally {
+					if (parseSpan != null) {
+						parseSpan.finish();
+					}
+					if (parseTimer != null) {
+						parseTimer.finish();
+					}
+				}
+
+			}
+
+			layoutContext.setLayoutPhase(LayoutPhase.LAYOUT_CONTENT);
+			layoutContext.setYPolicyEnabled(true);
+
+			documentLayoutInfo = layoutDocument(document, handle);
+
+			writeDocument(documentLayoutInfo);
+
+			result = RenderResult.succeeded(documentLayoutInfo, System.currentTimeMillis() - start);
+
+		} catch (Exception e) {
+			result = renderFailed(documentLayoutInfo, e);
+		} finally {
+			RenderHandle.setCurrent(previousHandle);
+			layoutContext.setLayoutPhase(LayoutPhase.IDLE);
+		}
+
+		return result;
+
+	}
+
+	// Writes a document that was laid out before (by loadDocument() without a document writer for example),
+	// the same layout can be written by several writers
+	public RenderResult writeDocument(DocumentLayoutInfo documentLayoutInfo, DocumentWriter documentWriter) {
+		return writeDocument(documentLayoutInfo, documentWriter, createRenderHandle());
+	}
+
+	public RenderResult writeDocument(DocumentLayoutInfo documentLayoutInfo, DocumentWriter documentWriter, RenderHandle handle) {
+
+		this.documentWriter = documentWriter;
+
+		start = System.currentTimeMillis();
+		pagesWritten = 0;
+		currentDocumentId = createDocumentId();
+
+		RenderHandle previousHandle = RenderHandle.getCurrent();
+		RenderHandle.setCurrent(handle);
+
+		try {
+			writeDocument(documentLayoutInfo);
+			return RenderResult.succeeded(documentLayoutInfo, System.currentTimeMillis() - start);
+		} catch (Exception e) {
+			return renderFailed(documentLayoutInfo, e);
+		} finally {
+			RenderHandle.setCurrent(previousHandle);
+		}
+
+	}
+
+	private RenderResult renderFailed(DocumentLayoutInfo documentLayoutInfo, Exception e) {
+
+		if (documentWriter != null) {
+			documentWriter.abort();
+		}
 
-		if (templateFieldContext != null) {
-			parseTemplate(document, templateFieldContext);
+		RenderResult result = RenderResult.failed(documentLayoutInfo, e, System.currentTimeMillis() - start);
+		if (result.getStatus() == RenderStatus.FAILED) {
+			e.printStackTrace();
 		}
 
-		layoutContext.setLayoutPhase(LayoutPhase.LAYOUT_CONTENT);
-		layoutContext.setYPolicyEnabled(true);
+		if (listener != null) {
+			fireStatusChanged("Rendering document " + result.getStatus().stringValue + " after " + result.getMillis() + " milliseconds: " + result.getMessage());
+		}
+
+		return result;
+
+	}
+
+	// Renders the template once for every field context, the pages of all records are appended to the same (open)
+	// document writer so fonts, images and header/footer content are shared by all records in the output. Every record
+	// gets its own deadline (see setTimeout()), a failed record is skipped, but pages of it that were already written
+	// by an incremental document writer can't be removed. The results of the records are passed to recordFinished(),
+	// the returned result tells if the document was written
+	public RenderResult loadDocuments(Document template, Iterator<? extends IFieldContext> templateFieldContexts) {
+
+		long batchStart = System.currentTimeMillis();
+		String batchDocumentId = createDocumentId();
+
+		// A header or footer without template fields is the same for every record, so its key is computed only once
+		templateHeaderKey = template.getHeader() != null && !hasTemplateFields(template.getHeader()) ? getSharedPageKey(template.getHeader()) : null;
+		templateFooterKey = template.getFooter() != null && !hasTemplateFields(template.getFooter()) ? getSharedPageKey(template.getFooter()) : null;
 
-		DocumentLayoutInfo documentLayoutInfo = layoutDocument(document);
+		RenderHandle previousHandle = RenderHandle.getCurrent();
+		RenderResult batchResult;
+
+		recordIndex = 0;
+		documentPagesWritten = 0;
+
+		while (templateFieldContexts.hasNext()) {
+
+			recordFieldContext = templateFieldContexts.next();
+
+			RenderHandle handle = createRenderHandle();
+			RenderHandle.setCurrent(handle);
+
+			int firstPage = documentPagesWritten;
+			RenderResult result = null;
+
+			recordStarted(recordIndex, recordFieldContext);
+
+			try {
+
+				start = System.currentTimeMillis();
+				pagesWritten = 0;
+				currentDocumentId = batchDocumentId + "-" + (recordIndex + 1); //$NON-NLS-1$
+
+				PhaseTimer parseTimer = PhaseTimer.start(getRenderMetrics(), RenderPhase.PARSE);
+				RenderSpan parseSpan = beginSpan(SpanType.TEMPLATE_PARSE, currentDocumentId);
+
+				// Every record gets its own copy of the template, parsing replaces the template fields
+				Document document = new Document(template);
+
+				try {
+					if (recordFieldContext != null) {
+						parseTemplate(document, recordFieldContext);
+					}
+				} finally {
+					if (parseSpan != null) {
+						parseSpan.finish();
+					}
+					if (parseTimer != null) {
+						parseTimer.finish();
+					}
+				}
+
+				layoutContext.setLayoutPhase(LayoutPhase.LAYOUT_CONTENT);
+				layoutContext.setYPolicyEnabled(true);
+
+				DocumentLayoutInfo documentLayoutInfo = layoutDocument(document, handle);
+
+				if (documentWriter != null) {
+
+					PhaseTimer writeTimer = PhaseTimer.start(getRenderMetrics(), RenderPhase.WRITE);
+					RenderSpan writeSpan = beginSpan(SpanType.DOCUMENT_WRITE, currentDocumentId);
+
+					try {
+						writePages(documentLayoutInfo);
+					} finally {
+						if (writeSpan != null) {
+							writeSpan.finish();
+						}
+						if (writeTimer != null) {
+							writeTimer.finish();
+						}
+					}
+
+				}
 
-		writeDocument(documentLayoutInfo);
+				result = RenderResult.succeeded(documentLayoutInfo, System.currentTimeMillis() - start);
+
+			} catch (RenderCancelledException e) {
+				result = RenderResult.failed(null, e, System.currentTimeMillis() - start);
+				if (listener != null) {
+					fireStatusChanged("Writing record " + (recordIndex + 1) + " stopped after " + (System.currentTimeMillis() - start) + " milliseconds: " + e.getMessage());
+				}
+			} catch (Exception e) {
+				result = RenderResult.failed(null, e, System.currentTimeMillis() - start);
+				if (listener != null) {
+					fireStatusChanged("Writing record " + (recordIndex + 1) + " failed after " + (System.currentTimeMillis() - start) + " milliseconds: " + result.getMessage());
+				}
+			} finally {
+				RenderHandle.setCurrent(previousHandle);
+			}
+
+			recordFinished(recordIndex, recordFieldContext, result, firstPage, documentPagesWritten - firstPage);
+
+			recordIndex++;
+
+		}
+
+		try {
+			if (documentWriter != null && documentWriter.isDocumentOpen()) {
+				documentWriter.close();
+			}
+			batchResult = RenderResult.succeeded(null, System.currentTimeMillis() - batchStart);
+			if (listener != null) {
+				fireStatusChanged("Writing " + recordIndex + " records finished after " + batchResult.getMillis() + " milliseconds");
+			}
+		} catch (Exception e) {
+			if (documentWriter != null) {
+				documentWriter.abort();
+			}
+			batchResult = RenderResult.failed(null, e, System.currentTimeMillis() - batchStart);
+			if (listener != null) {
+				fireStatusChanged("Writing " + recordIndex + " records failed after " + batchResult.getMillis() + " milliseconds: " + batchResult.getMessage());
+			}
+		}
+
+		recordIndex = -1;
+		recordFieldContext = null;
+		currentDocumentId = null;
+		templateHeaderKey = null;
+		templateFooterKey = null;
 
 		layoutContext.setLayoutPhase(LayoutPhase.IDLE);
 
+		return batchResult;
+
+	}
+
+	private XmlMapper getXmlMapper() {
+		if (xmlMapper == null) {
+			xmlMapper = XDocWriter.createXmlMapper();
+			xmlMapper.disable(SerializationFeature.INDENT_OUTPUT);
+		}
+		return xmlMapper;
+	}
+
+	// Called by loadDocuments() before a record is rendered
+	protected void recordStarted(int recordIndex, IFieldContext templateFieldContext) {
+
+	}
+
+	// Called by loadDocuments() after a record was written or failed, firstPage is the index of the first page of
+	// the record in the document and pages the number of pages written for it (pages of a failed record that were
+	// already written by an incremental document writer are included)
+	protected void recordFinished(int recordIndex, IFieldContext templateFieldContext, RenderResult result, int firstPage, int pages) {
+
+	}
+
+	protected String getBookmarkTitle(int recordIndex, IFieldContext templateFieldContext) {
+		return "Record " + (recordIndex + 1);
+	}
+
+	// Pages with equal keys have equal content, writers use it to write header and footer content only once. Only
+	// used for the records of loadDocuments(), they are written to the same document and can have different headers
+	protected String getSharedPageKey(PageLayoutInfo pageLayoutInfo) {
+		return getSharedPageKey(pageLayoutInfo.page);
+	}
+
+	protected String getSharedPageKey(Page page) {
+		try {
+			return ContentHash.sha256(getXmlMapper().writeValueAsBytes(page));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static boolean hasTemplateFields(Page page) {
+
+		final boolean[] templateFields = { false };
+
+		ContentParser parser = new ContentParser() {
+
+			@Override
+			public void parseIText(IText iText) {
+				for (TextStyle textStyle : iText.getStyles()) {
+					if (textStyle.source != null && new Field(textStyle.source).isTemplateField()) {
+						templateFields[0] = true;
+					}
+				}
+			}
+		};
+		parser.parseHeaderPage(page);
+
+		return templateFields[0];
+
 	}
 
 	protected void parseTemplate(Document document, IFieldContext templateFieldContext) {
@@ -112,106 +502,265 @@ public abstract class TemplateDocumentLoader {
 
 			@Override
 			public void parsePage(Page page) {
-				fireStatusChanged("Loading template data, page " + (document.getPages().indexOf(page) + 1) + " of " + document.getPages().size());
+				if (listener != null) {
+					fireStatusChanged("Loading template data, page " + (document.getPages().indexOf(page) + 1) + " of " + document.getPages().size());
+				}
 				super.parsePage(page);
 			}
 		};
 		templateParser.parseTemplate(document, templateFieldContext);
 
-		fireStatusChanged("Template parsed after " + (System.currentTimeMillis() - start) + " milliseconds");
+		if (listener != null) {
+			fireStatusChanged("Template parsed after " + (System.currentTimeMillis() - start) + " milliseconds");
+		}
 
 	}
 
-	protected DocumentLayoutInfo layoutDocument(Document document) {
+	// Lays out the pages on the executor service, if a page fails or the handle is cancelled the pages that
+	// are still pending are cancelled and the exception (a RenderCancelledException if cancelled) is thrown
+	protected DocumentLayoutInfo layoutDocument(Document document, RenderHandle handle) throws Exception {
 
 		DocumentLayoutInfo documentLayoutInfo = new DocumentLayoutInfo();
 
-		ExecutorService executorService = createExecutorService();
+		RenderMetrics metrics = getRenderMetrics();
+		PhaseTimer layoutTimer = PhaseTimer.start(metrics, RenderPhase.LAYOUT);
+		long pagesAllocatedBytes = 0;
 
-		List<Future<LayoutPageResult>> futures = new ArrayList<Future<LayoutPageResult>>();
+		ElementProfiler elementProfiler = layoutContext.getElementProfiler();
+		if (elementProfiler != null) {
+			if (document.getHeader() != null) {
+				elementProfiler.registerPage(-1, document.getHeader());
+			}
+			if (document.getFooter() != null) {
+				elementProfiler.registerPage(-2, document.getFooter());
+			}
+			for (int i = 0; i < document.getPages().size(); i++) {
+				elementProfiler.registerPage(i, document.getPages().get(i));
+			}
+		}
+
+		List<LayoutPageCallable> callables = new ArrayList<>();
 
 		if (document.getHeader() != null) {
-			futures.add(executorService.submit(new LayoutPageCallable(document, document.getHeader(), -1)));
+			callables.add(new LayoutPageCallable(document, document.getHeader(), -1, metrics, currentDocumentId, handle));
 		}
 
 		if (document.getFooter() != null) {
-			futures.add(executorService.submit(new LayoutPageCallable(document, document.getFooter(), -2)));
+			callables.add(new LayoutPageCallable(document, document.getFooter(), -2, metrics, currentDocumentId, handle));
 		}
 
 		for (int i = 0; i < document.getPages().size(); i++) {
-			futures.add(executorService.submit(new LayoutPageCallable(document, document.getPages().get(i), i)));
+			callables.add(new LayoutPageCallable(document, document.getPages().get(i), i, metrics, currentDocumentId, handle));
 		}
 
-		for (Future<LayoutPageResult> future : futures) {
+		ExecutorService executorService = layoutExecutor != null ? layoutExecutor : createExecutorService();
 
-			try {
+		List<Future<LayoutPageResult>> futures = new ArrayList<Future<LayoutPageResult>>();
+		boolean completed = false;
 
-				LayoutPageResult layoutPageResult = future.get();
+		try {
+
+			for (LayoutPageCallable callable : callables) {
+				Future<LayoutPageResult> future = executorService.submit(callable);
+				if (handle != null) {
+					handle.addFuture(future);
+				}
+				futures.add(future);
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+
+				LayoutPageResult layoutPageResult = getLayoutPageResult(futures.get(i), callables.get(i).result.pageIndex, handle);
+
+				if (layoutPageResult.allocatedBytes > 0) {
+					pagesAllocatedBytes += layoutPageResult.allocatedBytes;
+				}
 
 				if (layoutPageResult.pageIndex >= 0 && layoutPageResult.pageIndex < document.getPages().size()) {
+
 					documentLayoutInfo.pages.addAll(layoutPageResult.pages);
+
+					// Header and footer are submitted first, so they are available when the first page is written
+					if (documentWriter != null && documentWriter.isIncremental()) {
+						writePages(documentLayoutInfo);
+					}
+
 				} else if (layoutPageResult.pageIndex == -1 && layoutPageResult.pages.size() == 1) {
 					documentLayoutInfo.header = layoutPageResult.pages.get(0);
 				} else if (layoutPageResult.pageIndex == -2 && layoutPageResult.pages.size() == 1) {
 					documentLayoutInfo.footer = layoutPageResult.pages.get(0);
 				}
 
-			} catch (Exception e) {
-				e.printStackTrace();
 			}
 
-		}
+			completed = true;
+
+		} finally {
+
+			// Pages that are still pending are of no use if a page failed
+			if (!completed) {
+				for (Future<LayoutPageResult> future : futures) {
+					future.cancel(true);
+				}
+			}
+
+			if (executorService != layoutExecutor) {
+				if (completed) {
+					executorService.shutdown();
+				} else {
+					executorService.shutdownNow();
+				}
+			}
+
+			if (handle != null) {
+				for (Future<LayoutPageResult> future : futures) {
+					handle.removeFuture(future);
+				}
+			}
+
+			// Pages are laid out on other threads, their allocations are added to the allocations of this thread
+			if (layoutTimer != null) {
+				layoutTimer.finish(pagesAllocatedBytes);
+			}
 
-		executorService.shutdown();
+		}
 
 		document.getPages().clear();
 		for (PageLayoutInfo pageLayoutInfo : documentLayoutInfo.pages) {
 			document.getPages().add(pageLayoutInfo.page);
 		}
 
-		fireStatusChanged("Laying out document finished after " + (System.currentTimeMillis() - start) + " milliseconds");
+		if (listener != null) {
+			fireStatusChanged("Laying out document finished after " + (System.currentTimeMillis() - start) + " milliseconds");
+		}
 
 		return documentLayoutInfo;
 
 	}
 
-	protected void writeDocument(DocumentLayoutInfo documentLayoutInfo) {
+	private LayoutPageResult getLayoutPageResult(Future<LayoutPageResult> future, int pageIndex, RenderHandle handle) throws Exception {
+
+		try {
+
+			if (handle != null && handle.hasDeadline()) {
+				return future.get(handle.getRemainingNanos(), TimeUnit.NANOSECONDS);
+			} else {
+				return future.get();
+			}
+
+		} catch (TimeoutException e) {
+			handle.check();
+			throw new RenderCancelledException(true);
+		} catch (CancellationException e) {
+			if (handle != null) {
+				handle.check();
+			}
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RenderCancelledException) {
+				throw (RenderCancelledException) e.getCause();
+			} else if (e.getCause() instanceof Exception) {
+				throw new Exception("Laying out " + getPageName(pageIndex) + " failed: " + e.getCause().getMessage(), e.getCause());
+			} else {
+				throw e;
+			}
+		}
+
+	}
+
+	private static String getPageName(int pageIndex) {
+		if (pageIndex == -1) {
+			return "header page";
+		} else if (pageIndex == -2) {
+			return "footer page";
+		} else {
+			return "page " + (pageIndex + 1);
+		}
+	}
+
+	protected void writeDocument(DocumentLayoutInfo documentLayoutInfo) throws Exception {
 
 		if (documentWriter != null) {
 
+			PhaseTimer writeTimer = PhaseTimer.start(getRenderMetrics(), RenderPhase.WRITE);
+			RenderSpan writeSpan = beginSpan(SpanType.DOCUMENT_WRITE, currentDocumentId);
+
 			try {
 
-				if (!documentWriter.isDocumentOpen()) {
-					documentWriter.open(PageSize.A4.getWidth(), PageSize.A4.getHeight()); // TODO
+				writePages(documentLayoutInfo);
+
+				documentWriter.close();
+
+				if (listener != null) {
+					fireStatusChanged("Writing document finished after " + (System.currentTimeMillis() - start) + " milliseconds");
+				}
+
+			} finally {
+				if (writeSpan != null) {
+					writeSpan.finish();
+				}
+				if (writeTimer != null) {
+					writeTimer.finish();
 				}
+			}
 
-				for (PageLayoutInfo pageLayoutInfo : documentLayoutInfo.pages) {
+		}
 
-					documentWriter.openPage(pageLayoutInfo.page.getWidth(), pageLayoutInfo.page.getHeight());
+	}
 
-					if (documentLayoutInfo.header != null) {
-						documentWriter.writePage(documentLayoutInfo.header);
-					}
+	// Writes the pages that have been laid out but not yet written
+	protected void writePages(DocumentLayoutInfo documentLayoutInfo) throws Exception {
 
-					if (documentLayoutInfo.footer != null) {
-						documentWriter.writePage(documentLayoutInfo.footer);
-					}
+		if (layoutContext.getElementProfiler() != null && documentWriter.getElementProfiler() == null) {
+			documentWriter.setElementProfiler(layoutContext.getElementProfiler());
+		}
+
+		if (!documentWriter.isDocumentOpen()) {
+			documentWriter.open(PageSize.A4.getWidth(), PageSize.A4.getHeight()); // TODO
+		}
 
-					documentWriter.writePage(pageLayoutInfo);
+		while (pagesWritten < documentLayoutInfo.pages.size()) {
 
-					documentWriter.closePage();
+			RenderHandle.checkCurrent();
 
+			boolean firstPage = pagesWritten == 0;
+			// The header and footer of a single document are the same on every page
+			if (firstPage && recordIndex >= 0) {
+				// Only headers and footers with template fields need a key per record
+				headerKey = templateHeaderKey;
+				if (headerKey == null && documentLayoutInfo.header != null) {
+					headerKey = getSharedPageKey(documentLayoutInfo.header);
 				}
+				footerKey = templateFooterKey;
+				if (footerKey == null && documentLayoutInfo.footer != null) {
+					footerKey = getSharedPageKey(documentLayoutInfo.footer);
+				}
+			} else if (firstPage) {
+				headerKey = HEADER_KEY;
+				footerKey = FOOTER_KEY;
+			}
 
-				documentWriter.close();
+			PageLayoutInfo pageLayoutInfo = documentLayoutInfo.pages.get(pagesWritten++);
 
-				fireStatusChanged("Writing document finished after " + (System.currentTimeMillis() - start) + " milliseconds");
+			documentWriter.openPage(pageLayoutInfo.page.getWidth(), pageLayoutInfo.page.getHeight());
 
-			} catch (Exception e) {
-				e.printStackTrace(); // TODO
-				fireStatusChanged("Writing document failed after " + (System.currentTimeMillis() - start) + " milliseconds");
+			if (firstPage && bookmarksEnabled && recordIndex >= 0) {
+				documentWriter.addBookmark(getBookmarkTitle(recordIndex, recordFieldContext));
+			}
+
+			if (documentLayoutInfo.header != null) {
+				documentWriter.writeSharedPage(documentLayoutInfo.header, headerKey);
+			}
+
+			if (documentLayoutInfo.footer != null) {
+				documentWriter.writeSharedPage(documentLayoutInfo.footer, footerKey);
 			}
 
+			documentWriter.writePage(pageLayoutInfo);
+
+			documentWriter.closePage();
+			documentPagesWritten++;
+
 		}
 
 	}
@@ -226,25 +775,50 @@ public abstract class TemplateDocumentLoader {
 
 		private final Document document;
 		private final Page page;
+		private final RenderMetrics metrics;
+		private final String documentId;
+		private final RenderHandle handle;
 		private final LayoutPageResult result = new LayoutPageResult();
 
-		private LayoutPageCallable(Document document, Page page, int pageIndex) {
+		private LayoutPageCallable(Document document, Page page, int pageIndex, RenderMetrics metrics, String documentId, RenderHandle handle) {
 			this.document = document;
 			this.page = page;
+			this.metrics = metrics;
+			this.documentId = documentId;
+			this.handle = handle;
 			this.result.pageIndex = pageIndex;
 		}
 
 		@Override
 		public LayoutPageResult call() throws Exception {
 
+			RenderHandle.setCurrent(handle);
+
+			try {
+				RenderHandle.checkCurrent();
+				return layoutPage();
+			} finally {
+				RenderHandle.setCurrent(null);
+			}
+
+		}
+
+		private LayoutPageResult layoutPage() throws Exception {
+
 			long pageStart = System.currentTimeMillis();
+			long pageStartNanos = metrics != null ? System.nanoTime() : 0;
+			long allocatedBytes = metrics != null ? Metrics.getAllocatedBytes() : -1;
+
+			RenderSpan layoutSpan = beginSpan(SpanType.PAGE_LAYOUT, documentId);
 
 			if (result.pageIndex == -1) {
 				fireStatusChanged("Laying out header page");
 			} else if (result.pageIndex == -2) {
 				fireStatusChanged("Laying out footer page");
 			} else if (result.pageIndex >= 0) {
-				fireStatusChanged("Laying out page " + (result.pageIndex + 1) + " of " + document.getPages().size());
+				if (listener != null) {
+					fireStatusChanged("Laying out page " + (result.pageIndex + 1) + " of " + document.getPages().size());
+				}
 			}
 
 			IElementLayoutMetrics layoutMetrics = createLayoutMetrics();
@@ -265,14 +839,51 @@ public abstract class TemplateDocumentLoader {
 			pageLayoutInfo.layoutInfo = layoutMetrics.getLayoutInfo();
 			result.pages.add(pageLayoutInfo);
 
+			// Counted before pagination, the paginator moves table cells to new pages
+			int elements = 0, tableCells = 0, spans = 0;
+			if (metrics != null || layoutSpan != null) {
+				elements = page.getElements().size();
+				for (Table table : pageLayoutInfo.layoutInfo.tables.keySet()) {
+					tableCells += table.getTableCells().size();
+				}
+				spans = countSpans(pageLayoutInfo);
+			}
+
 			if (result.pageIndex >= 0) {
 
-				Paginator paginator = new Paginator(listener);
-				result.pages.addAll(paginator.paginate(pageLayoutInfo, document.getHeaderHeight(), page.getHeight() - document.getFooterHeight()));
+				PhaseTimer paginateTimer = PhaseTimer.start(metrics, RenderPhase.PAGINATE);
+				RenderSpan paginateSpan = beginSpan(SpanType.PAGINATE, documentId);
+
+				try {
+					Paginator paginator = new Paginator(listener);
+					paginator.setElementProfiler(layoutContext.getElementProfiler());
+					result.pages.addAll(paginator.paginate(pageLayoutInfo, document.getHeaderHeight(), page.getHeight() - document.getFooterHeight()));
+				} finally {
+					if (paginateSpan != null) {
+						paginateSpan.setPageIndex(result.pageIndex);
+						paginateSpan.finish();
+					}
+					if (paginateTimer != null) {
+						paginateTimer.finish();
+					}
+				}
+
+			}
+
+			if (metrics != null) {
+				result.allocatedBytes = Metrics.getAllocatedBytesSince(allocatedBytes);
+				metrics.pageLaidOut(result.pageIndex, System.nanoTime() - pageStartNanos, result.allocatedBytes, elements, tableCells, spans);
+			}
 
+			if (layoutSpan != null) {
+				layoutSpan.setPageIndex(result.pageIndex);
+				layoutSpan.setCounts(elements, tableCells, spans);
+				layoutSpan.finish();
 			}
 
-			fireStatusChanged("Laying out page " + (result.pageIndex + 1) + " finished in " + (System.currentTimeMillis() - pageStart) + " milliseconds");
+			if (listener != null) {
+				fireStatusChanged("Laying out page " + (result.pageIndex + 1) + " finished in " + (System.currentTimeMillis() - pageStart) + " milliseconds");
+			}
 
 			return result;
 
@@ -280,9 +891,42 @@ public abstract class TemplateDocumentLoader {
 
 	}
 
+	private static int countSpans(PageLayoutInfo pageLayoutInfo) {
+
+		int spans = 0;
+
+		for (TextBoxLayoutInfo textBoxLayoutInfo : pageLayoutInfo.layoutInfo.textBoxes.values()) {
+			spans += countSpans(textBoxLayoutInfo.textLayout);
+		}
+
+		for (TableLayoutInfo tableLayoutInfo : pageLayoutInfo.layoutInfo.tables.values()) {
+			if (tableLayoutInfo.textLayouts != null) {
+				for (TextLayout textLayout : tableLayoutInfo.textLayouts) {
+					spans += countSpans(textLayout);
+				}
+			}
+		}
+
+		return spans;
+
+	}
+
+	private static int countSpans(TextLayout textLayout) {
+
+		int spans = 0;
+
+		if (textLayout != null) {
+			spans += textLayout.getSpanCount();
+		}
+
+		return spans;
+
+	}
+
 	private static class LayoutPageResult {
 
 		private int pageIndex = 0;
+		private long allocatedBytes = -1;
 		private List<PageLayoutInfo> pages = new ArrayList<>();
 
 	}
@@ -22,12 +22,18 @@
  */
 package org.glasspath.aerialist.template;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import org.glasspath.aerialist.IFieldContext;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 @SuppressWarnings("nls")
 public class TemplateFieldContext implements IFieldContext {
 
@@ -73,4 +79,86 @@ public class TemplateFieldContext implements IFieldContext {
 		return listMap.get(key);
 	}
 
+	// The same fields always result in the same string (independent of the order in which they were put), keys
+	// and values are prefixed with their length so different fields can't result in the same string
+	public String getCanonicalForm() {
+
+		StringBuilder builder = new StringBuilder();
+
+		appendCanonical(builder, defaultValue);
+
+		for (Entry<String, String> entry : new TreeMap<>(stringMap).entrySet()) {
+			builder.append('s');
+			appendCanonical(builder, entry.getKey());
+			appendCanonical(builder, entry.getValue());
+		}
+
+		for (Entry<String, List<String>> entry : new TreeMap<>(listMap).entrySet()) {
+			builder.append('l');
+			appendCanonical(builder, entry.getKey());
+			if (entry.getValue() != null) {
+				builder.append(entry.getValue().size()).append(':');
+				for (String value : entry.getValue()) {
+					appendCanonical(builder, value);
+				}
+			} else {
+				builder.append("-:");
+			}
+		}
+
+		return builder.toString();
+
+	}
+
+	private static void appendCanonical(StringBuilder builder, String value) {
+		if (value != null) {
+			builder.append(value.length()).append(':').append(value);
+		} else {
+			builder.append("-:");
+		}
+	}
+
+	// Strings, numbers and booleans of the JSON object are fields, arrays are lists and nested objects
+	// are flattened (address.city)
+	public static TemplateFieldContext fromJson(JsonNode object) {
+
+		if (object == null || !object.isObject()) {
+			throw new IllegalArgumentException("Field data is not a JSON object");
+		}
+
+		TemplateFieldContext fieldContext = new TemplateFieldContext();
+		fieldContext.putJsonFields("", object);
+
+		return fieldContext;
+
+	}
+
+	private void putJsonFields(String prefix, JsonNode object) {
+
+		Iterator<Entry<String, JsonNode>> fields = object.fields();
+		while (fields.hasNext()) {
+
+			Entry<String, JsonNode> field = fields.next();
+
+			String key = prefix + field.getKey();
+			JsonNode value = field.getValue();
+
+			if (value.isObject()) {
+				putJsonFields(key + ".", value);
+			} else if (value.isArray()) {
+
+				List<String> values = new ArrayList<>();
+				for (JsonNode element : value) {
+					values.add(element.isNull() ? "" : element.asText());
+				}
+				put(key, values);
+
+			} else if (!value.isNull()) {
+				put(key, value.asText());
+			}
+
+		}
+
+	}
+
 }
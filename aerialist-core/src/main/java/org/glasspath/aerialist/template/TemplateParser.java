@@ -23,6 +23,8 @@
 package org.glasspath.aerialist.template;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.glasspath.aerialist.ContentParser;
@@ -97,6 +99,19 @@ public class TemplateParser extends ContentParser {
 
 			table.getTableCells().addAll(newTableCellData.newTableCells);
 
+			// New cells are added per column, the paginator expects the cells in row order (layouts of table cells are stored by index)
+			Collections.sort(table.getTableCells(), new Comparator<TableCell>() {
+
+				@Override
+				public int compare(TableCell tableCell1, TableCell tableCell2) {
+					if (tableCell1.getRow() != tableCell2.getRow()) {
+						return Integer.compare(tableCell1.getRow(), tableCell2.getRow());
+					} else {
+						return Integer.compare(tableCell1.getCol(), tableCell2.getCol());
+					}
+				}
+			});
+
 		}
 
 	}
@@ -37,6 +37,14 @@ public class TextLayout {
 		this.preferredHeight = preferredHeight;
 	}
 
+	public int getSpanCount() {
+		int spanCount = 0;
+		for (Line line : lines) {
+			spanCount += line.spans.length;
+		}
+		return spanCount;
+	}
+
 	public static class Line {
 
 		public final int start;
@@ -29,6 +29,7 @@ import org.glasspath.aerialist.Alignment;
 import org.glasspath.aerialist.IText;
 import org.glasspath.aerialist.TextStyle;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.Rect;
+import org.glasspath.aerialist.layout.RenderHandle;
 import org.glasspath.aerialist.text.TextLayout.Line;
 import org.glasspath.aerialist.text.TextLayout.Span;
 import org.glasspath.aerialist.text.font.FontCache;
@@ -55,6 +56,8 @@ public class TextUtils {
 
 			for (int i = 0; i < iText.getStyles().size(); i++) {
 
+				RenderHandle.checkCurrent();
+
 				if (lineLayout.addSpan(i) || i == iText.getStyles().size() - 1) {
 
 					LineLayout wrappedLineLayout = lineLayout.limitWidth(width, alignment);
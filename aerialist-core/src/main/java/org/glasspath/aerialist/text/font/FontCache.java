@@ -25,14 +25,20 @@ package org.glasspath.aerialist.text.font;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.glasspath.aerialist.metrics.CacheType;
+import org.glasspath.aerialist.metrics.Metrics;
+import org.glasspath.aerialist.metrics.RenderSpan;
+import org.glasspath.aerialist.metrics.SpanType;
 import org.glasspath.aerialist.text.TextUtils.SpanInfo;
 
 @SuppressWarnings("nls")
 public abstract class FontCache<T> {
 
 	protected final List<FontFile> fontFiles = new ArrayList<>();
-	protected final List<CachedFont> cachedFonts = new ArrayList<>();
+	// Fonts are looked up for every measured span from multiple layout threads, so reads must not need a lock
+	protected final List<CachedFont> cachedFonts = new CopyOnWriteArrayList<>();
 
 	public FontCache() {
 
@@ -80,15 +86,14 @@ public abstract class FontCache<T> {
 
 		if (fontName != null) {
 
-			for (int i = 0; i < cachedFonts.size(); i++) {
-
-				CachedFont cachedFont = cachedFonts.get(i);
-				if (fontName.equals(cachedFont.fontName) && weight == cachedFont.weight && italic == cachedFont.italic) {
-					return i;
-				}
-
+			int index = findFontIndex(fontName, weight, italic);
+			if (index >= 0) {
+				Metrics.cacheAccessed(CacheType.FONT, true);
+				return index;
 			}
 
+			Metrics.cacheAccessed(CacheType.FONT, false);
+
 			return addFont(fontName, weight, italic);
 
 		}
@@ -97,21 +102,38 @@ public abstract class FontCache<T> {
 
 	}
 
-	private synchronized int addFont(String fontName, FontWeight weight, boolean italic) {
+	private int findFontIndex(String fontName, FontWeight weight, boolean italic) {
 
-		List<FontFile> fontFileMatches = new ArrayList<>();
+		for (int i = 0; i < cachedFonts.size(); i++) {
 
-		if (fontName != null) {
+			CachedFont cachedFont = cachedFonts.get(i);
+			if (fontName.equals(cachedFont.fontName) && weight == cachedFont.weight && italic == cachedFont.italic) {
+				return i;
+			}
 
-			fontName = fontName.toLowerCase().replaceAll("[^A-Za-z0-9]", "");
+		}
 
-			for (int i = 0; i < fontFiles.size(); i++) {
+		return -1;
 
-				FontFile fontFile = fontFiles.get(i);
-				if (fontFile.weight == weight && fontFile.italic == italic && fontFile.name.contains(fontName)) {
-					fontFileMatches.add(fontFile);
-				}
+	}
 
+	private synchronized int addFont(String fontName, FontWeight weight, boolean italic) {
+
+		// Another thread may have added the font while we were waiting
+		int index = findFontIndex(fontName, weight, italic);
+		if (index >= 0) {
+			return index;
+		}
+
+		List<FontFile> fontFileMatches = new ArrayList<>();
+
+		String name = fontName.toLowerCase().replaceAll("[^A-Za-z0-9]", "");
+
+		for (int i = 0; i < fontFiles.size(); i++) {
+
+			FontFile fontFile = fontFiles.get(i);
+			if (fontFile.weight == weight && fontFile.italic == italic && fontFile.name.contains(name)) {
+				fontFileMatches.add(fontFile);
 			}
 
 		}
@@ -122,16 +144,27 @@ public abstract class FontCache<T> {
 			fontFile = fontFileMatches.get(0);
 		} else if (fontFileMatches.size() > 1) {
 			fontFile = fontFileMatches.get(0); // TODO
-			System.err.println("TODO: FontCache: " + fontName + ", multiple matching font files found, load them all and find the one with the best matching family name");
+			System.err.println("TODO: FontCache: " + name + ", multiple matching font files found, load them all and find the one with the best matching family name");
 		} else {
-			System.err.println("TODO: FontCache: " + fontName + ", no matching font files found, load all available font files and find the one with the best matching family name");
+			System.err.println("TODO: FontCache: " + name + ", no matching font files found, load all available font files and find the one with the best matching family name");
 		}
 
 		if (fontFile != null && fontFile.font == null) {
+
+			RenderSpan span = Metrics.beginSpan(SpanType.FONT_LOAD);
+
 			loadFontFile(fontFile);
+
+			if (span != null) {
+				span.setName(fontFile.file.getName());
+				span.setBytes(fontFile.file.length());
+				span.finish();
+			}
+
 		}
 
-		// If font is null we still add it (so we don't try to create it again later)
+		// If font is null we still add it (so we don't try to create it again later), the
+		// font name is stored as requested so lookups from getFontIndex() find it again
 		cachedFonts.add(new CachedFont(fontName, weight, italic, fontFile));
 
 		return cachedFonts.size() - 1;
@@ -23,10 +23,14 @@
 package org.glasspath.aerialist.writer;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.glasspath.aerialist.Alignment;
 import org.glasspath.aerialist.Border;
@@ -49,16 +53,115 @@ import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.Rect;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.TableLayoutInfo;
 import org.glasspath.aerialist.layout.DocumentLayoutInfo.TextBoxLayoutInfo;
+import org.glasspath.aerialist.layout.RenderHandle;
+import org.glasspath.aerialist.media.ContentHash;
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.metrics.ElementProfiler;
+import org.glasspath.aerialist.metrics.Metrics;
+import org.glasspath.aerialist.metrics.RenderSpan;
+import org.glasspath.aerialist.metrics.SpanType;
+import org.glasspath.aerialist.qrcode.QrCodeCache;
+import org.glasspath.aerialist.qrcode.QrCodeMatrix;
 import org.glasspath.aerialist.text.TextLayout;
 import org.glasspath.aerialist.text.TextLayout.Line;
 import org.glasspath.aerialist.text.TextLayout.Span;
+import org.glasspath.aerialist.writer.compress.CompressionMode;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
 
 public abstract class DocumentWriter {
 
-	protected final File file;
+	public static final int QR_CODE_BORDER = 1;
 
+	// Creation and modification date of documents written in deterministic mode (2000-01-01T00:00:00Z)
+	public static final long DETERMINISTIC_TIMESTAMP = 946684800000L;
+	public static final String DEFAULT_DETERMINISTIC_ID = "aerialist"; //$NON-NLS-1$
+
+	protected final DocumentSink sink;
+	protected CompressionMode compressionMode = CompressionMode.DEFAULT;
+	protected float targetDpi = 0.0F;
+	protected ElementProfiler elementProfiler = null;
+	protected boolean deterministic = false;
+	protected String deterministicId = DEFAULT_DETERMINISTIC_ID;
+	private OperatorCounter operatorCounter = null;
+
+	// The document is written to <name>.part and only renamed to the file by close() (see FileSink), a writer
+	// that is dropped without close() leaves the .part file behind and no document
 	public DocumentWriter(File file) {
-		this.file = file;
+		this(DocumentSink.toFile(file));
+	}
+
+	public DocumentWriter(DocumentSink sink) {
+		this.sink = sink;
+	}
+
+	public DocumentSink getSink() {
+		return sink;
+	}
+
+	public CompressionMode getCompressionMode() {
+		return compressionMode;
+	}
+
+	// Should be set before the document is opened
+	public void setCompressionMode(CompressionMode compressionMode) {
+		this.compressionMode = compressionMode;
+	}
+
+	public float getTargetDpi() {
+		return targetDpi;
+	}
+
+	// Images with a higher resolution than the target DPI (at the size they are drawn) are scaled down, 0 disables resampling
+	public void setTargetDpi(float targetDpi) {
+		this.targetDpi = targetDpi;
+	}
+
+	public ElementProfiler getElementProfiler() {
+		return elementProfiler;
+	}
+
+	// If set the time and the number of drawing operators needed to write each element are profiled
+	public void setElementProfiler(ElementProfiler elementProfiler) {
+		this.elementProfiler = elementProfiler;
+	}
+
+	public boolean isDeterministic() {
+		return deterministic;
+	}
+
+	// In deterministic mode the same pages are always written to the same bytes, writers use a fixed creation date
+	// (see DETERMINISTIC_TIMESTAMP), a file id derived from the deterministic id and no random font subset prefixes
+	public void setDeterministic(boolean deterministic) {
+		this.deterministic = deterministic;
+	}
+
+	public String getDeterministicId() {
+		return deterministicId;
+	}
+
+	// The file id of a document written in deterministic mode is derived from this id (a cache key for example)
+	public void setDeterministicId(String deterministicId) {
+		this.deterministicId = deterministicId != null ? deterministicId : DEFAULT_DETERMINISTIC_ID;
+	}
+
+	// 16 bytes, like the MD5 based ids that are created for documents that are not deterministic
+	protected byte[] getDeterministicFileId() {
+		return Arrays.copyOf(ContentHash.createDigest().digest(deterministicId.getBytes(StandardCharsets.UTF_8)), 16);
+	}
+
+	protected MediaCache<?> getMediaCache() {
+		return null;
+	}
+
+	// Bytes written to the sink so far, writers that write the content of closed pages right away return the offset
+	// of the end of the last closed page, writers that write everything when the document is closed return -1
+	public long getBytesWritten() {
+		return -1;
+	}
+
+	// Incremental writers deliver pages while they are written, pages are then written as soon as they are laid out
+	public boolean isIncremental() {
+		return false;
 	}
 
 	public void open(int width, int height) throws Exception {
@@ -77,9 +180,90 @@ public abstract class DocumentWriter {
 	public abstract void openPage(int width, int height) throws Exception;
 
 	public void writePage(PageLayoutInfo pageLayoutInfo) throws Exception {
-		for (Element element : pageLayoutInfo.page.getElements()) {
-			writeElement(element, pageLayoutInfo.layoutInfo);
+
+		RenderSpan span = Metrics.beginSpan(SpanType.PAGE_WRITE);
+
+		try {
+			for (Element element : pageLayoutInfo.page.getElements()) {
+				RenderHandle.checkCurrent();
+				if (elementProfiler != null) {
+					profileElement(element, pageLayoutInfo.layoutInfo);
+				} else {
+					writeElement(element, pageLayoutInfo.layoutInfo);
+				}
+			}
+		} finally {
+			if (span != null) {
+				span.setCounts(pageLayoutInfo.page.getElements().size(), 0, 0);
+				span.finish();
+			}
 		}
+
+	}
+
+	private void profileElement(Element element, LayoutInfo layoutInfo) throws Exception {
+
+		// Writers don't report what they emit, the element is written through a writer that counts the operators
+		if (operatorCounter == null) {
+			operatorCounter = new OperatorCounter(this);
+		}
+		operatorCounter.targetDpi = targetDpi;
+		operatorCounter.operators = 0;
+
+		long start = System.nanoTime();
+
+		operatorCounter.writeElement(element, layoutInfo);
+
+		elementProfiler.written(element, System.nanoTime() - start, operatorCounter.operators);
+
+	}
+
+	// Writes content that is repeated on many pages (header and footer), pages with equal keys have equal content
+	// so writers can store the content once and refer to it from every page, if key is null the page is written
+	public void writeSharedPage(PageLayoutInfo pageLayoutInfo, String key) throws Exception {
+		writePage(pageLayoutInfo);
+	}
+
+	// Writes shared pages to forms (XObjects), the content of a page is written to a form once per key and
+	// page size, every page with the same content refers to it. Forms belong to a document, see clear()
+	protected abstract class SharedPages<T> {
+
+		private final Map<String, T> forms = new HashMap<>();
+
+		public void write(PageLayoutInfo pageLayoutInfo, String key, float width, float height) throws Exception {
+
+			if (key == null) {
+				writePage(pageLayoutInfo);
+				return;
+			}
+
+			key = key + ":" + width + "x" + height; //$NON-NLS-1$ //$NON-NLS-2$
+
+			T form = forms.get(key);
+			if (form == null) {
+				form = createForm(pageLayoutInfo, width, height);
+				forms.put(key, form);
+			}
+
+			drawForm(form);
+
+		}
+
+		public void clear() {
+			forms.clear();
+		}
+
+		// Creates a form with the given size and writes the page to it (with writePage())
+		protected abstract T createForm(PageLayoutInfo pageLayoutInfo, float width, float height) throws Exception;
+
+		// Draws the form on the current page
+		protected abstract void drawForm(T form) throws Exception;
+
+	}
+
+	// Adds a bookmark to the current page
+	public void addBookmark(String title) throws Exception {
+
 	}
 
 	protected void writeElement(Element element, LayoutInfo layoutInfo) throws Exception {
@@ -275,6 +459,8 @@ public abstract class DocumentWriter {
 
 				for (int i = 0; i < table.getTableCells().size(); i++) {
 
+					RenderHandle.checkCurrent();
+
 					TableCell tableCell = table.getTableCells().get(i);
 
 					int row = tableCell.getRow() - 1;
@@ -367,9 +553,14 @@ public abstract class DocumentWriter {
 						x = width - imageLayoutInfo.imageWidth;
 					}
 
+					float w = imageLayoutInfo.imageWidth * scale;
+					float h = imageLayoutInfo.imageHeight * scale;
+
+					String key = getImageKey(image.getSrc(), imageLayoutInfo.imageWidth, imageLayoutInfo.imageHeight, w, h);
+
 					saveState();
 					clip(image.getX(), image.getY(), image.getWidth(), image.getHeight());
-					drawImage(image.getSrc(), image.getX() + (x * scale), image.getY(), imageLayoutInfo.imageWidth * scale, imageLayoutInfo.imageHeight * scale, image.getSrc());
+					drawImage(key, image.getX() + (x * scale), image.getY(), w, h, image.getSrc());
 					restoreState();
 
 				}
@@ -384,6 +575,27 @@ public abstract class DocumentWriter {
 
 	protected void writeQrCodeElement(QrCode qrCode, LayoutInfo layoutInfo) throws Exception {
 
+		paintBorders(qrCode.getBorders(), qrCode.getX(), qrCode.getY(), qrCode.getWidth(), qrCode.getHeight());
+
+		QrCodeMatrix matrix = QrCodeCache.getMatrix(qrCode.getText());
+		if (matrix != null && matrix.getRectCount() > 0) {
+
+			// The code is scaled to fit and centered in the element, with a border of one module (like QrCodeView)
+			int modules = matrix.getSize() + 2 * QR_CODE_BORDER;
+			float moduleSize = Math.min(qrCode.getWidth(), qrCode.getHeight()) / (float) modules;
+
+			if (moduleSize > 0.0F) {
+
+				float x = qrCode.getX() + ((qrCode.getWidth() - (modules * moduleSize)) / 2.0F) + (QR_CODE_BORDER * moduleSize);
+				float y = qrCode.getY() + ((qrCode.getHeight() - (modules * moduleSize)) / 2.0F) + (QR_CODE_BORDER * moduleSize);
+
+				setFillColor(0, 0, 0, 255);
+				fillRects(x, y, moduleSize, matrix.getRects());
+
+			}
+
+		}
+
 	}
 
 	protected void writeGroupElement(Group group, LayoutInfo layoutInfo) throws Exception {
@@ -449,6 +661,26 @@ public abstract class DocumentWriter {
 
 	}
 
+	// Returns the key of the image to draw, a resampled copy is used if the image has a higher resolution than the target DPI
+	protected String getImageKey(String key, int imageWidth, int imageHeight, float w, float h) {
+
+		MediaCache<?> mediaCache = getMediaCache();
+		if (targetDpi > 0.0F && mediaCache != null && w > 0.0F && h > 0.0F) {
+
+			// Sizes are in points (72 per inch)
+			int width = (int) Math.ceil(w * targetDpi / 72.0F);
+			int height = (int) Math.ceil(h * targetDpi / 72.0F);
+
+			if (width < imageWidth && height < imageHeight) {
+				return mediaCache.getResampledImageKey(key, width, height);
+			}
+
+		}
+
+		return key;
+
+	}
+
 	protected abstract void saveState() throws Exception;
 
 	protected abstract void restoreState() throws Exception;
@@ -493,6 +725,13 @@ public abstract class DocumentWriter {
 
 	protected abstract void fill(float x, float y, float w, float h) throws Exception;
 
+	// Rects are stored as x, y, width, height in units of the given scale, writers should fill them as one path
+	protected void fillRects(float x, float y, float scale, int[] rects) throws Exception {
+		for (int i = 0; i + 3 < rects.length; i += 4) {
+			fill(x + rects[i] * scale, y + rects[i + 1] * scale, rects[i + 2] * scale, rects[i + 3] * scale);
+		}
+	}
+
 	protected abstract void draw(float x, float y, float w, float h) throws Exception;
 
 	protected abstract void drawLine(float x1, float y1, float x2, float y2) throws Exception;
@@ -529,13 +768,173 @@ public abstract class DocumentWriter {
 
 	public void close() throws Exception {
 		closeDocument();
+		if (sink != null) {
+			sink.commit();
+		}
 		documentClosed();
 	}
 
+	// Discards the document without completing it, used when a render failed or was cancelled. The sink is aborted
+	// first so nothing that is still buffered reaches it, then the writer releases the document
+	public void abort() {
+
+		if (sink != null) {
+			sink.abort();
+		}
+
+		try {
+			if (isDocumentOpen()) {
+				discardDocument();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+	}
+
 	public void documentClosed() {
 
 	}
 
 	protected abstract void closeDocument() throws Exception;
 
+	// Releases the resources of the open document without writing the rest of it (see abort())
+	protected void discardDocument() throws Exception {
+
+	}
+
+	// Writes elements with the drawing operators of another writer and counts the operators (state, color, path,
+	// image and text operators) on the way
+	private static class OperatorCounter extends DocumentWriter {
+
+		private final DocumentWriter writer;
+		private int operators = 0;
+
+		private OperatorCounter(DocumentWriter writer) {
+			super((DocumentSink) null);
+			this.writer = writer;
+		}
+
+		@Override
+		protected MediaCache<?> getMediaCache() {
+			return writer.getMediaCache();
+		}
+
+		@Override
+		protected void openDocument(int width, int height) throws Exception {
+
+		}
+
+		@Override
+		public boolean isDocumentOpen() {
+			return writer.isDocumentOpen();
+		}
+
+		@Override
+		public void openPage(int width, int height) throws Exception {
+
+		}
+
+		@Override
+		protected void saveState() throws Exception {
+			operators++;
+			writer.saveState();
+		}
+
+		@Override
+		protected void restoreState() throws Exception {
+			operators++;
+			writer.restoreState();
+		}
+
+		@Override
+		protected void setFillColor(int r, int g, int b, int a) throws Exception {
+			operators++;
+			writer.setFillColor(r, g, b, a);
+		}
+
+		@Override
+		protected void setStrokeColor(int r, int g, int b, int a) throws Exception {
+			operators++;
+			writer.setStrokeColor(r, g, b, a);
+		}
+
+		@Override
+		protected void setStroke(float w) throws Exception {
+			operators++;
+			writer.setStroke(w);
+		}
+
+		@Override
+		protected void clip(float x, float y, float w, float h) throws Exception {
+			operators++;
+			writer.clip(x, y, w, h);
+		}
+
+		@Override
+		protected void fill(float x, float y, float w, float h) throws Exception {
+			operators++;
+			writer.fill(x, y, w, h);
+		}
+
+		// Writers fill the rects as one path, one rect operator for each rect and one fill operator
+		@Override
+		protected void fillRects(float x, float y, float scale, int[] rects) throws Exception {
+			operators += (rects.length / 4) + 1;
+			writer.fillRects(x, y, scale, rects);
+		}
+
+		@Override
+		protected void draw(float x, float y, float w, float h) throws Exception {
+			operators++;
+			writer.draw(x, y, w, h);
+		}
+
+		@Override
+		protected void drawLine(float x1, float y1, float x2, float y2) throws Exception {
+			operators++;
+			writer.drawLine(x1, y1, x2, y2);
+		}
+
+		@Override
+		protected void drawImage(String key, float x, float y, float w, float h, String name) throws Exception {
+			operators++;
+			writer.drawImage(key, x, y, w, h, name);
+		}
+
+		@Override
+		protected String prepareText(String text) {
+			return writer.prepareText(text);
+		}
+
+		@Override
+		protected void beginText() throws Exception {
+			operators++;
+			writer.beginText();
+		}
+
+		@Override
+		protected void drawString(String s, float x, float y, int fontIndex, float fontSize, boolean bold, boolean italic) throws Exception {
+			operators++;
+			writer.drawString(s, x, y, fontIndex, fontSize, bold, italic);
+		}
+
+		@Override
+		protected void endText() throws Exception {
+			operators++;
+			writer.endText();
+		}
+
+		@Override
+		public void closePage() throws Exception {
+
+		}
+
+		@Override
+		protected void closeDocument() throws Exception {
+
+		}
+
+	}
+
 }
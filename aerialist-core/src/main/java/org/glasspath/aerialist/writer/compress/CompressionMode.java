@@ -0,0 +1,67 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.compress;
+
+import java.util.zip.Deflater;
+
+@SuppressWarnings("nls")
+public enum CompressionMode {
+
+	FASTEST("fastest", Deflater.BEST_SPEED),
+	BALANCED("balanced", Deflater.DEFAULT_COMPRESSION),
+	SMALLEST("smallest", Deflater.BEST_COMPRESSION);
+
+	public static final CompressionMode DEFAULT = BALANCED;
+
+	public final String stringValue;
+	public final int level;
+
+	CompressionMode(String stringValue, int level) {
+		this.stringValue = stringValue;
+		this.level = level;
+	}
+
+	// Deflater.DEFAULT_COMPRESSION is -1, libraries that expect a level between 0 and 9 should use this
+	public int getDeflateLevel() {
+		return level == Deflater.DEFAULT_COMPRESSION ? 6 : level;
+	}
+
+	public static CompressionMode get(String value) {
+
+		if (value != null) {
+			value = value.trim().toLowerCase();
+		} else {
+			return DEFAULT;
+		}
+
+		for (CompressionMode compressionMode : values()) {
+			if (compressionMode.stringValue.equals(value)) {
+				return compressionMode;
+			}
+		}
+
+		return DEFAULT;
+
+	}
+
+}
@@ -0,0 +1,253 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+import org.glasspath.aerialist.media.ContentHash;
+
+// Deflates streams on a worker pool. Streams that are shared by pages or documents (the forms of shared pages for
+// example) can be deflated with deflateShared(), their compressed bytes are cached by content hash and compression
+// mode so they are only deflated once. The executor service is not shut down by close(), close() only ends the
+// deflaters (the default compressor is never closed)
+public class StreamCompressor implements Closeable {
+
+	public static final int DEFAULT_MAX_SHARED_STREAMS = 256;
+
+	private static StreamCompressor defaultCompressor = null;
+
+	private final ExecutorService executorService;
+	private final Map<String, Future<byte[]>> sharedStreams;
+	@SuppressWarnings("unchecked")
+	private final Deque<Deflater>[] idleDeflaters = new Deque[11];
+	private boolean closed = false;
+
+	public StreamCompressor(ExecutorService executorService) {
+		this(executorService, DEFAULT_MAX_SHARED_STREAMS);
+	}
+
+	public StreamCompressor(ExecutorService executorService, int maxSharedStreams) {
+
+		this.executorService = executorService;
+
+		this.sharedStreams = new LinkedHashMap<String, Future<byte[]>>(16, 0.75F, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Future<byte[]>> eldest) {
+				return size() > maxSharedStreams;
+			}
+		};
+
+		for (int i = 0; i < idleDeflaters.length; i++) {
+			idleDeflaters[i] = new ArrayDeque<>();
+		}
+
+	}
+
+	public static synchronized StreamCompressor getDefault() {
+
+		if (defaultCompressor == null) {
+
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+			defaultCompressor = new StreamCompressor(Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "StreamCompressor-" + (++count)); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			}));
+
+		}
+
+		return defaultCompressor;
+
+	}
+
+	public Future<byte[]> deflate(byte[] bytes, CompressionMode compressionMode) {
+		return executorService.submit(new DeflateCallable(bytes, compressionMode.level, null));
+	}
+
+	// The bytes are only deflated if the same bytes weren't deflated with the same mode before, the future of the
+	// first call is returned. A stream that failed to deflate is removed from the cache
+	public Future<byte[]> deflateShared(byte[] bytes, CompressionMode compressionMode) {
+
+		String key = compressionMode.stringValue + ":" + ContentHash.sha256(bytes); //$NON-NLS-1$
+
+		synchronized (sharedStreams) {
+
+			Future<byte[]> future = sharedStreams.get(key);
+			if (future == null) {
+				future = executorService.submit(new DeflateCallable(bytes, compressionMode.level, key));
+				sharedStreams.put(key, future);
+			}
+
+			return future;
+
+		}
+
+	}
+
+	public static byte[] get(Future<byte[]> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			} else {
+				throw e;
+			}
+		}
+	}
+
+	public void clearSharedStreams() {
+		synchronized (sharedStreams) {
+			sharedStreams.clear();
+		}
+	}
+
+	protected byte[] deflate(byte[] bytes, int level) {
+
+		int index = level + 1;
+
+		Deflater deflater = takeDeflater(index);
+		if (deflater == null) {
+			deflater = new Deflater(level);
+		}
+
+		try {
+
+			deflater.setInput(bytes);
+			deflater.finish();
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(64, bytes.length / 2));
+
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer);
+				outputStream.write(buffer, 0, length);
+			}
+
+			return outputStream.toByteArray();
+
+		} finally {
+			returnDeflater(index, deflater);
+		}
+
+	}
+
+	// Deflaters hold native memory, they are reused instead of created per stream. A deflater is kept for each level
+	// because Deflater.setLevel() only takes effect after the pending input was compressed
+	private Deflater takeDeflater(int index) {
+		synchronized (idleDeflaters) {
+			return idleDeflaters[index].poll();
+		}
+	}
+
+	private void returnDeflater(int index, Deflater deflater) {
+
+		deflater.reset();
+
+		synchronized (idleDeflaters) {
+			if (!closed) {
+				idleDeflaters[index].push(deflater);
+				return;
+			}
+		}
+
+		deflater.end();
+
+	}
+
+	// Ends the idle deflaters, deflaters that are in use are ended when their stream is deflated
+	@Override
+	public void close() {
+
+		synchronized (idleDeflaters) {
+
+			closed = true;
+
+			for (Deque<Deflater> deflaters : idleDeflaters) {
+				for (Deflater deflater : deflaters) {
+					deflater.end();
+				}
+				deflaters.clear();
+			}
+
+		}
+
+		clearSharedStreams();
+
+	}
+
+	private void removeSharedStream(String key) {
+		synchronized (sharedStreams) {
+			sharedStreams.remove(key);
+		}
+	}
+
+	private class DeflateCallable implements Callable<byte[]> {
+
+		private final byte[] bytes;
+		private final int level;
+		private final String sharedKey;
+
+		private DeflateCallable(byte[] bytes, int level, String sharedKey) {
+			this.bytes = bytes;
+			this.level = level;
+			this.sharedKey = sharedKey;
+		}
+
+		@Override
+		public byte[] call() throws Exception {
+			try {
+				return deflate(bytes, level);
+			} catch (RuntimeException | Error e) {
+				if (sharedKey != null) {
+					removeSharedStream(sharedKey);
+				}
+				throw e;
+			}
+		}
+
+	}
+
+}
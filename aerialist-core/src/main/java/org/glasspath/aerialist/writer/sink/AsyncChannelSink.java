@@ -0,0 +1,239 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncChannelSink extends DocumentSink {
+
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	// Shared by all sinks, idle threads are stopped after a minute
+	private static final ExecutorService WRITE_EXECUTOR = Executors.newCachedThreadPool(createThreadFactory());
+
+	private final WritableByteChannel channel;
+	private final int bufferSize;
+	private final boolean closeChannel;
+
+	public AsyncChannelSink(WritableByteChannel channel, int bufferSize, boolean closeChannel) {
+		this.channel = channel;
+		this.bufferSize = bufferSize;
+		this.closeChannel = closeChannel;
+	}
+
+	private static ThreadFactory createThreadFactory() {
+
+		return new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "async-channel-sink-" + count.incrementAndGet()); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+
+	}
+
+	@Override
+	public OutputStream open() throws IOException {
+		return new DoubleBufferedOutputStream();
+	}
+
+	@Override
+	public void abort() {
+
+		super.abort();
+
+		if (closeChannel) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// The content is discarded
+			}
+		}
+
+	}
+
+	// While the writer fills one buffer the other buffer is written to the channel by the write executor, there is
+	// at most one write in progress for every stream so the buffers reach the channel in order. After an abort the
+	// buffered bytes (and everything written later) don't reach the channel
+	private class DoubleBufferedOutputStream extends OutputStream {
+
+		private ByteBuffer buffer;
+		private ByteBuffer writeBuffer;
+		private Future<?> pendingWrite = null;
+		private IOException ioException = null;
+		private boolean closed = false;
+
+		private DoubleBufferedOutputStream() {
+			buffer = ByteBuffer.allocate(bufferSize);
+			writeBuffer = ByteBuffer.allocate(bufferSize);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+
+			if (isAborted()) {
+				return;
+			}
+
+			if (!buffer.hasRemaining()) {
+				swapBuffers();
+			}
+
+			buffer.put((byte) b);
+
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+
+			if (isAborted()) {
+				return;
+			}
+
+			while (len > 0) {
+
+				if (!buffer.hasRemaining()) {
+					swapBuffers();
+				}
+
+				int n = Math.min(len, buffer.remaining());
+				buffer.put(b, off, n);
+
+				off += n;
+				len -= n;
+
+			}
+
+		}
+
+		// Returns when all bytes written so far have reached the channel
+		@Override
+		public void flush() throws IOException {
+			if (isAborted()) {
+				return;
+			}
+			if (buffer.position() > 0) {
+				swapBuffers();
+			}
+			awaitWrite();
+		}
+
+		private void swapBuffers() throws IOException {
+
+			awaitWrite();
+
+			// Called through Buffer, ByteBuffer.flip() and clear() (9+) don't exist on 1.8 when built with a newer JDK
+			final ByteBuffer filledBuffer = buffer;
+			((Buffer) filledBuffer).flip();
+
+			buffer = writeBuffer;
+			writeBuffer = filledBuffer;
+
+			pendingWrite = WRITE_EXECUTOR.submit(new Callable<Void>() {
+
+				@Override
+				public Void call() throws IOException {
+					while (filledBuffer.hasRemaining()) {
+						channel.write(filledBuffer);
+					}
+					return null;
+				}
+			});
+
+		}
+
+		// Waits for the write that is in progress, a failed write fails every following call
+		private void awaitWrite() throws IOException {
+
+			if (ioException != null) {
+				throw ioException;
+			}
+
+			if (pendingWrite != null) {
+
+				try {
+					pendingWrite.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						ioException = (IOException) e.getCause();
+					} else {
+						ioException = new IOException(e.getCause());
+					}
+					throw ioException;
+				} finally {
+					if (pendingWrite.isDone()) {
+						pendingWrite = null;
+						((Buffer) writeBuffer).clear();
+					}
+				}
+
+			}
+
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			if (!closed) {
+
+				closed = true;
+
+				if (isAborted()) {
+					return;
+				}
+
+				try {
+					flush();
+				} finally {
+					if (closeChannel) {
+						channel.close();
+					}
+				}
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BufferPool {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	public static final int DEFAULT_MAX_POOLED_CHUNKS = 256;
+
+	private static final BufferPool DEFAULT = new BufferPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED_CHUNKS);
+
+	private final int chunkSize;
+	private final int maxPooledChunks;
+	private final ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooledChunks = new AtomicInteger(0);
+
+	public BufferPool(int chunkSize, int maxPooledChunks) {
+		this.chunkSize = chunkSize;
+		this.maxPooledChunks = maxPooledChunks;
+	}
+
+	public static BufferPool getDefault() {
+		return DEFAULT;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public byte[] acquire() {
+
+		byte[] chunk = chunks.poll();
+		if (chunk != null) {
+			pooledChunks.decrementAndGet();
+			return chunk;
+		}
+
+		return new byte[chunkSize];
+
+	}
+
+	public void release(byte[] chunk) {
+
+		// Chunks of a different size or chunks that exceed the pool size are left to the garbage collector
+		if (chunk != null && chunk.length == chunkSize) {
+			if (pooledChunks.incrementAndGet() <= maxPooledChunks) {
+				chunks.offer(chunk);
+			} else {
+				pooledChunks.decrementAndGet();
+			}
+		}
+
+	}
+
+}
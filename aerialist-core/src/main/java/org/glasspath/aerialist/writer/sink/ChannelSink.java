@@ -0,0 +1,102 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public class ChannelSink extends DocumentSink {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private final boolean closeChannel;
+
+	public ChannelSink(WritableByteChannel channel, boolean closeChannel) {
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+	}
+
+	@Override
+	public OutputStream open() throws IOException {
+		return new BufferedOutputStream(new ChannelOutputStream(channel, closeChannel), DEFAULT_BUFFER_SIZE);
+	}
+
+	@Override
+	public void abort() {
+
+		super.abort();
+
+		if (closeChannel) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// The content is discarded
+			}
+		}
+
+	}
+
+	// After an abort the bytes that are still buffered (and everything written later) don't reach the channel
+	protected class ChannelOutputStream extends OutputStream {
+
+		private final WritableByteChannel channel;
+		private final boolean closeChannel;
+
+		public ChannelOutputStream(WritableByteChannel channel, boolean closeChannel) {
+			this.channel = channel;
+			this.closeChannel = closeChannel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+
+			if (isAborted()) {
+				return;
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closeChannel && !isAborted()) {
+				channel.close();
+			}
+		}
+
+	}
+
+}
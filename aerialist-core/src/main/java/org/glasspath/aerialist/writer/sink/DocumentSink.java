@@ -0,0 +1,76 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+public abstract class DocumentSink {
+
+	private volatile boolean aborted = false;
+
+	public DocumentSink() {
+
+	}
+
+	// Opens the stream the document is written to, backends close the returned stream when the document is closed
+	public abstract OutputStream open() throws IOException;
+
+	// Called after the document was closed, sinks that write to a temporary location publish the document here
+	public void commit() throws IOException {
+
+	}
+
+	// Called when the document could not be completed, the streams of the sink drop everything that is written after
+	// this (buffered content is not flushed either) and the written content is discarded where the sink allows it
+	public void abort() {
+		aborted = true;
+	}
+
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	public static DocumentSink toFile(File file) {
+		return new FileSink(file);
+	}
+
+	public static DocumentSink toOutputStream(OutputStream outputStream) {
+		return new OutputStreamSink(outputStream, false);
+	}
+
+	public static DocumentSink toChannel(WritableByteChannel channel) {
+		return new ChannelSink(channel, false);
+	}
+
+	public static DocumentSink toChannelAsync(WritableByteChannel channel) {
+		return new AsyncChannelSink(channel, AsyncChannelSink.DEFAULT_BUFFER_SIZE, false);
+	}
+
+	public static PooledBufferSink toPooledBuffer() {
+		return new PooledBufferSink(BufferPool.getDefault());
+	}
+
+}
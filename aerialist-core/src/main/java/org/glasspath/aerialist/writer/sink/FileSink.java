@@ -0,0 +1,93 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+public class FileSink extends DocumentSink {
+
+	private final File file;
+	private OutputStream outputStream = null;
+
+	public FileSink(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public OutputStream open() throws IOException {
+		outputStream = new BufferedOutputStream(new FileOutputStream(getPartFile()), 64 * 1024);
+		return outputStream;
+	}
+
+	// The document is written next to the file and renamed when it is complete, so a failed or
+	// cancelled render never leaves a half written file (or replaces the previous version)
+	public File getPartFile() {
+		return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".part"); //$NON-NLS-1$
+	}
+
+	@Override
+	public void commit() throws IOException {
+
+		outputStream = null;
+
+		File partFile = getPartFile();
+		if (partFile.exists()) {
+			try {
+				Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+	}
+
+	@Override
+	public void abort() {
+
+		super.abort();
+
+		// The backend doesn't close the stream of a discarded document
+		if (outputStream != null) {
+			try {
+				outputStream.close();
+			} catch (IOException e) {
+				// The file is deleted
+			}
+			outputStream = null;
+		}
+
+		getPartFile().delete();
+
+	}
+
+}
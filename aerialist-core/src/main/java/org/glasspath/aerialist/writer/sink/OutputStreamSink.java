@@ -0,0 +1,101 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class OutputStreamSink extends DocumentSink {
+
+	private final OutputStream outputStream;
+	private final boolean closeStream;
+
+	public OutputStreamSink(OutputStream outputStream, boolean closeStream) {
+		this.outputStream = outputStream;
+		this.closeStream = closeStream;
+	}
+
+	@Override
+	public OutputStream open() throws IOException {
+		return new SinkOutputStream(outputStream);
+	}
+
+	@Override
+	public void abort() {
+
+		super.abort();
+
+		if (closeStream) {
+			try {
+				outputStream.close();
+			} catch (IOException e) {
+				// The content is discarded
+			}
+		}
+
+	}
+
+	// The backends close the stream when the document is closed, when the caller owns the stream (a socket for
+	// example) it's only flushed. After an abort nothing more reaches the stream
+	protected class SinkOutputStream extends FilterOutputStream {
+
+		public SinkOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!isAborted()) {
+				out.write(b);
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (!isAborted()) {
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (!isAborted()) {
+				out.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (isAborted()) {
+				return;
+			} else if (closeStream) {
+				out.close();
+			} else {
+				out.flush();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PooledBufferSink extends DocumentSink {
+
+	private final BufferPool bufferPool;
+	private final List<byte[]> chunks = new ArrayList<>();
+	private long size = 0;
+	private boolean closed = false;
+
+	public PooledBufferSink(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	@Override
+	public OutputStream open() throws IOException {
+
+		release();
+		closed = false;
+
+		return new PooledBufferOutputStream();
+
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public byte[] toByteArray() {
+
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Document too large for a byte array: " + size); //$NON-NLS-1$
+		}
+
+		byte[] bytes = new byte[(int) size];
+
+		int offset = 0;
+		for (byte[] chunk : chunks) {
+			int length = (int) Math.min(chunk.length, size - offset);
+			System.arraycopy(chunk, 0, bytes, offset, length);
+			offset += length;
+		}
+
+		return bytes;
+
+	}
+
+	public void writeTo(OutputStream outputStream) throws IOException {
+
+		long remaining = size;
+		for (byte[] chunk : chunks) {
+			int length = (int) Math.min(chunk.length, remaining);
+			outputStream.write(chunk, 0, length);
+			remaining -= length;
+		}
+
+	}
+
+	public void writeTo(WritableByteChannel channel) throws IOException {
+
+		long remaining = size;
+		for (byte[] chunk : chunks) {
+
+			ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(chunk.length, remaining));
+			remaining -= buffer.remaining();
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+
+		}
+
+	}
+
+	@Override
+	public void abort() {
+		super.abort();
+		release();
+	}
+
+	// Returns the chunks to the pool, the content is no longer available after this
+	public void release() {
+
+		for (byte[] chunk : chunks) {
+			bufferPool.release(chunk);
+		}
+
+		chunks.clear();
+		size = 0;
+
+	}
+
+	private class PooledBufferOutputStream extends OutputStream {
+
+		private byte[] chunk = null;
+		private int position = 0;
+
+		private PooledBufferOutputStream() {
+
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+
+			// The chunks are back in the pool after an abort
+			if (isAborted()) {
+				return;
+			}
+
+			if (chunk == null || position == chunk.length) {
+				nextChunk();
+			}
+
+			chunk[position++] = (byte) b;
+			size++;
+
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+
+			if (isAborted()) {
+				return;
+			}
+
+			while (len > 0) {
+
+				if (chunk == null || position == chunk.length) {
+					nextChunk();
+				}
+
+				int n = Math.min(len, chunk.length - position);
+				System.arraycopy(b, off, chunk, position, n);
+
+				position += n;
+				size += n;
+				off += n;
+				len -= n;
+
+			}
+
+		}
+
+		private void nextChunk() throws IOException {
+
+			if (closed) {
+				throw new IOException("Stream closed"); //$NON-NLS-1$
+			}
+
+			chunk = bufferPool.acquire();
+			chunks.add(chunk);
+			position = 0;
+
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+		}
+
+	}
+
+}
@@ -0,0 +1,450 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.svg;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.media.MediaCache.ImageResource;
+import org.glasspath.aerialist.text.font.FontCache;
+import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+
+// Writes one SVG document with every page as a nested <svg> element, the pages are placed below each other. A page is
+// written (and flushed) when it's closed so pages can be streamed to a browser while the next pages are written, the
+// root element is closed when the document is closed. Fonts are referenced by family name, images are embedded once
+// per document (on the first page that uses them) and referenced with <use> on all pages, or referenced by URL if an
+// image URL resolver is set
+@SuppressWarnings("nls")
+public class SvgDocumentWriter extends DocumentWriter {
+
+	private final FontCache<?> fontCache;
+	private final MediaCache<?> mediaCache;
+	private ImageUrlResolver imageUrlResolver = null;
+	private Writer writer = null;
+	private boolean documentOpen = false;
+	private final Map<String, String> imageIds = new HashMap<>();
+	private final Deque<GraphicsState> stateStack = new ArrayDeque<>();
+	private GraphicsState state = null;
+	private StringBuilder page = null;
+	private int pageIndex = 0;
+	private int pageY = 0;
+	private int clipCount = 0;
+
+	public SvgDocumentWriter(File file, FontCache<?> fontCache, MediaCache<?> mediaCache) {
+		this(DocumentSink.toFile(file), fontCache, mediaCache);
+	}
+
+	public SvgDocumentWriter(DocumentSink sink, FontCache<?> fontCache, MediaCache<?> mediaCache) {
+		super(sink);
+
+		this.fontCache = fontCache;
+		this.mediaCache = mediaCache;
+
+	}
+
+	public ImageUrlResolver getImageUrlResolver() {
+		return imageUrlResolver;
+	}
+
+	public void setImageUrlResolver(ImageUrlResolver imageUrlResolver) {
+		this.imageUrlResolver = imageUrlResolver;
+	}
+
+	@Override
+	public boolean isIncremental() {
+		return true;
+	}
+
+	@Override
+	protected MediaCache<?> getMediaCache() {
+		return mediaCache;
+	}
+
+	@Override
+	protected void openDocument(int width, int height) throws Exception {
+
+		writer = new BufferedWriter(new OutputStreamWriter(sink.open(), StandardCharsets.UTF_8));
+		imageIds.clear();
+		pageIndex = 0;
+		pageY = 0;
+		clipCount = 0;
+
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" xml:space=\"preserve\">\n");
+
+		documentOpen = true;
+
+	}
+
+	@Override
+	public boolean isDocumentOpen() {
+		return documentOpen;
+	}
+
+	@Override
+	public void openPage(int width, int height) throws Exception {
+
+		stateStack.clear();
+		state = new GraphicsState();
+
+		page = new StringBuilder();
+		page.append("<svg id=\"page-").append(pageIndex + 1).append("\"");
+		page.append(" y=\"").append(pageY).append("\" width=\"").append(width).append("\" height=\"").append(height).append("\"");
+		page.append(" viewBox=\"0 0 ").append(width).append(" ").append(height).append("\">\n");
+		page.append("<rect width=\"").append(width).append("\" height=\"").append(height).append("\" fill=\"#ffffff\"/>\n");
+
+		pageY += height;
+
+	}
+
+	@Override
+	protected void saveState() throws Exception {
+		page.append("<g>\n");
+		stateStack.push(state);
+		state = new GraphicsState(state);
+	}
+
+	@Override
+	protected void restoreState() throws Exception {
+		if (!stateStack.isEmpty()) {
+			closeGroups();
+			page.append("</g>\n");
+			state = stateStack.pop();
+		}
+	}
+
+	private void closeGroups() {
+		for (int i = 0; i < state.openGroups; i++) {
+			page.append("</g>\n");
+		}
+		state.openGroups = 0;
+	}
+
+	@Override
+	protected void setFillColor(int r, int g, int b, int a) throws Exception {
+		state.fill = toColor(r, g, b, a);
+	}
+
+	@Override
+	protected void setStrokeColor(int r, int g, int b, int a) throws Exception {
+		state.stroke = toColor(r, g, b, a);
+	}
+
+	@Override
+	protected void setStroke(float w) throws Exception {
+		state.strokeWidth = w;
+	}
+
+	@Override
+	protected void clip(float x, float y, float w, float h) throws Exception {
+
+		String id = "clip-" + (++clipCount);
+
+		page.append("<clipPath id=\"").append(id).append("\">");
+		appendRect(x, y, w, h);
+		page.append("/></clipPath>\n");
+		page.append("<g clip-path=\"url(#").append(id).append(")\">\n");
+
+		state.openGroups++;
+
+	}
+
+	@Override
+	protected void fill(float x, float y, float w, float h) throws Exception {
+		appendRect(x, y, w, h);
+		page.append(" fill=\"").append(state.fill).append("\"/>\n");
+	}
+
+	@Override
+	protected void fillRects(float x, float y, float scale, int[] rects) throws Exception {
+
+		page.append("<path fill=\"").append(state.fill).append("\" d=\"");
+		for (int i = 0; i + 3 < rects.length; i += 4) {
+			page.append("M").append(x + rects[i] * scale).append(" ").append(y + rects[i + 1] * scale);
+			page.append("h").append(rects[i + 2] * scale).append("v").append(rects[i + 3] * scale).append("h").append(-rects[i + 2] * scale).append("z");
+		}
+		page.append("\"/>\n");
+
+	}
+
+	@Override
+	protected void draw(float x, float y, float w, float h) throws Exception {
+		appendRect(x, y, w, h);
+		page.append(" fill=\"none\"");
+		appendStroke();
+		page.append("/>\n");
+	}
+
+	@Override
+	protected void drawLine(float x1, float y1, float x2, float y2) throws Exception {
+		page.append("<line x1=\"").append(x1).append("\" y1=\"").append(y1).append("\" x2=\"").append(x2).append("\" y2=\"").append(y2).append("\"");
+		appendStroke();
+		page.append("/>\n");
+	}
+
+	private void appendRect(float x, float y, float w, float h) {
+		page.append("<rect x=\"").append(x).append("\" y=\"").append(y).append("\" width=\"").append(w).append("\" height=\"").append(h).append("\"");
+	}
+
+	private void appendStroke() {
+		page.append(" stroke=\"").append(state.stroke).append("\" stroke-width=\"").append(state.strokeWidth).append("\"");
+	}
+
+	@Override
+	protected void drawImage(String key, float x, float y, float w, float h, String name) throws Exception {
+
+		String transform = " transform=\"matrix(" + w + " 0 0 " + h + " " + x + " " + y + ")\"";
+
+		if (imageUrlResolver != null) {
+
+			String url = imageUrlResolver.getImageUrl(key, mediaCache.getImageResource(key));
+			if (url != null) {
+				page.append("<image width=\"1\" height=\"1\" preserveAspectRatio=\"none\" xlink:href=\"").append(escape(url)).append("\"").append(transform).append("/>\n");
+			}
+
+		} else {
+
+			String id = imageIds.get(key);
+			if (id == null) {
+
+				ImageResource imageResource = mediaCache.getImageResource(key);
+				if (imageResource == null) {
+					return;
+				}
+
+				// The image is defined on the first page that uses it, the other pages refer to it
+				id = "image-" + (imageIds.size() + 1);
+				imageIds.put(key, id);
+
+				page.append("<defs><image id=\"").append(id).append("\" width=\"1\" height=\"1\" preserveAspectRatio=\"none\" xlink:href=\"data:");
+				page.append(getMimeType(imageResource.getBytes())).append(";base64,");
+				page.append(Base64.getEncoder().encodeToString(imageResource.getBytes()));
+				page.append("\"/></defs>\n");
+
+			}
+
+			page.append("<use xlink:href=\"#").append(id).append("\"").append(transform).append("/>\n");
+
+		}
+
+	}
+
+	@Override
+	protected void beginText() throws Exception {
+
+	}
+
+	@Override
+	protected void drawString(String s, float x, float y, int fontIndex, float fontSize, boolean bold, boolean italic) throws Exception {
+
+		if (fontIndex >= 0) {
+
+			String fontFamily = "sans-serif";
+			int fontWeight = bold ? 700 : 400;
+
+			FontCache<?>.CachedFont cachedFont = fontCache.getFont(fontIndex);
+			if (cachedFont != null) {
+				fontFamily = "'" + cachedFont.fontName.replace("'", "") + "', sans-serif";
+				fontWeight = cachedFont.weight.weight;
+			}
+
+			page.append("<text x=\"").append(x).append("\" y=\"").append(y).append("\"");
+			page.append(" font-family=\"").append(escape(fontFamily)).append("\" font-size=\"").append(fontSize).append("\"");
+			if (fontWeight != 400) {
+				page.append(" font-weight=\"").append(fontWeight).append("\"");
+			}
+			if (italic) {
+				page.append(" font-style=\"italic\"");
+			}
+			page.append(" fill=\"").append(state.fill).append("\">");
+			page.append(escape(s));
+			page.append("</text>\n");
+
+		}
+
+	}
+
+	@Override
+	protected void endText() throws Exception {
+
+	}
+
+	@Override
+	public void closePage() throws Exception {
+
+		if (page != null) {
+
+			while (!stateStack.isEmpty()) {
+				restoreState();
+			}
+			closeGroups();
+
+			page.append("</svg>\n");
+
+			writer.write(page.toString());
+			writer.flush();
+
+			page = null;
+			pageIndex++;
+
+			pageWritten(pageIndex - 1);
+
+		}
+
+	}
+
+	// Called after a page is written and flushed to the sink
+	protected void pageWritten(int pageIndex) {
+
+	}
+
+	@Override
+	protected void closeDocument() throws Exception {
+
+		if (documentOpen) {
+
+			documentOpen = false;
+
+			writer.write("</svg>\n");
+			writer.close();
+			writer = null;
+
+		}
+
+	}
+
+	@Override
+	protected void discardDocument() throws Exception {
+
+		if (documentOpen) {
+
+			documentOpen = false;
+
+			// Closing the writer would flush it, the stream is released by the (aborted) sink
+			writer = null;
+
+		}
+
+	}
+
+	private static String toColor(int r, int g, int b, int a) {
+		if (a < 255) {
+			return "rgba(" + r + "," + g + "," + b + "," + (a / 255.0F) + ")";
+		} else {
+			return String.format("#%02x%02x%02x", r, g, b);
+		}
+	}
+
+	private static String getMimeType(byte[] bytes) {
+		if (bytes.length >= 4 && (bytes[0] & 0xFF) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G') {
+			return "image/png";
+		} else if (bytes.length >= 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8) {
+			return "image/jpeg";
+		} else if (bytes.length >= 4 && bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F' && bytes[3] == '8') {
+			return "image/gif";
+		} else {
+			return "application/octet-stream";
+		}
+	}
+
+	public static String escape(String s) {
+
+		StringBuilder builder = null;
+
+		for (int i = 0; i < s.length(); i++) {
+
+			char c = s.charAt(i);
+
+			String replacement = null;
+			switch (c) {
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			case '"':
+				replacement = "&quot;";
+				break;
+			default:
+				break;
+			}
+
+			if (replacement != null && builder == null) {
+				builder = new StringBuilder(s.length() + 16);
+				builder.append(s, 0, i);
+			}
+
+			if (builder != null) {
+				if (replacement != null) {
+					builder.append(replacement);
+				} else {
+					builder.append(c);
+				}
+			}
+
+		}
+
+		return builder != null ? builder.toString() : s;
+
+	}
+
+	private static class GraphicsState {
+
+		private String fill = "#000000";
+		private String stroke = "#000000";
+		private float strokeWidth = 1.0F;
+		private int openGroups = 0;
+
+		private GraphicsState() {
+
+		}
+
+		private GraphicsState(GraphicsState state) {
+			this.fill = state.fill;
+			this.stroke = state.stroke;
+			this.strokeWidth = state.strokeWidth;
+		}
+
+	}
+
+	public static interface ImageUrlResolver {
+
+		public String getImageUrl(String key, ImageResource imageResource);
+
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import org.glasspath.aerialist.writer.XDocWriter;
+import org.junit.Test;
+
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+@SuppressWarnings("nls")
+public class DocumentTest {
+
+	private static TextStyle createStyle(String text, String source) {
+
+		TextStyle style = new TextStyle();
+		style.start = 0;
+		style.end = text.length();
+		style.bold = true;
+		style.image = "logo.png";
+		style.source = source;
+
+		return style;
+
+	}
+
+	private static Document createDocument() {
+
+		TextBox textBox = new TextBox();
+		textBox.setX(20);
+		textBox.setWidth(200);
+		textBox.setText("${name}");
+		textBox.setPadding("4");
+		textBox.getStyles().add(createStyle(textBox.getText(), "t:name"));
+
+		Border border = new Border();
+		border.color = "#FF0000";
+		textBox.getBorders().add(border);
+
+		Page header = new Page(Page.PageSize.A4);
+		header.getElements().add(textBox);
+
+		QrCode qrCode = new QrCode();
+		qrCode.setText("${id}");
+		qrCode.getStyles().add(createStyle(qrCode.getText(), "t:id"));
+
+		Page footer = new Page(Page.PageSize.A4);
+		footer.getElements().add(qrCode);
+
+		Image image = new Image();
+		image.setSrc("logo.png");
+		image.setScale(0.5F);
+		image.setFit(FitPolicy.DEFAULT.stringValue);
+
+		TableCell tableCell = new TableCell();
+		tableCell.setRow(1);
+		tableCell.setCol(1);
+		tableCell.setText("Cell");
+		tableCell.getStyles().add(createStyle(tableCell.getText(), null));
+
+		ColStyle colStyle = new ColStyle();
+		colStyle.col = 1;
+		colStyle.width = 100;
+
+		RowStyle rowStyle = new RowStyle();
+		rowStyle.row = 1;
+		rowStyle.repeat = 1;
+
+		Table table = new Table();
+		table.setY(100);
+		table.setHeightPolicy(HeightPolicy.AUTO.stringValue);
+		table.getColStyles().add(colStyle);
+		table.getRowStyles().add(rowStyle);
+		table.getTableCells().add(tableCell);
+
+		Group group = new Group();
+		group.setBackground("#EEEEEE");
+		group.getElements().add(image);
+		group.getElements().add(table);
+
+		Page page = new Page(Page.PageSize.A4);
+		page.getElements().add(group);
+
+		Document document = new Document();
+		document.setHeaderHeight(60);
+		document.setFooterHeight(40);
+		document.setHeader(header);
+		document.setFooter(footer);
+		document.getPages().add(page);
+
+		return document;
+
+	}
+
+	@Test
+	public void copyIsEqualToOriginal() throws Exception {
+
+		XmlMapper xmlMapper = XDocWriter.createXmlMapper();
+
+		Document document = createDocument();
+		Document copy = new Document(document);
+
+		assertEquals(xmlMapper.writeValueAsString(document), xmlMapper.writeValueAsString(copy));
+
+	}
+
+	@Test
+	public void copyIsDeep() throws Exception {
+
+		XmlMapper xmlMapper = XDocWriter.createXmlMapper();
+
+		Document document = createDocument();
+		String xml = xmlMapper.writeValueAsString(document);
+
+		Document copy = new Document(document);
+		assertNotSame(document.getHeader(), copy.getHeader());
+		assertNotSame(document.getPages().get(0), copy.getPages().get(0));
+
+		// The template parser modifies texts, styles and table cells of the copy
+		TextBox textBox = (TextBox) copy.getHeader().getElements().get(0);
+		textBox.setText("Name");
+		textBox.getStyles().get(0).source = null;
+		textBox.getBorders().get(0).color = null;
+
+		QrCode qrCode = (QrCode) copy.getFooter().getElements().get(0);
+		qrCode.getStyles().clear();
+
+		Group group = (Group) copy.getPages().get(0).getElements().get(0);
+		((Image) group.getElements().get(0)).setSrc("other.png");
+
+		Table table = (Table) group.getElements().get(1);
+		table.getTableCells().get(0).setRow(2);
+		table.getTableCells().get(0).getStyles().get(0).image = null;
+		table.getColStyles().get(0).width = 200;
+		table.getTableCells().add(new TableCell());
+
+		group.getElements().clear();
+
+		assertEquals(xml, xmlMapper.writeValueAsString(document));
+
+	}
+
+}
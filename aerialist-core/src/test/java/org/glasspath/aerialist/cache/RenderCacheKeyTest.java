@@ -0,0 +1,139 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class RenderCacheKeyTest {
+
+	private static final byte[] DOCUMENT = "<document/>".getBytes(StandardCharsets.UTF_8);
+
+	private static MediaCache<byte[]> createMediaCache() {
+
+		return new MediaCache<byte[]>() {
+
+			@Override
+			protected byte[] readImage(String key, byte[] bytes) {
+				return bytes;
+			}
+
+			@Override
+			public ImageSize getImageSize(String key) {
+				return null;
+			}
+		};
+
+	}
+
+	@Test
+	public void keysAreIndependentOfFieldOrder() {
+
+		TemplateFieldContext fieldContext1 = new TemplateFieldContext();
+		fieldContext1.put("name", "Aerialist");
+		fieldContext1.put("city", "Amsterdam");
+		fieldContext1.put("rows", Arrays.asList("1", "2"));
+
+		TemplateFieldContext fieldContext2 = new TemplateFieldContext();
+		fieldContext2.put("rows", Arrays.asList("1", "2"));
+		fieldContext2.put("city", "Amsterdam");
+		fieldContext2.put("name", "Aerialist");
+
+		String templateHash = RenderCacheKey.hashTemplate(DOCUMENT, null);
+
+		String key = RenderCacheKey.create(templateHash, fieldContext1, "openpdf");
+		assertEquals(key, RenderCacheKey.create(templateHash, fieldContext2, "openpdf"));
+		assertTrue(RenderResultCache.isValidKey(key));
+
+	}
+
+	@Test
+	public void keysDependOnTemplateFieldsAndVariant() {
+
+		TemplateFieldContext fieldContext = new TemplateFieldContext();
+		fieldContext.put("name", "Aerialist");
+
+		String templateHash = RenderCacheKey.hashTemplate(DOCUMENT, null);
+		String key = RenderCacheKey.create(templateHash, fieldContext, "openpdf");
+
+		assertNotEquals(key, RenderCacheKey.create(templateHash, fieldContext, "pdfbox"));
+		assertNotEquals(key, RenderCacheKey.create(RenderCacheKey.hashTemplate("<document />".getBytes(StandardCharsets.UTF_8), null), fieldContext, "openpdf"));
+
+		TemplateFieldContext otherFieldContext = new TemplateFieldContext();
+		otherFieldContext.put("name", "Aerialist 2");
+		assertNotEquals(key, RenderCacheKey.create(templateHash, otherFieldContext, "openpdf"));
+
+	}
+
+	@Test
+	public void fieldsWithSeparatorsDontCollide() {
+
+		// Without length prefixes both would be "ab" + "c"
+		TemplateFieldContext fieldContext1 = new TemplateFieldContext();
+		fieldContext1.put("ab", "c");
+
+		TemplateFieldContext fieldContext2 = new TemplateFieldContext();
+		fieldContext2.put("a", "bc");
+
+		TemplateFieldContext fieldContext3 = new TemplateFieldContext();
+		fieldContext3.put("ab", Arrays.asList("c"));
+
+		assertNotEquals(fieldContext1.getCanonicalForm(), fieldContext2.getCanonicalForm());
+		assertNotEquals(fieldContext1.getCanonicalForm(), fieldContext3.getCanonicalForm());
+
+	}
+
+	@Test
+	public void templateHashIncludesImages() {
+
+		MediaCache<byte[]> mediaCache = createMediaCache();
+		mediaCache.putImage("logo", new byte[] { 1, 2, 3 });
+
+		String hash = RenderCacheKey.hashTemplate(DOCUMENT, mediaCache);
+		assertNotEquals(RenderCacheKey.hashTemplate(DOCUMENT, null), hash);
+
+		// The same images put in a different order give the same hash
+		MediaCache<byte[]> sameImages = createMediaCache();
+		sameImages.putImage("photo", new byte[] { 4 });
+		sameImages.putImage("logo", new byte[] { 1, 2, 3 });
+
+		mediaCache.putImage("photo", new byte[] { 4 });
+		assertEquals(RenderCacheKey.hashTemplate(DOCUMENT, mediaCache), RenderCacheKey.hashTemplate(DOCUMENT, sameImages));
+
+		MediaCache<byte[]> otherImage = createMediaCache();
+		otherImage.putImage("logo", new byte[] { 1, 2, 4 });
+		otherImage.putImage("photo", new byte[] { 4 });
+		assertNotEquals(RenderCacheKey.hashTemplate(DOCUMENT, mediaCache), RenderCacheKey.hashTemplate(DOCUMENT, otherImage));
+
+	}
+
+}
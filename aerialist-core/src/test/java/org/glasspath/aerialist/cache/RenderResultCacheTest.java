@@ -0,0 +1,160 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.glasspath.aerialist.writer.sink.BufferPool;
+import org.glasspath.aerialist.writer.sink.PooledBufferSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("nls")
+public class RenderResultCacheTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static byte[] toBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void putAndGet() throws IOException {
+
+		RenderResultCache cache = new RenderResultCache(temporaryFolder.getRoot(), 1024);
+
+		assertNull(cache.get("a"));
+		cache.put("a", new byte[] { 1, 2, 3 });
+
+		assertTrue(cache.contains("a"));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, toBytes(cache.get("a")));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.size());
+		assertEquals(3, cache.getBytes());
+
+	}
+
+	@Test
+	public void putFromPooledBuffer() throws IOException {
+
+		PooledBufferSink sink = new PooledBufferSink(new BufferPool(4, 4));
+		OutputStream outputStream = sink.open();
+		outputStream.write(new byte[] { 1, 2, 3, 4, 5, 6 });
+		outputStream.close();
+
+		RenderResultCache cache = new RenderResultCache(temporaryFolder.getRoot(), 1024);
+		cache.put("a", sink);
+
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6 }, toBytes(cache.get("a")));
+
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedEntries() throws IOException {
+
+		RenderResultCache cache = new RenderResultCache(temporaryFolder.getRoot(), 10);
+		cache.put("a", new byte[4]);
+		cache.put("b", new byte[4]);
+
+		// a is used after b, so b is evicted first
+		cache.get("a");
+		cache.put("c", new byte[4]);
+
+		assertTrue(cache.contains("a"));
+		assertFalse(cache.contains("b"));
+		assertTrue(cache.contains("c"));
+		assertEquals(8, cache.getBytes());
+		assertEquals(1, cache.getEvictions());
+		assertFalse(new File(temporaryFolder.getRoot(), "b" + RenderResultCache.FILE_EXTENSION).exists());
+
+	}
+
+	@Test
+	public void entriesLargerThanTheCacheAreNotStored() throws IOException {
+
+		RenderResultCache cache = new RenderResultCache(temporaryFolder.getRoot(), 10);
+		cache.put("a", new byte[11]);
+
+		assertFalse(cache.contains("a"));
+		assertEquals(0, temporaryFolder.getRoot().listFiles().length);
+
+	}
+
+	@Test
+	public void replacingAnEntryUpdatesTheSize() throws IOException {
+
+		RenderResultCache cache = new RenderResultCache(temporaryFolder.getRoot(), 100);
+		cache.put("a", new byte[4]);
+		cache.put("a", new byte[6]);
+
+		assertEquals(1, cache.size());
+		assertEquals(6, cache.getBytes());
+
+		assertTrue(cache.remove("a"));
+		assertEquals(0, cache.getBytes());
+		assertNull(cache.get("a"));
+
+	}
+
+	@Test
+	public void indexIsRebuiltFromTheDirectory() throws IOException {
+
+		File dir = temporaryFolder.getRoot();
+
+		RenderResultCache cache = new RenderResultCache(dir, 100);
+		cache.put("a", new byte[] { 1 });
+		cache.put("b", new byte[] { 2, 3 });
+
+		// A put that didn't finish and a file with an invalid key
+		Files.write(new File(dir, "c-1" + RenderResultCache.TEMP_FILE_EXTENSION).toPath(), new byte[1]);
+		Files.write(new File(dir, "in valid" + RenderResultCache.FILE_EXTENSION).toPath(), new byte[1]);
+
+		RenderResultCache reopened = new RenderResultCache(dir, 100);
+		assertEquals(2, reopened.size());
+		assertEquals(3, reopened.getBytes());
+		assertArrayEquals(new byte[] { 2, 3 }, toBytes(reopened.get("b")));
+		assertFalse(new File(dir, "c-1" + RenderResultCache.TEMP_FILE_EXTENSION).exists());
+
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidKeysAreRejected() throws IOException {
+		new RenderResultCache(temporaryFolder.getRoot(), 100).put("../a", new byte[1]);
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RenderHandleTest {
+
+	@After
+	public void tearDown() {
+		RenderHandle.setCurrent(null);
+	}
+
+	private static FutureTask<Void> createFuture() {
+		return new FutureTask<>(new Runnable() {
+
+			@Override
+			public void run() {
+
+			}
+		}, null);
+	}
+
+	@Test
+	public void cancelFailsTheNextCheck() {
+
+		RenderHandle handle = new RenderHandle();
+		handle.check();
+
+		handle.cancel();
+
+		assertTrue(handle.isCancelled());
+		assertFalse(handle.isDeadlineExceeded());
+
+		try {
+			handle.check();
+			fail();
+		} catch (RenderCancelledException e) {
+			assertFalse(e.isDeadlineExceeded());
+		}
+
+	}
+
+	@Test
+	public void deadlineFailsTheCheck() throws InterruptedException {
+
+		RenderHandle handle = new RenderHandle(20, TimeUnit.MILLISECONDS);
+		assertTrue(handle.hasDeadline());
+		assertTrue(handle.getRemainingNanos() <= TimeUnit.MILLISECONDS.toNanos(20));
+
+		handle.check();
+
+		Thread.sleep(50);
+
+		assertEquals(0, handle.getRemainingNanos());
+
+		try {
+			handle.check();
+			fail();
+		} catch (RenderCancelledException e) {
+			assertTrue(e.isDeadlineExceeded());
+		}
+
+		assertTrue(handle.isCancelled());
+		assertTrue(handle.isDeadlineExceeded());
+
+	}
+
+	@Test
+	public void noDeadline() {
+
+		RenderHandle handle = new RenderHandle(0, TimeUnit.MILLISECONDS);
+
+		assertFalse(handle.hasDeadline());
+		assertEquals(Long.MAX_VALUE, handle.getRemainingNanos());
+
+		handle.check();
+
+	}
+
+	// A cancel after the deadline passed (but before it was checked) is not reported as an exceeded deadline
+	@Test
+	public void cancelBeforeTheDeadlineIsChecked() throws InterruptedException {
+
+		RenderHandle handle = new RenderHandle(1, TimeUnit.MILLISECONDS);
+		Thread.sleep(10);
+
+		handle.cancel();
+
+		try {
+			handle.check();
+			fail();
+		} catch (RenderCancelledException e) {
+			assertFalse(e.isDeadlineExceeded());
+		}
+
+	}
+
+	@Test
+	public void cancelCancelsTheFutures() {
+
+		RenderHandle handle = new RenderHandle();
+
+		FutureTask<Void> future = createFuture();
+		FutureTask<Void> removedFuture = createFuture();
+		handle.addFuture(future);
+		handle.addFuture(removedFuture);
+		handle.removeFuture(removedFuture);
+
+		handle.cancel();
+
+		assertTrue(future.isCancelled());
+		assertFalse(removedFuture.isCancelled());
+
+		// Futures added after the cancel are cancelled right away
+		FutureTask<Void> lateFuture = createFuture();
+		handle.addFuture(lateFuture);
+		assertTrue(lateFuture.isCancelled());
+
+	}
+
+	@Test
+	public void checkCurrentUsesTheHandleOfTheThread() throws InterruptedException {
+
+		// Without a handle there is nothing to check
+		RenderHandle.checkCurrent();
+
+		final RenderHandle handle = new RenderHandle();
+		handle.cancel();
+		RenderHandle.setCurrent(handle);
+
+		try {
+			RenderHandle.checkCurrent();
+			fail();
+		} catch (RenderCancelledException e) {
+			assertFalse(e.isDeadlineExceeded());
+		}
+
+		final boolean[] checked = new boolean[1];
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				RenderHandle.checkCurrent();
+				checked[0] = RenderHandle.getCurrent() == null;
+			}
+		});
+		thread.start();
+		thread.join();
+
+		assertTrue(checked[0]);
+
+		RenderHandle.setCurrent(null);
+		RenderHandle.checkCurrent();
+
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.qrcode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import io.nayuki.qrcodegen.QrCode;
+
+@SuppressWarnings("nls")
+public class QrCodeMatrixTest {
+
+	private static boolean[] parse(String... rows) {
+		int size = rows.length;
+		boolean[] modules = new boolean[size * size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				modules[y * size + x] = rows[y].charAt(x) == '#';
+			}
+		}
+		return modules;
+	}
+
+	// Every dark module is covered by exactly one rectangle and light modules are not covered
+	private static void assertCoversModules(int size, boolean[] modules, int[] rects) {
+
+		int[] coverCount = new int[size * size];
+
+		for (int i = 0; i < rects.length; i += 4) {
+			assertTrue(rects[i + 2] > 0 && rects[i + 3] > 0);
+			for (int y = rects[i + 1]; y < rects[i + 1] + rects[i + 3]; y++) {
+				for (int x = rects[i]; x < rects[i] + rects[i + 2]; x++) {
+					coverCount[y * size + x]++;
+				}
+			}
+		}
+
+		for (int i = 0; i < modules.length; i++) {
+			assertEquals("module " + (i % size) + ", " + (i / size), modules[i] ? 1 : 0, coverCount[i]);
+		}
+
+	}
+
+	@Test
+	public void mergesASquareIntoOneRect() {
+		int[] rects = QrCodeMatrix.createRects(3, parse("###", "###", "###"));
+		assertArrayEquals(new int[] { 0, 0, 3, 3 }, rects);
+	}
+
+	@Test
+	public void emptyMatrixHasNoRects() {
+		assertEquals(0, QrCodeMatrix.createRects(3, parse("...", "...", "...")).length);
+	}
+
+	@Test
+	public void mergesRunsOfTheSameWidthVertically() {
+
+		boolean[] modules = parse(
+				"##..",
+				"##.#",
+				"##.#",
+				"....");
+
+		int[] rects = QrCodeMatrix.createRects(4, modules);
+		assertArrayEquals(new int[] { 0, 0, 2, 3, 3, 1, 1, 2 }, rects);
+
+	}
+
+	@Test
+	public void runsOfADifferentWidthStartANewRect() {
+
+		boolean[] modules = parse(
+				"###.",
+				"##..",
+				"###.",
+				"....");
+
+		int[] rects = QrCodeMatrix.createRects(4, modules);
+		assertArrayEquals(new int[] { 0, 0, 3, 1, 0, 1, 2, 1, 0, 2, 3, 1 }, rects);
+
+	}
+
+	@Test
+	public void checkerboardIsNotMerged() {
+
+		boolean[] modules = parse(
+				"#.#",
+				".#.",
+				"#.#");
+
+		int[] rects = QrCodeMatrix.createRects(3, modules);
+		assertEquals(5 * 4, rects.length);
+		assertCoversModules(3, modules, rects);
+
+	}
+
+	@Test
+	public void rectsCoverTheModulesOfEncodedCodes() {
+
+		String[] texts = new String[] { "A", "https://glasspath.org", "Glasspath Aerialist QR code test with a longer text to get a larger version of the code" };
+
+		for (String text : texts) {
+
+			QrCodeMatrix matrix = new QrCodeMatrix(QrCode.encodeText(text, QrCode.Ecc.MEDIUM));
+
+			int size = matrix.getSize();
+			boolean[] modules = new boolean[size * size];
+			int darkModules = 0;
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					modules[y * size + x] = matrix.getModule(x, y);
+					if (modules[y * size + x]) {
+						darkModules++;
+					}
+				}
+			}
+
+			assertCoversModules(size, modules, matrix.getRects());
+			assertEquals(matrix.getRects().length / 4, matrix.getRectCount());
+
+			// Merging should at least halve the number of shapes
+			assertTrue(matrix.getRectCount() * 2 < darkModules);
+
+		}
+
+	}
+
+	@Test
+	public void modulesOutsideTheCodeAreLight() {
+		QrCodeMatrix matrix = new QrCodeMatrix(QrCode.encodeText("A", QrCode.Ecc.LOW));
+		assertFalse(matrix.getModule(-1, 0));
+		assertFalse(matrix.getModule(0, matrix.getSize()));
+		assertTrue(matrix.getModule(0, 0));
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.layout.RenderCancelledException;
+import org.glasspath.aerialist.layout.RenderHandle;
+import org.junit.Test;
+
+public class MemoryGovernorTest {
+
+	private static final double DELTA = 1.0E-9;
+
+	private static MemoryFootprint createFootprint(int pages) {
+		return MemoryFootprint.estimate(RenderSchedulerTest.createDocument(pages), null, null);
+	}
+
+	@Test
+	public void firstMeasurementSetsTheCorrectionOfTheSignature() throws Exception {
+
+		MemoryGovernor memoryGovernor = new MemoryGovernor(Long.MAX_VALUE);
+
+		MemoryFootprint estimated = createFootprint(1);
+		MemoryFootprint measured = createFootprint(20);
+		double ratio = (double) measured.getBytes() / estimated.getBytes();
+
+		memoryGovernor.release(memoryGovernor.tryReserve(estimated), measured);
+
+		assertEquals((long) (estimated.getBytes() * ratio), memoryGovernor.estimate(estimated));
+
+		// Templates with other signatures are corrected by the weighted correction of all jobs
+		double defaultCorrection = 1.0 + MemoryGovernor.CORRECTION_WEIGHT * (ratio - 1.0);
+		assertEquals(defaultCorrection, memoryGovernor.getDefaultCorrection(), DELTA);
+
+		MemoryFootprint other = createFootprint(2);
+		assertEquals((long) (other.getBytes() * defaultCorrection), memoryGovernor.estimate(other));
+
+	}
+
+	@Test
+	public void laterMeasurementsMoveTheCorrectionByTheWeight() throws Exception {
+
+		MemoryGovernor memoryGovernor = new MemoryGovernor(Long.MAX_VALUE);
+
+		MemoryFootprint estimated = createFootprint(1);
+		double ratio1 = (double) createFootprint(10).getBytes() / estimated.getBytes();
+		double ratio2 = (double) createFootprint(2).getBytes() / estimated.getBytes();
+
+		memoryGovernor.release(memoryGovernor.tryReserve(estimated), createFootprint(10));
+		memoryGovernor.release(memoryGovernor.tryReserve(estimated), createFootprint(2));
+
+		double correction = ratio1 + MemoryGovernor.CORRECTION_WEIGHT * (ratio2 - ratio1);
+		assertEquals((long) (estimated.getBytes() * correction), memoryGovernor.estimate(estimated));
+
+	}
+
+	@Test
+	public void correctionIsClamped() throws Exception {
+
+		MemoryGovernor memoryGovernor = new MemoryGovernor(Long.MAX_VALUE);
+
+		// Measured far below the estimate
+		MemoryFootprint large = createFootprint(500);
+		memoryGovernor.release(memoryGovernor.tryReserve(large), createFootprint(0));
+		assertEquals((long) (large.getBytes() * MemoryGovernor.MIN_CORRECTION), memoryGovernor.estimate(large));
+
+		// Measured far above the estimate
+		MemoryFootprint small = createFootprint(0);
+		memoryGovernor.release(memoryGovernor.tryReserve(small), createFootprint(1000));
+		assertEquals((long) (small.getBytes() * MemoryGovernor.MAX_CORRECTION), memoryGovernor.estimate(small));
+
+	}
+
+	@Test
+	public void failedJobsDontCorrect() throws Exception {
+
+		MemoryGovernor memoryGovernor = new MemoryGovernor(Long.MAX_VALUE);
+
+		MemoryFootprint estimated = createFootprint(1);
+		memoryGovernor.release(memoryGovernor.tryReserve(estimated), null);
+
+		assertEquals(estimated.getBytes(), memoryGovernor.estimate(estimated));
+		assertEquals(1.0, memoryGovernor.getDefaultCorrection(), DELTA);
+		assertEquals(0, memoryGovernor.getReserved());
+
+	}
+
+	@Test
+	public void releasingTwiceHasNoEffect() throws Exception {
+
+		MemoryGovernor memoryGovernor = new MemoryGovernor(Long.MAX_VALUE);
+
+		MemoryGovernor.Reservation first = memoryGovernor.tryReserve(createFootprint(1));
+		MemoryGovernor.Reservation second = memoryGovernor.tryReserve(createFootprint(1));
+
+		memoryGovernor.release(first, null);
+		memoryGovernor.release(first, null);
+
+		assertEquals(1, memoryGovernor.getReservations());
+		assertEquals(second.getBytes(), memoryGovernor.getReserved());
+
+	}
+
+	@Test
+	public void jobsThatDontFitAreNotReserved() throws Exception {
+
+		MemoryFootprint footprint = createFootprint(0);
+		MemoryGovernor memoryGovernor = new MemoryGovernor(footprint.getBytes() * 2 - 1);
+
+		MemoryGovernor.Reservation first = memoryGovernor.tryReserve(footprint);
+		assertNotNull(first);
+		assertNull(memoryGovernor.tryReserve(footprint));
+
+		memoryGovernor.release(first, null);
+		assertNotNull(memoryGovernor.tryReserve(footprint));
+		assertEquals(2, memoryGovernor.getAdmitted());
+
+	}
+
+	@Test
+	public void jobsLargerThanTheBudgetAreRejected() throws Exception {
+
+		MemoryGovernor memoryGovernor = new MemoryGovernor(createFootprint(1).getBytes());
+
+		try {
+			memoryGovernor.checkBudget(createFootprint(2));
+			fail("Expected a RejectedExecutionException");
+		} catch (RejectedExecutionException e) {
+			assertEquals(1, memoryGovernor.getRejected());
+		}
+
+		// A correction can push an estimate over the budget
+		memoryGovernor.release(memoryGovernor.tryReserve(createFootprint(1)), createFootprint(5));
+
+		try {
+			memoryGovernor.tryReserve(createFootprint(1));
+			fail("Expected a RejectedExecutionException");
+		} catch (RejectedExecutionException e) {
+			assertEquals(2, memoryGovernor.getRejected());
+		}
+
+	}
+
+	@Test
+	public void reserveStopsWaitingAtTheDeadline() throws Exception {
+
+		MemoryFootprint footprint = createFootprint(0);
+		MemoryGovernor memoryGovernor = new MemoryGovernor(footprint.getBytes());
+		memoryGovernor.tryReserve(footprint);
+
+		try {
+			memoryGovernor.reserve(footprint, new RenderHandle(50, TimeUnit.MILLISECONDS));
+			fail("Expected a RenderCancelledException");
+		} catch (RenderCancelledException e) {
+			assertTrue(e.isDeadlineExceeded());
+			assertEquals(1, memoryGovernor.getDelayed());
+			assertEquals(0, memoryGovernor.getWaiting());
+		}
+
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class PageExecutorTest {
+
+	private final PageExecutor pageExecutor = new PageExecutor(1);
+	private final List<String> executedPages = Collections.synchronizedList(new ArrayList<String>());
+
+	@After
+	public void tearDown() {
+		PageExecutor.setCurrentPriority(null);
+		pageExecutor.shutdownNow();
+	}
+
+	private Future<?> submit(JobPriority priority, final String name) {
+
+		PageExecutor.setCurrentPriority(priority);
+		try {
+			return pageExecutor.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					executedPages.add(name);
+				}
+			});
+		} finally {
+			PageExecutor.setCurrentPriority(null);
+		}
+
+	}
+
+	@Test
+	public void pagesAreTakenByPriorityThenInOrder() throws Exception {
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		// Keeps the only thread busy until all pages are queued
+		pageExecutor.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		submit(JobPriority.BULK, "bulk 1");
+		submit(JobPriority.NORMAL, "normal 1");
+		submit(JobPriority.BULK, "bulk 2");
+		submit(JobPriority.INTERACTIVE, "interactive 1");
+		submit(null, "normal 2");
+		Future<?> last = submit(JobPriority.INTERACTIVE, "interactive 2");
+
+		release.countDown();
+		last.get(5, TimeUnit.SECONDS);
+		pageExecutor.shutdown();
+		assertTrue(pageExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+		assertEquals(Arrays.asList("interactive 1", "interactive 2", "normal 1", "normal 2", "bulk 1", "bulk 2"), executedPages);
+
+	}
+
+	@Test
+	public void executeWrapsPlainRunnables() throws Exception {
+
+		final CountDownLatch executed = new CountDownLatch(1);
+
+		pageExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				executed.countDown();
+			}
+		});
+
+		assertTrue(executed.await(5, TimeUnit.SECONDS));
+
+	}
+
+}
@@ -0,0 +1,407 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.IFieldContext;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.layout.IElementLayoutMetrics;
+import org.glasspath.aerialist.layout.RenderHandle;
+import org.glasspath.aerialist.template.RenderResult;
+import org.glasspath.aerialist.template.RenderStatus;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.junit.After;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class RenderSchedulerTest {
+
+	private static final String BLOCK = "block";
+
+	private final List<String> renderedJobs = Collections.synchronizedList(new ArrayList<String>());
+	private final Map<String, Runnable> renderActions = new ConcurrentHashMap<>();
+	private final CountDownLatch blockStarted = new CountDownLatch(1);
+	private final CountDownLatch releaseBlock = new CountDownLatch(1);
+	private RenderScheduler scheduler = null;
+
+	@After
+	public void tearDown() throws InterruptedException {
+		releaseBlock.countDown();
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
+
+	// The loaders only record the name of the job (after running its render action), a job named BLOCK keeps its worker
+	// busy until releaseBlock
+	private RenderScheduler createScheduler(int workerCount) {
+
+		return new RenderScheduler(new RenderScheduler.LoaderFactory() {
+
+			@Override
+			public TemplateDocumentLoader createDocumentLoader(RenderJob job) {
+
+				return new TemplateDocumentLoader(null, null) {
+
+					@Override
+					protected IElementLayoutMetrics createLayoutMetrics() {
+						return null;
+					}
+
+					@Override
+					public RenderResult loadDocument(Document document, IFieldContext templateFieldContext, RenderHandle handle) {
+
+						String name = templateFieldContext.getString("name");
+						if (BLOCK.equals(name)) {
+							blockStarted.countDown();
+							try {
+								releaseBlock.await();
+							} catch (InterruptedException e) {
+								return RenderResult.failed(null, e, 0);
+							}
+						}
+
+						Runnable renderAction = renderActions.get(name);
+						if (renderAction != null) {
+							renderAction.run();
+						}
+
+						renderedJobs.add(name);
+
+						return RenderResult.succeeded(null, 0);
+
+					}
+				};
+
+			}
+		}, workerCount, 1);
+
+	}
+
+	static Document createDocument(int pages) {
+		Document document = new Document();
+		for (int i = 0; i < pages; i++) {
+			document.getPages().add(new Page());
+		}
+		return document;
+	}
+
+	static RenderJob createJob(String tenant, JobPriority priority, String name, int pages, long timeout) {
+		TemplateFieldContext fieldContext = new TemplateFieldContext();
+		fieldContext.put("name", name);
+		return new RenderJob(tenant, priority, createDocument(pages), fieldContext, null, timeout);
+	}
+
+	private static RenderJob createJob(String tenant, JobPriority priority, String name) {
+		return createJob(tenant, priority, name, 0, 0);
+	}
+
+	private static RenderJob createBatchJob(String name, Object batchKey) {
+		RenderJob job = createJob("a", JobPriority.NORMAL, name);
+		job.setBatchKey(batchKey);
+		return job;
+	}
+
+	private void block(JobPriority priority) throws InterruptedException {
+		assertTrue(scheduler.offer(createJob("blocker", priority, BLOCK)));
+		assertTrue(blockStarted.await(5, TimeUnit.SECONDS));
+	}
+
+	private static RenderResult await(RenderJob job) throws Exception {
+		return job.getFuture().get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void jobsAreTakenByPriority() throws Exception {
+
+		scheduler = createScheduler(1);
+		block(JobPriority.NORMAL);
+
+		RenderJob bulk = createJob("a", JobPriority.BULK, "bulk");
+		RenderJob normal = createJob("a", JobPriority.NORMAL, "normal");
+		RenderJob interactive = createJob("a", JobPriority.INTERACTIVE, "interactive");
+		scheduler.offer(bulk);
+		scheduler.offer(normal);
+		scheduler.offer(interactive);
+
+		releaseBlock.countDown();
+		await(bulk);
+
+		assertEquals(Arrays.asList(BLOCK, "interactive", "normal", "bulk"), renderedJobs);
+
+	}
+
+	@Test
+	public void tenantsTakeTurns() throws Exception {
+
+		scheduler = createScheduler(1);
+		block(JobPriority.NORMAL);
+
+		RenderJob last = createJob("a", JobPriority.NORMAL, "a3");
+		scheduler.offer(createJob("a", JobPriority.NORMAL, "a1"));
+		scheduler.offer(createJob("a", JobPriority.NORMAL, "a2"));
+		scheduler.offer(last);
+		scheduler.offer(createJob("b", JobPriority.NORMAL, "b1"));
+		scheduler.offer(createJob("b", JobPriority.NORMAL, "b2"));
+
+		releaseBlock.countDown();
+		await(last);
+
+		assertEquals(Arrays.asList(BLOCK, "a1", "b1", "a2", "b2", "a3"), renderedJobs);
+
+	}
+
+	@Test
+	public void jobsWithTheSameBatchKeyRunInARow() throws Exception {
+
+		scheduler = createScheduler(1);
+		scheduler.setMaxBatchSize(3);
+		block(JobPriority.NORMAL);
+
+		RenderJob last = createBatchJob("a4", "A");
+		scheduler.offer(createBatchJob("a1", "A"));
+		scheduler.offer(createBatchJob("b1", "B"));
+		scheduler.offer(createBatchJob("a2", "A"));
+		scheduler.offer(createBatchJob("a3", "A"));
+		scheduler.offer(last);
+
+		releaseBlock.countDown();
+		await(last);
+
+		// The batch ends at the max batch size, the other jobs are taken in the normal order again
+		assertEquals(Arrays.asList(BLOCK, "a1", "a2", "a3", "b1", "a4"), renderedJobs);
+
+	}
+
+	@Test
+	public void jobsWithoutBatchingKeepTheQueueOrder() throws Exception {
+
+		scheduler = createScheduler(1);
+		block(JobPriority.NORMAL);
+
+		RenderJob last = createBatchJob("a2", "A");
+		scheduler.offer(createBatchJob("a1", "A"));
+		scheduler.offer(createBatchJob("b1", "B"));
+		scheduler.offer(last);
+
+		releaseBlock.countDown();
+		await(last);
+
+		assertEquals(Arrays.asList(BLOCK, "a1", "b1", "a2"), renderedJobs);
+
+	}
+
+	@Test
+	public void higherPriorityJobEndsTheBatch() throws Exception {
+
+		scheduler = createScheduler(1);
+		scheduler.setMaxBatchSize(16);
+		block(JobPriority.NORMAL);
+
+		final RenderJob interactive = createJob("a", JobPriority.INTERACTIVE, "interactive");
+		renderActions.put("a1", new Runnable() {
+
+			@Override
+			public void run() {
+				scheduler.offer(interactive);
+			}
+		});
+
+		RenderJob last = createBatchJob("a2", "A");
+		scheduler.offer(createBatchJob("a1", "A"));
+		scheduler.offer(last);
+
+		releaseBlock.countDown();
+		await(last);
+
+		assertEquals(Arrays.asList(BLOCK, "a1", "interactive", "a2"), renderedJobs);
+
+	}
+
+	@Test
+	public void offerFailsWhenTheQueueIsFull() throws Exception {
+
+		scheduler = createScheduler(1);
+		scheduler.setQueueCapacity(JobPriority.NORMAL, 1);
+		block(JobPriority.NORMAL);
+
+		RenderJob queued = createJob("a", JobPriority.NORMAL, "queued");
+		assertTrue(scheduler.offer(queued));
+		assertFalse(scheduler.offer(createJob("a", JobPriority.NORMAL, "rejected")));
+		assertEquals(1, scheduler.getRejected(JobPriority.NORMAL));
+
+		// The queues of the other priorities are not affected
+		assertTrue(scheduler.offer(createJob("a", JobPriority.BULK, "bulk")));
+
+		// A submitter waits until there is room
+		assertFalse(scheduler.offer(createJob("a", JobPriority.NORMAL, "waiting"), 50, TimeUnit.MILLISECONDS));
+
+		releaseBlock.countDown();
+		assertEquals(RenderStatus.SUCCEEDED, await(queued).getStatus());
+
+	}
+
+	@Test
+	public void reservedWorkerRunsInteractiveJobs() throws Exception {
+
+		scheduler = createScheduler(2);
+		assertEquals(1, scheduler.getReservedWorkers());
+		block(JobPriority.BULK);
+
+		RenderJob bulk = createJob("a", JobPriority.BULK, "bulk");
+		RenderJob interactive = createJob("a", JobPriority.INTERACTIVE, "interactive");
+		scheduler.offer(bulk);
+		scheduler.offer(interactive);
+
+		// The bulk job waits for the busy worker, the preview is rendered by the reserved worker
+		assertEquals(RenderStatus.SUCCEEDED, await(interactive).getStatus());
+		assertFalse(bulk.getFuture().isDone());
+		assertEquals(1, scheduler.getQueueDepth(JobPriority.BULK));
+
+		releaseBlock.countDown();
+		assertEquals(RenderStatus.SUCCEEDED, await(bulk).getStatus());
+
+	}
+
+	@Test
+	public void cancelRemovesAWaitingJob() throws Exception {
+
+		scheduler = createScheduler(1);
+		block(JobPriority.NORMAL);
+
+		RenderJob job = createJob("a", JobPriority.NORMAL, "cancelled");
+		scheduler.offer(job);
+		scheduler.cancel(job);
+
+		assertEquals(RenderStatus.CANCELLED, await(job).getStatus());
+		assertEquals(0, scheduler.getQueueDepth(JobPriority.NORMAL));
+
+		releaseBlock.countDown();
+
+	}
+
+	@Test
+	public void deadlineIncludesTimeInTheQueue() throws Exception {
+
+		scheduler = createScheduler(1);
+		block(JobPriority.NORMAL);
+
+		RenderJob job = createJob("a", JobPriority.NORMAL, "late", 0, 1);
+		scheduler.offer(job);
+		Thread.sleep(20);
+
+		releaseBlock.countDown();
+
+		assertEquals(RenderStatus.DEADLINE_EXCEEDED, await(job).getStatus());
+		assertFalse(renderedJobs.contains("late"));
+
+	}
+
+	@Test
+	public void jobsThatDontFitInTheMemoryBudgetStayQueued() throws Exception {
+
+		scheduler = createScheduler(2);
+		scheduler.setReservedWorkers(0);
+
+		// Room for the blocking job and one more job without pages
+		MemoryGovernor memoryGovernor = new MemoryGovernor(2 * MemoryFootprint.BASE_BYTES + 5 * MemoryFootprint.PAGE_BYTES);
+		scheduler.setMemoryGovernor(memoryGovernor, null);
+
+		block(JobPriority.NORMAL);
+
+		RenderJob large = createJob("a", JobPriority.NORMAL, "large", 10, 0);
+		RenderJob small = createJob("b", JobPriority.NORMAL, "small");
+		scheduler.offer(large);
+		scheduler.offer(small);
+
+		// The large job is tried first (tenant a), it doesn't fit and the small job is taken instead
+		assertEquals(RenderStatus.SUCCEEDED, await(small).getStatus());
+		assertFalse(large.getFuture().isDone());
+		assertEquals(1, scheduler.getQueueDepth(JobPriority.NORMAL));
+		assertEquals(1, memoryGovernor.getDelayed());
+
+		releaseBlock.countDown();
+		assertEquals(RenderStatus.SUCCEEDED, await(large).getStatus());
+		assertEquals(0, memoryGovernor.getReserved());
+
+	}
+
+	@Test
+	public void jobsLargerThanTheMemoryBudgetAreRejected() throws Exception {
+
+		scheduler = createScheduler(1);
+
+		MemoryGovernor memoryGovernor = new MemoryGovernor(MemoryFootprint.BASE_BYTES);
+		scheduler.setMemoryGovernor(memoryGovernor, null);
+
+		try {
+			scheduler.offer(createJob("a", JobPriority.NORMAL, "large", 1, 0));
+			fail("Expected a RejectedExecutionException");
+		} catch (RejectedExecutionException e) {
+			assertEquals(0, scheduler.getQueueDepth(JobPriority.NORMAL));
+			assertEquals(1, memoryGovernor.getRejected());
+		}
+
+	}
+
+	@Test
+	public void shutdownRendersQueuedJobsAndRejectsNewJobs() throws Exception {
+
+		scheduler = createScheduler(1);
+		block(JobPriority.NORMAL);
+
+		RenderJob queued = createJob("a", JobPriority.NORMAL, "queued");
+		scheduler.offer(queued);
+		scheduler.shutdown();
+
+		try {
+			scheduler.offer(createJob("a", JobPriority.NORMAL, "rejected"));
+			fail("Expected a RejectedExecutionException");
+		} catch (RejectedExecutionException e) {
+			// Expected
+		}
+
+		releaseBlock.countDown();
+		assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(RenderStatus.SUCCEEDED, await(queued).getStatus());
+
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.glasspath.aerialist.writer.sink.AsyncChannelSink;
+import org.glasspath.aerialist.writer.sink.BufferPool;
+import org.glasspath.aerialist.writer.sink.ChannelSink;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+import org.glasspath.aerialist.writer.sink.FileSink;
+import org.glasspath.aerialist.writer.sink.OutputStreamSink;
+import org.glasspath.aerialist.writer.sink.PooledBufferSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("nls")
+public class DocumentWriterTest {
+
+	private static final String HEADER = "%HEADER\n";
+	private static final String PAGE = "page\n";
+	private static final String TRAILER = "%EOF\n";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	// Writes the header when the document is opened, a line for every closed page (to a buffered stream, like the
+	// PDF backends) and the trailer when the document is closed
+	private static class TestWriter extends DocumentWriter {
+
+		private OutputStream outputStream = null;
+		private boolean documentOpen = false;
+		private boolean closed = false;
+		private boolean discarded = false;
+
+		private TestWriter(DocumentSink sink) {
+			super(sink);
+		}
+
+		@Override
+		protected void openDocument(int width, int height) throws Exception {
+			outputStream = sink.open();
+			outputStream.write(HEADER.getBytes(StandardCharsets.US_ASCII));
+			documentOpen = true;
+		}
+
+		@Override
+		public boolean isDocumentOpen() {
+			return documentOpen;
+		}
+
+		@Override
+		public void openPage(int width, int height) throws Exception {
+
+		}
+
+		@Override
+		public void closePage() throws Exception {
+			outputStream.write(PAGE.getBytes(StandardCharsets.US_ASCII));
+		}
+
+		@Override
+		protected void closeDocument() throws Exception {
+			documentOpen = false;
+			closed = true;
+			outputStream.write(TRAILER.getBytes(StandardCharsets.US_ASCII));
+			outputStream.close();
+		}
+
+		@Override
+		protected void discardDocument() throws Exception {
+			documentOpen = false;
+			discarded = true;
+			outputStream.close();
+		}
+
+		@Override
+		protected void saveState() throws Exception {
+
+		}
+
+		@Override
+		protected void restoreState() throws Exception {
+
+		}
+
+		@Override
+		protected void setFillColor(int r, int g, int b, int a) throws Exception {
+
+		}
+
+		@Override
+		protected void setStrokeColor(int r, int g, int b, int a) throws Exception {
+
+		}
+
+		@Override
+		protected void setStroke(float w) throws Exception {
+
+		}
+
+		@Override
+		protected void clip(float x, float y, float w, float h) throws Exception {
+
+		}
+
+		@Override
+		protected void fill(float x, float y, float w, float h) throws Exception {
+
+		}
+
+		@Override
+		protected void draw(float x, float y, float w, float h) throws Exception {
+
+		}
+
+		@Override
+		protected void drawLine(float x1, float y1, float x2, float y2) throws Exception {
+
+		}
+
+		@Override
+		protected void drawImage(String key, float x, float y, float w, float h, String name) throws Exception {
+
+		}
+
+		@Override
+		protected void beginText() throws Exception {
+
+		}
+
+		@Override
+		protected void drawString(String s, float x, float y, int fontIndex, float fontSize, boolean bold, boolean italic) throws Exception {
+
+		}
+
+		@Override
+		protected void endText() throws Exception {
+
+		}
+
+	}
+
+	private static void writePages(DocumentWriter writer, int pages) throws Exception {
+		writer.open(100, 100);
+		for (int i = 0; i < pages; i++) {
+			writer.openPage(100, 100);
+			writer.closePage();
+		}
+	}
+
+	@Test
+	public void closeWritesTheDocument() throws Exception {
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		TestWriter writer = new TestWriter(new OutputStreamSink(outputStream, false));
+		writePages(writer, 2);
+		writer.close();
+
+		assertEquals(HEADER + PAGE + PAGE + TRAILER, outputStream.toString("US-ASCII"));
+
+	}
+
+	// The stream belongs to the caller, content that was written before the abort stays there but the document is
+	// not completed
+	@Test
+	public void abortDoesNotCompleteTheDocument() throws Exception {
+
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(target, 1024);
+
+		TestWriter writer = new TestWriter(new OutputStreamSink(bufferedOutputStream, false));
+		writePages(writer, 2);
+		writer.abort();
+
+		bufferedOutputStream.flush();
+
+		assertTrue(writer.discarded);
+		assertFalse(writer.closed);
+		assertFalse(writer.isDocumentOpen());
+		assertEquals(HEADER + PAGE + PAGE, target.toString("US-ASCII"));
+
+	}
+
+	@Test
+	public void abortDiscardsBufferedChannelContent() throws Exception {
+
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+		// The pages fit in the buffer of the sink, nothing reaches the channel
+		TestWriter writer = new TestWriter(new ChannelSink(Channels.newChannel(target), true));
+		writePages(writer, 2);
+		writer.abort();
+
+		assertTrue(writer.discarded);
+		assertEquals(0, target.size());
+
+		writer = new TestWriter(new AsyncChannelSink(Channels.newChannel(target), AsyncChannelSink.DEFAULT_BUFFER_SIZE, false));
+		writePages(writer, 2);
+		writer.abort();
+
+		assertTrue(writer.discarded);
+		assertEquals(0, target.size());
+
+	}
+
+	@Test
+	public void abortDeletesThePartFile() throws Exception {
+
+		File file = new File(temporaryFolder.getRoot(), "document.pdf");
+
+		FileSink sink = new FileSink(file);
+		TestWriter writer = new TestWriter(sink);
+		writePages(writer, 2);
+		writer.abort();
+
+		assertFalse(file.exists());
+		assertFalse(sink.getPartFile().exists());
+
+		writer = new TestWriter(new FileSink(file));
+		writePages(writer, 1);
+		writer.close();
+
+		assertArrayEquals((HEADER + PAGE + TRAILER).getBytes(StandardCharsets.US_ASCII), Files.readAllBytes(file.toPath()));
+
+	}
+
+	@Test
+	public void abortReleasesThePooledBuffer() throws Exception {
+
+		BufferPool bufferPool = new BufferPool(16, 4);
+		PooledBufferSink sink = new PooledBufferSink(bufferPool);
+
+		TestWriter writer = new TestWriter(sink);
+		writePages(writer, 7);
+		writer.abort();
+
+		assertEquals(0, sink.size());
+		assertTrue(sink.isAborted());
+
+		// The chunks are back in the pool, late writes of the discarded document must not reach them
+		byte[] chunk = bufferPool.acquire();
+		byte[] content = chunk.clone();
+		writer.outputStream.write(new byte[] { 1, 2, 3 });
+		assertArrayEquals(content, chunk);
+
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.compress;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class StreamCompressorTest {
+
+	private ExecutorService executorService;
+	private StreamCompressor streamCompressor;
+
+	@Before
+	public void setUp() {
+		executorService = Executors.newFixedThreadPool(2);
+		streamCompressor = new StreamCompressor(executorService);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		streamCompressor.close();
+		executorService.shutdown();
+		executorService.awaitTermination(5, TimeUnit.SECONDS);
+	}
+
+	private static byte[] createContent(String text, int lines) {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			content.append("BT /F1 12 Tf 20 ").append(800 - i).append(" Td (").append(text).append(" ").append(i).append(") Tj ET\n");
+		}
+		return content.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static byte[] inflate(byte[] bytes) throws Exception {
+
+		Inflater inflater = new Inflater();
+		try {
+
+			inflater.setInput(bytes);
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				outputStream.write(buffer, 0, inflater.inflate(buffer));
+			}
+
+			return outputStream.toByteArray();
+
+		} finally {
+			inflater.end();
+		}
+
+	}
+
+	@Test
+	public void streamsAreDeflatedWithEveryMode() throws Exception {
+
+		byte[] content = createContent("Page content", 1000);
+
+		for (CompressionMode compressionMode : CompressionMode.values()) {
+			for (int i = 0; i < 3; i++) {
+				assertArrayEquals(content, inflate(StreamCompressor.get(streamCompressor.deflate(content, compressionMode))));
+			}
+		}
+
+	}
+
+	@Test
+	public void sharedStreamsAreDeflatedOnce() throws Exception {
+
+		byte[] content = createContent("Letterhead", 100);
+
+		Future<byte[]> future = streamCompressor.deflateShared(content, CompressionMode.BALANCED);
+		assertSame(future, streamCompressor.deflateShared(content.clone(), CompressionMode.BALANCED));
+		assertArrayEquals(content, inflate(StreamCompressor.get(future)));
+
+		// Other content or another mode is deflated again
+		assertNotSame(future, streamCompressor.deflateShared(createContent("Footer", 100), CompressionMode.BALANCED));
+		assertNotSame(future, streamCompressor.deflateShared(content, CompressionMode.SMALLEST));
+
+		streamCompressor.clearSharedStreams();
+		assertNotSame(future, streamCompressor.deflateShared(content, CompressionMode.BALANCED));
+
+	}
+
+	@Test
+	public void closedCompressorStillDeflates() throws Exception {
+
+		byte[] content = createContent("Page content", 100);
+		assertArrayEquals(content, inflate(StreamCompressor.get(streamCompressor.deflate(content, CompressionMode.BALANCED))));
+
+		// The idle deflaters are ended, streams that are deflated after closing get a deflater that is ended after use
+		streamCompressor.close();
+		assertArrayEquals(content, inflate(StreamCompressor.get(streamCompressor.deflate(content, CompressionMode.BALANCED))));
+
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AsyncChannelSinkTest {
+
+	private static byte[] createBytes(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 31);
+		}
+		return bytes;
+	}
+
+	@Test
+	public void writesAllBytesInOrder() throws IOException {
+
+		byte[] bytes = createBytes(1000);
+
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		AsyncChannelSink sink = new AsyncChannelSink(Channels.newChannel(target), 64, false);
+
+		OutputStream outputStream = sink.open();
+		for (int i = 0; i < bytes.length; i += 37) {
+			outputStream.write(bytes, i, Math.min(37, bytes.length - i));
+		}
+		outputStream.close();
+
+		assertArrayEquals(bytes, target.toByteArray());
+
+	}
+
+	@Test
+	public void flushWaitsForTheChannel() throws Exception {
+
+		final CountDownLatch writeStarted = new CountDownLatch(1);
+		final CountDownLatch releaseWrite = new CountDownLatch(1);
+		final ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+		WritableByteChannel channel = new TestChannel() {
+
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				writeStarted.countDown();
+				try {
+					releaseWrite.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return super.write(src);
+			}
+
+			@Override
+			protected ByteArrayOutputStream getTarget() {
+				return target;
+			}
+		};
+
+		AsyncChannelSink sink = new AsyncChannelSink(channel, 64, false);
+		final OutputStream outputStream = sink.open();
+		outputStream.write(createBytes(10));
+
+		final boolean[] flushed = new boolean[] { false };
+		Thread flushThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					outputStream.flush();
+					flushed[0] = true;
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		flushThread.start();
+
+		try {
+			assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+			flushThread.join(100);
+			assertFalse(flushed[0]);
+		} finally {
+			releaseWrite.countDown();
+		}
+
+		flushThread.join(5000);
+
+		assertTrue(flushed[0]);
+		assertEquals(10, target.size());
+
+	}
+
+	@Test
+	public void writeFailureIsRethrown() throws IOException {
+
+		final IOException failure = new IOException("Disk full");
+
+		WritableByteChannel channel = new TestChannel() {
+
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				throw failure;
+			}
+		};
+
+		AsyncChannelSink sink = new AsyncChannelSink(channel, 16, false);
+		OutputStream outputStream = sink.open();
+		outputStream.write(createBytes(20));
+
+		try {
+			outputStream.flush();
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertSame(failure, e);
+		}
+
+		// Following calls fail with the same exception
+		try {
+			outputStream.write(createBytes(20));
+			outputStream.close();
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			assertSame(failure, e);
+		}
+
+	}
+
+	@Test
+	public void closeClosesTheChannelIfRequested() throws IOException {
+
+		TestChannel channel = new TestChannel();
+
+		OutputStream outputStream = new AsyncChannelSink(channel, 16, false).open();
+		outputStream.close();
+		assertTrue(channel.isOpen());
+
+		outputStream = new AsyncChannelSink(channel, 16, true).open();
+		outputStream.close();
+		assertFalse(channel.isOpen());
+
+	}
+
+	private static class TestChannel implements WritableByteChannel {
+
+		private final ByteArrayOutputStream target = new ByteArrayOutputStream();
+		private boolean open = true;
+
+		protected ByteArrayOutputStream getTarget() {
+			return target;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int length = src.remaining();
+			byte[] bytes = new byte[length];
+			src.get(bytes);
+			getTarget().write(bytes);
+			return length;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() throws IOException {
+			open = false;
+		}
+
+	}
+
+}
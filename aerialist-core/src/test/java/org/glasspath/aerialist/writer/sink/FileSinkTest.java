@@ -0,0 +1,83 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSinkTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void commitReplacesTheFile() throws IOException {
+
+		File file = new File(temporaryFolder.getRoot(), "document.pdf"); //$NON-NLS-1$
+		Files.write(file.toPath(), new byte[] { 1 });
+
+		FileSink sink = new FileSink(file);
+		OutputStream outputStream = sink.open();
+		outputStream.write(new byte[] { 2, 3 });
+		outputStream.close();
+
+		// The previous version is kept until the document is committed
+		assertArrayEquals(new byte[] { 1 }, Files.readAllBytes(file.toPath()));
+		assertTrue(sink.getPartFile().exists());
+
+		sink.commit();
+
+		assertArrayEquals(new byte[] { 2, 3 }, Files.readAllBytes(file.toPath()));
+		assertFalse(sink.getPartFile().exists());
+
+	}
+
+	@Test
+	public void abortLeavesTheFile() throws IOException {
+
+		File file = new File(temporaryFolder.getRoot(), "document.pdf"); //$NON-NLS-1$
+		Files.write(file.toPath(), new byte[] { 1 });
+
+		FileSink sink = new FileSink(file);
+		OutputStream outputStream = sink.open();
+		outputStream.write(new byte[] { 2, 3 });
+		outputStream.close();
+
+		sink.abort();
+
+		assertArrayEquals(new byte[] { 1 }, Files.readAllBytes(file.toPath()));
+		assertFalse(sink.getPartFile().exists());
+
+	}
+
+}
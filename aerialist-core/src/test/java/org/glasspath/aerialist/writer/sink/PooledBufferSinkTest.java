@@ -0,0 +1,159 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.sink;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+public class PooledBufferSinkTest {
+
+	private static byte[] createBytes(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (i * 31);
+		}
+		return bytes;
+	}
+
+	@Test
+	public void writesAcrossChunks() throws IOException {
+
+		byte[] bytes = createBytes(10 * 16 + 5);
+
+		PooledBufferSink sink = new PooledBufferSink(new BufferPool(16, 4));
+		OutputStream outputStream = sink.open();
+		outputStream.write(bytes, 0, 7);
+		outputStream.write(bytes[7]);
+		outputStream.write(bytes, 8, bytes.length - 8);
+		outputStream.close();
+
+		assertTrue(sink.isClosed());
+		assertEquals(bytes.length, sink.size());
+		assertArrayEquals(bytes, sink.toByteArray());
+
+		ByteArrayOutputStream streamCopy = new ByteArrayOutputStream();
+		sink.writeTo(streamCopy);
+		assertArrayEquals(bytes, streamCopy.toByteArray());
+
+		ByteArrayOutputStream channelCopy = new ByteArrayOutputStream();
+		sink.writeTo(Channels.newChannel(channelCopy));
+		assertArrayEquals(bytes, channelCopy.toByteArray());
+
+	}
+
+	@Test
+	public void releaseReturnsChunksToThePool() throws IOException {
+
+		BufferPool bufferPool = new BufferPool(16, 4);
+
+		PooledBufferSink sink = new PooledBufferSink(bufferPool);
+		OutputStream outputStream = sink.open();
+		outputStream.write(createBytes(20));
+		outputStream.close();
+
+		sink.release();
+		assertEquals(0, sink.size());
+		assertEquals(0, sink.toByteArray().length);
+
+		// Released chunks are handed out again
+		byte[] first = bufferPool.acquire();
+		byte[] second = bufferPool.acquire();
+		assertEquals(16, first.length);
+		assertEquals(16, second.length);
+
+	}
+
+	@Test
+	public void poolKeepsAtMostMaxChunks() {
+
+		BufferPool bufferPool = new BufferPool(16, 1);
+
+		byte[] first = bufferPool.acquire();
+		byte[] second = bufferPool.acquire();
+		bufferPool.release(first);
+		bufferPool.release(second);
+		bufferPool.release(new byte[8]);
+
+		assertSame(first, bufferPool.acquire());
+		byte[] third = bufferPool.acquire();
+		assertTrue(third != first && third != second);
+
+	}
+
+	@Test
+	public void openDiscardsPreviousContent() throws IOException {
+
+		PooledBufferSink sink = new PooledBufferSink(new BufferPool(16, 4));
+
+		OutputStream outputStream = sink.open();
+		outputStream.write(createBytes(40));
+		outputStream.close();
+
+		outputStream = sink.open();
+		outputStream.write(createBytes(3));
+		outputStream.close();
+
+		assertArrayEquals(createBytes(3), sink.toByteArray());
+
+	}
+
+	@Test
+	public void abortReleasesContent() throws IOException {
+
+		PooledBufferSink sink = new PooledBufferSink(new BufferPool(16, 4));
+		OutputStream outputStream = sink.open();
+		outputStream.write(createBytes(40));
+
+		sink.abort();
+		assertEquals(0, sink.size());
+
+	}
+
+	@Test
+	public void writingAfterCloseFails() throws IOException {
+
+		PooledBufferSink sink = new PooledBufferSink(new BufferPool(4, 4));
+		OutputStream outputStream = sink.open();
+		outputStream.write(createBytes(4));
+		outputStream.close();
+
+		try {
+			outputStream.write(1);
+			fail("Expected an IOException");
+		} catch (IOException e) {
+			// Expected, the chunk is full and no new chunk is taken after close
+		}
+
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.writer.svg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+@SuppressWarnings("nls")
+public class SvgDocumentWriterTest {
+
+	private static final String SVG_NS = "http://www.w3.org/2000/svg";
+	private static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+	private static final byte[] PNG = new byte[] { (byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A };
+
+	private static MediaCache<byte[]> createMediaCache() {
+
+		MediaCache<byte[]> mediaCache = new MediaCache<byte[]>() {
+
+			@Override
+			protected byte[] readImage(String key, byte[] bytes) {
+				return bytes;
+			}
+
+			@Override
+			public ImageSize getImageSize(String key) {
+				return new ImageSize(1, 1);
+			}
+		};
+		mediaCache.putImage("logo", PNG);
+
+		return mediaCache;
+
+	}
+
+	private static void writePage(SvgDocumentWriter writer, int width, int height) throws Exception {
+		writer.openPage(width, height);
+		writer.saveState();
+		writer.clip(10, 10, 100, 100);
+		writer.setFillColor(255, 0, 0, 255);
+		writer.fill(10, 10, 50, 50);
+		writer.drawImage("logo", 20, 20, 40, 40, "logo");
+		writer.restoreState();
+		writer.closePage();
+	}
+
+	@Test
+	public void documentWithSeveralPagesIsWellFormed() throws Exception {
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		SvgDocumentWriter writer = new SvgDocumentWriter(DocumentSink.toOutputStream(outputStream), null, createMediaCache());
+		writer.open(595, 842);
+		writePage(writer, 595, 842);
+		writePage(writer, 595, 842);
+		writePage(writer, 842, 595);
+		writer.close();
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(outputStream.toByteArray()));
+
+		Element root = document.getDocumentElement();
+		assertEquals(SVG_NS, root.getNamespaceURI());
+		assertEquals("svg", root.getLocalName());
+
+		// The pages are placed below each other
+		NodeList pages = root.getElementsByTagNameNS(SVG_NS, "svg");
+		assertEquals(3, pages.getLength());
+		assertEquals("0", ((Element) pages.item(0)).getAttribute("y"));
+		assertEquals("842", ((Element) pages.item(1)).getAttribute("y"));
+		assertEquals("1684", ((Element) pages.item(2)).getAttribute("y"));
+
+		// The image is embedded once, every page refers to it
+		NodeList images = root.getElementsByTagNameNS(SVG_NS, "image");
+		assertEquals(1, images.getLength());
+
+		for (int i = 0; i < pages.getLength(); i++) {
+
+			NodeList uses = ((Element) pages.item(i)).getElementsByTagNameNS(SVG_NS, "use");
+			assertEquals(1, uses.getLength());
+
+			String href = ((Element) uses.item(0)).getAttributeNS(XLINK_NS, "href");
+			assertNotNull(findElement(root, SVG_NS, "image", href.substring(1)));
+
+		}
+
+	}
+
+	@Test
+	public void documentWithoutPagesIsWellFormed() throws Exception {
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		SvgDocumentWriter writer = new SvgDocumentWriter(DocumentSink.toOutputStream(outputStream), null, createMediaCache());
+		writer.open(595, 842);
+		writer.close();
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(outputStream.toByteArray()));
+
+		assertEquals("svg", document.getDocumentElement().getLocalName());
+		assertEquals(0, document.getDocumentElement().getElementsByTagNameNS(SVG_NS, "svg").getLength());
+
+	}
+
+	private static Element findElement(Element root, String namespace, String name, String id) {
+
+		NodeList elements = root.getElementsByTagNameNS(namespace, name);
+		for (int i = 0; i < elements.getLength(); i++) {
+			Element element = (Element) elements.item(i);
+			if (id.equals(element.getAttribute("id"))) {
+				return element;
+			}
+		}
+
+		return null;
+
+	}
+
+}
@@ -23,15 +23,20 @@
 package org.glasspath.aerialist.itext;
 
 import java.io.File;
-import java.io.FileOutputStream;
 
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
+import org.glasspath.aerialist.media.MediaCache;
 import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.compress.CompressionMode;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
 
 import com.itextpdf.text.BaseColor;
 import com.itextpdf.text.Document;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.Rectangle;
 import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfDestination;
+import com.itextpdf.text.pdf.PdfOutline;
 import com.itextpdf.text.pdf.PdfTemplate;
 import com.itextpdf.text.pdf.PdfWriter;
 
@@ -45,25 +50,65 @@ public class ITextDocumentWriter extends DocumentWriter {
 	private PdfContentByte cb = null;
 	private boolean firstPage = true;
 	private PdfTemplate template = null;
+	private int pageWidth = 0;
 	private int pageHeight = 0;
+	private final SharedPages<PdfTemplate> sharedTemplates = new SharedPages<PdfTemplate>() {
+
+		@Override
+		protected PdfTemplate createForm(PageLayoutInfo pageLayoutInfo, float width, float height) throws Exception {
+
+			PdfTemplate sharedTemplate = cb.createTemplate(width, height);
+
+			PdfContentByte pageContent = cb;
+			cb = sharedTemplate;
+			try {
+				writePage(pageLayoutInfo);
+			} finally {
+				cb = pageContent;
+			}
+
+			return sharedTemplate;
+
+		}
+
+		@Override
+		protected void drawForm(PdfTemplate sharedTemplate) throws Exception {
+			cb.addTemplate(sharedTemplate, 0, 0);
+		}
+	};
 
 	public ITextDocumentWriter(File file, ITextFontCache fontCache, ITextMediaCache mediaCache) {
-		super(file);
+		this(DocumentSink.toFile(file), fontCache, mediaCache);
+	}
+
+	public ITextDocumentWriter(DocumentSink sink, ITextFontCache fontCache, ITextMediaCache mediaCache) {
+		super(sink);
 
 		this.fontCache = fontCache;
 		this.mediaCache = mediaCache;
 
 	}
 
+	@Override
+	protected MediaCache<?> getMediaCache() {
+		return mediaCache;
+	}
+
 	@Override
 	protected void openDocument(int width, int height) throws Exception {
 
 		document = new Document(new Rectangle(width, height));
-		writer = PdfWriter.getInstance(document, new FileOutputStream(file));
+		writer = PdfWriter.getInstance(document, sink.open());
+		writer.setCompressionLevel(compressionMode.getDeflateLevel());
+		if (compressionMode == CompressionMode.SMALLEST) {
+			writer.setFullCompression();
+		}
 
 		document.open();
 		cb = writer.getDirectContent();
 
+		sharedTemplates.clear();
+
 		documentOpen = true;
 
 	}
@@ -85,6 +130,7 @@ public class ITextDocumentWriter extends DocumentWriter {
 			}
 
 			template = cb.createTemplate(width, height);
+			pageWidth = width;
 			pageHeight = height;
 
 			cb.saveState();
@@ -93,6 +139,18 @@ public class ITextDocumentWriter extends DocumentWriter {
 
 	}
 
+	@Override
+	public void writeSharedPage(PageLayoutInfo pageLayoutInfo, String key) throws Exception {
+		sharedTemplates.write(pageLayoutInfo, key, pageWidth, pageHeight);
+	}
+
+	@Override
+	public void addBookmark(String title) throws Exception {
+		if (documentOpen) {
+			new PdfOutline(writer.getRootOutline(), new PdfDestination(PdfDestination.FITH, pageHeight), title);
+		}
+	}
+
 	@Override
 	protected void saveState() throws Exception {
 		cb.saveState();
@@ -152,6 +210,20 @@ public class ITextDocumentWriter extends DocumentWriter {
 
 	}
 
+	@Override
+	protected void fillRects(float x, float y, float scale, int[] rects) throws Exception {
+
+		for (int i = 0; i + 3 < rects.length; i += 4) {
+			float h = rects[i + 3] * scale;
+			cb.rectangle(x + rects[i] * scale, pageHeight - (y + rects[i + 1] * scale) - h, rects[i + 2] * scale, h);
+		}
+
+		cb.fill();
+
+		cb.newPath();
+
+	}
+
 	@Override
 	protected void draw(float x, float y, float w, float h) throws Exception {
 
@@ -234,4 +306,22 @@ public class ITextDocumentWriter extends DocumentWriter {
 		}
 	}
 
+	@Override
+	protected void discardDocument() throws Exception {
+
+		if (documentOpen) {
+
+			documentOpen = false;
+
+			// Closing the document would write the rest of it, the stream is released by the (aborted) sink
+			document = null;
+			writer = null;
+			cb = null;
+			template = null;
+			sharedTemplates.clear();
+
+		}
+
+	}
+
 }
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.jfr;
+
+import org.glasspath.aerialist.metrics.Metrics;
+import org.glasspath.aerialist.metrics.RenderSpan;
+import org.glasspath.aerialist.metrics.RenderTracer;
+import org.glasspath.aerialist.metrics.SpanType;
+
+import jdk.jfr.FlightRecorder;
+
+// Emits the render spans as Java Flight Recorder events, events are only created while a recording
+// has them enabled (java -XX:StartFlightRecording or jcmd <pid> JFR.start for example)
+public class JfrRenderTracer implements RenderTracer {
+
+	public JfrRenderTracer() {
+
+	}
+
+	// Sets a JfrRenderTracer as process wide tracer
+	public static JfrRenderTracer install() {
+
+		FlightRecorder.register(TemplateParseEvent.class);
+		FlightRecorder.register(PageLayoutEvent.class);
+		FlightRecorder.register(PaginateEvent.class);
+		FlightRecorder.register(DocumentWriteEvent.class);
+		FlightRecorder.register(PageWriteEvent.class);
+		FlightRecorder.register(FontLoadEvent.class);
+		FlightRecorder.register(ImageReadEvent.class);
+
+		JfrRenderTracer tracer = new JfrRenderTracer();
+		Metrics.setTracer(tracer);
+
+		return tracer;
+
+	}
+
+	@Override
+	public RenderSpan begin(SpanType spanType) {
+
+		RenderEvent event = createEvent(spanType);
+		if (event != null && event.isEnabled()) {
+			event.begin();
+			return event;
+		} else {
+			return null;
+		}
+
+	}
+
+	protected RenderEvent createEvent(SpanType spanType) {
+
+		switch (spanType) {
+
+		case TEMPLATE_PARSE:
+			return new TemplateParseEvent();
+
+		case PAGE_LAYOUT:
+			return new PageLayoutEvent();
+
+		case PAGINATE:
+			return new PaginateEvent();
+
+		case DOCUMENT_WRITE:
+			return new DocumentWriteEvent();
+
+		case PAGE_WRITE:
+			return new PageWriteEvent();
+
+		case FONT_LOAD:
+			return new FontLoadEvent();
+
+		case IMAGE_READ:
+			return new ImageReadEvent();
+
+		default:
+			return null;
+
+		}
+
+	}
+
+}
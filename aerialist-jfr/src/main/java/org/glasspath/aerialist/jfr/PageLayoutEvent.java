@@ -0,0 +1,66 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.glasspath.aerialist.PageLayout")
+@Label("Page Layout")
+@Description("Layout and pagination of a template page, page index -1 is the header and -2 the footer")
+public class PageLayoutEvent extends RenderEvent {
+
+	@Label("Document Id")
+	public String documentId;
+
+	@Label("Page Index")
+	public int pageIndex;
+
+	@Label("Elements")
+	public int elements;
+
+	@Label("Table Cells")
+	public int tableCells;
+
+	@Label("Spans")
+	public int spans;
+
+	@Override
+	public void setDocumentId(String documentId) {
+		this.documentId = documentId;
+	}
+
+	@Override
+	public void setPageIndex(int pageIndex) {
+		this.pageIndex = pageIndex;
+	}
+
+	@Override
+	public void setCounts(int elements, int tableCells, int spans) {
+		this.elements = elements;
+		this.tableCells = tableCells;
+		this.spans = spans;
+	}
+
+}
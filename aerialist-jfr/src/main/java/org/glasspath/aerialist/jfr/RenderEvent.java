@@ -0,0 +1,66 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.jfr;
+
+import org.glasspath.aerialist.metrics.RenderSpan;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+
+// Events are spans themselves so tracing doesn't allocate more than the event, fields that
+// an event doesn't record are ignored
+@Category("Aerialist")
+public abstract class RenderEvent extends Event implements RenderSpan {
+
+	@Override
+	public void setDocumentId(String documentId) {
+
+	}
+
+	@Override
+	public void setPageIndex(int pageIndex) {
+
+	}
+
+	@Override
+	public void setCounts(int elements, int tableCells, int spans) {
+
+	}
+
+	@Override
+	public void setName(String name) {
+
+	}
+
+	@Override
+	public void setBytes(long bytes) {
+
+	}
+
+	@Override
+	public void finish() {
+		// Event.end() is final, commit() also sets the end time
+		commit();
+	}
+
+}
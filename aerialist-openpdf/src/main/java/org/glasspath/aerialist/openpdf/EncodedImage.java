@@ -0,0 +1,46 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.openpdf;
+
+import com.lowagie.text.Image;
+
+// Holds the data of an image as it is read by OpenPDF (JPEG data as is, PNG data decoded or deflated) without being
+// bound to a document. An Image also carries the state of the writer it was added to, so the image itself is never
+// handed out, every document gets it's own Image that shares the data of this one
+public class EncodedImage {
+
+	private final Image image;
+
+	private EncodedImage(Image image) {
+		this.image = image;
+	}
+
+	public Image createImage() {
+		return Image.getInstance(image);
+	}
+
+	public static EncodedImage create(byte[] bytes) throws Exception {
+		return new EncodedImage(Image.getInstance(bytes));
+	}
+
+}
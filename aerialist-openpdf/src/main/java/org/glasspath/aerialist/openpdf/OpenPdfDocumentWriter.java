@@ -23,18 +23,33 @@
 package org.glasspath.aerialist.openpdf;
 
 import java.io.File;
-import java.io.FileOutputStream;
-
+import java.security.SecureRandom;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
+import org.glasspath.aerialist.media.MediaCache;
 import org.glasspath.aerialist.text.font.FontCache;
 import org.glasspath.aerialist.text.font.FontWeight;
 import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.compress.CompressionMode;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
 
 import com.lowagie.text.Document;
 import com.lowagie.text.Image;
 import com.lowagie.text.Rectangle;
 import com.lowagie.text.pdf.BaseFont;
 import com.lowagie.text.pdf.PdfContentByte;
+import com.lowagie.text.pdf.PdfDate;
+import com.lowagie.text.pdf.PdfDestination;
+import com.lowagie.text.pdf.PdfDictionary;
+import com.lowagie.text.pdf.PdfEncryption;
+import com.lowagie.text.pdf.PdfName;
+import com.lowagie.text.pdf.PdfOutline;
 import com.lowagie.text.pdf.PdfTemplate;
+import com.lowagie.text.pdf.OutputStreamCounter;
 import com.lowagie.text.pdf.PdfWriter;
 
 public class OpenPdfDocumentWriter extends DocumentWriter {
@@ -44,24 +59,66 @@ public class OpenPdfDocumentWriter extends DocumentWriter {
 	private Document document = null;
 	private boolean documentOpen = false;
 	private PdfWriter writer = null;
+	private OutputStreamCounter outputCounter = null;
 	private PdfContentByte cb = null;
 	private boolean firstPage = true;
 	private PdfTemplate template = null;
+	private int pageWidth = 0;
 	private int pageHeight = 0;
+	private final SharedPages<PdfTemplate> sharedTemplates = new SharedPages<PdfTemplate>() {
+
+		@Override
+		protected PdfTemplate createForm(PageLayoutInfo pageLayoutInfo, float width, float height) throws Exception {
+
+			PdfTemplate sharedTemplate = cb.createTemplate(width, height);
+
+			PdfContentByte pageContent = cb;
+			cb = sharedTemplate;
+			try {
+				writePage(pageLayoutInfo);
+			} finally {
+				cb = pageContent;
+			}
+
+			return sharedTemplate;
+
+		}
+
+		@Override
+		protected void drawForm(PdfTemplate sharedTemplate) throws Exception {
+			cb.addTemplate(sharedTemplate, 0, 0);
+		}
+	};
+	private final Map<File, BaseFont> deterministicFonts = new HashMap<>();
+	private final Map<String, Image> documentImages = new HashMap<>();
 
 	public OpenPdfDocumentWriter(File file, OpenPdfFontCache fontCache, OpenPdfMediaCache mediaCache) {
-		super(file);
+		this(DocumentSink.toFile(file), fontCache, mediaCache);
+	}
+
+	public OpenPdfDocumentWriter(DocumentSink sink, OpenPdfFontCache fontCache, OpenPdfMediaCache mediaCache) {
+		super(sink);
 
 		this.fontCache = fontCache;
 		this.mediaCache = mediaCache;
 
 	}
 
+	@Override
+	protected MediaCache<?> getMediaCache() {
+		return mediaCache;
+	}
+
 	@Override
 	protected void openDocument(int width, int height) throws Exception {
 
 		document = new Document(new Rectangle(width, height));
-		writer = PdfWriter.getInstance(document, new FileOutputStream(file));
+		outputCounter = new OutputStreamCounter(sink.open());
+		writer = PdfWriter.getInstance(document, outputCounter);
+		writer.setCompressionLevel(compressionMode.getDeflateLevel());
+		if (compressionMode == CompressionMode.SMALLEST) {
+			writer.setFullCompression();
+		}
 
 		document.open();
 		cb = writer.getDirectContent();
@@ -73,10 +130,26 @@ public class OpenPdfDocumentWriter extends DocumentWriter {
 		document.addCreator("Glasspath Aerialist");
 		*/
 
+		sharedTemplates.clear();
+		deterministicFonts.clear();
+		documentImages.clear();
+
 		documentOpen = true;
 
 	}
 
+	@Override
+	public long getBytesWritten() {
+
+		// PdfWriter buffers the output
+		if (documentOpen) {
+			writer.flush();
+		}
+
+		return outputCounter != null ? outputCounter.getCounter() : 0;
+
+	}
+
 	@Override
 	public boolean isDocumentOpen() {
 		return documentOpen;
@@ -94,12 +167,25 @@ public class OpenPdfDocumentWriter extends DocumentWriter {
 			}
 
 			template = cb.createTemplate(width, height);
+			pageWidth = width;
 			pageHeight = height;
 
 		}
 
 	}
 
+	@Override
+	public void writeSharedPage(PageLayoutInfo pageLayoutInfo, String key) throws Exception {
+		sharedTemplates.write(pageLayoutInfo, key, pageWidth, pageHeight);
+	}
+
+	@Override
+	public void addBookmark(String title) throws Exception {
+		if (documentOpen) {
+			new PdfOutline(writer.getRootOutline(), new PdfDestination(PdfDestination.FITH, pageHeight), title);
+		}
+	}
+
 	@Override
 	protected void saveState() throws Exception {
 		cb.saveState();
@@ -159,6 +245,20 @@ public class OpenPdfDocumentWriter extends DocumentWriter {
 
 	}
 
+	@Override
+	protected void fillRects(float x, float y, float scale, int[] rects) throws Exception {
+
+		for (int i = 0; i + 3 < rects.length; i += 4) {
+			float h = rects[i + 3] * scale;
+			cb.rectangle(x + rects[i] * scale, pageHeight - (y + rects[i + 1] * scale) - h, rects[i + 2] * scale, h);
+		}
+
+		cb.fill();
+
+		cb.newPath();
+
+	}
+
 	@Override
 	protected void draw(float x, float y, float w, float h) throws Exception {
 
@@ -196,7 +296,14 @@ public class OpenPdfDocumentWriter extends DocumentWriter {
 
 		y = pageHeight - y - h;
 
-		Image image = mediaCache.getImage(key);
+		Image image = documentImages.get(key);
+		if (image == null) {
+			image = mediaCache.createDocumentImage(key);
+			if (image != null) {
+				documentImages.put(key, image);
+			}
+		}
+
 		if (image != null) {
 			cb.addImage(image, w, 0, 0, h, x, y);
 		}
@@ -220,6 +327,9 @@ public class OpenPdfDocumentWriter extends DocumentWriter {
 			if (cachedFont != null && cachedFont.fontFile != null && cachedFont.fontFile.font != null) {
 
 				font = cachedFont.fontFile.font;
+				if (deterministic) {
+					font = getDeterministicFont(cachedFont.fontFile, font);
+				}
 
 				// Check if italic needs to be simulated (the FontFile class tells us if the loaded font is italic or not)
 				if (italic && !cachedFont.fontFile.italic) {
@@ -268,6 +378,8 @@ public class OpenPdfDocumentWriter extends DocumentWriter {
 	public void closePage() throws Exception {
 		if (documentOpen) {
 			cb.addTemplate(template, 0, 0);
+			// Writes the content of the page now instead of keeping it in memory until the document is closed
+			writer.releaseTemplate(template);
 		}
 	}
 
@@ -278,11 +390,92 @@ public class OpenPdfDocumentWriter extends DocumentWriter {
 
 			documentOpen = false;
 
+			if (deterministic) {
+				applyDeterministicOutput();
+			}
+
 			document.close();
 			writer.close();
 
 			document = null;
+			deterministicFonts.clear();
+			documentImages.clear();
+
+		}
+
+	}
+
+	@Override
+	protected void discardDocument() throws Exception {
+
+		if (documentOpen) {
+
+			documentOpen = false;
+
+			// Closing the document would write the rest of it, the stream is released by the (aborted) sink
+			document = null;
+			writer = null;
+			cb = null;
+			template = null;
+			sharedTemplates.clear();
+			deterministicFonts.clear();
+			documentImages.clear();
+
+		}
+
+	}
+
+	private void applyDeterministicOutput() {
+
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+		calendar.setTimeInMillis(DETERMINISTIC_TIMESTAMP);
+
+		PdfDictionary info = writer.getInfo();
+		info.put(PdfName.CREATIONDATE, new PdfDate(calendar));
+		info.put(PdfName.MODDATE, new PdfDate(calendar));
+
+		// The trailer id is taken from the info dictionary when present, otherwise a random id is created
+		byte[] fileId = getDeterministicFileId();
+		info.put(PdfName.FILEID, PdfEncryption.createInfoId(fileId, fileId));
+
+	}
+
+	// The fonts of the cache are shared by all documents of the process, in deterministic mode the document gets
+	// it's own copy of a font so the subset prefix (created when the fonts are written on close) can be fixed
+	private BaseFont getDeterministicFont(FontCache<BaseFont>.FontFile fontFile, BaseFont cachedFont) {
+
+		BaseFont font = deterministicFonts.get(fontFile.file);
+		if (font == null) {
+
+			font = fontCache.createUncachedFont(fontFile);
+			if (font == null) {
+				font = cachedFont;
+			} else {
+				font.setSecureRandom(new SubsetPrefixRandom(font.getPostscriptFontName()));
+			}
+
+			deterministicFonts.put(fontFile.file, font);
+
+		}
+
+		return font;
+
+	}
+
+	// Returns the same value for every call so the subset prefix of a font only depends on it's name
+	private static class SubsetPrefixRandom extends SecureRandom {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double value;
+
+		private SubsetPrefixRandom(String fontName) {
+			value = (fontName != null ? fontName.hashCode() & 0x7FFFFFFF : 0) / (double) 0x80000000L;
+		}
 
+		@Override
+		public double nextDouble() {
+			return value;
 		}
 
 	}
@@ -30,10 +30,27 @@ import com.lowagie.text.pdf.BaseFont;
 
 public class OpenPdfFontCache extends FontCache<BaseFont> {
 
+	// CP1252 only writes latin text, with Identity-H all characters of the font can be written,
+	// the glyphs that are used in a document are embedded as a subset in both cases
+	private String encoding = BaseFont.CP1252;
+
 	public OpenPdfFontCache() {
 
 	}
 
+	public OpenPdfFontCache(String encoding) {
+		this.encoding = encoding;
+	}
+
+	public String getEncoding() {
+		return encoding;
+	}
+
+	// Only applies to fonts that are loaded after it was set
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+
 	@Override
 	protected BaseFont createDefaultFont(FontWeight weight, boolean italic) {
 
@@ -63,7 +80,9 @@ public class OpenPdfFontCache extends FontCache<BaseFont> {
 
 		try {
 
-			BaseFont font = BaseFont.createFont(fontFile.file.getAbsolutePath(), BaseFont.CP1252, BaseFont.EMBEDDED, BaseFont.CACHED, null, null);
+			// Fonts created with BaseFont.CACHED are parsed once per process and shared by all
+			// caches and documents, the used glyphs are tracked per document by the PdfWriter
+			BaseFont font = BaseFont.createFont(fontFile.file.getAbsolutePath(), encoding, BaseFont.EMBEDDED, BaseFont.CACHED, null, null);
 			fontFile.font = font;
 
 		} catch (Exception e) {
@@ -72,6 +91,19 @@ public class OpenPdfFontCache extends FontCache<BaseFont> {
 
 	}
 
+	// Creates a font that isn't shared with other documents, for writers that change the state of the font
+	public BaseFont createUncachedFont(FontFile fontFile) {
+
+		try {
+			return BaseFont.createFont(fontFile.file.getAbsolutePath(), encoding, BaseFont.EMBEDDED, BaseFont.NOT_CACHED, null, null);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		return null;
+
+	}
+
 	@Override
 	public SpanInfo getSpanInfo(String text, String fontName, float fontSize, FontWeight weight, boolean italic) {
 
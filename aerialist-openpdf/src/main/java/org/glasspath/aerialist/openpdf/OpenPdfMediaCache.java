@@ -22,12 +22,30 @@
  */
 package org.glasspath.aerialist.openpdf;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import org.glasspath.aerialist.media.MediaCache;
 
 import com.lowagie.text.Image;
 
 public class OpenPdfMediaCache extends MediaCache<Image> {
 
+	public static final int MAX_SHARED_IMAGES = 256;
+
+	// Encoded images are shared by all caches in the process (keyed by content hash), so images that are
+	// used in many documents are only decoded once, the cache and every document get their own Image
+	private static final Map<String, EncodedImage> SHARED_IMAGES = new LinkedHashMap<String, EncodedImage>(16, 0.75F, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, EncodedImage> eldest) {
+			return size() > MAX_SHARED_IMAGES;
+		}
+	};
+
 	public OpenPdfMediaCache() {
 
 	}
@@ -36,7 +54,26 @@ public class OpenPdfMediaCache extends MediaCache<Image> {
 	protected Image readImage(String key, byte[] bytes) {
 
 		try {
-			return Image.getInstance(bytes);
+
+			String contentHash = getImageResource(key).getContentHash();
+
+			EncodedImage encodedImage;
+			synchronized (SHARED_IMAGES) {
+				encodedImage = SHARED_IMAGES.get(contentHash);
+			}
+
+			if (encodedImage == null) {
+
+				encodedImage = EncodedImage.create(bytes);
+
+				synchronized (SHARED_IMAGES) {
+					SHARED_IMAGES.put(contentHash, encodedImage);
+				}
+
+			}
+
+			return encodedImage.createImage();
+
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -55,4 +92,20 @@ public class OpenPdfMediaCache extends MediaCache<Image> {
 		}
 	}
 	
+	// The image of the cache can be used by documents that are written in parallel, a writer adds a copy
+	public Image createDocumentImage(String key) {
+		Image image = getImage(key);
+		if (image != null) {
+			return Image.getInstance(image);
+		} else {
+			return null;
+		}
+	}
+
+	public static void clearSharedImages() {
+		synchronized (SHARED_IMAGES) {
+			SHARED_IMAGES.clear();
+		}
+	}
+
 }
@@ -0,0 +1,114 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.openpdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.aerialist.layout.RenderHandle;
+import org.glasspath.aerialist.template.RenderResult;
+import org.glasspath.aerialist.template.RenderStatus;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+import org.glasspath.aerialist.writer.sink.FileSink;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("nls")
+public class RenderAbortTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final OpenPdfFontCache fontCache = new OpenPdfFontCache();
+	private final OpenPdfMediaCache mediaCache = new OpenPdfMediaCache();
+
+	private static boolean isCompleted(byte[] bytes) {
+		return new String(bytes, StandardCharsets.ISO_8859_1).contains("%%EOF");
+	}
+
+	@Test
+	public void cancelledRenderIsNotCompleted() throws Exception {
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		TemplateDocumentLoader documentLoader = TemplateTableTest.createDocumentLoader(fontCache, mediaCache);
+		documentLoader.setDocumentWriter(new OpenPdfDocumentWriter(DocumentSink.toOutputStream(outputStream), fontCache, mediaCache));
+
+		RenderHandle handle = new RenderHandle();
+		handle.cancel();
+
+		RenderResult result = documentLoader.loadDocument(TemplateTableTest.createTemplate(), TemplateTableTest.createFieldContext(20), handle);
+
+		assertEquals(RenderStatus.CANCELLED, result.getStatus());
+		assertFalse(documentLoader.getDocumentWriter().isDocumentOpen());
+		assertFalse(isCompleted(outputStream.toByteArray()));
+
+	}
+
+	@Test
+	public void exceededDeadlineLeavesNoFile() throws Exception {
+
+		File file = new File(temporaryFolder.getRoot(), "document.pdf");
+		FileSink sink = new FileSink(file);
+
+		TemplateDocumentLoader documentLoader = TemplateTableTest.createDocumentLoader(fontCache, mediaCache);
+		documentLoader.setDocumentWriter(new OpenPdfDocumentWriter(sink, fontCache, mediaCache));
+
+		RenderResult result = documentLoader.loadDocument(TemplateTableTest.createTemplate(), TemplateTableTest.createFieldContext(5000), new RenderHandle(1, TimeUnit.MILLISECONDS));
+
+		assertEquals(RenderStatus.DEADLINE_EXCEEDED, result.getStatus());
+		assertFalse(file.exists());
+		assertFalse(sink.getPartFile().exists());
+
+	}
+
+	// The deadline passes while the pages are written, the pages that were written stay in the stream of the caller
+	// but the document is not completed
+	@Test
+	public void exceededDeadlineWhileWritingIsNotCompleted() throws Exception {
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		TemplateDocumentLoader documentLoader = TemplateTableTest.createDocumentLoader(fontCache, mediaCache);
+		OpenPdfDocumentWriter documentWriter = new OpenPdfDocumentWriter(DocumentSink.toOutputStream(outputStream), fontCache, mediaCache);
+
+		RenderResult result = documentLoader.loadDocument(TemplateTableTest.createTemplate(), TemplateTableTest.createFieldContext(2000), new RenderHandle());
+		assertTrue(result.isSucceeded());
+
+		result = documentLoader.writeDocument(result.getDocumentLayoutInfo(), documentWriter, new RenderHandle(5, TimeUnit.MILLISECONDS));
+
+		assertEquals(RenderStatus.DEADLINE_EXCEEDED, result.getStatus());
+		assertFalse(documentWriter.isDocumentOpen());
+		assertFalse(isCompleted(outputStream.toByteArray()));
+
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.openpdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.TextBox;
+import org.glasspath.aerialist.TextStyle;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.IElementLayoutMetrics;
+import org.glasspath.aerialist.template.RenderResult;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+import org.glasspath.aerialist.writer.sink.PooledBufferSink;
+import org.junit.Test;
+
+import com.lowagie.text.Image;
+import com.lowagie.text.pdf.BaseFont;
+import com.lowagie.text.pdf.PdfReader;
+
+@SuppressWarnings("nls")
+public class TemplateRecordsTest {
+
+	private static final int RECORDS = 3;
+
+	private static TextBox createTextBox(int y, String text, String source) {
+
+		TextBox textBox = new TextBox();
+		textBox.setX(20);
+		textBox.setY(y);
+		textBox.setWidth(300);
+		textBox.setHeight(20);
+		textBox.setText(text);
+
+		TextStyle style = new TextStyle();
+		style.start = 0;
+		style.end = text.length();
+		style.source = source;
+		textBox.getStyles().add(style);
+
+		return textBox;
+
+	}
+
+	// The header is the same for every record, the footer and the page contain a template field
+	private static Document createTemplate() {
+
+		Page header = new Page(Page.PageSize.A4);
+		header.getElements().add(createTextBox(20, "Invoice", null));
+
+		Page footer = new Page(Page.PageSize.A4);
+		footer.getElements().add(createTextBox(800, "${name}", "t:name"));
+
+		Page page = new Page(Page.PageSize.A4);
+		page.getElements().add(createTextBox(120, "${name}", "t:name"));
+
+		Document document = new Document();
+		document.setHeader(header);
+		document.setFooter(footer);
+		document.getPages().add(page);
+
+		return document;
+
+	}
+
+	@Test
+	public void sharedPageKeysOfFieldlessPagesAreComputedOnce() throws Exception {
+
+		OpenPdfFontCache fontCache = new OpenPdfFontCache();
+		OpenPdfMediaCache mediaCache = new OpenPdfMediaCache();
+
+		final DefaultLayoutContext<BaseFont, Image> layoutContext = new DefaultLayoutContext<>(fontCache, mediaCache);
+		final List<Page> keyedPages = new ArrayList<>();
+
+		TemplateDocumentLoader documentLoader = new TemplateDocumentLoader(null, layoutContext) {
+
+			@Override
+			protected IElementLayoutMetrics createLayoutMetrics() {
+				return new DefaultLayoutMetrics(layoutContext);
+			}
+
+			@Override
+			protected String getSharedPageKey(Page page) {
+				keyedPages.add(page);
+				return super.getSharedPageKey(page);
+			}
+		};
+
+		List<TemplateFieldContext> fieldContexts = new ArrayList<>();
+		for (int i = 0; i < RECORDS; i++) {
+			TemplateFieldContext fieldContext = new TemplateFieldContext();
+			fieldContext.put("name", "Customer " + (i + 1));
+			fieldContexts.add(fieldContext);
+		}
+
+		Document template = createTemplate();
+
+		PooledBufferSink sink = DocumentSink.toPooledBuffer();
+		documentLoader.setDocumentWriter(new OpenPdfDocumentWriter(sink, fontCache, mediaCache));
+
+		try {
+
+			RenderResult result = documentLoader.loadDocuments(template, fieldContexts.iterator());
+			assertTrue(result.getMessage(), result.isSucceeded());
+
+			// One key for the header of the template, one for the footer of every record
+			assertEquals(1 + RECORDS, keyedPages.size());
+			assertTrue(keyedPages.get(0) == template.getHeader());
+
+			// The records are rendered from copies, the template still contains its fields
+			TextBox footerTextBox = (TextBox) template.getFooter().getElements().get(0);
+			assertEquals("${name}", footerTextBox.getText());
+			assertEquals("t:name", footerTextBox.getStyles().get(0).source);
+
+			PdfReader reader = new PdfReader(sink.toByteArray());
+			try {
+				assertEquals(RECORDS, reader.getNumberOfPages());
+			} finally {
+				reader.close();
+			}
+
+		} finally {
+			sink.release();
+		}
+
+	}
+
+}
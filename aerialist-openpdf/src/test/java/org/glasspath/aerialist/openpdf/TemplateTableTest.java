@@ -0,0 +1,192 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.openpdf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.glasspath.aerialist.ColStyle;
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.HeightPolicy;
+import org.glasspath.aerialist.Page;
+import org.glasspath.aerialist.Table;
+import org.glasspath.aerialist.TableCell;
+import org.glasspath.aerialist.TextStyle;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
+import org.glasspath.aerialist.layout.IElementLayoutMetrics;
+import org.glasspath.aerialist.layout.RenderHandle;
+import org.glasspath.aerialist.template.RenderResult;
+import org.glasspath.aerialist.template.RenderStatus;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+import org.glasspath.aerialist.writer.sink.PooledBufferSink;
+import org.junit.Test;
+
+import com.lowagie.text.Image;
+import com.lowagie.text.pdf.BaseFont;
+import com.lowagie.text.pdf.PdfReader;
+
+@SuppressWarnings("nls")
+public class TemplateTableTest {
+
+	private static final int COLS = 3;
+	private static final int ROWS = 150;
+	private static final int TABLE_WIDTH = 555;
+
+	// A table with a header row and a template row, every cell of the template row refers to a list field
+	static Document createTemplate() {
+
+		Table table = new Table();
+		table.setX(20);
+		table.setY(100);
+		table.setWidth(TABLE_WIDTH);
+		table.setHeight(40);
+		table.setHeightPolicy(HeightPolicy.AUTO.stringValue);
+
+		for (int col = 1; col <= COLS; col++) {
+
+			ColStyle colStyle = new ColStyle();
+			colStyle.col = col;
+			colStyle.width = TABLE_WIDTH / COLS;
+			table.getColStyles().add(colStyle);
+
+			table.getTableCells().add(createTableCell(1, col, "Column " + col, null));
+			table.getTableCells().add(createTableCell(2, col, "${col" + col + "}", "t:col" + col));
+
+		}
+
+		Page page = new Page(Page.PageSize.A4);
+		page.getElements().add(table);
+
+		Document document = new Document();
+		document.getPages().add(page);
+
+		return document;
+
+	}
+
+	private static TableCell createTableCell(int row, int col, String text, String source) {
+
+		TableCell tableCell = new TableCell();
+		tableCell.setRow(row);
+		tableCell.setCol(col);
+		tableCell.setText(text);
+
+		TextStyle style = new TextStyle();
+		style.start = 0;
+		style.end = text.length();
+		style.source = source;
+		tableCell.getStyles().add(style);
+
+		return tableCell;
+
+	}
+
+	private static String createCellText(int row, int col) {
+		// Some cells wrap so rows have different heights
+		return (row + col) % 4 == 0 ? "Row " + row + " column " + col + " with a text that is long enough to wrap to a second line" : "Row " + row + " column " + col;
+	}
+
+	static TemplateFieldContext createFieldContext(int rows) {
+
+		TemplateFieldContext fieldContext = new TemplateFieldContext();
+
+		for (int col = 1; col <= COLS; col++) {
+			List<String> values = new ArrayList<>();
+			for (int row = 0; row < rows; row++) {
+				values.add(createCellText(row, col));
+			}
+			fieldContext.put("col" + col, values);
+		}
+
+		return fieldContext;
+
+	}
+
+	static TemplateDocumentLoader createDocumentLoader(OpenPdfFontCache fontCache, OpenPdfMediaCache mediaCache) {
+
+		final DefaultLayoutContext<BaseFont, Image> layoutContext = new DefaultLayoutContext<>(fontCache, mediaCache);
+
+		return new TemplateDocumentLoader(null, layoutContext) {
+
+			@Override
+			protected IElementLayoutMetrics createLayoutMetrics() {
+				return new DefaultLayoutMetrics(layoutContext);
+			}
+		};
+
+	}
+
+	@Test
+	public void expandedListTableIsSplitAndWritten() throws Exception {
+
+		OpenPdfFontCache fontCache = new OpenPdfFontCache();
+		OpenPdfMediaCache mediaCache = new OpenPdfMediaCache();
+		TemplateDocumentLoader documentLoader = createDocumentLoader(fontCache, mediaCache);
+
+		PooledBufferSink sink = DocumentSink.toPooledBuffer();
+		documentLoader.setDocumentWriter(new OpenPdfDocumentWriter(sink, fontCache, mediaCache));
+
+		try {
+
+			RenderResult result = documentLoader.loadDocument(createTemplate(), createFieldContext(ROWS), new RenderHandle());
+			assertEquals(result.getMessage(), RenderStatus.SUCCEEDED, result.getStatus());
+
+			int pages = result.getDocumentLayoutInfo().pages.size();
+			assertTrue("table is not split, pages: " + pages, pages > 1);
+
+			// Every page holds a part of the table, the cells of each part are in row order
+			int cells = 0;
+			for (PageLayoutInfo pageLayoutInfo : result.getDocumentLayoutInfo().pages) {
+				Table table = (Table) pageLayoutInfo.page.getElements().get(0);
+				TableCell previous = null;
+				for (TableCell tableCell : table.getTableCells()) {
+					if (previous != null) {
+						assertTrue(previous.getRow() < tableCell.getRow() || (previous.getRow() == tableCell.getRow() && previous.getCol() < tableCell.getCol()));
+					}
+					previous = tableCell;
+				}
+				cells += table.getTableCells().size();
+			}
+			assertTrue(cells >= (ROWS + 1) * COLS);
+
+			PdfReader reader = new PdfReader(sink.toByteArray());
+			try {
+				assertEquals(pages, reader.getNumberOfPages());
+			} finally {
+				reader.close();
+			}
+
+		} finally {
+			sink.release();
+		}
+
+	}
+
+}
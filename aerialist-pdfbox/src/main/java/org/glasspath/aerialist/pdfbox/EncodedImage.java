@@ -0,0 +1,200 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.pdfbox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+// Holds the final (encoded) stream data of an image XObject, including the streams it refers to (SMask,
+// ICC profile, indexed color table), without being bound to a document. JPEG data is passed through
+// as DCTDecode, PNG data is stored as FlateDecode with predictor, so the image only has to be encoded
+// once and can be added to any number of documents by copying the stream data
+public class EncodedImage {
+
+	private final EncodedStream stream;
+	private final int width;
+	private final int height;
+
+	private EncodedImage(EncodedStream stream, int width, int height) {
+		this.stream = stream;
+		this.width = width;
+		this.height = height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public PDImageXObject createImage(PDDocument document) throws IOException {
+		return new PDImageXObject(new PDStream(stream.restore(document)), null);
+	}
+
+	public static EncodedImage create(String key, byte[] bytes) throws IOException {
+
+		try (PDDocument document = new PDDocument()) {
+
+			PDImageXObject image = PDImageXObject.createFromByteArray(document, bytes, key);
+
+			return new EncodedImage(EncodedStream.capture(image.getCOSObject()), image.getWidth(), image.getHeight());
+
+		}
+
+	}
+
+	private static Object capture(COSBase base) throws IOException {
+
+		if (base instanceof COSObject) {
+			base = ((COSObject) base).getObject();
+		}
+
+		if (base instanceof COSStream) {
+			return EncodedStream.capture((COSStream) base);
+		} else if (base instanceof COSDictionary) {
+			return captureDictionary((COSDictionary) base);
+		} else if (base instanceof COSArray) {
+
+			List<Object> values = new ArrayList<>();
+			for (COSBase value : (COSArray) base) {
+				values.add(capture(value));
+			}
+
+			return values;
+
+		} else if (base instanceof COSString) {
+			return ((COSString) base).getBytes().clone();
+		} else {
+			// Names, numbers, booleans and null are not modified and can be shared between documents
+			return base;
+		}
+
+	}
+
+	private static Map<COSName, Object> captureDictionary(COSDictionary dictionary) throws IOException {
+
+		Map<COSName, Object> entries = new LinkedHashMap<>();
+		for (Entry<COSName, COSBase> entry : dictionary.entrySet()) {
+			if (!COSName.LENGTH.equals(entry.getKey())) {
+				entries.put(entry.getKey(), capture(entry.getValue()));
+			}
+		}
+
+		return entries;
+
+	}
+
+	@SuppressWarnings("unchecked")
+	private static COSBase restore(Object value, PDDocument document) throws IOException {
+
+		if (value instanceof EncodedStream) {
+			return ((EncodedStream) value).restore(document);
+		} else if (value instanceof Map) {
+
+			COSDictionary dictionary = new COSDictionary();
+			restoreDictionary(dictionary, (Map<COSName, Object>) value, document);
+
+			return dictionary;
+
+		} else if (value instanceof List) {
+
+			COSArray array = new COSArray();
+			for (Object item : (List<Object>) value) {
+				array.add(restore(item, document));
+			}
+
+			return array;
+
+		} else if (value instanceof byte[]) {
+			return new COSString((byte[]) value);
+		} else {
+			return (COSBase) value;
+		}
+
+	}
+
+	private static void restoreDictionary(COSDictionary dictionary, Map<COSName, Object> entries, PDDocument document) throws IOException {
+		for (Entry<COSName, Object> entry : entries.entrySet()) {
+			dictionary.setItem(entry.getKey(), restore(entry.getValue(), document));
+		}
+	}
+
+	private static class EncodedStream {
+
+		private final byte[] bytes;
+		private final Map<COSName, Object> entries;
+
+		private EncodedStream(byte[] bytes, Map<COSName, Object> entries) {
+			this.bytes = bytes;
+			this.entries = entries;
+		}
+
+		private static EncodedStream capture(COSStream stream) throws IOException {
+
+			byte[] bytes;
+			try (InputStream inputStream = stream.createRawInputStream()) {
+				bytes = IOUtils.toByteArray(inputStream);
+			}
+
+			return new EncodedStream(bytes, captureDictionary(stream));
+
+		}
+
+		private COSStream restore(PDDocument document) throws IOException {
+
+			COSStream stream = document.getDocument().createCOSStream();
+
+			// The raw output stream doesn't touch the filter, the stream data is copied as is
+			try (OutputStream outputStream = stream.createRawOutputStream()) {
+				outputStream.write(bytes);
+			}
+
+			restoreDictionary(stream, entries, document);
+
+			return stream;
+
+		}
+
+	}
+
+}
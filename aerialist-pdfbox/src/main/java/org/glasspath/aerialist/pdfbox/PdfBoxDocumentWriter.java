@@ -23,41 +23,121 @@
 package org.glasspath.aerialist.pdfbox;
 
 import java.io.File;
-
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdfwriter.compress.CompressParameters;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.PDResources;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDFont;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
 import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.pdmodel.interactive.annotation.PDAppearanceStream;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDPageFitWidthDestination;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDDocumentOutline;
+import org.apache.pdfbox.pdmodel.interactive.documentnavigation.outline.PDOutlineItem;
 import org.apache.pdfbox.util.Matrix;
+import org.glasspath.aerialist.layout.DocumentLayoutInfo.PageLayoutInfo;
+import org.glasspath.aerialist.media.MediaCache;
 import org.glasspath.aerialist.text.font.FontCache;
 import org.glasspath.aerialist.text.font.FontWeight;
 import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.compress.CompressionMode;
+import org.glasspath.aerialist.writer.compress.StreamCompressor;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
 
 public class PdfBoxDocumentWriter extends DocumentWriter {
 
 	private final PdfBoxFontCache fontCache;
 	private final PdfBoxMediaCache mediaCache;
 	private PDDocument document = null;
+	private PdfBoxFontCache.DocumentFonts documentFonts = null;
 	private boolean documentOpen = false;
 	private PDPage page = null;
 	private PDPageContentStream cs = null;
 	private int pageHeight = 0;
+	private StreamCompressor streamCompressor = StreamCompressor.getDefault();
+	private final List<PendingStream> pendingStreams = new ArrayList<>();
+	private final SharedPages<PDFormXObject> sharedForms = new SharedPages<PDFormXObject>() {
+
+		@Override
+		protected PDFormXObject createForm(PageLayoutInfo pageLayoutInfo, float width, float height) throws Exception {
+
+			PDFormXObject form = new PDFormXObject(document);
+			form.setBBox(new PDRectangle(width, height));
+			form.setResources(new PDResources());
+
+			// PDFormContentStream has no public type in common with PDPageContentStream (PDAbstractContentStream is package
+			// private), so the content stream of the form is written through a PDAppearanceStream view of the same stream
+			PDPageContentStream pageContentStream = cs;
+			cs = new PDPageContentStream(document, new PDAppearanceStream(form.getCOSObject()));
+			try {
+				writePage(pageLayoutInfo);
+			} finally {
+				cs.close();
+				cs = pageContentStream;
+			}
+
+			// The content of a shared page is often the same in every document (a letterhead for example), it's only
+			// deflated once
+			compressStream(form.getCOSObject(), true);
+
+			return form;
+
+		}
+
+		@Override
+		protected void drawForm(PDFormXObject form) throws Exception {
+			cs.drawForm(form);
+		}
+	};
 
 	public PdfBoxDocumentWriter(File file, PdfBoxFontCache fontCache, PdfBoxMediaCache mediaCache) {
-		super(file);
+		this(DocumentSink.toFile(file), fontCache, mediaCache);
+	}
+
+	public PdfBoxDocumentWriter(DocumentSink sink, PdfBoxFontCache fontCache, PdfBoxMediaCache mediaCache) {
+		super(sink);
 
 		this.fontCache = fontCache;
 		this.mediaCache = mediaCache;
 
 	}
 
+	public StreamCompressor getStreamCompressor() {
+		return streamCompressor;
+	}
+
+	public void setStreamCompressor(StreamCompressor streamCompressor) {
+		this.streamCompressor = streamCompressor;
+	}
+
+	@Override
+	protected MediaCache<?> getMediaCache() {
+		return mediaCache;
+	}
+
 	@Override
 	protected void openDocument(int width, int height) throws Exception {
 
 		document = new PDDocument();
+		sharedForms.clear();
+		documentFonts = fontCache.createDocumentFonts(document);
 		mediaCache.setDocument(document);
 
 		documentOpen = true;
@@ -79,7 +159,43 @@ public class PdfBoxDocumentWriter extends DocumentWriter {
 			page = new PDPage(new PDRectangle(width, height));
 			document.addPage(page);
 
-			cs = new PDPageContentStream(document, page);
+			// Content streams are written uncompressed and deflated on the worker pool of the stream compressor when the page is closed
+			cs = new PDPageContentStream(document, page, AppendMode.OVERWRITE, false);
+
+		}
+
+	}
+
+	@Override
+	public void writeSharedPage(PageLayoutInfo pageLayoutInfo, String key) throws Exception {
+
+		if (page == null) {
+			writePage(pageLayoutInfo);
+		} else {
+			sharedForms.write(pageLayoutInfo, key, page.getMediaBox().getWidth(), page.getMediaBox().getHeight());
+		}
+
+	}
+
+	@Override
+	public void addBookmark(String title) throws Exception {
+
+		if (document != null && page != null) {
+
+			PDDocumentOutline outline = document.getDocumentCatalog().getDocumentOutline();
+			if (outline == null) {
+				outline = new PDDocumentOutline();
+				document.getDocumentCatalog().setDocumentOutline(outline);
+			}
+
+			PDPageFitWidthDestination destination = new PDPageFitWidthDestination();
+			destination.setPage(page);
+			destination.setTop((int) page.getMediaBox().getHeight());
+
+			PDOutlineItem item = new PDOutlineItem();
+			item.setTitle(title);
+			item.setDestination(destination);
+			outline.addLast(item);
 
 		}
 
@@ -160,6 +276,18 @@ public class PdfBoxDocumentWriter extends DocumentWriter {
 
 	}
 
+	@Override
+	protected void fillRects(float x, float y, float scale, int[] rects) throws Exception {
+
+		for (int i = 0; i + 3 < rects.length; i += 4) {
+			float h = rects[i + 3] * scale;
+			cs.addRect(x + rects[i] * scale, pageHeight - (y + rects[i + 1] * scale) - h, rects[i + 2] * scale, h);
+		}
+
+		cs.fill();
+
+	}
+
 	@Override
 	protected void draw(float x, float y, float w, float h) throws Exception {
 
@@ -216,7 +344,10 @@ public class PdfBoxDocumentWriter extends DocumentWriter {
 			FontCache<PDFont>.CachedFont cachedFont = fontCache.getFont(fontIndex);
 			if (cachedFont != null && cachedFont.fontFile != null) {
 
-				font = cachedFont.fontFile.font;
+				// The font of the cache measures text, the written document gets its own copy
+				if (cachedFont.fontFile.font != null) {
+					font = documentFonts.getFont(cachedFont.fontFile);
+				}
 
 				// Check if italic needs to be simulated (the FontFile class tells us if the loaded font is italic or not)
 				if (italic && !cachedFont.fontFile.italic) {
@@ -257,8 +388,65 @@ public class PdfBoxDocumentWriter extends DocumentWriter {
 	@Override
 	public void closePage() throws Exception {
 		if (cs != null) {
+
 			cs.close();
+			cs = null;
+
+			compressPageContents(page);
+			applyCompressedStreams(false);
+
+		}
+	}
+
+	protected void compressPageContents(PDPage page) throws Exception {
+
+		COSBase contents = page.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+		if (contents instanceof COSStream) {
+			compressStream((COSStream) contents, false);
 		}
+
+	}
+
+	// Deflates an uncompressed stream on the worker pool of the stream compressor, shared streams are cached by the
+	// compressor (see StreamCompressor.deflateShared())
+	protected void compressStream(COSStream stream, boolean shared) throws Exception {
+
+		byte[] bytes;
+		try (InputStream inputStream = stream.createRawInputStream()) {
+			bytes = IOUtils.toByteArray(inputStream);
+		}
+
+		if (shared) {
+			pendingStreams.add(new PendingStream(stream, streamCompressor.deflateShared(bytes, compressionMode), true));
+		} else {
+			pendingStreams.add(new PendingStream(stream, streamCompressor.deflate(bytes, compressionMode), false));
+		}
+
+	}
+
+	protected void applyCompressedStreams(boolean wait) throws Exception {
+
+		Iterator<PendingStream> iterator = pendingStreams.iterator();
+		while (iterator.hasNext()) {
+
+			PendingStream pendingStream = iterator.next();
+			if (wait || pendingStream.future.isDone()) {
+
+				// Replace the uncompressed content with the deflated bytes, this releases the uncompressed bytes early
+				byte[] bytes = StreamCompressor.get(pendingStream.future);
+				try (OutputStream outputStream = pendingStream.stream.createRawOutputStream()) {
+					outputStream.write(bytes);
+				}
+				pendingStream.stream.setItem(COSName.FILTER, COSName.FLATE_DECODE);
+
+				iterator.remove();
+
+			} else {
+				break;
+			}
+
+		}
+
 	}
 
 	@Override
@@ -270,11 +458,79 @@ public class PdfBoxDocumentWriter extends DocumentWriter {
 
 			mediaCache.setDocument(null);
 
-			document.save(file);
-			document.close();
+			applyCompressedStreams(true);
+
+			// PDFBox doesn't write dates and creates deterministic subset tags, only the id is time based
+			if (deterministic) {
+				byte[] fileId = getDeterministicFileId();
+				COSArray idArray = new COSArray();
+				idArray.add(new COSString(fileId));
+				idArray.add(new COSString(fileId));
+				document.getDocument().getTrailer().setItem(COSName.ID, idArray);
+			}
+
+			// TODO: Font programs are subset and deflated by PDFBox in document.save() on this thread, PDDocument keeps the
+			// fonts to subset private so they can't be subset and deflated on the worker pool of the stream compressor yet
+
+			// Object streams make the output smaller but writing slower
+			CompressParameters compressParameters = compressionMode == CompressionMode.FASTEST ? CompressParameters.NO_COMPRESSION : CompressParameters.DEFAULT_COMPRESSION;
+
+			OutputStream outputStream = sink.open();
+			try {
+				document.save(outputStream, compressParameters);
+			} finally {
+				outputStream.close();
+				document.close();
+			}
 
 			document = null;
+			documentFonts = null;
+
+		}
+
+	}
+
+	@Override
+	protected void discardDocument() throws Exception {
+
+		if (documentOpen) {
+
+			documentOpen = false;
+
+			mediaCache.setDocument(null);
+
+			// Shared streams are not cancelled, other documents can wait for them
+			for (PendingStream pendingStream : pendingStreams) {
+				if (!pendingStream.shared) {
+					pendingStream.future.cancel(false);
+				}
+			}
+			pendingStreams.clear();
+
+			// The document is closed without saving it
+			cs = null;
+			sharedForms.clear();
+			try {
+				document.close();
+			} finally {
+				document = null;
+				documentFonts = null;
+			}
+
+		}
+
+	}
+
+	private static class PendingStream {
+
+		private final COSStream stream;
+		private final Future<byte[]> future;
+		private final boolean shared;
 
+		private PendingStream(COSStream stream, Future<byte[]> future, boolean shared) {
+			this.stream = stream;
+			this.future = future;
+			this.shared = shared;
 		}
 
 	}
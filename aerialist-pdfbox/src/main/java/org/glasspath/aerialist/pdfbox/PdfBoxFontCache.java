@@ -22,30 +22,204 @@
  */
 package org.glasspath.aerialist.pdfbox;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.glasspath.aerialist.text.TextUtils.SpanInfo;
 import org.glasspath.aerialist.text.font.FontCache;
 import org.glasspath.aerialist.text.font.FontWeight;
 
-public class PdfBoxFontCache extends FontCache<PDFont> {
+// The cache can be shared by concurrent layouts and writers. Font files are read once per process, but the parsed
+// font programs (TrueTypeFont) are not thread safe so they are never shared: the fonts that measure text belong to a
+// document of the cache and are locked while they are used, every written document gets its own fonts (see
+// createDocumentFonts()) which are parsed from the shared bytes
+public class PdfBoxFontCache extends FontCache<PDFont> implements Closeable {
+
+	private static final Map<String, byte[]> FONT_BYTES = new ConcurrentHashMap<>();
+
+	private PDDocument measureDocument = null;
 
 	public PdfBoxFontCache() {
 
 	}
 
+	// The fonts of a document are created when they are used for the first time, they are closed with the document
+	public DocumentFonts createDocumentFonts(PDDocument document) {
+		return new DocumentFonts(document);
+	}
+
 	@Override
 	protected PDFont createDefaultFont(FontWeight weight, boolean italic) {
-		return null;
+
+		if (weight.isBoldWeight() && italic) {
+			return PDType1Font.HELVETICA_BOLD_OBLIQUE;
+		} else if (weight.isBoldWeight()) {
+			return PDType1Font.HELVETICA_BOLD;
+		} else if (italic) {
+			return PDType1Font.HELVETICA_OBLIQUE;
+		} else {
+			return PDType1Font.HELVETICA;
+		}
+
 	}
 
+	// Called by FontCache.addFont() which is synchronized
 	@Override
 	protected void loadFontFile(FontFile fontFile) {
 
+		try {
+
+			if (measureDocument == null) {
+				measureDocument = new PDDocument();
+			}
+
+			fontFile.font = loadFont(measureDocument, fontFile.file);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+	}
+
+	private static PDFont loadFont(PDDocument document, File file) throws IOException {
+		return PDType0Font.load(document, new ByteArrayInputStream(getFontBytes(file)), true);
+	}
+
+	private static byte[] getFontBytes(File file) throws IOException {
+
+		String path = file.getAbsolutePath();
+
+		byte[] bytes = FONT_BYTES.get(path);
+		if (bytes == null) {
+			bytes = Files.readAllBytes(file.toPath());
+			FONT_BYTES.put(path, bytes);
+		}
+
+		return bytes;
+
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (measureDocument != null) {
+			measureDocument.close();
+			measureDocument = null;
+		}
 	}
 
 	@Override
 	public SpanInfo getSpanInfo(String text, String fontName, float fontSize, FontWeight weight, boolean italic) {
-		return null;
+
+		SpanInfo spanInfo = new SpanInfo();
+
+		PDFont font = null;
+
+		spanInfo.fontIndex = getFontIndex(fontName, weight, italic);
+		if (spanInfo.fontIndex >= 0) {
+
+			FontCache<PDFont>.CachedFont cachedFont = getFont(spanInfo.fontIndex);
+			if (cachedFont != null && cachedFont.fontFile != null) {
+				font = cachedFont.fontFile.font;
+			}
+
+		}
+
+		if (font == null) {
+			font = createDefaultFont(weight, italic);
+		}
+
+		if (font != null) {
+
+			// Layout threads measure with the same font, the font program reads its tables lazily
+			synchronized (font) {
+
+				spanInfo.width = getStringWidth(font, text) / 1000.0F * fontSize;
+
+				PDFontDescriptor fontDescriptor = font.getFontDescriptor();
+				if (fontDescriptor != null) {
+					spanInfo.ascent = fontDescriptor.getAscent() / 1000.0F * fontSize;
+					spanInfo.descent = -fontDescriptor.getDescent() / 1000.0F * fontSize;
+				}
+
+			}
+
+		}
+
+		return spanInfo;
+
+	}
+
+	private static float getStringWidth(PDFont font, String text) {
+
+		try {
+			return font.getStringWidth(text);
+		} catch (Exception e) {
+
+			// The font can't encode all characters, measure the characters that it can encode
+			float width = 0.0F;
+
+			for (int i = 0; i < text.length();) {
+
+				int codePoint = text.codePointAt(i);
+				int length = Character.charCount(codePoint);
+
+				try {
+					width += font.getStringWidth(text.substring(i, i + length));
+				} catch (Exception e2) {
+
+				}
+
+				i += length;
+
+			}
+
+			return width;
+
+		}
+
+	}
+
+	// Fonts of one document, used by one writer
+	public static class DocumentFonts {
+
+		private final PDDocument document;
+		private final Map<File, PDFont> fonts = new HashMap<>();
+
+		private DocumentFonts(PDDocument document) {
+			this.document = document;
+		}
+
+		// Returns null if the font file can't be loaded
+		public PDFont getFont(FontCache<PDFont>.FontFile fontFile) {
+
+			if (fonts.containsKey(fontFile.file)) {
+				return fonts.get(fontFile.file);
+			}
+
+			PDFont font = null;
+			try {
+				font = loadFont(document, fontFile.file);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			fonts.put(fontFile.file, font);
+
+			return font;
+
+		}
+
 	}
 
 }
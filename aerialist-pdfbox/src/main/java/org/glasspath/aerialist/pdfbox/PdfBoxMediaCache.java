@@ -22,12 +22,33 @@
  */
 package org.glasspath.aerialist.pdfbox;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.glasspath.aerialist.media.MediaCache;
 
 public class PdfBoxMediaCache extends MediaCache<PDImageXObject> {
 
+	public static final int MAX_SHARED_IMAGES = 256;
+
+	// Encoded images are shared by all caches in the process (keyed by content hash), so images that
+	// are used in many documents (a letterhead for example) are only decoded and encoded once
+	private static final Map<String, EncodedImage> SHARED_IMAGES = new LinkedHashMap<String, EncodedImage>(16, 0.75F, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Entry<String, EncodedImage> eldest) {
+			return size() > MAX_SHARED_IMAGES;
+		}
+	};
+
+	private final Map<String, EncodedImage> encodedImages = new HashMap<>();
+	private final Map<String, PDImageXObject> documentImages = new HashMap<>();
 	private PDDocument document = null;
 
 	public PdfBoxMediaCache() {
@@ -38,35 +59,90 @@ public class PdfBoxMediaCache extends MediaCache<PDImageXObject> {
 		return document;
 	}
 
-	public void setDocument(PDDocument document) {
-		this.document = document;
+	public synchronized void setDocument(PDDocument document) {
+		if (document != this.document) {
+			this.document = document;
+			documentImages.clear();
+		}
 	}
 
 	@Override
 	protected PDImageXObject readImage(String key, byte[] bytes) {
 
-		if (document != null) {
+		try {
+
+			String contentHash = getImageResource(key).getContentHash();
 
-			try {
-				return PDImageXObject.createFromByteArray(document, bytes, key);
-			} catch (Exception e) {
-				e.printStackTrace();
+			EncodedImage encodedImage;
+			synchronized (SHARED_IMAGES) {
+				encodedImage = SHARED_IMAGES.get(contentHash);
 			}
 
+			if (encodedImage == null) {
+
+				encodedImage = EncodedImage.create(key, bytes);
+
+				synchronized (SHARED_IMAGES) {
+					SHARED_IMAGES.put(contentHash, encodedImage);
+				}
+
+			}
+
+			synchronized (this) {
+				encodedImages.put(key, encodedImage);
+				documentImages.remove(key);
+			}
+
+			return getCachedImage(key);
+
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
 
 		return null;
 
 	}
 
+	// Images are added to the current document when they are used for the first time, the encoded
+	// stream data is copied so nothing is decoded or encoded again
 	@Override
-	public ImageSize getImageSize(String key) {
-		PDImageXObject image = getImage(key);
-		if (image != null) {
-			return new ImageSize(image.getWidth(), image.getHeight());
+	protected synchronized PDImageXObject getCachedImage(String key) {
+
+		PDImageXObject image = documentImages.get(key);
+		if (image == null && document != null) {
+
+			EncodedImage encodedImage = encodedImages.get(key);
+			if (encodedImage != null) {
+
+				try {
+					image = encodedImage.createImage(document);
+					documentImages.put(key, image);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+
+			}
+
+		}
+
+		return image;
+
+	}
+
+	@Override
+	public synchronized ImageSize getImageSize(String key) {
+		EncodedImage encodedImage = encodedImages.get(key);
+		if (encodedImage != null) {
+			return new ImageSize(encodedImage.getWidth(), encodedImage.getHeight());
 		} else {
 			return null;
 		}
 	}
 
+	public static void clearSharedImages() {
+		synchronized (SHARED_IMAGES) {
+			SHARED_IMAGES.clear();
+		}
+	}
+
 }
@@ -0,0 +1,198 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.server;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.IFieldContext;
+import org.glasspath.aerialist.layout.DefaultLayoutContext;
+import org.glasspath.aerialist.layout.DefaultLayoutMetrics;
+import org.glasspath.aerialist.layout.IElementLayoutMetrics;
+import org.glasspath.aerialist.metrics.RenderMetrics;
+import org.glasspath.aerialist.openpdf.OpenPdfDocumentWriter;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.scheduler.JobPriority;
+import org.glasspath.aerialist.scheduler.MemoryGovernor;
+import org.glasspath.aerialist.scheduler.RenderJob;
+import org.glasspath.aerialist.scheduler.RenderScheduler;
+import org.glasspath.aerialist.server.TemplateCache.CachedTemplate;
+import org.glasspath.aerialist.template.TemplateDocumentLoader;
+import org.glasspath.aerialist.writer.XDocWriter;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+import org.glasspath.aerialist.writer.sink.PooledBufferSink;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+import com.lowagie.text.Image;
+import com.lowagie.text.pdf.BaseFont;
+
+// Renders the requests of the server with a render scheduler, so requests are taken by priority and the tenants take
+// turns (see RenderScheduler). Every priority has a queue of the given capacity, a request is rejected when the queue
+// of its priority is full. The template is the batch key of a request: when requests wait for a worker, a worker that
+// finished a request takes the next waiting request for the same template (up to the max batch size). A worker keeps
+// the layout context and document loader of the last template it rendered, so the requests of a batch reuse them
+@SuppressWarnings("nls")
+public class RenderQueue {
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 16;
+
+	private final OpenPdfFontCache fontCache;
+	private final RenderMetrics renderMetrics;
+	private final RenderScheduler scheduler;
+	private final XmlMapper xmlMapper;
+	private final ThreadLocal<TemplateLoader> workerLoaders = new ThreadLocal<>();
+	private final AtomicLong loaderReuses = new AtomicLong();
+
+	public RenderQueue(OpenPdfFontCache fontCache, RenderMetrics renderMetrics, int workerCount, int layoutThreadCount, int capacity, int maxBatchSize) {
+
+		this.fontCache = fontCache;
+		this.renderMetrics = renderMetrics;
+
+		scheduler = new RenderScheduler(new RenderScheduler.LoaderFactory() {
+
+			@Override
+			public TemplateDocumentLoader createDocumentLoader(RenderJob job) {
+				return getDocumentLoader(((RenderRequest) job).getTemplate());
+			}
+		}, workerCount, layoutThreadCount);
+
+		for (JobPriority priority : JobPriority.values()) {
+			scheduler.setQueueCapacity(priority, capacity);
+		}
+		scheduler.setMaxBatchSize(maxBatchSize);
+
+		// Only used to read the documents of the templates, which is thread safe
+		xmlMapper = XDocWriter.createXmlMapper();
+		xmlMapper.disable(SerializationFeature.INDENT_OUTPUT);
+
+	}
+
+	public RenderScheduler getScheduler() {
+		return scheduler;
+	}
+
+	public MemoryGovernor getMemoryGovernor() {
+		return scheduler.getMemoryGovernor();
+	}
+
+	public void setMemoryGovernor(MemoryGovernor memoryGovernor) {
+		scheduler.setMemoryGovernor(memoryGovernor, null);
+	}
+
+	// The deadline (in milliseconds, 0 means no deadline) starts when the request is created, time in the queue is included
+	public RenderRequest createRequest(String tenant, JobPriority priority, CachedTemplate template, IFieldContext fieldContext, String cacheKey, long timeout) throws IOException {
+
+		// Every request gets its own copy of the template, parsing replaces the template fields
+		Document document = template.createDocument(xmlMapper);
+
+		PooledBufferSink sink = DocumentSink.toPooledBuffer();
+
+		OpenPdfDocumentWriter documentWriter = new OpenPdfDocumentWriter(sink, fontCache, template.getMediaCache());
+		if (cacheKey != null) {
+			documentWriter.setDeterministic(true);
+			documentWriter.setDeterministicId(cacheKey);
+		}
+
+		return new RenderRequest(tenant, priority, template, document, fieldContext, cacheKey, documentWriter, sink, timeout);
+
+	}
+
+	// Throws a RejectedExecutionException if the request can never fit in the memory budget
+	public void checkMemoryBudget(RenderRequest request) {
+		scheduler.checkMemoryBudget(request);
+	}
+
+	// Returns false if the queue of the request priority is full, a RejectedExecutionException is thrown if the queue is
+	// shut down or the request exceeds the memory budget
+	public boolean submit(RenderRequest request) {
+		return scheduler.offer(request);
+	}
+
+	public void cancel(RenderRequest request) {
+		scheduler.cancel(request);
+	}
+
+	public long getLoaderReuses() {
+		return loaderReuses.get();
+	}
+
+	// Waiting requests are still rendered until the timeout passes, after that they are cancelled
+	public void shutdown(long timeout, TimeUnit unit) {
+
+		scheduler.shutdown();
+
+		try {
+			if (!scheduler.awaitTermination(timeout, unit)) {
+				scheduler.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			scheduler.shutdownNow();
+		}
+
+	}
+
+	// Called on the worker thread
+	private TemplateDocumentLoader getDocumentLoader(CachedTemplate template) {
+
+		TemplateLoader templateLoader = workerLoaders.get();
+		if (templateLoader != null && templateLoader.template == template) {
+			loaderReuses.incrementAndGet();
+		} else {
+			templateLoader = new TemplateLoader(template);
+			workerLoaders.set(templateLoader);
+		}
+
+		return templateLoader.documentLoader;
+
+	}
+
+	private class TemplateLoader {
+
+		private final CachedTemplate template;
+		private final TemplateDocumentLoader documentLoader;
+
+		private TemplateLoader(CachedTemplate template) {
+
+			this.template = template;
+
+			final DefaultLayoutContext<BaseFont, Image> layoutContext = new DefaultLayoutContext<>(fontCache, template.getMediaCache());
+
+			documentLoader = new TemplateDocumentLoader(null, layoutContext) {
+
+				@Override
+				protected IElementLayoutMetrics createLayoutMetrics() {
+					return new DefaultLayoutMetrics(layoutContext);
+				}
+			};
+			documentLoader.setRenderMetrics(renderMetrics);
+
+		}
+
+	}
+
+}
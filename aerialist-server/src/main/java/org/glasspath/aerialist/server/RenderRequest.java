@@ -0,0 +1,63 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.server;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.IFieldContext;
+import org.glasspath.aerialist.scheduler.JobPriority;
+import org.glasspath.aerialist.scheduler.RenderJob;
+import org.glasspath.aerialist.server.TemplateCache.CachedTemplate;
+import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.sink.PooledBufferSink;
+
+// A render job for a cached template that writes the document to pooled buffers, created by RenderQueue
+public class RenderRequest extends RenderJob {
+
+	private final CachedTemplate template;
+	private final String cacheKey;
+	private final PooledBufferSink sink;
+
+	RenderRequest(String tenant, JobPriority priority, CachedTemplate template, Document document, IFieldContext fieldContext, String cacheKey, DocumentWriter documentWriter, PooledBufferSink sink, long timeout) {
+		super(tenant, priority, document, fieldContext, documentWriter, timeout);
+		this.template = template;
+		this.cacheKey = cacheKey;
+		this.sink = sink;
+		setMediaCache(template.getMediaCache());
+		setBatchKey(template);
+	}
+
+	public CachedTemplate getTemplate() {
+		return template;
+	}
+
+	// Requests with a cache key are written in deterministic mode so the result can be cached
+	public String getCacheKey() {
+		return cacheKey;
+	}
+
+	// The rendered document if the request succeeded, the buffers must be released by the caller
+	public PooledBufferSink getSink() {
+		return sink;
+	}
+
+}
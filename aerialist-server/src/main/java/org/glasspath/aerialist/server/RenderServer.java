@@ -0,0 +1,787 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.server;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.glasspath.aerialist.cache.RenderCacheKey;
+import org.glasspath.aerialist.cache.RenderResultCache;
+import org.glasspath.aerialist.metrics.Histogram;
+import org.glasspath.aerialist.metrics.MetricsRegistry;
+import org.glasspath.aerialist.metrics.PrometheusExporter;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.scheduler.JobPriority;
+import org.glasspath.aerialist.scheduler.MemoryGovernor;
+import org.glasspath.aerialist.server.TemplateCache.CachedTemplate;
+import org.glasspath.aerialist.template.RenderResult;
+import org.glasspath.aerialist.template.RenderStatus;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.glasspath.aerialist.writer.sink.PooledBufferSink;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+// Local render service, only uses the http server of the JDK:
+//   POST /render            {"template": "<id>", "fields": {..}} returns the PDF, fields are converted like the data of
+//                           the batch renderer (see TemplateFieldContext.fromJson()). Optional "priority" (interactive,
+//                           normal or bulk) and "tenant", requests are scheduled by priority and the tenants take turns
+//                           (see RenderScheduler)
+//   PUT /templates/<id>     uploads a template (.gpdx), DELETE /templates/<id> removes it from the cache
+//   GET /metrics            render and server metrics in the Prometheus text format
+//   GET /health             returns ok
+//
+// A full queue is answered with 503 (and Retry-After), a request that exceeds the memory budget or a request body
+// that exceeds the maximum size with 413 and a passed deadline with 504
+//
+// With a result cache documents are written in deterministic mode and stored by the hash of the template and fields,
+// a request for a cached document is answered from the cache without parsing, layout or writing
+//
+// Usage: java -jar render-server.jar [options]
+//   -host <address>          address to listen on (127.0.0.1)
+//   -port <n>                port, 0 picks a free port (8080)
+//   -templates <dir>         templates that are loaded on the first request for <id>.gpdx
+//   -fonts <dir>             fonts directory
+//   -threads <n>             render workers, by default the number of processors
+//   -layout-threads <n>      threads that lay out pages for all workers, by default the number of processors
+//   -queue <n>               requests of every priority that can wait for a worker (64)
+//   -batch <n>               waiting requests for the same template that a worker renders in a row (16)
+//   -timeout <ms>            deadline of every request including the time in the queue, 0 disables it (30000)
+//   -cache <dir>             directory of the result cache, disabled by default
+//   -cache-size <MB>         size of the result cache (256)
+//   -memory <MB>             memory budget of the requests that are rendered at the same time, 0 disables it (half of
+//                            the maximum heap size)
+//   -max-request <MB>        maximum size of a render request (16)
+//   -max-template <MB>       maximum size of a template upload (64)
+@SuppressWarnings("nls")
+public class RenderServer {
+
+	public static final String CONTENT_TYPE_PDF = "application/pdf";
+	public static final String CONTENT_TYPE_TEXT = "text/plain; charset=utf-8";
+	public static final String CONTENT_TYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+	public static final String CACHE_VARIANT = "openpdf";
+	public static final long DEFAULT_MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+	public static final long DEFAULT_MAX_TEMPLATE_SIZE = 64 * 1024 * 1024;
+
+	private final InetSocketAddress address;
+	private final TemplateCache templateCache;
+	private final OpenPdfFontCache fontCache;
+	private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int layoutThreads = Runtime.getRuntime().availableProcessors();
+	private int queueCapacity = 64;
+	private int maxBatchSize = RenderQueue.DEFAULT_MAX_BATCH_SIZE;
+	private long timeout = 30000;
+	private RenderResultCache resultCache = null;
+	private long memoryBudget = (long) (Runtime.getRuntime().maxMemory() * MemoryGovernor.DEFAULT_HEAP_FRACTION);
+	private long maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+	private long maxTemplateSize = DEFAULT_MAX_TEMPLATE_SIZE;
+
+	private final Histogram requestSeconds = new Histogram(Histogram.SECONDS_BOUNDS);
+	private final Map<Integer, LongAdder> responses = new ConcurrentHashMap<>();
+
+	private HttpServer httpServer = null;
+	private ExecutorService httpExecutor = null;
+	private RenderQueue renderQueue = null;
+
+	public RenderServer(InetSocketAddress address, TemplateCache templateCache, OpenPdfFontCache fontCache) {
+		this.address = address;
+		this.templateCache = templateCache;
+		this.fontCache = fontCache;
+	}
+
+	public static void main(String[] args) {
+
+		System.setProperty("java.awt.headless", "true");
+
+		String host = "127.0.0.1";
+		int port = 8080;
+		String templatesPath = null;
+		String fontsPath = null;
+		Integer workers = null;
+		Integer layoutThreads = null;
+		Integer queueCapacity = null;
+		Integer maxBatchSize = null;
+		Long timeout = null;
+		String cachePath = null;
+		long cacheSize = 256;
+		Long memoryBudget = null;
+		Long maxRequestSize = null;
+		Long maxTemplateSize = null;
+
+		try {
+
+			for (int i = 0; i < args.length; i += 2) {
+
+				String option = args[i].startsWith("--") ? args[i].substring(1) : args[i];
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value of option: " + args[i]);
+				}
+
+				String value = args[i + 1];
+
+				switch (option) {
+				case "-host":
+					host = value;
+					break;
+				case "-port":
+					port = Integer.parseInt(value);
+					break;
+				case "-templates":
+					templatesPath = value;
+					break;
+				case "-fonts":
+					fontsPath = value;
+					break;
+				case "-threads":
+					workers = Integer.parseInt(value);
+					break;
+				case "-layout-threads":
+					layoutThreads = Integer.parseInt(value);
+					break;
+				case "-queue":
+					queueCapacity = Integer.parseInt(value);
+					break;
+				case "-batch":
+					maxBatchSize = Integer.parseInt(value);
+					break;
+				case "-timeout":
+					timeout = Long.parseLong(value);
+					break;
+				case "-cache":
+					cachePath = value;
+					break;
+				case "-cache-size":
+					cacheSize = Long.parseLong(value);
+					break;
+				case "-memory":
+					memoryBudget = Long.parseLong(value);
+					break;
+				case "-max-request":
+					maxRequestSize = Long.parseLong(value);
+					break;
+				case "-max-template":
+					maxTemplateSize = Long.parseLong(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[i]);
+				}
+
+			}
+
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: render-server [-host <address>] [-port <n>] [-templates <dir>] [-fonts <dir>] [-threads <n>] [-layout-threads <n>] [-queue <n>] [-batch <n>] [-timeout <ms>] [-cache <dir>] [-cache-size <MB>] [-memory <MB>] [-max-request <MB>] [-max-template <MB>]");
+			System.exit(2);
+		}
+
+		OpenPdfFontCache fontCache = new OpenPdfFontCache();
+		if (fontsPath != null) {
+			fontCache.registerFonts(new File(fontsPath));
+		}
+
+		final RenderServer server = new RenderServer(new InetSocketAddress(host, port), new TemplateCache(templatesPath != null ? new File(templatesPath) : null), fontCache);
+		if (workers != null) {
+			server.setWorkers(workers);
+		}
+		if (layoutThreads != null) {
+			server.setLayoutThreads(layoutThreads);
+		}
+		if (queueCapacity != null) {
+			server.setQueueCapacity(queueCapacity);
+		}
+		if (maxBatchSize != null) {
+			server.setMaxBatchSize(maxBatchSize);
+		}
+		if (timeout != null) {
+			server.setTimeout(timeout);
+		}
+		if (memoryBudget != null) {
+			server.setMemoryBudget(memoryBudget * 1024 * 1024);
+		}
+		if (maxRequestSize != null) {
+			server.setMaxRequestSize(maxRequestSize * 1024 * 1024);
+		}
+		if (maxTemplateSize != null) {
+			server.setMaxTemplateSize(maxTemplateSize * 1024 * 1024);
+		}
+
+		try {
+			if (cachePath != null) {
+				server.setResultCache(new RenderResultCache(new File(cachePath), cacheSize * 1024 * 1024));
+			}
+			server.start();
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(2);
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+
+			@Override
+			public void run() {
+				server.stop(5);
+			}
+		});
+
+		System.out.println("Render server listening on http://" + host + ":" + server.getPort());
+
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+
+	public int getLayoutThreads() {
+		return layoutThreads;
+	}
+
+	public void setLayoutThreads(int layoutThreads) {
+		this.layoutThreads = Math.max(1, layoutThreads);
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = Math.max(1, maxBatchSize);
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	// Deadline in milliseconds of every request including the time it waits in the queue, 0 disables it
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	// Heap bytes of the requests that are rendered at the same time, 0 disables the memory governor
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = Math.max(0, memoryBudget);
+	}
+
+	public long getMaxRequestSize() {
+		return maxRequestSize;
+	}
+
+	// Bytes of the body of a render request, larger requests are answered with 413
+	public void setMaxRequestSize(long maxRequestSize) {
+		this.maxRequestSize = Math.max(1, maxRequestSize);
+	}
+
+	public long getMaxTemplateSize() {
+		return maxTemplateSize;
+	}
+
+	// Bytes of a template upload, larger uploads are answered with 413
+	public void setMaxTemplateSize(long maxTemplateSize) {
+		this.maxTemplateSize = Math.max(1, maxTemplateSize);
+	}
+
+	public RenderResultCache getResultCache() {
+		return resultCache;
+	}
+
+	// Should be set before the server is started, null disables caching
+	public void setResultCache(RenderResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	public TemplateCache getTemplateCache() {
+		return templateCache;
+	}
+
+	public MetricsRegistry getMetricsRegistry() {
+		return metricsRegistry;
+	}
+
+	public RenderQueue getRenderQueue() {
+		return renderQueue;
+	}
+
+	// The actual port, also when the server was created with port 0
+	public int getPort() {
+		return httpServer != null ? httpServer.getAddress().getPort() : address.getPort();
+	}
+
+	public synchronized void start() throws IOException {
+
+		if (httpServer != null) {
+			throw new IllegalStateException("Server was already started");
+		}
+
+		renderQueue = new RenderQueue(fontCache, metricsRegistry, workers, layoutThreads, queueCapacity, maxBatchSize);
+		if (memoryBudget > 0) {
+			renderQueue.setMemoryGovernor(new MemoryGovernor(memoryBudget));
+		}
+
+		// Request threads wait for the render workers, there are enough of them for full queues and a
+		// few more so requests that don't fit in the queues can still be answered
+		httpExecutor = Executors.newFixedThreadPool(workers + queueCapacity * JobPriority.values().length + 4);
+
+		httpServer = HttpServer.create(address, 0);
+		httpServer.setExecutor(httpExecutor);
+
+		httpServer.createContext("/render", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleRender(exchange);
+			}
+		});
+
+		httpServer.createContext("/templates/", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleTemplates(exchange);
+			}
+		});
+
+		httpServer.createContext("/metrics", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if ("GET".equals(exchange.getRequestMethod())) {
+					sendResponse(exchange, 200, CONTENT_TYPE_PROMETHEUS, getMetricsText());
+				} else {
+					sendResponse(exchange, 405, CONTENT_TYPE_TEXT, "Method not allowed\n");
+				}
+			}
+		});
+
+		httpServer.createContext("/health", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				sendResponse(exchange, 200, CONTENT_TYPE_TEXT, "ok\n");
+			}
+		});
+
+		httpServer.start();
+
+	}
+
+	public synchronized void stop(int delaySeconds) {
+
+		if (httpServer != null) {
+
+			httpServer.stop(delaySeconds);
+			renderQueue.shutdown(delaySeconds, TimeUnit.SECONDS);
+			httpExecutor.shutdownNow();
+
+			httpServer = null;
+
+		}
+
+	}
+
+	private void handleRender(HttpExchange exchange) throws IOException {
+
+		long start = System.nanoTime();
+
+		try {
+
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				sendResponse(exchange, 405, CONTENT_TYPE_TEXT, "Method not allowed\n");
+				return;
+			}
+
+			InputStream requestBody = getRequestBody(exchange, maxRequestSize);
+			if (requestBody == null) {
+				return;
+			}
+
+			JsonNode body;
+			try {
+				body = objectMapper.readTree(requestBody);
+			} catch (BodyTooLargeException e) {
+				sendResponse(exchange, 413, CONTENT_TYPE_TEXT, e.getMessage() + "\n");
+				return;
+			} catch (IOException e) {
+				sendResponse(exchange, 400, CONTENT_TYPE_TEXT, "Invalid JSON: " + e.getMessage() + "\n");
+				return;
+			}
+
+			String templateId = body != null && body.hasNonNull("template") ? body.get("template").asText() : null;
+			if (templateId == null) {
+				sendResponse(exchange, 400, CONTENT_TYPE_TEXT, "Missing template\n");
+				return;
+			}
+
+			CachedTemplate template = templateCache.get(templateId);
+			if (template == null) {
+				sendResponse(exchange, 404, CONTENT_TYPE_TEXT, "Unknown template: " + templateId + "\n");
+				return;
+			}
+
+			JobPriority priority = JobPriority.NORMAL;
+			if (body.hasNonNull("priority")) {
+				priority = JobPriority.get(body.get("priority").asText());
+				if (priority == null) {
+					sendResponse(exchange, 400, CONTENT_TYPE_TEXT, "Unknown priority: " + body.get("priority").asText() + "\n");
+					return;
+				}
+			}
+
+			String tenant = body.hasNonNull("tenant") ? body.get("tenant").asText() : null;
+
+			TemplateFieldContext fieldContext;
+			try {
+				fieldContext = body.hasNonNull("fields") ? TemplateFieldContext.fromJson(body.get("fields")) : new TemplateFieldContext();
+			} catch (IllegalArgumentException e) {
+				sendResponse(exchange, 400, CONTENT_TYPE_TEXT, e.getMessage() + "\n");
+				return;
+			}
+
+			String cacheKey = null;
+			if (resultCache != null) {
+
+				cacheKey = RenderCacheKey.create(template.getTemplateHash(), fieldContext, CACHE_VARIANT);
+
+				ByteBuffer cached = resultCache.get(cacheKey);
+				if (cached != null) {
+					sendPdf(exchange, cached);
+					return;
+				}
+
+			}
+
+			RenderRequest request;
+			try {
+				request = renderQueue.createRequest(tenant, priority, template, fieldContext, cacheKey, timeout);
+			} catch (IOException e) {
+				e.printStackTrace();
+				sendResponse(exchange, 500, CONTENT_TYPE_TEXT, "Reading template failed: " + e.getMessage() + "\n");
+				return;
+			}
+
+			// A request that can never fit in the memory budget is not retried
+			try {
+				renderQueue.checkMemoryBudget(request);
+			} catch (RejectedExecutionException e) {
+				sendResponse(exchange, 413, CONTENT_TYPE_TEXT, e.getMessage() + "\n");
+				return;
+			}
+
+			try {
+				if (!renderQueue.submit(request)) {
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					sendResponse(exchange, 503, CONTENT_TYPE_TEXT, "Render queue is full (" + queueCapacity + " " + priority.stringValue + " requests)\n");
+					return;
+				}
+			} catch (RejectedExecutionException e) {
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				sendResponse(exchange, 503, CONTENT_TYPE_TEXT, e.getMessage() + "\n");
+				return;
+			}
+
+			PooledBufferSink sink = request.getSink();
+
+			try {
+
+				RenderResult result;
+				try {
+					result = request.getFuture().get();
+				} catch (InterruptedException | ExecutionException e) {
+					renderQueue.cancel(request);
+					sendResponse(exchange, 500, CONTENT_TYPE_TEXT, "Rendering interrupted\n");
+					return;
+				}
+
+				if (result.getStatus() == RenderStatus.SUCCEEDED) {
+
+					if (cacheKey != null) {
+						try {
+							resultCache.put(cacheKey, sink);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+
+					exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE_PDF);
+					exchange.sendResponseHeaders(200, sink.size());
+					countResponse(200);
+
+					OutputStream outputStream = exchange.getResponseBody();
+					sink.writeTo(outputStream);
+					outputStream.close();
+
+				} else if (result.getStatus() == RenderStatus.DEADLINE_EXCEEDED) {
+					sendResponse(exchange, 504, CONTENT_TYPE_TEXT, "Deadline exceeded\n");
+				} else if (result.getStatus() == RenderStatus.CANCELLED) {
+					sendResponse(exchange, 503, CONTENT_TYPE_TEXT, "Rendering cancelled\n");
+				} else {
+					sendResponse(exchange, 500, CONTENT_TYPE_TEXT, "Rendering failed: " + result.getMessage() + "\n");
+				}
+
+			} finally {
+				sink.release();
+			}
+
+		} finally {
+			requestSeconds.observe((System.nanoTime() - start) / 1.0E9);
+			exchange.close();
+		}
+
+	}
+
+	private void handleTemplates(HttpExchange exchange) throws IOException {
+
+		try {
+
+			String templateId = exchange.getRequestURI().getPath().substring("/templates/".length());
+			if (!TemplateCache.isValidTemplateId(templateId)) {
+				sendResponse(exchange, 400, CONTENT_TYPE_TEXT, "Invalid template id\n");
+			} else if ("PUT".equals(exchange.getRequestMethod())) {
+
+				InputStream requestBody = getRequestBody(exchange, maxTemplateSize);
+				if (requestBody != null) {
+					try {
+						templateCache.put(templateId, requestBody);
+						sendResponse(exchange, 201, CONTENT_TYPE_TEXT, "Template " + templateId + " cached\n");
+					} catch (BodyTooLargeException e) {
+						sendResponse(exchange, 413, CONTENT_TYPE_TEXT, e.getMessage() + "\n");
+					} catch (IllegalArgumentException e) {
+						sendResponse(exchange, 400, CONTENT_TYPE_TEXT, e.getMessage() + "\n");
+					}
+				}
+
+			} else if ("DELETE".equals(exchange.getRequestMethod())) {
+
+				if (templateCache.remove(templateId)) {
+					sendResponse(exchange, 200, CONTENT_TYPE_TEXT, "Template " + templateId + " removed\n");
+				} else {
+					sendResponse(exchange, 404, CONTENT_TYPE_TEXT, "Unknown template: " + templateId + "\n");
+				}
+
+			} else {
+				sendResponse(exchange, 405, CONTENT_TYPE_TEXT, "Method not allowed\n");
+			}
+
+		} finally {
+			exchange.close();
+		}
+
+	}
+
+	// Answers 413 and returns null if the length of the body exceeds the maximum size, the length of a chunked body is
+	// not known up front, the returned stream throws a BodyTooLargeException when more than the maximum size is read
+	private InputStream getRequestBody(HttpExchange exchange, long maxSize) throws IOException {
+
+		String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (contentLength != null) {
+			try {
+				if (Long.parseLong(contentLength.trim()) > maxSize) {
+					sendResponse(exchange, 413, CONTENT_TYPE_TEXT, "Request body exceeds " + maxSize + " bytes\n");
+					return null;
+				}
+			} catch (NumberFormatException e) {
+				// Invalid lengths are rejected by the http server
+			}
+		}
+
+		return new LimitedInputStream(exchange.getRequestBody(), maxSize);
+
+	}
+
+	private void sendPdf(HttpExchange exchange, ByteBuffer buffer) throws IOException {
+
+		exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE_PDF);
+		exchange.sendResponseHeaders(200, buffer.remaining());
+		countResponse(200);
+
+		WritableByteChannel channel = Channels.newChannel(exchange.getResponseBody());
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		channel.close();
+
+	}
+
+	private void sendResponse(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		countResponse(status);
+
+		OutputStream outputStream = exchange.getResponseBody();
+		outputStream.write(bytes);
+		outputStream.close();
+
+	}
+
+	private void countResponse(int status) {
+		LongAdder count = responses.get(status);
+		if (count == null) {
+			responses.putIfAbsent(status, new LongAdder());
+			count = responses.get(status);
+		}
+		count.increment();
+	}
+
+	public String getMetricsText() {
+
+		StringBuilder text = new StringBuilder(PrometheusExporter.toText(metricsRegistry));
+
+		PrometheusExporter.appendHelp(text, "server_request_duration_seconds", "histogram", "Duration of render requests including the time in the queue");
+		PrometheusExporter.appendHistogram(text, "server_request_duration_seconds", null, requestSeconds);
+
+		PrometheusExporter.appendHelp(text, "server_responses_total", "counter", "Responses by status code");
+		for (Map.Entry<Integer, LongAdder> entry : responses.entrySet()) {
+			PrometheusExporter.appendValue(text, "server_responses_total", "code=\"" + entry.getKey() + "\"", entry.getValue().sum());
+		}
+
+		if (renderQueue != null) {
+
+			// Queue depth, wait and run time by priority and the memory governor metrics
+			renderQueue.getScheduler().appendMetrics(text);
+
+			PrometheusExporter.appendHelp(text, "server_loader_reuses_total", "counter", "Render requests that reused the layout context of the previous request of the worker");
+			PrometheusExporter.appendValue(text, "server_loader_reuses_total", null, renderQueue.getLoaderReuses());
+
+		}
+
+		PrometheusExporter.appendHelp(text, "server_templates", "gauge", "Cached templates");
+		PrometheusExporter.appendValue(text, "server_templates", null, templateCache.size());
+
+		if (resultCache != null) {
+
+			PrometheusExporter.appendHelp(text, "server_result_cache_hits_total", "counter", "Requests answered from the result cache");
+			PrometheusExporter.appendValue(text, "server_result_cache_hits_total", null, resultCache.getHits());
+
+			PrometheusExporter.appendHelp(text, "server_result_cache_misses_total", "counter", "Requests that were not in the result cache");
+			PrometheusExporter.appendValue(text, "server_result_cache_misses_total", null, resultCache.getMisses());
+
+			PrometheusExporter.appendHelp(text, "server_result_cache_evictions_total", "counter", "Documents removed from the result cache to stay within its size");
+			PrometheusExporter.appendValue(text, "server_result_cache_evictions_total", null, resultCache.getEvictions());
+
+			PrometheusExporter.appendHelp(text, "server_result_cache_entries", "gauge", "Documents in the result cache");
+			PrometheusExporter.appendValue(text, "server_result_cache_entries", null, resultCache.size());
+
+			PrometheusExporter.appendHelp(text, "server_result_cache_bytes", "gauge", "Size of the documents in the result cache");
+			PrometheusExporter.appendValue(text, "server_result_cache_bytes", null, resultCache.getBytes());
+
+		}
+
+		return text.toString();
+
+	}
+
+	private static class BodyTooLargeException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		private BodyTooLargeException(long maxSize) {
+			super("Request body exceeds " + maxSize + " bytes");
+		}
+
+	}
+
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private final long maxSize;
+		private long size = 0;
+
+		private LimitedInputStream(InputStream inputStream, long maxSize) {
+			super(inputStream);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			if (skipped > 0) {
+				count(skipped);
+			}
+			return skipped;
+		}
+
+		private void count(long n) throws BodyTooLargeException {
+			size += n;
+			if (size > maxSize) {
+				throw new BodyTooLargeException(maxSize);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.glasspath.aerialist.Document;
+import org.glasspath.aerialist.XDoc;
+import org.glasspath.aerialist.cache.RenderCacheKey;
+import org.glasspath.aerialist.openpdf.OpenPdfMediaCache;
+import org.glasspath.aerialist.reader.XDocReader;
+import org.glasspath.aerialist.writer.XDocWriter;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+// Templates are read once and kept in memory, every template has a media cache with its images that is shared by
+// all requests for the template (image keys are only unique within a template). Templates are uploaded with put()
+// or read from <templates dir>/<id>.gpdx when they are requested for the first time
+@SuppressWarnings("nls")
+public class TemplateCache {
+
+	private static final Pattern TEMPLATE_ID_PATTERN = Pattern.compile("[A-Za-z0-9_.-]{1,128}");
+
+	private final File templatesDir;
+	private final Map<String, CachedTemplate> templates = new ConcurrentHashMap<>();
+
+	public TemplateCache(File templatesDir) {
+		this.templatesDir = templatesDir;
+	}
+
+	public static boolean isValidTemplateId(String templateId) {
+		return templateId != null && TEMPLATE_ID_PATTERN.matcher(templateId).matches() && !templateId.startsWith(".");
+	}
+
+	// Returns null if there is no template with the given id
+	public CachedTemplate get(String templateId) {
+
+		if (!isValidTemplateId(templateId)) {
+			return null;
+		}
+
+		CachedTemplate template = templates.get(templateId);
+		if (template == null && templatesDir != null) {
+
+			File file = new File(templatesDir, templateId + ".gpdx");
+			if (file.isFile()) {
+
+				synchronized (this) {
+
+					template = templates.get(templateId);
+					if (template == null) {
+						template = read(templateId, file);
+						if (template != null) {
+							templates.put(templateId, template);
+						}
+					}
+
+				}
+
+			}
+
+		}
+
+		return template;
+
+	}
+
+	public CachedTemplate put(String templateId, InputStream inputStream) throws IOException {
+
+		if (!isValidTemplateId(templateId)) {
+			throw new IllegalArgumentException("Invalid template id: " + templateId);
+		}
+
+		// XDocReader reads zip files, the upload is stored in a temporary file first
+		File file = File.createTempFile("template-", ".gpdx");
+
+		try {
+
+			Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+			CachedTemplate template = read(templateId, file);
+			if (template == null) {
+				throw new IllegalArgumentException("Template " + templateId + " is not a valid document");
+			}
+
+			templates.put(templateId, template);
+
+			return template;
+
+		} finally {
+			file.delete();
+		}
+
+	}
+
+	public boolean remove(String templateId) {
+		return templates.remove(templateId) != null;
+	}
+
+	public int size() {
+		return templates.size();
+	}
+
+	private static CachedTemplate read(String templateId, File file) {
+
+		OpenPdfMediaCache mediaCache = new OpenPdfMediaCache();
+
+		XDoc xDoc = XDocReader.read(file.getAbsolutePath(), mediaCache);
+		if (xDoc != null && xDoc.getContent() != null && xDoc.getContent().getRoot() instanceof Document) {
+
+			try {
+
+				XmlMapper xmlMapper = XDocWriter.createXmlMapper();
+				xmlMapper.disable(SerializationFeature.INDENT_OUTPUT);
+
+				byte[] documentBytes = xmlMapper.writeValueAsBytes(xDoc.getContent().getRoot());
+
+				return new CachedTemplate(templateId, (Document) xDoc.getContent().getRoot(), documentBytes, RenderCacheKey.hashTemplate(documentBytes, mediaCache), mediaCache);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+		}
+
+		return null;
+
+	}
+
+	public static class CachedTemplate {
+
+		private final String id;
+		private final Document templateDocument;
+		private final byte[] documentBytes;
+		private final String templateHash;
+		private final OpenPdfMediaCache mediaCache;
+
+		private CachedTemplate(String id, Document templateDocument, byte[] documentBytes, String templateHash, OpenPdfMediaCache mediaCache) {
+			this.id = id;
+			this.templateDocument = templateDocument;
+			this.documentBytes = documentBytes;
+			this.templateHash = templateHash;
+			this.mediaCache = mediaCache;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		// Hash of the content and images, a template that is uploaded again with the same content has the same hash
+		public String getTemplateHash() {
+			return templateHash;
+		}
+
+		public OpenPdfMediaCache getMediaCache() {
+			return mediaCache;
+		}
+
+		// The template is only read (to estimate the memory of a request), it is never rendered
+		public Document getTemplateDocument() {
+			return templateDocument;
+		}
+
+		// Every request gets its own copy of the template, parsing replaces the template fields
+		public Document createDocument(XmlMapper xmlMapper) throws IOException {
+			return xmlMapper.readValue(documentBytes, Document.class);
+		}
+
+	}
+
+}
@@ -0,0 +1,293 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.glasspath.aerialist.XDoc;
+import org.glasspath.aerialist.openpdf.OpenPdfFontCache;
+import org.glasspath.aerialist.scheduler.JobPriority;
+import org.glasspath.aerialist.template.RenderStatus;
+import org.glasspath.aerialist.template.TemplateFieldContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class RenderServerTest {
+
+	private static final String TEMPLATE_CONTENT = "<Content><root type=\"document\"><pages><page width=\"595\" height=\"842\"><elements>"
+			+ "<element type=\"TextBox\" x=\"20\" y=\"100\" width=\"555\" height=\"20\"><text>${name}</text>"
+			+ "<styles><style start=\"0\" end=\"7\" source=\"t:name\"/></styles></element>"
+			+ "</elements></page></pages></root></Content>";
+
+	private RenderServer server = null;
+
+	@Before
+	public void setUp() {
+		System.setProperty("java.awt.headless", "true");
+		server = new RenderServer(new InetSocketAddress("127.0.0.1", 0), new TemplateCache(null), new OpenPdfFontCache());
+		server.setWorkers(1);
+		server.setLayoutThreads(1);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	private static byte[] createTemplate() throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		ZipOutputStream zipOutputStream = new ZipOutputStream(bytes);
+		zipOutputStream.putNextEntry(new ZipEntry(XDoc.VERSION_INFO_PATH));
+		zipOutputStream.write(XDoc.VERSION_INFO.getBytes(StandardCharsets.UTF_8));
+		zipOutputStream.closeEntry();
+		zipOutputStream.putNextEntry(new ZipEntry(XDoc.CONTENT_PATH));
+		zipOutputStream.write(TEMPLATE_CONTENT.getBytes(StandardCharsets.UTF_8));
+		zipOutputStream.closeEntry();
+		zipOutputStream.close();
+
+		return bytes.toByteArray();
+
+	}
+
+	private Response request(String method, String path, byte[] body, int chunkLength) throws IOException {
+
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+		connection.setRequestMethod(method);
+
+		if (body != null) {
+			connection.setDoOutput(true);
+			if (chunkLength > 0) {
+				connection.setChunkedStreamingMode(chunkLength);
+			}
+			OutputStream outputStream = connection.getOutputStream();
+			outputStream.write(body);
+			outputStream.close();
+		}
+
+		Response response = new Response();
+		response.status = connection.getResponseCode();
+		response.contentType = connection.getContentType();
+		response.retryAfter = connection.getHeaderField("Retry-After");
+
+		InputStream inputStream = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if (inputStream != null) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = inputStream.read(buffer)) > 0) {
+				bytes.write(buffer, 0, n);
+			}
+			inputStream.close();
+			response.body = bytes.toByteArray();
+		}
+
+		return response;
+
+	}
+
+	private Response request(String method, String path, String body) throws IOException {
+		return request(method, path, body != null ? body.getBytes(StandardCharsets.UTF_8) : null, 0);
+	}
+
+	private void putTemplate(String templateId) throws IOException {
+		assertEquals(201, request("PUT", "/templates/" + templateId, createTemplate(), 0).status);
+	}
+
+	@Test
+	public void rendersUploadedTemplate() throws IOException {
+
+		server.start();
+		putTemplate("invoice");
+
+		Response response = request("POST", "/render", "{\"template\": \"invoice\", \"priority\": \"interactive\", \"tenant\": \"a\", \"fields\": {\"name\": \"Aerialist\"}}");
+		assertEquals(200, response.status);
+		assertEquals(RenderServer.CONTENT_TYPE_PDF, response.contentType);
+		assertTrue(response.getText().startsWith("%PDF"));
+
+		assertEquals(200, request("DELETE", "/templates/invoice", null).status);
+		assertEquals(404, request("POST", "/render", "{\"template\": \"invoice\"}").status);
+
+	}
+
+	@Test
+	public void invalidTemplatesAreRejected() throws IOException {
+
+		server.start();
+
+		assertEquals(400, request("PUT", "/templates/invoice", "not a zip file").status);
+		assertEquals(400, request("PUT", "/templates/.hidden", createTemplate(), 0).status);
+		assertEquals(404, request("DELETE", "/templates/invoice", null).status);
+		assertEquals(405, request("GET", "/templates/invoice", null).status);
+
+	}
+
+	@Test
+	public void invalidRequestsAreRejected() throws IOException {
+
+		server.start();
+		putTemplate("invoice");
+
+		assertEquals(400, request("POST", "/render", "{\"template\": ").status);
+		assertEquals(400, request("POST", "/render", "{\"fields\": {}}").status);
+		assertEquals(400, request("POST", "/render", "{\"template\": \"invoice\", \"priority\": \"urgent\"}").status);
+		assertEquals(404, request("POST", "/render", "{\"template\": \"unknown\"}").status);
+		assertEquals(405, request("GET", "/render", null).status);
+
+	}
+
+	@Test
+	public void largeBodiesAreRejected() throws IOException {
+
+		server.setMaxRequestSize(1024);
+		server.setMaxTemplateSize(64);
+		server.start();
+
+		StringBuilder body = new StringBuilder("{\"template\": \"invoice\", \"fields\": {\"name\": \"");
+		for (int i = 0; i < 2000; i++) {
+			body.append('x');
+		}
+		body.append("\"}}");
+		byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+
+		// With a length and chunked (the length is not known until the body is read)
+		assertEquals(413, request("POST", "/render", bytes, 0).status);
+		assertEquals(413, request("POST", "/render", bytes, 256).status);
+
+		assertEquals(413, request("PUT", "/templates/invoice", createTemplate(), 0).status);
+		assertEquals(413, request("PUT", "/templates/invoice", createTemplate(), 16).status);
+		assertEquals(0, server.getTemplateCache().size());
+
+	}
+
+	@Test
+	public void fullQueueIsAnsweredWith503() throws Exception {
+
+		server.setQueueCapacity(1);
+		server.setMemoryBudget(0);
+		server.start();
+		putTemplate("invoice");
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		// Keeps the only worker busy while the template fields are parsed
+		TemplateFieldContext blockingFieldContext = new TemplateFieldContext() {
+
+			@Override
+			public String getString(String key) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.getString(key);
+			}
+		};
+
+		RenderQueue renderQueue = server.getRenderQueue();
+		RenderRequest running = renderQueue.createRequest(null, JobPriority.NORMAL, server.getTemplateCache().get("invoice"), blockingFieldContext, null, 0);
+		RenderRequest queued = renderQueue.createRequest(null, JobPriority.NORMAL, server.getTemplateCache().get("invoice"), new TemplateFieldContext(), null, 0);
+
+		try {
+
+			assertTrue(renderQueue.submit(running));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			assertTrue(renderQueue.submit(queued));
+
+			Response response = request("POST", "/render", "{\"template\": \"invoice\"}");
+			assertEquals(503, response.status);
+			assertEquals("1", response.retryAfter);
+
+		} finally {
+			release.countDown();
+		}
+
+		assertEquals(RenderStatus.SUCCEEDED, running.getFuture().get(10, TimeUnit.SECONDS).getStatus());
+		assertEquals(RenderStatus.SUCCEEDED, queued.getFuture().get(10, TimeUnit.SECONDS).getStatus());
+		running.getSink().release();
+		queued.getSink().release();
+
+		assertTrue(request("GET", "/metrics", null).getText().contains("aerialist_scheduler_rejected_total{priority=\"normal\"} 1"));
+
+	}
+
+	@Test
+	public void healthAndMetrics() throws IOException {
+
+		server.start();
+		putTemplate("invoice");
+		assertEquals(200, request("POST", "/render", "{\"template\": \"invoice\"}").status);
+
+		Response health = request("GET", "/health", null);
+		assertEquals(200, health.status);
+		assertEquals("ok\n", health.getText());
+
+		Response metrics = request("GET", "/metrics", null);
+		assertEquals(200, metrics.status);
+		assertNotNull(metrics.contentType);
+
+		String text = metrics.getText();
+		// The render request and the health check
+		assertTrue(text.contains("aerialist_server_responses_total{code=\"200\"} 2"));
+		assertTrue(text.contains("aerialist_scheduler_completed_total{priority=\"normal\"} 1"));
+		assertTrue(text.contains("aerialist_server_templates 1"));
+		assertTrue(text.contains("aerialist_memory_budget_bytes"));
+
+		assertEquals(405, request("POST", "/metrics", "").status);
+
+	}
+
+	private static class Response {
+
+		private int status = 0;
+		private String contentType = null;
+		private String retryAfter = null;
+		private byte[] body = new byte[0];
+
+		private String getText() {
+			return new String(body, StandardCharsets.UTF_8);
+		}
+
+	}
+
+}
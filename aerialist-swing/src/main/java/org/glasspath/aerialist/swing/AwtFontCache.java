@@ -0,0 +1,122 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.swing;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineMetrics;
+
+import org.glasspath.aerialist.text.TextUtils.SpanInfo;
+import org.glasspath.aerialist.text.font.FontCache;
+import org.glasspath.aerialist.text.font.FontWeight;
+
+public class AwtFontCache extends FontCache<Font> {
+
+	// Text is measured with anti-aliasing and fractional metrics, the same hints are used when text is drawn
+	public static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, true, true);
+
+	public AwtFontCache() {
+
+	}
+
+	@Override
+	protected Font createDefaultFont(FontWeight weight, boolean italic) {
+
+		int style = Font.PLAIN;
+		if (weight.isBoldWeight()) {
+			style |= Font.BOLD;
+		}
+		if (italic) {
+			style |= Font.ITALIC;
+		}
+
+		return new Font(Font.SANS_SERIF, style, 1);
+
+	}
+
+	@Override
+	protected void loadFontFile(FontFile fontFile) {
+
+		try {
+			fontFile.font = Font.createFont(Font.TRUETYPE_FONT, fontFile.file);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+	}
+
+	public Font getFont(int fontIndex, float fontSize, boolean bold, boolean italic) {
+
+		Font font = null;
+
+		if (fontIndex >= 0) {
+
+			FontCache<Font>.CachedFont cachedFont = getFont(fontIndex);
+			if (cachedFont != null && cachedFont.fontFile != null) {
+				font = cachedFont.fontFile.font;
+			}
+
+		}
+
+		if (font == null) {
+			font = createDefaultFont(bold ? FontWeight.BOLD : FontWeight.REGULAR, italic);
+		}
+
+		return font.deriveFont(fontSize);
+
+	}
+
+	@Override
+	public SpanInfo getSpanInfo(String text, String fontName, float fontSize, FontWeight weight, boolean italic) {
+
+		SpanInfo spanInfo = new SpanInfo();
+
+		Font font = null;
+
+		spanInfo.fontIndex = getFontIndex(fontName, weight, italic);
+		if (spanInfo.fontIndex >= 0) {
+
+			FontCache<Font>.CachedFont cachedFont = getFont(spanInfo.fontIndex);
+			if (cachedFont != null && cachedFont.fontFile != null) {
+				font = cachedFont.fontFile.font;
+			}
+
+		}
+
+		if (font == null) {
+			font = createDefaultFont(weight, italic);
+		}
+
+		font = font.deriveFont(fontSize);
+
+		spanInfo.width = (float) font.getStringBounds(text, FONT_RENDER_CONTEXT).getWidth();
+
+		LineMetrics lineMetrics = font.getLineMetrics(text, FONT_RENDER_CONTEXT);
+		spanInfo.ascent = lineMetrics.getAscent();
+		spanInfo.descent = lineMetrics.getDescent();
+
+		return spanInfo;
+
+	}
+
+}
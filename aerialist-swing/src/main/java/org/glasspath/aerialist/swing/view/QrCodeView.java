@@ -40,8 +40,8 @@ import org.glasspath.aerialist.Border;
 import org.glasspath.aerialist.HeightPolicy;
 import org.glasspath.aerialist.QrCode;
 import org.glasspath.aerialist.YPolicy;
-
-import io.nayuki.qrcodegen.QrSegment;
+import org.glasspath.aerialist.qrcode.QrCodeCache;
+import org.glasspath.aerialist.qrcode.QrCodeMatrix;
 
 public class QrCodeView extends TextView implements ISwingElementView<QrCode> {
 
@@ -49,6 +49,10 @@ public class QrCodeView extends TextView implements ISwingElementView<QrCode> {
 	private HeightPolicy heightPolicy = HeightPolicy.DEFAULT;
 	private Color backgroundColor = null;
 	private final List<Border> borders = new ArrayList<>();
+	private BufferedImage image = null;
+	private QrCodeMatrix imageMatrix = null;
+	private int imageLightColor = 0;
+	private int imageDarkColor = 0;
 
 	public QrCodeView(ISwingViewContext viewContext) {
 		super(viewContext);
@@ -144,13 +148,20 @@ public class QrCodeView extends TextView implements ISwingElementView<QrCode> {
 
 		try {
 
-			List<QrSegment> segments = QrSegment.makeSegments(getText());
-
 			// TODO: Which parameters to use?
-			io.nayuki.qrcodegen.QrCode qrCode = io.nayuki.qrcodegen.QrCode.encodeSegments(segments, io.nayuki.qrcodegen.QrCode.Ecc.HIGH, 1, 40, -1, false);
+			QrCodeMatrix matrix = QrCodeCache.getMatrix(getText());
+
+			int lightColor = backgroundColor != null ? backgroundColor.getRGB() : Color.white.getRGB();
+			int darkColor = editMode ? new Color(225, 225, 225).getRGB() : Color.black.getRGB();
+
+			// The image is only created again when the code or the colors change
+			if (matrix != imageMatrix || lightColor != imageLightColor || darkColor != imageDarkColor) {
+				image = matrix != null ? toImage(matrix, 4, 1, lightColor, darkColor) : null;
+				imageMatrix = matrix;
+				imageLightColor = lightColor;
+				imageDarkColor = darkColor;
+			}
 
-			// TODO: Don't generate image every repaint
-			BufferedImage image = toImage(qrCode, 4, 1, backgroundColor != null ? backgroundColor.getRGB() : Color.white.getRGB(), editMode ? new Color(225, 225, 225).getRGB() : Color.black.getRGB());
 			if (image != null) {
 
 				int w = getWidth();
@@ -183,27 +194,34 @@ public class QrCodeView extends TextView implements ISwingElementView<QrCode> {
 
 	}
 
-	// Copied (and slightly modified) from https://github.com/nayuki/QR-Code-generator/blob/master/java/QrCodeGeneratorDemo.java
-	public static BufferedImage toImage(io.nayuki.qrcodegen.QrCode qr, int scale, int border, int lightColor, int darkColor) {
+	public static BufferedImage toImage(QrCodeMatrix matrix, int scale, int border, int lightColor, int darkColor) {
 
-		Objects.requireNonNull(qr);
+		Objects.requireNonNull(matrix);
 
 		if (scale <= 0 || border < 0) {
 			throw new IllegalArgumentException("Value out of range"); //$NON-NLS-1$
 		}
 
-		if (border > Integer.MAX_VALUE / 2 || qr.size + border * 2L > Integer.MAX_VALUE / scale) {
+		if (border > Integer.MAX_VALUE / 2 || matrix.getSize() + border * 2L > Integer.MAX_VALUE / scale) {
 			throw new IllegalArgumentException("Scale or border too large"); //$NON-NLS-1$
 		}
 
-		final BufferedImage result = new BufferedImage((qr.size + border * 2) * scale, (qr.size + border * 2) * scale, BufferedImage.TYPE_INT_RGB);
-		for (int y = 0; y < result.getHeight(); y++) {
-			for (int x = 0; x < result.getWidth(); x++) {
-				boolean color = qr.getModule(x / scale - border, y / scale - border);
-				result.setRGB(x, y, color ? darkColor : lightColor);
-			}
+		int size = (matrix.getSize() + border * 2) * scale;
+
+		final BufferedImage result = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+
+		Graphics2D g2d = result.createGraphics();
+		g2d.setColor(new Color(lightColor));
+		g2d.fillRect(0, 0, size, size);
+
+		g2d.setColor(new Color(darkColor));
+		int[] rects = matrix.getRects();
+		for (int i = 0; i + 3 < rects.length; i += 4) {
+			g2d.fillRect((rects[i] + border) * scale, (rects[i + 1] + border) * scale, rects[i + 2] * scale, rects[i + 3] * scale);
 		}
 
+		g2d.dispose();
+
 		return result;
 
 	}
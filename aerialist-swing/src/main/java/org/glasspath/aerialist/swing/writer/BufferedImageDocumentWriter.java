@@ -0,0 +1,615 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.swing.writer;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.glasspath.aerialist.media.MediaCache;
+import org.glasspath.aerialist.swing.AwtFontCache;
+import org.glasspath.aerialist.swing.BufferedImageMediaCache;
+import org.glasspath.aerialist.text.font.FontCache;
+import org.glasspath.aerialist.writer.DocumentWriter;
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+
+// Renders pages to images, the drawing operations of a page are recorded while the page is written
+// and when the page is closed it's rasterized and encoded on a worker thread, so pages are rendered
+// in parallel while the next pages are being written
+public class BufferedImageDocumentWriter extends DocumentWriter {
+
+	public static final float DEFAULT_DPI = 96.0F;
+
+	private static ExecutorService defaultExecutorService = null;
+
+	private final PageImageOutput output;
+	private final AwtFontCache fontCache;
+	private final BufferedImageMediaCache mediaCache;
+	private ExecutorService executorService = getDefaultExecutorService();
+	private ImageFormat imageFormat = ImageFormat.DEFAULT;
+	private float dpi = DEFAULT_DPI;
+	private boolean documentOpen = false;
+	private final List<Future<Void>> pendingPages = new ArrayList<>();
+	private int pageIndex = 0;
+	private int pageWidth = 0;
+	private int pageHeight = 0;
+	private List<PageOperation> operations = null;
+
+	public BufferedImageDocumentWriter(PageImageOutput output, AwtFontCache fontCache, BufferedImageMediaCache mediaCache) {
+		// Pages are written to their own sink which is provided by the page output
+		super((DocumentSink) null);
+
+		this.output = output;
+		this.fontCache = fontCache;
+		this.mediaCache = mediaCache;
+
+	}
+
+	public static synchronized ExecutorService getDefaultExecutorService() {
+
+		if (defaultExecutorService == null) {
+
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+			defaultExecutorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "PageRenderer-" + (++count)); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+		}
+
+		return defaultExecutorService;
+
+	}
+
+	public PageImageOutput getOutput() {
+		return output;
+	}
+
+	public ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	public void setExecutorService(ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
+	public ImageFormat getImageFormat() {
+		return imageFormat;
+	}
+
+	public void setImageFormat(ImageFormat imageFormat) {
+		this.imageFormat = imageFormat;
+	}
+
+	public float getDpi() {
+		return dpi;
+	}
+
+	public void setDpi(float dpi) {
+		this.dpi = dpi;
+	}
+
+	@Override
+	protected MediaCache<?> getMediaCache() {
+		return mediaCache;
+	}
+
+	@Override
+	protected void openDocument(int width, int height) throws Exception {
+
+		pendingPages.clear();
+		pageIndex = 0;
+
+		documentOpen = true;
+
+	}
+
+	@Override
+	public boolean isDocumentOpen() {
+		return documentOpen;
+	}
+
+	@Override
+	public void openPage(int width, int height) throws Exception {
+
+		pageWidth = width;
+		pageHeight = height;
+
+		operations = new ArrayList<>();
+
+	}
+
+	@Override
+	protected void saveState() throws Exception {
+		operations.add(new SaveStateOperation());
+	}
+
+	@Override
+	protected void restoreState() throws Exception {
+		operations.add(new RestoreStateOperation());
+	}
+
+	@Override
+	protected void setFillColor(int r, int g, int b, int a) throws Exception {
+		operations.add(new FillColorOperation(new Color(r, g, b, a)));
+	}
+
+	@Override
+	protected void setStrokeColor(int r, int g, int b, int a) throws Exception {
+		operations.add(new StrokeColorOperation(new Color(r, g, b, a)));
+	}
+
+	@Override
+	protected void setStroke(float w) throws Exception {
+		operations.add(new StrokeOperation(new BasicStroke(w)));
+	}
+
+	@Override
+	protected void clip(float x, float y, float w, float h) throws Exception {
+		operations.add(new ClipOperation(new Rectangle2D.Float(x, y, w, h)));
+	}
+
+	@Override
+	protected void fill(float x, float y, float w, float h) throws Exception {
+		operations.add(new FillOperation(new Rectangle2D.Float(x, y, w, h)));
+	}
+
+	@Override
+	protected void fillRects(float x, float y, float scale, int[] rects) throws Exception {
+
+		Path2D path = new Path2D.Float();
+		for (int i = 0; i + 3 < rects.length; i += 4) {
+			path.append(new Rectangle2D.Float(x + rects[i] * scale, y + rects[i + 1] * scale, rects[i + 2] * scale, rects[i + 3] * scale), false);
+		}
+
+		operations.add(new FillOperation(path));
+
+	}
+
+	@Override
+	protected void draw(float x, float y, float w, float h) throws Exception {
+		operations.add(new DrawOperation(new Rectangle2D.Float(x, y, w, h)));
+	}
+
+	@Override
+	protected void drawLine(float x1, float y1, float x2, float y2) throws Exception {
+		operations.add(new DrawOperation(new Line2D.Float(x1, y1, x2, y2)));
+	}
+
+	@Override
+	protected void drawImage(String key, float x, float y, float w, float h, String name) throws Exception {
+
+		BufferedImage image = mediaCache.getImage(key);
+		if (image != null && image.getWidth() > 0 && image.getHeight() > 0) {
+			operations.add(new ImageOperation(image, new AffineTransform(w / image.getWidth(), 0.0F, 0.0F, h / image.getHeight(), x, y)));
+		}
+
+	}
+
+	@Override
+	protected void beginText() throws Exception {
+
+	}
+
+	@Override
+	protected void drawString(String s, float x, float y, int fontIndex, float fontSize, boolean bold, boolean italic) throws Exception {
+
+		if (fontIndex >= 0) {
+
+			float fontAngle = 0.0F;
+
+			// Check if italic needs to be simulated (the FontFile class tells us if the loaded font is italic or not)
+			FontCache<Font>.CachedFont cachedFont = fontCache.getFont(fontIndex);
+			if (italic && cachedFont != null && cachedFont.fontFile != null && !cachedFont.fontFile.italic) {
+				fontAngle = 15.0F / 100.0F;
+			}
+
+			operations.add(new StringOperation(s, x, y, fontCache.getFont(fontIndex, fontSize, bold, italic), fontAngle));
+
+		}
+
+	}
+
+	@Override
+	protected void endText() throws Exception {
+
+	}
+
+	@Override
+	public void closePage() throws Exception {
+
+		if (operations != null) {
+
+			pendingPages.add(executorService.submit(new RenderPageCallable(pageIndex, pageWidth, pageHeight, operations, dpi, imageFormat, output)));
+
+			operations = null;
+			pageIndex++;
+
+		}
+
+	}
+
+	@Override
+	protected void closeDocument() throws Exception {
+
+		if (documentOpen) {
+
+			documentOpen = false;
+
+			Exception exception = null;
+
+			for (Future<Void> future : pendingPages) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (exception == null && e.getCause() instanceof Exception) {
+						exception = (Exception) e.getCause();
+					} else if (exception == null) {
+						exception = e;
+					}
+				}
+			}
+
+			pendingPages.clear();
+
+			if (exception != null) {
+				throw exception;
+			}
+
+		}
+
+	}
+
+	@Override
+	protected void discardDocument() throws Exception {
+
+		if (documentOpen) {
+
+			documentOpen = false;
+
+			// Pages that are not rendered yet are not delivered anymore, pages that were delivered are complete images
+			for (Future<Void> future : pendingPages) {
+				future.cancel(true);
+			}
+
+			pendingPages.clear();
+			operations = null;
+
+		}
+
+	}
+
+	private static BufferedImage renderPage(int pageWidth, int pageHeight, List<PageOperation> operations, float dpi) {
+
+		float scale = dpi / 72.0F;
+
+		int width = Math.max(1, Math.round(pageWidth * scale));
+		int height = Math.max(1, Math.round(pageHeight * scale));
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		Graphics2D g2d = image.createGraphics();
+		try {
+
+			g2d.setColor(Color.WHITE);
+			g2d.fillRect(0, 0, width, height);
+
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+			g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+
+			g2d.scale(scale, scale);
+
+			PaintState state = new PaintState(g2d);
+			for (PageOperation operation : operations) {
+				operation.paint(state);
+			}
+			state.dispose();
+
+		} finally {
+			g2d.dispose();
+		}
+
+		return image;
+
+	}
+
+	private static class RenderPageCallable implements Callable<Void> {
+
+		private final int pageIndex;
+		private final int pageWidth;
+		private final int pageHeight;
+		private final List<PageOperation> operations;
+		private final float dpi;
+		private final ImageFormat imageFormat;
+		private final PageImageOutput output;
+
+		private RenderPageCallable(int pageIndex, int pageWidth, int pageHeight, List<PageOperation> operations, float dpi, ImageFormat imageFormat, PageImageOutput output) {
+			this.pageIndex = pageIndex;
+			this.pageWidth = pageWidth;
+			this.pageHeight = pageHeight;
+			this.operations = operations;
+			this.dpi = dpi;
+			this.imageFormat = imageFormat;
+			this.output = output;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			output.writePage(pageIndex, renderPage(pageWidth, pageHeight, operations, dpi), imageFormat);
+			return null;
+		}
+
+	}
+
+	private static class PaintState {
+
+		private final Deque<PaintState> stack;
+		private Graphics2D g2d;
+		private Color fillColor = Color.BLACK;
+		private Color strokeColor = Color.BLACK;
+		private BasicStroke stroke = new BasicStroke(1.0F);
+
+		private PaintState(Graphics2D g2d) {
+			this.stack = new ArrayDeque<>();
+			this.g2d = (Graphics2D) g2d.create();
+		}
+
+		private PaintState(PaintState state) {
+			this.stack = null;
+			this.g2d = state.g2d;
+			this.fillColor = state.fillColor;
+			this.strokeColor = state.strokeColor;
+			this.stroke = state.stroke;
+		}
+
+		private void save() {
+			stack.push(new PaintState(this));
+			g2d = (Graphics2D) g2d.create();
+		}
+
+		private void restore() {
+			if (!stack.isEmpty()) {
+
+				g2d.dispose();
+
+				PaintState state = stack.pop();
+				g2d = state.g2d;
+				fillColor = state.fillColor;
+				strokeColor = state.strokeColor;
+				stroke = state.stroke;
+
+			}
+		}
+
+		private void dispose() {
+			while (!stack.isEmpty()) {
+				restore();
+			}
+			g2d.dispose();
+		}
+
+	}
+
+	private static abstract class PageOperation {
+
+		protected abstract void paint(PaintState state);
+
+	}
+
+	private static class SaveStateOperation extends PageOperation {
+
+		@Override
+		protected void paint(PaintState state) {
+			state.save();
+		}
+
+	}
+
+	private static class RestoreStateOperation extends PageOperation {
+
+		@Override
+		protected void paint(PaintState state) {
+			state.restore();
+		}
+
+	}
+
+	private static class FillColorOperation extends PageOperation {
+
+		private final Color color;
+
+		private FillColorOperation(Color color) {
+			this.color = color;
+		}
+
+		@Override
+		protected void paint(PaintState state) {
+			state.fillColor = color;
+		}
+
+	}
+
+	private static class StrokeColorOperation extends PageOperation {
+
+		private final Color color;
+
+		private StrokeColorOperation(Color color) {
+			this.color = color;
+		}
+
+		@Override
+		protected void paint(PaintState state) {
+			state.strokeColor = color;
+		}
+
+	}
+
+	private static class StrokeOperation extends PageOperation {
+
+		private final BasicStroke stroke;
+
+		private StrokeOperation(BasicStroke stroke) {
+			this.stroke = stroke;
+		}
+
+		@Override
+		protected void paint(PaintState state) {
+			state.stroke = stroke;
+		}
+
+	}
+
+	private static class ClipOperation extends PageOperation {
+
+		private final Rectangle2D rect;
+
+		private ClipOperation(Rectangle2D rect) {
+			this.rect = rect;
+		}
+
+		@Override
+		protected void paint(PaintState state) {
+			state.g2d.clip(rect);
+		}
+
+	}
+
+	private static class FillOperation extends PageOperation {
+
+		private final Shape shape;
+
+		private FillOperation(Shape shape) {
+			this.shape = shape;
+		}
+
+		@Override
+		protected void paint(PaintState state) {
+			state.g2d.setColor(state.fillColor);
+			state.g2d.fill(shape);
+		}
+
+	}
+
+	private static class DrawOperation extends PageOperation {
+
+		private final Shape shape;
+
+		private DrawOperation(Shape shape) {
+			this.shape = shape;
+		}
+
+		@Override
+		protected void paint(PaintState state) {
+			state.g2d.setColor(state.strokeColor);
+			state.g2d.setStroke(state.stroke);
+			state.g2d.draw(shape);
+		}
+
+	}
+
+	private static class ImageOperation extends PageOperation {
+
+		private final BufferedImage image;
+		private final AffineTransform transform;
+
+		private ImageOperation(BufferedImage image, AffineTransform transform) {
+			this.image = image;
+			this.transform = transform;
+		}
+
+		@Override
+		protected void paint(PaintState state) {
+			state.g2d.drawImage(image, transform, null);
+		}
+
+	}
+
+	private static class StringOperation extends PageOperation {
+
+		private final String text;
+		private final float x;
+		private final float y;
+		private final Font font;
+		private final float fontAngle;
+
+		private StringOperation(String text, float x, float y, Font font, float fontAngle) {
+			this.text = text;
+			this.x = x;
+			this.y = y;
+			this.font = font;
+			this.fontAngle = fontAngle;
+		}
+
+		@Override
+		protected void paint(PaintState state) {
+
+			state.g2d.setColor(state.fillColor);
+			state.g2d.setFont(font);
+
+			if (fontAngle != 0.0F) {
+
+				Graphics2D g2d = (Graphics2D) state.g2d.create();
+				g2d.translate(x, y);
+				g2d.shear(-fontAngle, 0.0);
+				g2d.drawString(text, 0.0F, 0.0F);
+				g2d.dispose();
+
+			} else {
+				state.g2d.drawString(text, x, y);
+			}
+
+		}
+
+	}
+
+}
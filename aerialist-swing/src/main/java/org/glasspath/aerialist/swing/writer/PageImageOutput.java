@@ -0,0 +1,79 @@
+/*
+ * This file is part of Glasspath Aerialist.
+ * Copyright (C) 2011 - 2022 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.aerialist.swing.writer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.glasspath.aerialist.writer.sink.DocumentSink;
+
+// Receives the rendered pages of a BufferedImageDocumentWriter, pages are written from the worker
+// threads of the writer so implementations must be thread safe and can receive pages out of order
+public abstract class PageImageOutput {
+
+	public PageImageOutput() {
+
+	}
+
+	// Page indexes start at 0
+	public abstract DocumentSink getPageSink(int pageIndex, ImageFormat imageFormat) throws IOException;
+
+	// Can be overridden to keep the image (for thumbnails for example) instead of encoding it
+	public void writePage(int pageIndex, BufferedImage image, ImageFormat imageFormat) throws IOException {
+
+		DocumentSink sink = getPageSink(pageIndex, imageFormat);
+
+		boolean written = false;
+		OutputStream outputStream = sink.open();
+		try {
+			if (!ImageIO.write(image, imageFormat.stringValue, outputStream)) {
+				throw new IOException("No image writer found for format: " + imageFormat.stringValue); //$NON-NLS-1$
+			}
+			written = true;
+		} finally {
+			outputStream.close();
+			if (!written) {
+				sink.abort();
+			}
+		}
+
+		sink.commit();
+
+	}
+
+	// Pages are written to files named prefix-1.png, prefix-2.png etc.
+	public static PageImageOutput toDirectory(File directory, String prefix) {
+		return new PageImageOutput() {
+
+			@Override
+			public DocumentSink getPageSink(int pageIndex, ImageFormat imageFormat) throws IOException {
+				return DocumentSink.toFile(new File(directory, prefix + "-" + (pageIndex + 1) + "." + imageFormat.extension)); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		};
+	}
+
+}